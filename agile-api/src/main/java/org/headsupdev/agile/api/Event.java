@@ -20,6 +20,7 @@ package org.headsupdev.agile.api;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 import java.io.Serializable;
 
 /**
@@ -56,4 +57,12 @@ public interface Event
     List<MenuLink> getLinks();
 
     boolean shouldNotify( User user );
+
+    /**
+     * The users that may want to be notified of this event, such as watchers or project subscribers.
+     * Only these users are passed to shouldNotify when sending subscription emails.
+     *
+     * @return the users to check or null if every user should be checked
+     */
+    Set<User> getInterestedUsers();
 }
@@ -37,6 +37,25 @@ public class MailUtil
 {
     public static void sendEmail( String to, String from, String subject, String body, String host,
                                   String username, String password, boolean secure )
+    {
+        Session session = getSession( host, username, password, secure );
+
+        try {
+            Message message = createMessage( session, to, from, subject, body );
+            Transport.send(message, new InternetAddress[]{new InternetAddress(to)});
+        }
+        catch ( MessagingException e )
+        {
+            Manager.getLogger( MailUtil.class.getName() ).error( "Error sending email", e );
+        }
+
+    }
+
+    /**
+     * Get a mail session for the server specified. To send a number of emails over one connection get a transport
+     * from this session and pass messages from createMessage to it.
+     */
+    public static Session getSession( String host, String username, String password, boolean secure )
     {
         Properties mailProps = new Properties();
         mailProps.setProperty( "mail.transport.protocol", "smtp" );
@@ -71,25 +90,23 @@ public class MailUtil
 
             mailProps.setProperty( "mail.smtp.auth", "true" );
         }
-        Session session = Session.getDefaultInstance( mailProps, mailAuth );
-        Message message = new MimeMessage( session );
-
-        try {
+        return Session.getDefaultInstance( mailProps, mailAuth );
+    }
 
-            message.setFrom( new InternetAddress( from ) );
-            message.setSubject( subject );
+    public static Message createMessage( Session session, String to, String from, String subject, String body )
+        throws MessagingException
+    {
+        Message message = new MimeMessage( session );
 
-            // some more headers to reduce spam probability
-            message.setHeader( "To", to );
+        message.setFrom( new InternetAddress( from ) );
+        message.setSubject( subject );
 
-            message.setContent( body, "text/html" );
-            Transport.send(message, new InternetAddress[]{new InternetAddress(to)});
-        }
-        catch ( MessagingException e )
-        {
-            Manager.getLogger( MailUtil.class.getName() ).error( "Error sending email", e );
-        }
+        // some more headers to reduce spam probability
+        message.setHeader( "To", to );
 
+        message.setContent( body, "text/html" );
+        message.saveChanges();
+        return message;
     }
 }
 
@@ -18,21 +18,28 @@
 
 package org.headsupdev.agile.app.admin;
 
-import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.api.Permission;
 import org.headsupdev.agile.security.permission.AdminPermission;
-import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.storage.backup.BackupManifest;
+import org.headsupdev.agile.storage.backup.DatabaseBackup;
 import org.headsupdev.agile.web.HeadsUpPage;
 import org.headsupdev.agile.web.MountPoint;
+import org.headsupdev.agile.web.components.FormattedDateModel;
 import org.apache.wicket.markup.html.CSSPackageResource;
 import org.apache.wicket.markup.html.basic.Label;
-import org.hibernate.jdbc.Work;
+import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.LoadableDetachableModel;
 
-import java.sql.Connection;
-import java.sql.SQLException;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.TimeZone;
 
 /**
- * Export database page
+ * Export database page - lists the backups that have been made and allows them to be imported.
+ * Backups are written by DatabaseBackup so they can be loaded into any supported database.
  *
  * @author Andrew Williams
  * @version $Id$
@@ -52,22 +59,71 @@ public class Export
         super.layout();
         add( CSSPackageResource.getHeaderContribution( getClass(), "admin.css" ) );
 
-        final String exportScript = Manager.getStorageInstance().getDataDirectory() + "/agile-export.sql";
-        add( new Label( "location", exportScript ) );
+        final DatabaseBackup backup = DatabaseBackup.getInstance();
+        String status;
+        if ( backup.isRunning() )
+        {
+            status = "The database is being exported or imported, the progress is shown in the task list.";
+        }
+        else if ( backup.getStatus() != null )
+        {
+            status = backup.getStatus();
+        }
+        else
+        {
+            status = "Export the database to a backup that can be imported into this or another installation.";
+        }
+        add( new Label( "status", status ) );
+        add( new Label( "location", DatabaseBackup.getBackupDirectory().getAbsolutePath() ) );
+
+        add( new Link( "export" )
+        {
+            public void onClick()
+            {
+                backup.startExport();
+                setResponsePage( Export.class );
+            }
+        }.setEnabled( !backup.isRunning() ) );
 
-        new Thread()
+        final TimeZone timeZone = getSession().getTimeZone();
+        add( new ListView<BackupManifest>( "backups", new LoadableDetachableModel<List<BackupManifest>>()
+        {
+            protected List<BackupManifest> load()
+            {
+                return backup.getBackups();
+            }
+        } )
         {
-            @Override
-            public void run() {
-                HibernateUtil.getCurrentSession().doWork( new Work()
+            protected void populateItem( ListItem<BackupManifest> listItem )
+            {
+                BackupManifest manifest = listItem.getModelObject();
+                final String name = manifest.getName();
+
+                listItem.add( new Label( "name", name ) );
+                listItem.add( new Label( "created", new FormattedDateModel( manifest.getCreated(), timeZone ) ) );
+                listItem.add( new Label( "database", manifest.getDatabase() ) );
+                listItem.add( new Label( "version", manifest.getProductVersion() ) );
+                listItem.add( new Label( "rows", String.valueOf( manifest.getRowCount() ) ) );
+
+                listItem.add( new Link( "import" )
                 {
-                    public void execute( Connection connection ) throws SQLException
+                    public void onClick()
                     {
-                        connection.prepareStatement( "SCRIPT TO '" + exportScript + "'" ).execute();
+                        try
+                        {
+                            backup.startImport( BackupManifest.read( new File( DatabaseBackup.getBackupDirectory(),
+                                name ) ) );
+                        }
+                        catch ( IOException e )
+                        {
+                            error( "Unable to read backup " + name + ": " + e.getMessage() );
+                            return;
+                        }
+                        setResponsePage( Export.class );
                     }
-                } );
+                }.setEnabled( !backup.isRunning() ) );
             }
-        }.start();
+        } );
     }
 
     @Override
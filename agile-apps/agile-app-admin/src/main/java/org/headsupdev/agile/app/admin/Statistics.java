@@ -19,14 +19,22 @@
 package org.headsupdev.agile.app.admin;
 
 import org.headsupdev.agile.api.HeadsUpConfiguration;
+import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.api.Permission;
+import org.headsupdev.agile.core.DefaultManager;
+import org.headsupdev.agile.core.notifiers.NotificationDispatcher;
+import org.headsupdev.agile.storage.CacheStatistics;
 import org.headsupdev.agile.storage.HibernateUtil;
 import org.headsupdev.agile.web.components.FormattedDurationModel;
 import org.headsupdev.agile.web.components.FormattedSizeModel;
 import org.headsupdev.agile.web.HeadsUpPage;
 import org.headsupdev.agile.web.MountPoint;
 import org.headsupdev.agile.security.permission.AdminPermission;
+import org.apache.wicket.AttributeModifier;
 import org.apache.wicket.markup.html.CSSPackageResource;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.Model;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.hibernate.Session;
@@ -36,6 +44,7 @@ import java.io.StringWriter;
 import java.lang.management.ManagementFactory;
 import java.lang.management.OperatingSystemMXBean;
 import java.lang.management.RuntimeMXBean;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -120,6 +129,42 @@ public class Statistics
         add( new Label( "idle", String.valueOf( HibernateUtil.getStatistics().getIdleConnections() ) ) );
         add( new Label( "maxIdle", String.valueOf( HibernateUtil.getStatistics().getMaximumIdleConnections() ) ) );
 
+        // cache stats
+        CacheStatistics cache = HibernateUtil.getCacheStatistics();
+        add( new Label( "entityHits", String.valueOf( cache.getEntityHits() ) ) );
+        add( new Label( "entityMisses", String.valueOf( cache.getEntityMisses() ) ) );
+        add( new Label( "entityRatio", CacheStatistics.getHitPercentage( cache.getEntityHits(),
+                cache.getEntityMisses() ) + "%" ) );
+        add( new Label( "queryHits", String.valueOf( cache.getQueryHits() ) ) );
+        add( new Label( "queryMisses", String.valueOf( cache.getQueryMisses() ) ) );
+        add( new Label( "queryRatio", CacheStatistics.getHitPercentage( cache.getQueryHits(),
+                cache.getQueryMisses() ) + "%" ) );
+        add( new Label( "cacheElements", String.valueOf( cache.getElementCount() ) ) );
+        add( new Label( "cacheRegions", String.valueOf( cache.getRegionCount() ) ) );
+
+        // notification stats
+        List<NotificationDispatcher.LaneStatistics> lanes =
+            ( (DefaultManager) Manager.getInstance() ).getNotificationDispatcher().getStatistics();
+        add( new ListView<NotificationDispatcher.LaneStatistics>( "lanes", lanes )
+        {
+            protected void populateItem( ListItem<NotificationDispatcher.LaneStatistics> listItem )
+            {
+                NotificationDispatcher.LaneStatistics lane = listItem.getModelObject();
+                listItem.add( new AttributeModifier( "class", true, new Model<String>(
+                    listItem.getIndex() % 2 == 0 ? "odd" : "even" ) ) );
+
+                listItem.add( new Label( "name", lane.getName() ) );
+                listItem.add( new Label( "queued", String.valueOf( lane.getQueued() ) ) );
+                listItem.add( new Label( "running", String.valueOf( lane.getActive() ) ) );
+                listItem.add( new Label( "delivered", String.valueOf( lane.getDelivered() ) ) );
+                listItem.add( new Label( "retried", String.valueOf( lane.getRetried() ) ) );
+                listItem.add( new Label( "failed", String.valueOf( lane.getFailed() ) ) );
+                listItem.add( new Label( "dropped", String.valueOf( lane.getDropped() ) ) );
+                listItem.add( new Label( "averageTime", lane.getAverageTime() + "ms" ) );
+                listItem.add( new Label( "maxTime", lane.getMaxTime() + "ms" ) );
+            }
+        } );
+
         add( new Label( "sessions", getSessionStacks() ).setEscapeModelStrings( false ).setVisible(
                 HeadsUpConfiguration.isDebug()
         ) );
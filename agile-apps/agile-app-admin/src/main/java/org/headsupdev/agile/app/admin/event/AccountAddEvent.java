@@ -25,6 +25,7 @@ import org.headsupdev.agile.web.AbstractEvent;
 import org.headsupdev.agile.api.User;
 import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.storage.EventBodyCache;
 
 import javax.persistence.Entity;
 import javax.persistence.DiscriminatorValue;
@@ -78,6 +79,7 @@ public class AccountAddEvent
         User user = Manager.getSecurityInstance().getUserByUsername( getObjectId() );
         if ( user == null )
         {
+            EventBodyCache.renderFailed();
             return "<p>User " + getObjectId() + " could not be found</p>";
         }
 
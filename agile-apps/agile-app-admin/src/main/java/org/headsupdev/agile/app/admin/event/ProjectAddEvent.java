@@ -26,6 +26,7 @@ import org.headsupdev.agile.web.AbstractEvent;
 import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.api.MavenTwoProject;
 import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.storage.EventBodyCache;
 import org.headsupdev.agile.storage.StoredProject;
 
 import javax.persistence.Entity;
@@ -91,6 +92,7 @@ public class ProjectAddEvent
         Project project = getProject();
         if ( project == null || project.equals( StoredProject.getDefault() ) )
         {
+            EventBodyCache.renderFailed();
             return "<p>Project could not be found</p>";
         }
 
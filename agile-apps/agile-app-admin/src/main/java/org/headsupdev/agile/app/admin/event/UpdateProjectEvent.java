@@ -23,6 +23,7 @@ import org.headsupdev.agile.web.RenderUtil;
 import org.headsupdev.agile.web.AbstractEvent;
 import org.headsupdev.agile.web.components.ProjectDetailsPanel;
 import org.headsupdev.agile.web.components.MavenTwoProjectDetailsPanel;
+import org.headsupdev.agile.storage.EventBodyCache;
 import org.headsupdev.agile.storage.StoredProject;
 
 import javax.persistence.Entity;
@@ -88,6 +89,7 @@ public class UpdateProjectEvent
         Project project = getProject();
         if ( project == null || project.equals( StoredProject.getDefault() ) )
         {
+            EventBodyCache.renderFailed();
             return "<p>Project could not be found</p>";
         }
 
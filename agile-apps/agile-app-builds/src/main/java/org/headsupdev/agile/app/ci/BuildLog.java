@@ -0,0 +1,463 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.ci;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Access to the output of a build without loading it all into memory.
+ * A sparse index of line offsets is kept for recently viewed logs so pages of lines can be read directly from the
+ * file, and running builds extend the index as the log grows. Older logs are compressed once a build completes and
+ * are then read by streaming through the compressed data.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class BuildLog
+{
+    public static final int LINES_PER_PAGE = 500;
+
+    private static final int KEEP_UNCOMPRESSED = 5;
+    private static final int INDEX_INTERVAL = 100;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CACHED_INDEXES = 20;
+    private static final byte[] ERROR_PATTERN = "ERROR".getBytes();
+
+    private static final Map<String, LineIndex> indexes = new LinkedHashMap<String, LineIndex>( 16, 0.75f, true )
+    {
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, LineIndex> eldest )
+        {
+            return size() > CACHED_INDEXES;
+        }
+    };
+
+    private File file;
+    private boolean compressed;
+
+    public BuildLog( Project project, long buildId )
+    {
+        File dir = CIApplication.getProjectDir( project );
+        file = new File( dir, buildId + ".txt" );
+
+        File gzipped = new File( dir, buildId + ".txt.gz" );
+        if ( !file.exists() && gzipped.exists() )
+        {
+            file = gzipped;
+            compressed = true;
+        }
+    }
+
+    public boolean exists()
+    {
+        return file.exists();
+    }
+
+    public boolean isCompressed()
+    {
+        return compressed;
+    }
+
+    /**
+     * @return the length of the (uncompressed) log in bytes
+     */
+    public long getLength()
+        throws IOException
+    {
+        if ( compressed )
+        {
+            return getIndex().length;
+        }
+
+        return file.length();
+    }
+
+    public int getLineCount()
+        throws IOException
+    {
+        return getIndex().lines;
+    }
+
+    /**
+     * @return the index of the first line containing "ERROR", or -1 if there were none
+     */
+    public int getFirstErrorLine()
+        throws IOException
+    {
+        return getIndex().firstError;
+    }
+
+    /**
+     * Read a number of lines from the log.
+     *
+     * @param first The index of the first line to read, starting from 0
+     * @param count The maximum number of lines to return
+     * @return the text of the lines requested
+     */
+    public String getLines( int first, int count )
+        throws IOException
+    {
+        return readLines( first, count ).getText();
+    }
+
+    /**
+     * Read a number of lines from the log along with the offset just past the last byte read, which can be passed to
+     * readFrom to follow any output written after these lines.
+     *
+     * @param first The index of the first line to read, starting from 0
+     * @param count The maximum number of lines to return
+     * @return the text of the lines requested and the offset that follows them
+     */
+    public Range readLines( int first, int count )
+        throws IOException
+    {
+        LineIndex index = getIndex();
+        first = Math.max( 0, first );
+        if ( first >= index.lines )
+        {
+            return new Range( "", index.length );
+        }
+
+        long position = index.getOffset( first );
+        InputStream in = openStream( position );
+        try
+        {
+            // skip from the indexed line to the one requested
+            int skip = first % INDEX_INTERVAL;
+            while ( skip > 0 )
+            {
+                int b = in.read();
+                if ( b == -1 )
+                {
+                    return new Range( "", position );
+                }
+                position++;
+                if ( b == '\n' )
+                {
+                    skip--;
+                }
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int b;
+            while ( count > 0 && ( b = in.read() ) != -1 )
+            {
+                out.write( b );
+                position++;
+                if ( b == '\n' )
+                {
+                    count--;
+                }
+            }
+
+            return new Range( out.toString(), position );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Read new output from a position in the log, used to follow a running build.
+     * Only complete lines are returned so that a line is not split between two reads, unless a single line is longer
+     * than maxBytes in which case the part read is returned so following the log does not stall.
+     *
+     * @param offset The byte offset to read from
+     * @param maxBytes The most bytes to return
+     * @return the text read and the offset to continue reading from
+     */
+    public Range readFrom( long offset, int maxBytes )
+        throws IOException
+    {
+        if ( compressed || offset >= file.length() )
+        {
+            return new Range( "", offset );
+        }
+
+        FileChannel channel = new FileInputStream( file ).getChannel();
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.allocate( (int) Math.min( maxBytes, channel.size() - offset ) );
+            while ( buffer.hasRemaining() && channel.read( buffer, offset + buffer.position() ) > 0 )
+            {
+                // keep reading
+            }
+
+            int end = buffer.position();
+            while ( end > 0 && buffer.get( end - 1 ) != '\n' )
+            {
+                end--;
+            }
+            if ( end == 0 && buffer.position() == maxBytes )
+            {
+                end = maxBytes;
+            }
+
+            return new Range( new String( buffer.array(), 0, end ), offset + end );
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Open a stream over the uncompressed log starting from the offset specified.
+     */
+    public InputStream openStream( long offset )
+        throws IOException
+    {
+        if ( compressed )
+        {
+            InputStream in = new BufferedInputStream( new GZIPInputStream( new FileInputStream( file ), BUFFER_SIZE ),
+                BUFFER_SIZE );
+            while ( offset > 0 )
+            {
+                long skipped = in.skip( offset );
+                if ( skipped <= 0 )
+                {
+                    break;
+                }
+                offset -= skipped;
+            }
+            return in;
+        }
+
+        FileChannel channel = new FileInputStream( file ).getChannel();
+        channel.position( offset );
+        return new BufferedInputStream( Channels.newInputStream( channel ), BUFFER_SIZE );
+    }
+
+    private LineIndex getIndex()
+        throws IOException
+    {
+        String key = file.getAbsolutePath();
+        LineIndex index;
+        synchronized ( indexes )
+        {
+            index = indexes.get( key );
+            if ( index == null || ( !compressed && file.length() < index.length ) )
+            {
+                index = new LineIndex();
+                indexes.put( key, index );
+            }
+        }
+
+        synchronized ( index )
+        {
+            if ( index.length == 0 || ( !compressed && file.length() > index.length ) )
+            {
+                index.extend( openStream( index.length ) );
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Compress the logs of all but the most recent builds for a project.
+     *
+     * @param project The project to compress logs for
+     */
+    public static void compressOldLogs( Project project )
+    {
+        File[] logs = CIApplication.getProjectDir( project ).listFiles( new FilenameFilter()
+        {
+            public boolean accept( File dir, String name )
+            {
+                return name.matches( "[0-9]+\\.txt" );
+            }
+        } );
+        if ( logs == null || logs.length <= KEEP_UNCOMPRESSED )
+        {
+            return;
+        }
+
+        Arrays.sort( logs, new Comparator<File>()
+        {
+            public int compare( File file1, File file2 )
+            {
+                return Long.valueOf( getBuildId( file2 ) ).compareTo( getBuildId( file1 ) );
+            }
+        } );
+
+        for ( int i = KEEP_UNCOMPRESSED; i < logs.length; i++ )
+        {
+            try
+            {
+                compress( logs[i] );
+            }
+            catch ( IOException e )
+            {
+                Manager.getLogger( BuildLog.class.getName() ).error( "Unable to compress build log " + logs[i], e );
+            }
+        }
+    }
+
+    private static long getBuildId( File log )
+    {
+        String name = log.getName();
+        return Long.parseLong( name.substring( 0, name.indexOf( '.' ) ) );
+    }
+
+    private static void compress( File log )
+        throws IOException
+    {
+        File tmp = new File( log.getParentFile(), log.getName() + ".gz.tmp" );
+        InputStream in = new FileInputStream( log );
+        OutputStream out = new GZIPOutputStream( new FileOutputStream( tmp ), BUFFER_SIZE );
+        try
+        {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ( ( read = in.read( buffer ) ) != -1 )
+            {
+                out.write( buffer, 0, read );
+            }
+        }
+        finally
+        {
+            in.close();
+            out.close();
+        }
+
+        if ( !tmp.renameTo( new File( log.getParentFile(), log.getName() + ".gz" ) ) )
+        {
+            tmp.delete();
+            throw new IOException( "Unable to rename " + tmp );
+        }
+        log.delete();
+
+        synchronized ( indexes )
+        {
+            indexes.remove( log.getAbsolutePath() );
+        }
+    }
+
+    /**
+     * A piece of text read from a log and the offset that follows it.
+     */
+    public static class Range
+        implements Serializable
+    {
+        private String text;
+        private long next;
+
+        Range( String text, long next )
+        {
+            this.text = text;
+            this.next = next;
+        }
+
+        public String getText()
+        {
+            return text;
+        }
+
+        public long getNext()
+        {
+            return next;
+        }
+    }
+
+    /**
+     * The offset of every INDEX_INTERVAL'th line along with the line count and first error in a log.
+     */
+    private static class LineIndex
+    {
+        private long[] offsets = new long[16];
+        private int lines, firstError = -1, errorMatch;
+        private long length;
+        private boolean lineStarted;
+
+        long getOffset( int line )
+        {
+            return offsets[line / INDEX_INTERVAL];
+        }
+
+        void extend( InputStream in )
+            throws IOException
+        {
+            try
+            {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ( ( read = in.read( buffer ) ) != -1 )
+                {
+                    for ( int i = 0; i < read; i++ )
+                    {
+                        byte b = buffer[i];
+                        if ( !lineStarted )
+                        {
+                            lineStarted = true;
+                            if ( lines % INDEX_INTERVAL == 0 )
+                            {
+                                int slot = lines / INDEX_INTERVAL;
+                                if ( slot == offsets.length )
+                                {
+                                    offsets = Arrays.copyOf( offsets, offsets.length * 2 );
+                                }
+                                offsets[slot] = length + i;
+                            }
+                            lines++;
+                        }
+
+                        if ( b == '\n' )
+                        {
+                            lineStarted = false;
+                            errorMatch = 0;
+                            continue;
+                        }
+
+                        if ( firstError == -1 )
+                        {
+                            if ( b == ERROR_PATTERN[errorMatch] )
+                            {
+                                errorMatch++;
+                                if ( errorMatch == ERROR_PATTERN.length )
+                                {
+                                    firstError = lines - 1;
+                                }
+                            }
+                            else
+                            {
+                                errorMatch = b == ERROR_PATTERN[0] ? 1 : 0;
+                            }
+                        }
+                    }
+                    length += read;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+    }
+}
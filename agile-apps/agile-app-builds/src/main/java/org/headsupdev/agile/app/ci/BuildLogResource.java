@@ -0,0 +1,181 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.ci;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.app.ci.permission.BuildViewPermission;
+import org.headsupdev.agile.web.MountPoint;
+import org.headsupdev.agile.web.WebUtil;
+import org.apache.wicket.RequestCycle;
+import org.apache.wicket.markup.html.WebResource;
+import org.apache.wicket.protocol.http.WebRequest;
+import org.apache.wicket.protocol.http.WebResponse;
+import org.apache.wicket.util.resource.AbstractResourceStream;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.ResourceStreamNotFoundException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Serves the output of a build as plain text, streamed from the log file.
+ * The optional "offset" and "length" parameters select a byte range of the uncompressed log.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+@MountPoint( "log.txt" )
+public class BuildLogResource
+    extends WebResource
+{
+    @Override
+    protected void setHeaders( WebResponse response )
+    {
+        super.setHeaders( response );
+
+        WebUtil.authenticate( (WebRequest) RequestCycle.get().getRequest(), response, new BuildViewPermission(),
+                getProject() );
+    }
+
+    protected Project getProject()
+    {
+        String projectId = getParameters().getString( "project" );
+        if ( projectId == null || projectId.length() == 0 )
+        {
+            return null;
+        }
+
+        return Manager.getStorageInstance().getProject( projectId );
+    }
+
+    @Override
+    public IResourceStream getResourceStream()
+    {
+        final BuildLog log = new BuildLog( getProject(), getParameters().getLong( "id" ) );
+        final long offset = Math.max( 0, getParameters().getLong( "offset", 0 ) );
+        final long length = getParameters().getLong( "length", -1 );
+
+        return new AbstractResourceStream()
+        {
+            private InputStream in;
+
+            @Override
+            public String getContentType()
+            {
+                return "text/plain";
+            }
+
+            @Override
+            public long length()
+            {
+                try
+                {
+                    long remaining = Math.max( 0, log.getLength() - offset );
+                    if ( length >= 0 )
+                    {
+                        return Math.min( length, remaining );
+                    }
+                    return remaining;
+                }
+                catch ( IOException e )
+                {
+                    return -1;
+                }
+            }
+
+            public InputStream getInputStream()
+                throws ResourceStreamNotFoundException
+            {
+                if ( !log.exists() )
+                {
+                    throw new ResourceStreamNotFoundException( "No output found for build" );
+                }
+
+                try
+                {
+                    in = new LimitedInputStream( log.openStream( offset ), length() );
+                }
+                catch ( IOException e )
+                {
+                    throw new ResourceStreamNotFoundException( e );
+                }
+                return in;
+            }
+
+            public void close()
+                throws IOException
+            {
+                if ( in != null )
+                {
+                    in.close();
+                    in = null;
+                }
+            }
+        };
+    }
+
+    private static class LimitedInputStream
+        extends FilterInputStream
+    {
+        private long remaining;
+
+        LimitedInputStream( InputStream in, long remaining )
+        {
+            super( in );
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read()
+            throws IOException
+        {
+            if ( remaining <= 0 )
+            {
+                return -1;
+            }
+
+            int ret = super.read();
+            if ( ret != -1 )
+            {
+                remaining--;
+            }
+            return ret;
+        }
+
+        @Override
+        public int read( byte[] buffer, int off, int len )
+            throws IOException
+        {
+            if ( remaining <= 0 )
+            {
+                return -1;
+            }
+
+            int ret = super.read( buffer, off, (int) Math.min( len, remaining ) );
+            if ( ret > 0 )
+            {
+                remaining -= ret;
+            }
+            return ret;
+        }
+    }
+}
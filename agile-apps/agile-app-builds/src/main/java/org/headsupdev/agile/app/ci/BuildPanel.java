@@ -61,6 +61,10 @@ public class BuildPanel
         add( new Label( "start", new FormattedDateModel( build.getStartTime(),
                 ( (HeadsUpSession) getSession() ).getTimeZone() ) ) );
         add( new Label( "duration", new FormattedDurationModel( build.getStartTime(), build.getEndTime() ) ) );
+        add( new Label( "phases", "workspace " + FormattedDurationModel.parseDuration( build.getPrepareTime(), false ) +
+                ", build " + FormattedDurationModel.parseDuration( build.getBuildTime(), false ) +
+                ", cleanup " + FormattedDurationModel.parseDuration( build.getCleanupTime(), false ) )
+                .setVisible( build.getBuildTime() > 0 ) );
 
         PageParameters params = new PageParameters();
         params.add( "project", build.getProject().getId() );
@@ -37,6 +37,7 @@ import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.api.Permission;
 import org.apache.wicket.markup.html.CSSPackageResource;
 import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.apache.wicket.markup.html.link.BookmarkablePageLink;
@@ -48,6 +49,8 @@ import org.hibernate.Session;
 import org.hibernate.Transaction;
 
 import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
 
 /**
  * Continuous integration home page
@@ -70,6 +73,7 @@ public class CI
         }
 
         renderTopLinks( projectList );
+        renderExecutors( projectList );
 
         WebMarkupContainer builds = new WebMarkupContainer( "buildlist" );
         if ( projectList )
@@ -213,6 +217,38 @@ public class CI
         }
     }
 
+    void renderExecutors( boolean projectList )
+    {
+        WebMarkupContainer executors = new WebMarkupContainer( "executors" );
+        add( executors.setVisible( projectList ) );
+
+        CIBuildStatistics stats = CIBuilder.getStatistics();
+        executors.add( new Label( "active", String.valueOf( stats.getActiveExecutors() ) ) );
+        executors.add( new Label( "total", String.valueOf( stats.getExecutors() ) ) );
+        executors.add( new Label( "utilisation", stats.getUtilisation() + "%" ) );
+        executors.add( new Label( "queued", String.valueOf( CIBuilder.getQueueSize() ) ) );
+        executors.add( new Label( "builds", String.valueOf( stats.getBuildCount() ) ) );
+        executors.add( new Label( "averagewait", new FormattedDurationModel( stats.getAverageWait() ) ) );
+        executors.add( new Label( "maxwait", new FormattedDurationModel( stats.getMaxWait() ) ) );
+
+        final String[] labels = stats.getDurationLabels();
+        final long[] counts = stats.getDurationCounts();
+        List<Integer> buckets = new LinkedList<Integer>();
+        for ( int i = 0; i < labels.length; i++ )
+        {
+            buckets.add( i );
+        }
+        executors.add( new ListView<Integer>( "durations", buckets )
+        {
+            protected void populateItem( ListItem<Integer> listItem )
+            {
+                int bucket = listItem.getModelObject();
+                listItem.add( new Label( "range", labels[bucket] ) );
+                listItem.add( new Label( "count", String.valueOf( counts[bucket] ) ) );
+            }
+        } );
+    }
+
     private void renderBuild( final Build build, final Project project, final boolean projectList,
             final boolean queued, final ListItem listItem )
     {
@@ -374,7 +410,7 @@ public class CI
 
     protected void queueBuild( Project project )
     {
-        CIApplication.getBuilder().queueProject( project, false );
+        CIApplication.getBuilder().queueProject( project, false, CIQueuedBuild.PRIORITY_MANUAL );
     }
 
     protected void dequeueBuild( Project project )
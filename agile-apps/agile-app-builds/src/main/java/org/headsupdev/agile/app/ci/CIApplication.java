@@ -60,6 +60,15 @@ public class CIApplication
             "Set this to true if you wish every build to cause a notification, otherwise only failed " +
             "or newly passed builds will send notifications" );
 
+    public static final ConfigurationItem CONFIGURATION_BUILD_EXECUTORS = new ConfigurationItem( "build.executors",
+        2, "Build executors", "The number of builds that can run at the same time - builds of a single project " +
+        "will never run concurrently" );
+
+    public static final ConfigurationItem CONFIGURATION_REUSE_WORKSPACE = new ConfigurationItem( "workspace.reuse",
+        false, "Reuse build workspaces", "Keep a workspace for each project and only copy in the files that changed " +
+        "since the last build. This is faster for large projects but files created by a build will remain for the " +
+        "next one, leave this as false to copy the whole checkout for every build" );
+
     public static final ConfigurationItem CONFIGURATION_MAVEN_HOME = new ConfigurationItem( "maven.home",
         "", "Maven Home (not including /bin/mvn)", "Change this parameter if you wish to use a particular version of maven " +
         "or if your maven installation is not in the system path" );
@@ -172,12 +181,15 @@ public class CIApplication
         eventTypes.add( "buildsucceeded" );
 
         builder.setApplication( this );
+        builder.start();
         Manager.getInstance().addProjectListener( builder );
 
         globalItems.add( CONFIGURATION_MAVEN_HOME );
         globalItems.add( CONFIGURATION_ANT_HOME );
         globalItems.add( CONFIGURATION_ECLIPSE_HOME );
         globalItems.add( CONFIGURATION_NOTIFY_REPEAT_PASS );
+        globalItems.add( CONFIGURATION_BUILD_EXECUTORS );
+        globalItems.add( CONFIGURATION_REUSE_WORKSPACE );
 
         List<ConfigurationItem> items = new LinkedList<ConfigurationItem>();
         items.add( CONFIGURATION_MAVEN_GOALS );
@@ -281,6 +293,16 @@ public class CIApplication
         }
     }
 
+    @Override
+    public void stop( BundleContext bc )
+        throws Exception
+    {
+        super.stop( bc );
+
+        Manager.getInstance().removeProjectListener( builder );
+        builder.stop();
+    }
+
     public String getName()
     {
         return "Builds";
@@ -309,6 +331,12 @@ public class CIApplication
         return new Class[] { BuildFailedEvent.class, BuildSucceededEvent.class, UploadApplicationEvent.class };
     }
 
+    @Override
+    public Class[] getResources()
+    {
+        return new Class[]{ BuildLogResource.class };
+    }
+
     @Override
     public Class<? extends Page>[] getPages()
     {
@@ -0,0 +1,171 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.ci;
+
+import org.headsupdev.agile.api.Project;
+
+import java.util.*;
+
+/**
+ * The queue of pending builds. Each project has its own queue and projects take turns to be picked so one busy
+ * project cannot hold up the others. Only one build per project will be handed out at a time and duplicate
+ * requests for a project schedule are merged whilst they are waiting.
+ * Higher priority builds are picked first, but waiting builds gain a priority level every AGING_INTERVAL so
+ * that low priority builds are not starved on a busy server.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class CIBuildQueue
+{
+    public static final long AGING_INTERVAL = 1000 * 60 * 10;
+
+    private final Map<String, List<CIQueuedBuild>> queues = new HashMap<String, List<CIQueuedBuild>>();
+
+    private final LinkedList<String> rotation = new LinkedList<String>();
+
+    private final Set<String> building = new HashSet<String>();
+
+    private int size = 0;
+
+    /**
+     * Add a build to the queue.
+     *
+     * @param build The build request to add
+     * @return true if the build was queued, false if it was merged with a build that was already waiting
+     */
+    public synchronized boolean add( CIQueuedBuild build )
+    {
+        String projectId = build.getProject().getId();
+        List<CIQueuedBuild> queue = queues.get( projectId );
+        if ( queue == null )
+        {
+            queue = new LinkedList<CIQueuedBuild>();
+            queues.put( projectId, queue );
+            rotation.add( projectId );
+        }
+        else
+        {
+            for ( CIQueuedBuild queued : queue )
+            {
+                if ( queued.equals( build ) )
+                {
+                    queued.coalesce( build );
+                    return false;
+                }
+            }
+        }
+
+        queue.add( build );
+        size++;
+        return true;
+    }
+
+    /**
+     * Remove all waiting builds for a project - a build that has already started is not affected.
+     */
+    public synchronized void remove( Project project )
+    {
+        List<CIQueuedBuild> queue = queues.remove( project.getId() );
+        if ( queue != null )
+        {
+            rotation.remove( project.getId() );
+            size -= queue.size();
+        }
+    }
+
+    public synchronized boolean isQueued( Project project )
+    {
+        return queues.containsKey( project.getId() );
+    }
+
+    public synchronized boolean isBuilding( Project project )
+    {
+        return building.contains( project.getId() );
+    }
+
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * Take the next build to run, marking its project as building until finished( Project ) is called.
+     *
+     * @param now the current time, used for aging waiting builds
+     * @return the highest priority build for a project that is not currently building, or null if there is none
+     */
+    public synchronized CIQueuedBuild next( long now )
+    {
+        CIQueuedBuild next = null;
+        long nextPriority = Long.MIN_VALUE;
+        for ( String projectId : rotation )
+        {
+            if ( building.contains( projectId ) )
+            {
+                continue;
+            }
+
+            for ( CIQueuedBuild queued : queues.get( projectId ) )
+            {
+                // strictly greater so that earlier projects in the rotation win a tie
+                long priority = getEffectivePriority( queued, now );
+                if ( priority > nextPriority )
+                {
+                    next = queued;
+                    nextPriority = priority;
+                }
+            }
+        }
+
+        if ( next == null )
+        {
+            return null;
+        }
+
+        String projectId = next.getProject().getId();
+        List<CIQueuedBuild> queue = queues.get( projectId );
+        queue.remove( next );
+        size--;
+
+        rotation.remove( projectId );
+        if ( queue.isEmpty() )
+        {
+            queues.remove( projectId );
+        }
+        else
+        {
+            rotation.addLast( projectId );
+        }
+
+        building.add( projectId );
+        return next;
+    }
+
+    public synchronized void finished( Project project )
+    {
+        building.remove( project.getId() );
+    }
+
+    static long getEffectivePriority( CIQueuedBuild build, long now )
+    {
+        return build.getPriority() + Math.max( 0, now - build.getQueuedTime() ) / AGING_INTERVAL;
+    }
+}
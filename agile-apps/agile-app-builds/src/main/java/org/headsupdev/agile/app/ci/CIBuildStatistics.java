@@ -0,0 +1,146 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.ci;
+
+/**
+ * Running statistics for the CI build executors - utilisation, time spent in the queue and a histogram of
+ * build durations since the application started.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class CIBuildStatistics
+{
+    private static final long MINUTE = 1000 * 60;
+
+    private static final long[] DURATION_BUCKETS = { MINUTE, 5 * MINUTE, 15 * MINUTE, 30 * MINUTE, 60 * MINUTE };
+    private static final String[] DURATION_LABELS = { "< 1 min", "1 - 5 mins", "5 - 15 mins", "15 - 30 mins",
+            "30 - 60 mins", "> 60 mins" };
+
+    private final long started = System.currentTimeMillis();
+
+    private int executors = 1;
+    private int active = 0;
+    private long busyTime = 0;
+    private long lastChange = started;
+    private long capacityTime = 0;
+
+    private long builds = 0;
+    private long totalWait = 0;
+    private long maxWait = 0;
+
+    private final long[] durations = new long[DURATION_LABELS.length];
+
+    public synchronized void setExecutors( int executors )
+    {
+        accumulate( System.currentTimeMillis() );
+        this.executors = executors;
+    }
+
+    public synchronized int getExecutors()
+    {
+        return executors;
+    }
+
+    public synchronized int getActiveExecutors()
+    {
+        return active;
+    }
+
+    public synchronized void buildStarted( long waited )
+    {
+        accumulate( System.currentTimeMillis() );
+        active++;
+
+        builds++;
+        totalWait += waited;
+        maxWait = Math.max( maxWait, waited );
+    }
+
+    public synchronized void buildFinished( long duration )
+    {
+        accumulate( System.currentTimeMillis() );
+        active--;
+
+        int bucket = 0;
+        while ( bucket < DURATION_BUCKETS.length && duration >= DURATION_BUCKETS[bucket] )
+        {
+            bucket++;
+        }
+        durations[bucket]++;
+    }
+
+    /**
+     * @return the percentage of available executor time that has been spent building
+     */
+    public synchronized int getUtilisation()
+    {
+        accumulate( System.currentTimeMillis() );
+        if ( capacityTime == 0 )
+        {
+            return 0;
+        }
+
+        return (int) ( busyTime * 100 / capacityTime );
+    }
+
+    public synchronized long getBuildCount()
+    {
+        return builds;
+    }
+
+    public synchronized long getAverageWait()
+    {
+        if ( builds == 0 )
+        {
+            return 0;
+        }
+
+        return totalWait / builds;
+    }
+
+    public synchronized long getMaxWait()
+    {
+        return maxWait;
+    }
+
+    public String[] getDurationLabels()
+    {
+        return DURATION_LABELS;
+    }
+
+    public synchronized long[] getDurationCounts()
+    {
+        return durations.clone();
+    }
+
+    public long getStartTime()
+    {
+        return started;
+    }
+
+    private void accumulate( long now )
+    {
+        long elapsed = now - lastChange;
+        busyTime += elapsed * active;
+        capacityTime += elapsed * Math.max( executors, active );
+        lastChange = now;
+    }
+}
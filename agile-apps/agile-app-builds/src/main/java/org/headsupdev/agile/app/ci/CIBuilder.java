@@ -18,20 +18,26 @@
 
 package org.headsupdev.agile.app.ci;
 
-import org.headsupdev.support.java.FileUtil;
 import org.headsupdev.agile.api.logging.Logger;
 import org.headsupdev.agile.api.*;
 import org.headsupdev.agile.app.ci.event.BuildFailedEvent;
 import org.headsupdev.agile.app.ci.event.BuildSucceededEvent;
 import org.headsupdev.agile.app.ci.builders.BuildHandler;
+import org.headsupdev.agile.app.ci.workspace.CopyWorkspaceProvider;
+import org.headsupdev.agile.app.ci.workspace.IncrementalWorkspaceProvider;
+import org.headsupdev.agile.app.ci.workspace.ParallelFileCopier;
+import org.headsupdev.agile.app.ci.workspace.WorkspaceProvider;
 import org.headsupdev.agile.storage.HibernateStorage;
 import org.headsupdev.agile.storage.ci.Build;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
- * The main CI thread that runs the builds
+ * The CI scheduler that runs the builds. Queued builds are handed out fairly across projects to a configurable
+ * number of executors - see CIBuildQueue for the ordering.
  *
  * @author Andrew Williams
  * @version $Id$
@@ -40,9 +46,18 @@ import java.util.*;
 public class CIBuilder
     implements ProjectListener
 {
-    private static final List<CIQueuedBuild> pendingBuilds = new LinkedList<CIQueuedBuild>();
+    private static final CIBuildQueue pendingBuilds = new CIBuildQueue();
 
-    private static boolean building = false;
+    private static final CIBuildStatistics statistics = new CIBuildStatistics();
+
+    // created in start() so the builder can be started again after the application is stopped
+    private ExecutorService executor;
+
+    private ParallelFileCopier copier;
+    private volatile WorkspaceProvider copyWorkspaces;
+    private volatile WorkspaceProvider incrementalWorkspaces;
+
+    private int activeBuilds = 0;
 
     private CIApplication application;
 
@@ -54,26 +69,31 @@ public class CIBuilder
     }
 
     public void queueProject( Project project, boolean notify )
+    {
+        queueProject( project, notify, CIQueuedBuild.PRIORITY_COMMIT );
+    }
+
+    public void queueProject( Project project, boolean notify, int priority )
     {
         PropertyTree config = Manager.getStorageInstance().getGlobalConfiguration().
                 getApplicationConfigurationForProject( CIApplication.ID, project ).getSubTree( "schedule.default" );
-        queueProject( project, "default", config, notify );
+        queueProject( project, "default", config, notify, priority );
     }
 
     public void queueProject( Project project, String id, PropertyTree config, boolean notify )
+    {
+        queueProject( project, id, config, notify, CIQueuedBuild.PRIORITY_COMMIT );
+    }
+
+    public void queueProject( Project project, String id, PropertyTree config, boolean notify, int priority )
     {
         if ( !BuildHandler.supportsBuilding( project ) )
         {
             return;
         }
 
-        if ( !isProjectQueued( project ) )
+        if ( pendingBuilds.add( new CIQueuedBuild( project, id, config, notify, priority ) ) )
         {
-            synchronized ( pendingBuilds )
-            {
-                pendingBuilds.add( new CIQueuedBuild( project, id, config, notify ) );
-            }
-
             buildProjects();
         }
     }
@@ -85,19 +105,7 @@ public class CIBuilder
             return;
         }
 
-        synchronized( pendingBuilds )
-        {
-            Iterator<CIQueuedBuild> queue = pendingBuilds.iterator();
-            while ( queue.hasNext() )
-            {
-                CIQueuedBuild build = queue.next();
-
-                if ( build != null && build.getProject() != null && build.getProject().equals( project ) )
-                {
-                    queue.remove();
-                }
-            }
-        }
+        pendingBuilds.remove( project );
     }
 
     public void queueAllProjects()
@@ -112,63 +120,152 @@ public class CIBuilder
 
     public static boolean isProjectQueued( Project project )
     {
-        synchronized( pendingBuilds )
+        return pendingBuilds.isQueued( project );
+    }
+
+    public static int getQueueSize()
+    {
+        return pendingBuilds.size();
+    }
+
+    public static CIBuildStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    public int getExecutorCount()
+    {
+        int executors = (Integer) CIApplication.CONFIGURATION_BUILD_EXECUTORS.getDefault();
+        String executorsStr = Manager.getStorageInstance().getGlobalConfiguration().getApplicationConfiguration(
+                CIApplication.ID ).getProperty( CIApplication.CONFIGURATION_BUILD_EXECUTORS.getKey() );
+        if ( executorsStr != null )
         {
-            for ( CIQueuedBuild build : pendingBuilds )
+            try
             {
-                if ( build != null && build.getProject() != null && build.getProject().equals( project ) )
-                {
-                    return true;
-                }
+                executors = Integer.parseInt( executorsStr.trim() );
+            }
+            catch ( NumberFormatException e )
+            {
+                log.error( "Invalid number of build executors \"" + executorsStr + "\"" );
             }
         }
 
-        return false;
+        return Math.max( 1, executors );
     }
 
-    protected void buildProjects()
+    /**
+     * Start as many of the pending builds as there are free executors.
+     */
+    protected synchronized void buildProjects()
     {
-        if ( building )
+        if ( executor == null )
         {
+            // not started, anything queued is built once we are
             return;
         }
 
-        building = true;
-        new Thread()
+        int executors = getExecutorCount();
+        statistics.setExecutors( executors );
+
+        while ( activeBuilds < executors )
         {
-            public void run()
+            final CIQueuedBuild build = pendingBuilds.next( System.currentTimeMillis() );
+            if ( build == null )
             {
-                try
+                break;
+            }
+
+            activeBuilds++;
+            statistics.buildStarted( System.currentTimeMillis() - build.getQueuedTime() );
+            executor.execute( new BuildRunner( build )
+            {
+                public void run()
                 {
-                    while ( pendingBuilds.size() > 0 )
+                    long start = System.currentTimeMillis();
+                    try
                     {
-                        CIQueuedBuild build;
-                        synchronized( pendingBuilds )
-                        {
-                            try
-                            {
-                                build = pendingBuilds.remove( 0 );
-                            }
-                            catch ( NoSuchElementException e )
-                            {
-                                // changed whilst building - just ignore and try later
-                                break;
-                            }
-                        }
-
                         buildProject( build );
                     }
+                    catch ( Exception e )
+                    {
+                        log.error( "Error building project " + build.getProject().getAlias(), e );
+                    }
+                    finally
+                    {
+                        statistics.buildFinished( System.currentTimeMillis() - start );
+                        buildFinished( build );
+                    }
                 }
-                catch ( Exception e )
-                {
-                    e.printStackTrace();
-                }
-                finally
-                {
-                    building = false;
-                }
+            } );
+        }
+    }
+
+    private synchronized void buildFinished( CIQueuedBuild build )
+    {
+        activeBuilds--;
+        pendingBuilds.finished( build.getProject() );
+
+        buildProjects();
+    }
+
+    /**
+     * Create the threads used for building and copying workspaces, then start any builds that are queued.
+     */
+    public void start()
+    {
+        synchronized ( this )
+        {
+            if ( executor != null )
+            {
+                return;
             }
-        }.start();
+
+            executor = Executors.newCachedThreadPool();
+            copier = new ParallelFileCopier();
+            copyWorkspaces = new CopyWorkspaceProvider( copier );
+            incrementalWorkspaces = new IncrementalWorkspaceProvider( copier );
+        }
+
+        buildProjects();
+    }
+
+    public synchronized void stop()
+    {
+        if ( executor == null )
+        {
+            return;
+        }
+
+        // builds that never started will not call buildFinished, so release them here
+        for ( Runnable waiting : executor.shutdownNow() )
+        {
+            if ( waiting instanceof BuildRunner )
+            {
+                activeBuilds--;
+                pendingBuilds.finished( ( (BuildRunner) waiting ).build.getProject() );
+            }
+        }
+        copier.shutdown();
+
+        executor = null;
+        copier = null;
+    }
+
+    protected WorkspaceProvider getWorkspaceProvider()
+    {
+        boolean reuse = (Boolean) CIApplication.CONFIGURATION_REUSE_WORKSPACE.getDefault();
+        String reuseStr = Manager.getStorageInstance().getGlobalConfiguration().getApplicationConfiguration(
+                CIApplication.ID ).getProperty( CIApplication.CONFIGURATION_REUSE_WORKSPACE.getKey() );
+        if ( reuseStr != null )
+        {
+            reuse = Boolean.parseBoolean( reuseStr );
+        }
+
+        if ( reuse )
+        {
+            return incrementalWorkspaces;
+        }
+        return copyWorkspaces;
     }
 
     private void buildProject( CIQueuedBuild queued )
@@ -177,7 +274,7 @@ public class CIBuilder
         PropertyTree config = queued.getConfig();
         log.info( "Preparing build for project " + project.getAlias() );
 
-        File base = null;
+        File base;
         File projectDir = CIApplication.getProjectDir( project );
         projectDir.mkdirs();
 
@@ -188,36 +285,46 @@ public class CIBuilder
             storage.getHibernateSession();
 
             Manager.getInstance().addTask( buildTask );
+            long phaseStart = System.currentTimeMillis();
+            WorkspaceProvider workspaces = getWorkspaceProvider();
             try
             {
-                base = FileUtil.createTempDir( "build-", "", projectDir );
-                storage.copyWorkingDirectory( project, base );
+                base = workspaces.prepareWorkspace( project );
             }
             catch ( Exception e )
             {
-                log.error( "Unable to prepare project " + project + " for build", e );
+                if ( workspaces == copyWorkspaces )
+                {
+                    log.error( "Unable to prepare project " + project + " for build", e );
+                    return;
+                }
 
+                log.error( "Unable to update workspace for project " + project + ", copying checkout instead", e );
+                workspaces = copyWorkspaces;
                 try
                 {
-                    FileUtil.delete( base );
+                    base = workspaces.prepareWorkspace( project );
                 }
-                catch ( IOException e2 )
+                catch ( Exception e2 )
                 {
-                    log.error( "Error removing failed build", e );
+                    log.error( "Unable to prepare project " + project + " for build", e2 );
+                    return;
                 }
-
-                Manager.getInstance().removeTask( buildTask );
-                return;
             }
+            long prepareTime = System.currentTimeMillis() - phaseStart;
             log.info( "Building project " + project.getAlias() + " in " + base.getPath() );
 
             Build build = new Build( project, project.getRevision() );
             build.setStatus( Build.BUILD_RUNNING );
+            build.setPrepareTime( prepareTime );
             long buildId = application.addBuild( build );
             File output = new File( projectDir, buildId + ".txt" );
 
+            phaseStart = System.currentTimeMillis();
             BuildHandler.runBuild( project, config, application.getConfiguration(), base, output, build, buildId );
+            build.setBuildTime( System.currentTimeMillis() - phaseStart );
 
+            phaseStart = System.currentTimeMillis();
             Event event;
             if ( build.getStatus() != Build.BUILD_SUCCEEDED )
             {
@@ -233,12 +340,18 @@ public class CIBuilder
 
             try
             {
-                FileUtil.delete( base );
+                workspaces.releaseWorkspace( project, base );
             }
             catch ( IOException e )
             {
                 log.error( "Error cleaning up finished build", e );
             }
+
+            build.setCleanupTime( System.currentTimeMillis() - phaseStart );
+            application.saveBuild( build );
+            storage.closeSession();
+
+            BuildLog.compressOldLogs( project );
         }
         finally
         {
@@ -275,4 +388,15 @@ public class CIBuilder
             }
         }
     }
+
+    private abstract static class BuildRunner
+        implements Runnable
+    {
+        final CIQueuedBuild build;
+
+        BuildRunner( CIQueuedBuild build )
+        {
+            this.build = build;
+        }
+    }
 }
@@ -22,24 +22,46 @@ import org.headsupdev.agile.api.PropertyTree;
 import org.headsupdev.agile.api.Project;
 
 /**
- * TODO document me
+ * A build request waiting in the CIBuilder queue - requests are identified by their project and schedule id.
  *
  * @author Andrew Williams
  * @since 1.0
  */
 public class CIQueuedBuild
 {
+    /**
+     * Builds requested by the scheduled (cron) builds
+     */
+    public static final int PRIORITY_SCHEDULED = 0;
+    /**
+     * Builds triggered by changes to the project files
+     */
+    public static final int PRIORITY_COMMIT = 10;
+    /**
+     * Builds requested directly by a user
+     */
+    public static final int PRIORITY_MANUAL = 20;
+
     private Project project;
     private String id;
     private PropertyTree config;
     private boolean notify;
+    private int priority;
+    private long queued;
 
     public CIQueuedBuild( Project project, String id, PropertyTree config, boolean notify )
+    {
+        this( project, id, config, notify, PRIORITY_COMMIT );
+    }
+
+    public CIQueuedBuild( Project project, String id, PropertyTree config, boolean notify, int priority )
     {
         this.project = project;
         this.id = id;
         this.config = config;
         this.notify = notify;
+        this.priority = priority;
+        this.queued = System.currentTimeMillis();
     }
 
     public Project getProject()
@@ -62,6 +84,31 @@ public class CIQueuedBuild
         return notify;
     }
 
+    public int getPriority()
+    {
+        return priority;
+    }
+
+    /**
+     * The time that this build was first requested - coalesced requests do not reset this.
+     */
+    public long getQueuedTime()
+    {
+        return queued;
+    }
+
+    /**
+     * Merge a duplicate request into this one, keeping the highest priority and any request for notification.
+     * The original queued time and configuration are kept.
+     *
+     * @param duplicate The request that matched this queued build
+     */
+    public void coalesce( CIQueuedBuild duplicate )
+    {
+        priority = Math.max( priority, duplicate.getPriority() );
+        notify = notify || duplicate.getNotify();
+    }
+
     public boolean equals( Object o )
     {
         return o instanceof CIQueuedBuild && equals( (CIQueuedBuild) o );
@@ -19,7 +19,6 @@
 package org.headsupdev.agile.app.ci;
 
 import org.apache.wicket.markup.html.CSSPackageResource;
-import org.headsupdev.support.java.IOUtil;
 import org.headsupdev.agile.web.HeadsUpPage;
 import org.headsupdev.agile.web.BookmarkableMenuLink;
 import org.headsupdev.agile.web.MountPoint;
@@ -27,11 +26,15 @@ import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.api.Permission;
 import org.headsupdev.agile.app.ci.permission.BuildViewPermission;
 import org.headsupdev.agile.storage.ci.Build;
+import org.apache.wicket.PageParameters;
+import org.apache.wicket.ResourceReference;
+import org.apache.wicket.ajax.AbstractAjaxTimerBehavior;
+import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.link.BookmarkablePageLink;
+import org.apache.wicket.markup.html.link.ResourceLink;
+import org.apache.wicket.util.time.Duration;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 
 /**
@@ -45,7 +48,9 @@ import java.io.IOException;
 public class View
     extends HeadsUpPage
 {
-    private long buildId;
+    private static final int TAIL_BYTES = 256 * 1024;
+
+    private long buildId, tailOffset;
 
     public Permission getRequiredPermission() {
         return new BuildViewPermission();
@@ -75,18 +80,150 @@ public class View
         add( new BookmarkablePageLink( "test-link", getPageClass( "builds/tests" ), getPageParameters() )
             .setVisible( build.getTestResults().size() > 0 ) );
 
-        File outputFile = new File( CIApplication.getProjectDir( project ), id + ".txt" );
+        final BuildLog log = new BuildLog( project, id );
+        final boolean running = build.getStatus() == Build.BUILD_RUNNING;
 
+        String content;
+        int lines = 0, first = 0;
         try
         {
-            add( new Label( "result", IOUtil.toString( new FileInputStream( outputFile ) ) ) );
+            lines = log.getLineCount();
+            first = getFirstLine( log, lines, running );
+            // follow on from exactly what was shown so output written in the meantime is not skipped
+            BuildLog.Range page = log.readLines( first, BuildLog.LINES_PER_PAGE );
+            content = page.getText();
+            tailOffset = page.getNext();
         }
         catch ( IOException e )
         {
-            add( new Label( "result", "Unable to load results file - reason: " + e.getMessage() ) );
+            content = "Unable to load results file - reason: " + e.getMessage();
+        }
+
+        final Label result = new Label( "result", content );
+        add( result.setOutputMarkupId( true ) );
+        addLogNavigation( log, lines, first );
+
+        if ( running && first + BuildLog.LINES_PER_PAGE >= lines )
+        {
+            result.add( new AbstractAjaxTimerBehavior( Duration.seconds( 5 ) )
+            {
+                protected void onTimer( AjaxRequestTarget target )
+                {
+                    try
+                    {
+                        BuildLog.Range range = log.readFrom( tailOffset, TAIL_BYTES );
+                        tailOffset = range.getNext();
+                        if ( range.getText().length() > 0 )
+                        {
+                            target.appendJavascript( "var log = document.getElementById( '" + result.getMarkupId() +
+                                "' ); log.appendChild( document.createTextNode( \"" + escapeJavascript( range.getText() ) +
+                                "\" ) );" );
+                        }
+                    }
+                    catch ( IOException e )
+                    {
+                        stop();
+                    }
+
+                    Build current = CIApplication.getBuild( buildId, getProject() );
+                    if ( current == null || current.getStatus() != Build.BUILD_RUNNING )
+                    {
+                        // show the final state when the build is complete
+                        stop();
+                        setResponsePage( getPageClass( "builds/view" ), getPageParameters() );
+                    }
+                }
+            } );
         }
     }
 
+    private int getFirstLine( BuildLog log, int lines, boolean running )
+        throws IOException
+    {
+        if ( getPageParameters().getBoolean( "error" ) )
+        {
+            return Math.max( 0, log.getFirstErrorLine() );
+        }
+
+        if ( getPageParameters().containsKey( "line" ) )
+        {
+            return Math.max( 0, getPageParameters().getInt( "line" ) - 1 );
+        }
+
+        if ( running )
+        {
+            // follow the end of the log
+            return Math.max( 0, lines - BuildLog.LINES_PER_PAGE );
+        }
+        return 0;
+    }
+
+    private void addLogNavigation( BuildLog log, int lines, int first )
+    {
+        int lastPage = Math.max( 0, ( lines - 1 ) / BuildLog.LINES_PER_PAGE ) * BuildLog.LINES_PER_PAGE;
+        int firstError = -1;
+        try
+        {
+            firstError = log.getFirstErrorLine();
+        }
+        catch ( IOException e )
+        {
+            // no link then
+        }
+
+        add( new Label( "lines", "lines " + Math.min( first + 1, lines ) + " - " +
+            Math.min( first + BuildLog.LINES_PER_PAGE, lines ) + " of " + lines ) );
+        add( getLineLink( "first-link", 0 ).setVisible( first > 0 ) );
+        add( getLineLink( "previous-link", Math.max( 0, first - BuildLog.LINES_PER_PAGE ) ).setVisible( first > 0 ) );
+        add( getLineLink( "next-link", first + BuildLog.LINES_PER_PAGE )
+            .setVisible( first + BuildLog.LINES_PER_PAGE < lines ) );
+        add( getLineLink( "last-link", lastPage ).setVisible( first < lastPage ) );
+        add( getLineLink( "error-link", firstError ).setVisible( firstError >= 0 ) );
+
+        PageParameters params = new PageParameters();
+        params.add( "project", getProject().getId() );
+        params.add( "id", String.valueOf( buildId ) );
+        add( new ResourceLink( "download-link", new ResourceReference( "log.txt" ), params ) );
+    }
+
+    private BookmarkablePageLink getLineLink( String id, int line )
+    {
+        PageParameters params = getProjectPageParameters();
+        params.add( "id", String.valueOf( buildId ) );
+        params.add( "line", String.valueOf( line + 1 ) );
+        return new BookmarkablePageLink( id, getPageClass( "builds/view" ), params );
+    }
+
+    private static String escapeJavascript( String text )
+    {
+        StringBuilder ret = new StringBuilder( text.length() + 16 );
+        for ( char c : text.toCharArray() )
+        {
+            switch ( c )
+            {
+                case '\\':
+                    ret.append( "\\\\" );
+                    break;
+                case '"':
+                    ret.append( "\\\"" );
+                    break;
+                case '\n':
+                    ret.append( "\\n" );
+                    break;
+                case '\r':
+                    ret.append( "\\r" );
+                    break;
+                case '<':
+                    ret.append( "\\u003c" );
+                    break;
+                default:
+                    ret.append( c );
+            }
+        }
+
+        return ret.toString();
+    }
+
     @Override
     public String getPageTitle()
     {
@@ -133,6 +133,9 @@ public class MavenTwoBuildHandler
         testdir.mkdirs();
 
         int tests = 0, failures = 0, errors = 0;
+        List<TestResult> results = new ArrayList<TestResult>();
+        List<TestResultSet> sets = new ArrayList<TestResultSet>();
+        List<List<TestResult>> setResults = new ArrayList<List<TestResult>>();
         if ( reportDir != null && reportDir.exists() )
         {
             FilenameFilter reportFilter = new FilenameFilter()
@@ -164,6 +167,7 @@ public class MavenTwoBuildHandler
                     }
                 }
                 TestResultSet set = new TestResultSet( testSuiteName, cachedLog.getAbsolutePath() );
+                List<TestResult> suiteResults = new ArrayList<TestResult>();
 
                 int setTests = 0, setFailures = 0, setErrors = 0;
                 long time = 0;
@@ -202,8 +206,8 @@ public class MavenTwoBuildHandler
                         long testTime = (long) ( testCase.getAttribute( "time" ).getFloatValue() * 1000 );
 
                         TestResult testResult = new TestResult( testName, status, testTime, message, output );
-                        ( (HibernateStorage) storage ).save( testResult );
-                        set.getResults().add( testResult );
+                        results.add( testResult );
+                        suiteResults.add( testResult );
                     }
                 }
                 catch ( JDOMException e )
@@ -219,12 +223,21 @@ public class MavenTwoBuildHandler
                 set.setFailures( setFailures );
                 set.setErrors( setErrors );
                 set.setDuration( time );
-                ( (HibernateStorage) storage ).save( set );
-
-                build.getTestResults().add( set );
+                sets.add( set );
+                setResults.add( suiteResults );
             }
         }
 
+        // results are append only so they can go in as plain batched inserts, then the sets link them up.
+        // Results and sets are equal by id so they can only go into their hash sets once the ids are assigned
+        ( (HibernateStorage) storage ).insertAll( results );
+        for ( int i = 0; i < sets.size(); i++ )
+        {
+            sets.get( i ).getResults().addAll( setResults.get( i ) );
+        }
+        ( (HibernateStorage) storage ).saveAll( sets );
+        build.getTestResults().addAll( sets );
+
         build.setTests( tests );
         build.setFailures( failures );
         build.setErrors( errors );
@@ -19,9 +19,11 @@
 package org.headsupdev.agile.app.ci.event;
 
 import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.MenuLink;
 import org.headsupdev.agile.api.User;
-import org.headsupdev.support.java.IOUtil;
 import org.headsupdev.agile.web.AbstractEvent;
+import org.headsupdev.agile.storage.EventBodyCache;
+import org.headsupdev.agile.storage.SubscriptionIndex;
 import org.headsupdev.agile.storage.ci.Build;
 import org.headsupdev.agile.web.components.FormattedDurationModel;
 import org.headsupdev.agile.web.BookmarkableMenuLink;
@@ -30,11 +32,10 @@ import org.headsupdev.agile.app.ci.*;
 
 import javax.persistence.Entity;
 import javax.persistence.DiscriminatorValue;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.wicket.PageParameters;
 import org.apache.wicket.markup.html.panel.Panel;
@@ -79,20 +80,12 @@ public class BuildSucceededEvent
         }
         catch ( NumberFormatException e )
         {
+            EventBodyCache.renderFailed();
             return "<p>Invalid build ID " + getObjectId() + "</p>";
         }
 
         final Build build = CIApplication.getBuild( id, getProject() );
 
-        PageParameters params = new PageParameters();
-        params.add( "project", getProject().getId() );
-        addLink( new BookmarkableMenuLink( CI.class, params, "history" ) );
-        if ( build.getTestResults().size() > 0 )
-        {
-            params.add( "id", String.valueOf( id ) );
-            addLink( new BookmarkableMenuLink( Tests.class, params, "tests" ) );
-        }
-
         String ret = new RenderUtil()
         {
             public Panel getPanel()
@@ -101,21 +94,53 @@ public class BuildSucceededEvent
             }
         }.getRenderedContent();
 
-        File outputFile = new File( CIApplication.getProjectDir( getProject() ), getObjectId() + ".txt" );
+        BuildLog log = new BuildLog( getProject(), id );
         try
         {
-            String content = IOUtil.toString( new FileInputStream( outputFile ) );
+            // just show the end of long logs, the full output is available from the build page
+            int lines = log.getLineCount();
+            String content = log.getLines( lines - BuildLog.LINES_PER_PAGE, BuildLog.LINES_PER_PAGE );
+            if ( lines > BuildLog.LINES_PER_PAGE )
+            {
+                content = "... " + ( lines - BuildLog.LINES_PER_PAGE ) + " earlier lines not shown\n" + content;
+            }
 
             ret += "<div class=\"build\"><pre class=\"content\">" + content + "</pre></div>";
         }
         catch ( IOException e )
         {
             ret += "<p>Unable to load results file - reason: " + e.getMessage() + "</p>";
+            EventBodyCache.renderFailed();
         }
 
         return ret;
     }
 
+    @Override
+    public List<MenuLink> getLinks()
+    {
+        List<MenuLink> links = new LinkedList<MenuLink>();
+        PageParameters params = new PageParameters();
+        params.add( "project", getProject().getId() );
+        links.add( new BookmarkableMenuLink( CI.class, params, "history" ) );
+
+        try
+        {
+            Build build = CIApplication.getBuild( Long.parseLong( getObjectId() ), getProject() );
+            if ( build != null && build.getTestResults().size() > 0 )
+            {
+                params.add( "id", getObjectId() );
+                links.add( new BookmarkableMenuLink( Tests.class, params, "tests" ) );
+            }
+        }
+        catch ( NumberFormatException e )
+        {
+            // no test link for an invalid build
+        }
+
+        return links;
+    }
+
     public List<AbstractEvent.CssReference> getBodyCssReferences()
     {
         List<CssReference> ret = new LinkedList<CssReference>();
@@ -124,6 +149,12 @@ public class BuildSucceededEvent
         return ret;
     }
 
+    @Override
+    public Set<User> getInterestedUsers()
+    {
+        return SubscriptionIndex.getSubscribers( getProject() );
+    }
+
     @Override
     public boolean shouldNotify( User user )
     {
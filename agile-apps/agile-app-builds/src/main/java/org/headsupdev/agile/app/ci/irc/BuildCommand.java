@@ -30,6 +30,7 @@ import org.headsupdev.agile.web.HeadsUpSession;
 import org.headsupdev.agile.storage.ci.Build;
 import org.headsupdev.agile.storage.HibernateUtil;
 import org.headsupdev.agile.app.ci.CIBuilder;
+import org.headsupdev.agile.app.ci.CIQueuedBuild;
 import org.headsupdev.agile.app.ci.builders.BuildHandler;
 import org.headsupdev.agile.app.ci.permission.BuildForcePermission;
 import org.headsupdev.agile.api.Manager;
@@ -99,7 +100,7 @@ public class BuildCommand
                         {
                             conn.sendMessage( channel, "Queued project \"" + project.getAlias() + "\"" );
 
-                            CIApplication.getBuilder().queueProject( project );
+                            CIApplication.getBuilder().queueProject( project, true, CIQueuedBuild.PRIORITY_MANUAL );
                         }
                     }
                 }
@@ -0,0 +1,71 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.ci.workspace;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.app.ci.CIApplication;
+import org.headsupdev.support.java.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A workspace provider that copies the whole checkout into a new temporary directory for each build.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class CopyWorkspaceProvider
+    implements WorkspaceProvider
+{
+    private ParallelFileCopier copier;
+
+    public CopyWorkspaceProvider( ParallelFileCopier copier )
+    {
+        this.copier = copier;
+    }
+
+    public File prepareWorkspace( Project project )
+        throws IOException
+    {
+        File projectDir = CIApplication.getProjectDir( project );
+        projectDir.mkdirs();
+
+        File workspace = FileUtil.createTempDir( "build-", "", projectDir );
+        try
+        {
+            copier.copy( Manager.getStorageInstance().getWorkingDirectory( project ), workspace );
+        }
+        catch ( IOException e )
+        {
+            FileUtil.delete( workspace );
+            throw e;
+        }
+
+        return workspace;
+    }
+
+    public void releaseWorkspace( Project project, File workspace )
+        throws IOException
+    {
+        FileUtil.delete( workspace );
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.ci.workspace;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.api.logging.Logger;
+import org.headsupdev.agile.api.service.Change;
+import org.headsupdev.agile.api.service.ChangeSet;
+import org.headsupdev.agile.api.service.ScmService;
+import org.headsupdev.agile.app.ci.CIApplication;
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.ScmChange;
+import org.hibernate.Transaction;
+
+import java.io.*;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A workspace provider that keeps a workspace for each project between builds. Before each build only the files
+ * listed in the scm changes since the last build are copied in. If the changes are not known (the first build,
+ * an interrupted sync or a change list that does not match the checkout) the workspace is mirrored from the
+ * checkout, which still only copies files that have been modified.
+ * <p/>
+ * This relies on a project not being built more than once at a time, which the CIBuildQueue guarantees.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class IncrementalWorkspaceProvider
+    implements WorkspaceProvider
+{
+    private static final String WORKSPACE_DIR = "workspace";
+    private static final String REVISION_FILE = "workspace.revision";
+
+    private ParallelFileCopier copier;
+
+    private Logger log = Manager.getLogger( getClass().getName() );
+
+    public IncrementalWorkspaceProvider( ParallelFileCopier copier )
+    {
+        this.copier = copier;
+    }
+
+    public File prepareWorkspace( Project project )
+        throws IOException
+    {
+        File projectDir = CIApplication.getProjectDir( project );
+        File workspace = new File( projectDir, WORKSPACE_DIR );
+        File marker = new File( projectDir, REVISION_FILE );
+
+        String previous = readRevision( marker );
+        // remove the marker until we are done so an interrupted sync is never trusted
+        if ( marker.exists() && !marker.delete() )
+        {
+            throw new IOException( "Unable to reset workspace marker " + marker.getPath() );
+        }
+
+        String revision = project.getRevision();
+        File checkout = Manager.getStorageInstance().getWorkingDirectory( project );
+
+        Set<String> paths = null;
+        if ( previous != null && revision != null && workspace.isDirectory() )
+        {
+            paths = getChangedPaths( project, previous, revision, checkout );
+        }
+
+        int copied;
+        if ( paths == null )
+        {
+            copied = copier.mirror( checkout, workspace );
+            log.info( "Mirrored workspace for project " + project.getAlias() + ", " + copied + " files copied" );
+        }
+        else
+        {
+            copied = copier.copyPaths( checkout, workspace, paths );
+            log.info( "Updated workspace for project " + project.getAlias() + " from revision " + previous + ", " +
+                    copied + " files copied" );
+        }
+
+        if ( revision != null )
+        {
+            writeRevision( marker, revision );
+        }
+        return workspace;
+    }
+
+    public void releaseWorkspace( Project project, File workspace )
+    {
+        // the workspace is kept for the next build
+    }
+
+    /**
+     * Find the files within this project's checkout that changed between two revisions.
+     *
+     * @return the paths relative to the project checkout, or null if they could not be reliably determined
+     */
+    protected Set<String> getChangedPaths( Project project, String from, String to, File checkout )
+    {
+        Set<String> paths = new HashSet<String>();
+        if ( from.equals( to ) )
+        {
+            return paths;
+        }
+
+        Project root = project;
+        while ( root.getParent() != null )
+        {
+            root = root.getParent();
+        }
+        File rootCheckout = Manager.getStorageInstance().getWorkingDirectory( root );
+        String checkoutPath = checkout.getAbsolutePath();
+
+        HibernateStorage storage = (HibernateStorage) Manager.getStorageInstance();
+        Transaction tx = storage.getHibernateSession().beginTransaction();
+        try
+        {
+            ScmService scm = Manager.getInstance().getScmService();
+            if ( scm.getChangeSet( root, from ) == null || scm.getChangeSet( root, to ) == null )
+            {
+                return null;
+            }
+
+            List<ChangeSet> changes = scm.getChangesBetweenRevisions( from, to, root );
+            for ( ChangeSet set : changes )
+            {
+                for ( Change change : set.getChanges() )
+                {
+                    File file = new File( rootCheckout, change.getName() );
+                    String filePath = file.getAbsolutePath();
+                    if ( !filePath.equals( checkoutPath ) && !filePath.startsWith( checkoutPath + File.separator ) )
+                    {
+                        continue;
+                    }
+
+                    if ( !file.exists() && change.getType() != ScmChange.TYPE_REMOVED )
+                    {
+                        // the change names do not map onto the checkout for this scm
+                        return null;
+                    }
+
+                    if ( filePath.equals( checkoutPath ) )
+                    {
+                        return null;
+                    }
+                    paths.add( filePath.substring( checkoutPath.length() + 1 ) );
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            log.error( "Unable to look up changes for project " + project.getAlias(), e );
+            return null;
+        }
+        finally
+        {
+            tx.commit();
+        }
+
+        return paths;
+    }
+
+    private String readRevision( File marker )
+    {
+        if ( !marker.exists() )
+        {
+            return null;
+        }
+
+        BufferedReader in = null;
+        try
+        {
+            in = new BufferedReader( new FileReader( marker ) );
+            return in.readLine();
+        }
+        catch ( IOException e )
+        {
+            log.error( "Unable to read workspace marker " + marker.getPath(), e );
+            return null;
+        }
+        finally
+        {
+            if ( in != null )
+            {
+                try
+                {
+                    in.close();
+                }
+                catch ( IOException e )
+                {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void writeRevision( File marker, String revision )
+        throws IOException
+    {
+        FileWriter out = new FileWriter( marker );
+        try
+        {
+            out.write( revision );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.ci.workspace;
+
+import org.headsupdev.support.java.FileUtil;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Copies files using a pool of threads. Directories are walked on the calling thread and the file copies are
+ * shared across the pool - each call waits for its own copies to complete so a copier can be shared by builds.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ParallelFileCopier
+{
+    public static final int DEFAULT_THREADS = 4;
+
+    private final ExecutorService executor;
+
+    public ParallelFileCopier()
+    {
+        this( DEFAULT_THREADS );
+    }
+
+    public ParallelFileCopier( int threads )
+    {
+        executor = Executors.newFixedThreadPool( threads );
+    }
+
+    /**
+     * Copy the whole of src into dest.
+     */
+    public void copy( File src, File dest )
+        throws IOException
+    {
+        Copies copies = new Copies();
+        walk( src, dest, false, copies );
+        copies.await();
+    }
+
+    /**
+     * Make dest match src, copying only the files that differ in size or modification time and deleting
+     * anything in dest that is not in src.
+     *
+     * @return the number of files copied
+     */
+    public int mirror( File src, File dest )
+        throws IOException
+    {
+        Copies copies = new Copies();
+        walk( src, dest, true, copies );
+        return copies.await();
+    }
+
+    /**
+     * Copy each of the listed files from the src directory to the same relative path in dest.
+     * Files that do not exist in src are removed from dest.
+     *
+     * @return the number of files copied
+     */
+    public int copyPaths( File src, File dest, Set<String> paths )
+        throws IOException
+    {
+        Copies copies = new Copies();
+        for ( String path : paths )
+        {
+            File from = new File( src, path );
+            File to = new File( dest, path );
+
+            if ( !from.exists() )
+            {
+                if ( to.exists() )
+                {
+                    FileUtil.delete( to );
+                }
+            }
+            else if ( from.isDirectory() )
+            {
+                walk( from, to, true, copies );
+            }
+            else
+            {
+                to.getParentFile().mkdirs();
+                copies.submit( from, to );
+            }
+        }
+
+        return copies.await();
+    }
+
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    private void walk( File src, File dest, boolean mirror, Copies copies )
+        throws IOException
+    {
+        if ( !src.isDirectory() )
+        {
+            if ( !mirror || !dest.exists() || dest.length() != src.length() ||
+                    dest.lastModified() != src.lastModified() )
+            {
+                copies.submit( src, dest );
+            }
+            return;
+        }
+
+        if ( dest.isFile() )
+        {
+            FileUtil.delete( dest );
+        }
+        dest.mkdirs();
+
+        String[] names = src.list();
+        if ( names == null )
+        {
+            throw new IOException( "Unable to list directory " + src.getPath() );
+        }
+        for ( String name : names )
+        {
+            walk( new File( src, name ), new File( dest, name ), mirror, copies );
+        }
+
+        if ( mirror )
+        {
+            Set<String> keep = new HashSet<String>();
+            for ( String name : names )
+            {
+                keep.add( name );
+            }
+
+            String[] existing = dest.list();
+            if ( existing != null )
+            {
+                for ( String name : existing )
+                {
+                    if ( !keep.contains( name ) )
+                    {
+                        FileUtil.delete( new File( dest, name ) );
+                    }
+                }
+            }
+        }
+    }
+
+    static void copyFile( File src, File dest )
+        throws IOException
+    {
+        if ( dest.isDirectory() )
+        {
+            FileUtil.delete( dest );
+        }
+
+        FileChannel sourceChannel = new FileInputStream( src ).getChannel();
+        try
+        {
+            FileChannel targetChannel = new FileOutputStream( dest ).getChannel();
+            try
+            {
+                long size = sourceChannel.size();
+                long position = 0;
+                while ( position < size )
+                {
+                    position += sourceChannel.transferTo( position, size - position, targetChannel );
+                }
+            }
+            finally
+            {
+                targetChannel.close();
+            }
+        }
+        finally
+        {
+            sourceChannel.close();
+        }
+
+        // keep the timestamp so that a later mirror can tell the file is unchanged
+        dest.setLastModified( src.lastModified() );
+    }
+
+    /**
+     * The copies submitted by a single call, so that it can wait for just its own work to complete.
+     */
+    private class Copies
+    {
+        private final List<Future<?>> pending = new LinkedList<Future<?>>();
+
+        void submit( final File src, final File dest )
+        {
+            pending.add( executor.submit( new Callable<Object>()
+            {
+                public Object call()
+                    throws IOException
+                {
+                    copyFile( src, dest );
+                    return null;
+                }
+            } ) );
+        }
+
+        int await()
+            throws IOException
+        {
+            IOException failure = null;
+            for ( Future<?> copy : pending )
+            {
+                try
+                {
+                    copy.get();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException( "Interrupted whilst copying files" );
+                }
+                catch ( ExecutionException e )
+                {
+                    if ( failure == null )
+                    {
+                        failure = new IOException( "Unable to copy file: " + e.getCause().getMessage() );
+                        failure.initCause( e.getCause() );
+                    }
+                }
+            }
+
+            if ( failure != null )
+            {
+                throw failure;
+            }
+            return pending.size();
+        }
+    }
+}
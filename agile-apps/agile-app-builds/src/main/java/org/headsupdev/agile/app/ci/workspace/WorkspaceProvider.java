@@ -0,0 +1,54 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.ci.workspace;
+
+import org.headsupdev.agile.api.Project;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Provides the directory that a project is built in, populated from the project checkout.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public interface WorkspaceProvider
+{
+    /**
+     * Get a workspace containing the current files for the project.
+     *
+     * @param project The project that is about to be built
+     * @return a directory ready for building in
+     * @throws IOException if the workspace could not be prepared
+     */
+    File prepareWorkspace( Project project )
+        throws IOException;
+
+    /**
+     * Called once the build is complete and the workspace is no longer needed.
+     *
+     * @param project The project that was built
+     * @param workspace The workspace that was returned from prepareWorkspace
+     * @throws IOException if the workspace could not be tidied up
+     */
+    void releaseWorkspace( Project project, File workspace )
+        throws IOException;
+}
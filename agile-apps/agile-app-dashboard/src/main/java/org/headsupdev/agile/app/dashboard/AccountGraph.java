@@ -23,9 +23,10 @@ import java.awt.geom.AffineTransform;
 import java.util.*;
 import java.util.List;
 
-import org.headsupdev.agile.api.Event;
 import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.app.dashboard.permission.MemberViewPermission;
+import org.headsupdev.agile.storage.activity.ActivityCount;
+import org.headsupdev.agile.storage.activity.ActivityRollup;
 import org.headsupdev.agile.web.CachedImageResource;
 import org.headsupdev.agile.web.WebUtil;
 import org.headsupdev.agile.web.MountPoint;
@@ -83,13 +84,13 @@ public class AccountGraph
         cal.set( Calendar.HOUR_OF_DAY, 0 ); // read from the beginning of the first day
         cal.set( Calendar.MINUTE, 0 );
         cal.set( Calendar.SECOND, 0 );
-        cal.add( Calendar.DATE, -28 );
+        cal.set( Calendar.MILLISECOND, 0 );
+        cal.add( Calendar.DATE, -27 );
         Date start = cal.getTime();
 
-        List<Event> events =
-            Manager.getStorageInstance().getEventsForUser( user, start, now );
+        List<ActivityCount> counts = ActivityRollup.getCountsForUser( user, start, now );
 
-        int[][] totals = getTotalsForEvents( events, now );
+        int[][] totals = getTotalsForCounts( counts, start );
         int graphTop = getTotalMax( totals );
         if ( graphTop == 0 )
         {
@@ -143,56 +144,39 @@ public class AccountGraph
         return HEIGHT + PAD * 2;
     }
 
-    private int[][] getTotalsForEvents( List<Event> events, Date now )
+    private int[][] getTotalsForCounts( List<ActivityCount> counts, Date start )
     {
         int[][] ret = new int[28][4];
 
         Calendar cal = new GregorianCalendar();
-        cal.setTime( now );
-        cal.set( Calendar.HOUR_OF_DAY, 0 );
-        cal.set( Calendar.MINUTE, 0 );
-        cal.set( Calendar.SECOND, 0 );
-
-        Date divStart = cal.getTime();
-        ListIterator<Event> eventIter = events.listIterator();
-        for ( int c = 27; c >= 0; c-- )
+        cal.setTime( start );
+        long startDay = start.getTime() + cal.get( Calendar.ZONE_OFFSET ) + cal.get( Calendar.DST_OFFSET );
+        for ( ActivityCount count : counts )
         {
-            ret[c][CHANGES] = 0;
-            ret[c][ISSUES] = 0;
-            ret[c][DOCS] = 0;
-            ret[c][MILESTONES] = 0;
-
-            while ( eventIter.hasNext() )
+            cal.setTime( count.getDay() );
+            long day = count.getDay().getTime() + cal.get( Calendar.ZONE_OFFSET ) + cal.get( Calendar.DST_OFFSET );
+            int c = (int) ( ( day - startDay ) / ( 24l * 60 * 60 * 1000 ) );
+            if ( c < 0 || c >= 28 || count.getApplicationId() == null )
             {
-                Event next = eventIter.next();
-                if ( divStart.before( next.getTime() ) )
-                {
-                    if ( next.getApplicationId().equals( "files" ) )
-                    {
-                        ret[c][CHANGES]++;
-                    }
-                    else if ( next.getApplicationId().equals( "issues" ) )
-                    {
-                        ret[c][ISSUES]++;
-                    }
-                    else if ( next.getApplicationId().equals( "docs" ) )
-                    {
-                        ret[c][DOCS]++;
-                    }
-                    else if ( next.getApplicationId().equals( "milestones" ) )
-                    {
-                        ret[c][MILESTONES]++;
-                    }
-                }
-                else
-                {
-                    eventIter.previous();
-                    break;
-                }
+                continue;
             }
 
-            cal.add( Calendar.DATE, -1 );
-            divStart = cal.getTime();
+            if ( count.getApplicationId().equals( "files" ) )
+            {
+                ret[c][CHANGES] += count.getCount();
+            }
+            else if ( count.getApplicationId().equals( "issues" ) )
+            {
+                ret[c][ISSUES] += count.getCount();
+            }
+            else if ( count.getApplicationId().equals( "docs" ) )
+            {
+                ret[c][DOCS] += count.getCount();
+            }
+            else if ( count.getApplicationId().equals( "milestones" ) )
+            {
+                ret[c][MILESTONES] += count.getCount();
+            }
         }
 
         return ret;
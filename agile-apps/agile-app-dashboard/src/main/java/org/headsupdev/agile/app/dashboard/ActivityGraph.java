@@ -19,13 +19,13 @@
 package org.headsupdev.agile.app.dashboard;
 
 import org.headsupdev.agile.api.*;
-import org.headsupdev.agile.api.Event;
 import org.headsupdev.agile.app.dashboard.permission.ProjectViewPermission;
 import org.headsupdev.agile.storage.issues.Milestone;
 import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.activity.ActivityCount;
+import org.headsupdev.agile.storage.activity.ActivityRollup;
 import org.headsupdev.agile.web.CachedImageResource;
 import org.headsupdev.agile.web.WebUtil;
-import org.headsupdev.agile.web.ApplicationPageMapper;
 import org.headsupdev.agile.web.MountPoint;
 
 import java.awt.*;
@@ -116,6 +116,7 @@ public class ActivityGraph
         cal.set( Calendar.HOUR_OF_DAY, 0 ); // read from the beginning of the first day
         cal.set( Calendar.MINUTE, 0 );
         cal.set( Calendar.SECOND, 0 );
+        cal.set( Calendar.MILLISECOND, 0 );
         if ( isMonth() )
         {
             cal.add( Calendar.DATE, 1 - divisions );
@@ -128,8 +129,8 @@ public class ActivityGraph
         Date start = cal.getTime();
 
         // draw CI results
-        java.util.List<Event> ciEvents = getEvents( "builds", project, start, now, tree );
-        boolean[] ciStates = getStatesForCIEvents( ciEvents, now );
+        List<ActivityCount> ciCounts = getCounts( "builds", project, start, now, tree );
+        boolean[] ciStates = getStatesForCICounts( ciCounts, start );
 
         for ( int i = 0; i < ciStates.length; i++ )
         {
@@ -149,11 +150,10 @@ public class ActivityGraph
         }
 
         // Draw issue bars
-        java.util.List<Event> issueEvents = getEvents( "issues", project, start, now, tree );
-        // TODO optimise this, we don't need 3 iterations
-        int[] issueCreateTotals = getTotalsForEvents( issueEvents, now, "CreateIssueEvent" );
-        int[] issueUpdateTotals = getTotalsForEvents( issueEvents, now, "UpdateIssueEvent" );
-        int[] issueCloseTotals = getTotalsForEvents( issueEvents, now, "CloseIssueEvent" );
+        List<ActivityCount> issueCounts = getCounts( "issues", project, start, now, tree );
+        int[] issueCreateTotals = getTotalsForCounts( issueCounts, start, "CreateIssueEvent" );
+        int[] issueUpdateTotals = getTotalsForCounts( issueCounts, start, "UpdateIssueEvent" );
+        int[] issueCloseTotals = getTotalsForCounts( issueCounts, start, "CloseIssueEvent" );
         int issueMax = getTotalMax( issueCreateTotals ) + getTotalMax( issueUpdateTotals ) + getTotalMax( issueCloseTotals );
 
         double graphTop = issueMax * 2.2;
@@ -182,10 +182,9 @@ public class ActivityGraph
         }
 
         // Draw docs bars
-        java.util.List<Event> docEvents = getEvents( "docs", project, start, now, tree );
-        // TODO optimise this, we don't need 3 iterations
-        int[] docCreateTotals = getTotalsForEvents( docEvents, now, "CreateDocumentEvent" );
-        int[] docUpdateTotals = getTotalsForEvents( docEvents, now, "UpdateDocumentEvent" );
+        List<ActivityCount> docCounts = getCounts( "docs", project, start, now, tree );
+        int[] docCreateTotals = getTotalsForCounts( docCounts, start, "CreateDocumentEvent" );
+        int[] docUpdateTotals = getTotalsForCounts( docCounts, start, "UpdateDocumentEvent" );
         int docMax = getTotalMax( docCreateTotals ) + getTotalMax( docUpdateTotals );
 
         graphTop = docMax * 2.2;
@@ -212,8 +211,8 @@ public class ActivityGraph
         }
 
         // draw the scm line chart
-        java.util.List<Event> scmEvents = getEvents( "files", project, start, now, tree );
-        int[] scmTotals = getTotalsForEvents( scmEvents, now );
+        List<ActivityCount> scmCounts = getCounts( "files", project, start, now, tree );
+        int[] scmTotals = getTotalsForCounts( scmCounts, start );
         int scmMax = getTotalMax( scmTotals );
 
         graphTop = scmMax;
@@ -327,181 +326,127 @@ public class ActivityGraph
         return true;
     }
 
-    private List<Event> getEvents( String app, Project project, Date start, Date end, boolean tree )
+    private List<ActivityCount> getCounts( String app, Project project, Date start, Date end, boolean tree )
     {
-        Application application = ApplicationPageMapper.get().getApplication( app );
-        if ( application == null )
-        {
-            // application is still loading, return empty list for now
-            // TODO something more clever
-            return new LinkedList<Event>();
-        }
+        return ActivityRollup.getCounts( ActivityRollup.getProjectIds( project, tree ), app, start, end );
+    }
 
-        if ( tree )
-        {
-            return application.getEventsForProjectTree( project, start, end );
-        }
-        else
+    /**
+     * Work out which division of the graph a day falls in - the day itself for a month graph or its month for a year.
+     */
+    private int getDivision( Date day, Date start )
+    {
+        Calendar cal = new GregorianCalendar();
+        if ( isMonth() )
         {
-            return application.getEventsForProject( project, start, end );
+            cal.setTime( start );
+            long startDay = start.getTime() + cal.get( Calendar.ZONE_OFFSET ) + cal.get( Calendar.DST_OFFSET );
+            cal.setTime( day );
+            long thisDay = day.getTime() + cal.get( Calendar.ZONE_OFFSET ) + cal.get( Calendar.DST_OFFSET );
+
+            return (int) ( ( thisDay - startDay ) / ( 24l * 60 * 60 * 1000 ) );
         }
+
+        cal.setTime( start );
+        int startMonth = cal.get( Calendar.YEAR ) * 12 + cal.get( Calendar.MONTH );
+        cal.setTime( day );
+        return cal.get( Calendar.YEAR ) * 12 + cal.get( Calendar.MONTH ) - startMonth;
     }
 
-    private int[] getTotalsForEvents( List<Event> events, Date now )
+    private int[] getTotalsForCounts( List<ActivityCount> counts, Date start )
     {
-        return getTotalsForEvents( events, now, null );
+        return getTotalsForCounts( counts, start, null );
     }
 
-    private int[] getTotalsForEvents( List<Event> events, Date now, String eventClass )
+    private int[] getTotalsForCounts( List<ActivityCount> counts, Date start, String eventClass )
     {
         int divisions = getDivisions();
         int[] ret = new int[divisions];
 
-        Calendar cal = new GregorianCalendar();
-        cal.setTime( now );
-        cal.set( Calendar.HOUR_OF_DAY, 0 );
-        cal.set( Calendar.MINUTE, 0 );
-        cal.set( Calendar.SECOND, 0 );
-        if ( !isMonth() )
-        {
-            cal.set( Calendar.DAY_OF_MONTH, 1 );
-        }
-
-        Date divStart = cal.getTime();
-        ListIterator<Event> eventIter = events.listIterator();
-        for ( int c = divisions - 1; c >= 0; c-- )
+        for ( ActivityCount count : counts )
         {
-            int total = 0;
-
-            while ( eventIter.hasNext() )
+            if ( eventClass != null && !count.getEventType().endsWith( eventClass ) )
             {
-                Event next = eventIter.next();
-                if ( divStart.before( next.getTime() ) )
-                {
-                    if ( eventClass == null || next.getClass().getName().endsWith( eventClass ) )
-                    {
-                        total++;
-                    }
-                }
-                else
-                {
-                    eventIter.previous();
-                    break;
-                }
+                continue;
             }
 
-            ret[c] = total;
-
-            if ( isMonth() )
+            int division = getDivision( count.getDay(), start );
+            if ( division >= 0 && division < divisions )
             {
-                cal.add( Calendar.DATE, -1 );
+                ret[division] += count.getCount();
             }
-            else
-            {
-                cal.add( Calendar.MONTH, -1 );
-            }
-            divStart = cal.getTime();
         }
 
         return ret;
     }
 
-    private boolean[] getStatesForCIEvents( List<Event> events, Date now )
+    private boolean[] getStatesForCICounts( List<ActivityCount> counts, Date start )
     {
         int divisions = getDivisions();
         boolean[] ret = new boolean[divisions];
-        Collections.reverse( events );
 
-        Calendar cal = new GregorianCalendar();
-        cal.setTime( now );
-        cal.set( Calendar.HOUR_OF_DAY, 0 );
-        cal.set( Calendar.MINUTE, 0 );
-        cal.set( Calendar.SECOND, 0 );
-        if ( !isMonth() )
-        {
-            cal.set( Calendar.DAY_OF_MONTH, 1 );
-            cal.add( Calendar.MONTH, -10 );
-        }
-        else
+        Set<String> projects = new HashSet<String>();
+        Map<String, Integer>[] failureMaps = new Map[divisions];
+        Map<String, Date>[] lastSuccesses = new Map[divisions];
+        Map<String, Date>[] lastFailures = new Map[divisions];
+        for ( int c = 0; c < divisions; c++ )
         {
-            cal.add( Calendar.DATE, -26 );
+            failureMaps[c] = new HashMap<String, Integer>();
+            lastSuccesses[c] = new HashMap<String, Date>();
+            lastFailures[c] = new HashMap<String, Date>();
         }
 
-        List<Project> projects = new LinkedList<Project>();
-        // TODO we actually need to find what the current state is (look to the previous event)
-        ListIterator<Event> eventIter = events.listIterator();
-        while ( eventIter.hasNext() )
+        for ( ActivityCount count : counts )
         {
-            Event e = eventIter.next();
-            if ( !projects.contains( e.getProject() ) ) {
-                projects.add( e.getProject() );
+            int division = getDivision( count.getDay(), start );
+            if ( division < 0 || division >= divisions )
+            {
+                continue;
             }
-        }
 
-        Map<Project, Boolean> states = new HashMap<Project, Boolean>();
-        Date divEnd = cal.getTime();
-        eventIter = events.listIterator();
-        for ( int c = 0; c < divisions; c++ )
-        {
-            Map<Project, Integer> failureMap = new HashMap<Project, Integer>();
-            Map<Project, Boolean> finalFailures = new HashMap<Project, Boolean>();
-            Map<Project, Boolean> finalSuccesses = new HashMap<Project, Boolean>();
-
-            while ( eventIter.hasNext() )
+            String p = count.getProjectId();
+            Map<String, Date> lastTimes;
+            if ( count.getEventType().endsWith( "BuildSucceededEvent" ) )
             {
-                Event next = eventIter.next();
-                if ( divEnd.after( next.getTime() ) )
-                {
-                    Project p = next.getProject();
-                    int failures = 0;
-                    if ( failureMap.containsKey( p ) ) {
-                        failures = failureMap.get( p );
-                    }
-                    boolean finallyFailed = false;
-                    if ( finalFailures.containsKey( p ) ) {
-                        finallyFailed = finalFailures.get( p );
-                    }
-                    boolean finallySucceeded = false;
-                    if ( finalSuccesses.containsKey( p ) ) {
-                        finallySucceeded = finalSuccesses.get( p );
-                    }
-
-                    if ( next.getClass().getName().endsWith( "BuildSucceededEvent" ) )
-                    {
-                        finallyFailed = false;
-                        finallySucceeded = true;
-                    }
-                    else if ( next.getClass().getName().endsWith( "BuildFailedEvent" ) )
-                    {
-                        failures++;
-                        finallyFailed = true;
-                        finallySucceeded = false;
-                    }
+                lastTimes = lastSuccesses[division];
+            }
+            else if ( count.getEventType().endsWith( "BuildFailedEvent" ) )
+            {
+                Integer failures = failureMaps[division].get( p );
+                failureMaps[division].put( p, ( failures == null ? 0 : failures ) + count.getCount() );
+                lastTimes = lastFailures[division];
+            }
+            else
+            {
+                continue;
+            }
 
-                    failureMap.put( p, failures );
-                    finalFailures.put( p, finallyFailed );
-                    finalSuccesses.put( p, finallySucceeded );
-                }
-                else
-                {
-                    eventIter.previous();
-                    break;
-                }
+            projects.add( p );
+            Date last = lastTimes.get( p );
+            if ( last == null || ( count.getLastTime() != null && count.getLastTime().after( last ) ) )
+            {
+                lastTimes.put( p, count.getLastTime() );
             }
+        }
 
+        Map<String, Boolean> states = new HashMap<String, Boolean>();
+        for ( int c = 0; c < divisions; c++ )
+        {
             int failures = 0;
-            for ( Project project : projects )
+            for ( String project : projects )
             {
-                if ( failureMap.containsKey( project ) )
+                if ( failureMaps[c].containsKey( project ) )
                 {
-                    failures += failureMap.get( project );
+                    failures += failureMaps[c].get( project );
                 }
 
-                if ( finalFailures.containsKey( project ) && finalFailures.get( project ) )
+                Date lastSuccess = lastSuccesses[c].get( project );
+                Date lastFailure = lastFailures[c].get( project );
+                if ( lastFailure != null && ( lastSuccess == null || lastFailure.after( lastSuccess ) ) )
                 {
                     states.put( project, Boolean.FALSE );
                 }
-                else if ( finalSuccesses.containsKey( project ) && finalSuccesses.get( project ) )
+                else if ( lastSuccess != null )
                 {
                     states.put( project, Boolean.TRUE );
                 }
@@ -513,16 +458,6 @@ public class ActivityGraph
                 }
             }
             ret[c] = failures <= 0;
-
-            if ( isMonth() )
-            {
-                cal.add( Calendar.DATE, 1 );
-            }
-            else
-            {
-                cal.add( Calendar.MONTH, 1 );
-            }
-            divEnd = cal.getTime();
         }
 
         return ret;
@@ -40,6 +40,7 @@ import org.apache.wicket.markup.html.list.ListItem;
 import org.apache.wicket.markup.html.list.ListView;
 import org.apache.wicket.markup.html.panel.Panel;
 import org.apache.wicket.model.Model;
+import org.apache.wicket.model.PropertyModel;
 import org.apache.wicket.util.string.Strings;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
@@ -59,6 +60,9 @@ import java.util.Set;
 public class Subscriptions
     extends HeadsUpPage
 {
+    // matches SubscriptionMailer.PREFERENCE_DIGEST
+    private static final String PREFERENCE_DIGEST = "notification.digest";
+
     private String username;
 
     public Permission getRequiredPermission()
@@ -104,6 +108,7 @@ public class Subscriptions
         private org.headsupdev.agile.api.User user;
         private boolean me;
         private Set<User> defaultProjectSubscribers = StoredProject.getDefaultProjectSubscribers();
+        private boolean digest;
 
         public  ChangeSubscriptionsForm( String id, final org.headsupdev.agile.api.User user, boolean me )
         {
@@ -115,6 +120,9 @@ public class Subscriptions
             projects.add( StoredProject.getDefault() );
 
             add( new SubscriptionListView( "subscription", projects ) );
+
+            digest = user.getPreference( PREFERENCE_DIGEST, false );
+            add( new CheckBox( "digest", new PropertyModel<Boolean>( this, "digest" ) ) );
         }
 
         @Override
@@ -132,6 +140,7 @@ public class Subscriptions
             tx.commit();
 
             StoredProject.setDefaultProjectSubscribers( defaultProjectSubscribers );
+            user.setPreference( PREFERENCE_DIGEST, digest );
 
             PageParameters params = new PageParameters();
             params.add( "username", user.getUsername() );
@@ -18,9 +18,9 @@
 
 package org.headsupdev.agile.app.docs;
 
-import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.api.LinkProvider;
+import org.headsupdev.agile.web.LinkResolver;
 
 import javax.swing.text.MutableAttributeSet;
 import javax.swing.text.html.HTML;
@@ -205,7 +205,7 @@ public class DocumentRenderer
             if ( pos != -1 )
             {
                 String projectId = name.substring( 0, pos );
-                Project p2 = Manager.getStorageInstance().getProject( projectId );
+                Project p2 = LinkResolver.getInstance().getProject( projectId );
                 if ( p2 != null )
                 {
                     linkProject = p2;
@@ -20,13 +20,16 @@ package org.headsupdev.agile.app.docs.event;
 
 import org.headsupdev.agile.web.AbstractEvent;
 import org.headsupdev.agile.api.User;
+import org.headsupdev.agile.storage.EventBodyCache;
 import org.headsupdev.agile.storage.docs.Document;
 import org.headsupdev.agile.app.docs.View;
 import org.headsupdev.agile.app.docs.DocsApplication;
 
 import javax.persistence.Entity;
 import javax.persistence.DiscriminatorValue;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Set;
 
 /**
  * Event added when a document is created
@@ -66,12 +69,25 @@ public class CreateDocumentEvent
 
         if ( doc == null )
         {
+            EventBodyCache.renderFailed();
             return "<p>Unable to find document requested.</p>";
         }
 
         return "<div wicket:id=\"content\">\n" + View.getContent( doc ) + "</div>";
     }
 
+    @Override
+    public Set<User> getInterestedUsers()
+    {
+        Document doc = DocsApplication.getDocument( getObjectId(), getProject() );
+        if ( doc == null )
+        {
+            return Collections.emptySet();
+        }
+
+        return doc.getWatchers();
+    }
+
     @Override
     public boolean shouldNotify( User user )
     {
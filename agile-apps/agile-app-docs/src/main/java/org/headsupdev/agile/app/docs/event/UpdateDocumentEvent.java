@@ -21,6 +21,7 @@ package org.headsupdev.agile.app.docs.event;
 import org.headsupdev.agile.api.User;
 import org.headsupdev.agile.app.docs.DocsApplication;
 import org.headsupdev.agile.storage.Comment;
+import org.headsupdev.agile.storage.EventBodyCache;
 import org.headsupdev.agile.storage.docs.Document;
 import org.headsupdev.agile.web.RenderUtil;
 import org.headsupdev.agile.web.components.CommentPanel;
@@ -69,6 +70,7 @@ public class UpdateDocumentEvent
             Comment comment = DocsApplication.getComment( Long.parseLong( getSubObjectId() ) );
             if ( comment == null )
             {
+                EventBodyCache.renderFailed();
                 return "<p>Comment " + getSubObjectId() + " does not exist</p>";
             }
 
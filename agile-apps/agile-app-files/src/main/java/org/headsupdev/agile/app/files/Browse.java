@@ -286,6 +286,24 @@ public class Browse
             parent.add( iconLink );
             add( parent );
 
+            // the metadata is stored against the root project so find our path relative to that
+            String searchPrefix = dir.replace( ':', File.separatorChar );
+            File searchDir = getStorage().getWorkingDirectory( getProject() );
+            Project searchRoot = getProject();
+            while ( searchRoot.getParent() != null )
+            {
+                searchRoot = searchRoot.getParent();
+                searchPrefix = searchDir.getName() + File.separatorChar + searchPrefix;
+                searchDir = searchDir.getParentFile();
+            }
+            final String rootPath = searchPrefix;
+            String rootDirectory = rootPath;
+            if ( rootDirectory.length() > 0 && rootDirectory.charAt( rootDirectory.length() - 1 ) == File.separatorChar )
+            {
+                rootDirectory = rootDirectory.substring( 0, rootDirectory.length() - 1 );
+            }
+            final Map<String, FileMetadata> directoryMeta = app.getDirectoryMetadata( searchRoot, rootDirectory );
+
             add( new StripedListView<File>( "browse-items", files )
             {
                 protected void populateItem( ListItem<File> listItem )
@@ -320,31 +338,17 @@ public class Browse
                     String author, comment;
                     Date modified;
 
-                    String searchPath = dir.replace( ':', File.separatorChar ) + file.getName();
-                    File searchDir = getStorage().getWorkingDirectory( getProject() );
-                    Project root = getProject();
-                    while ( root.getParent() != null )
-                    {
-                        root = root.getParent();
-                        searchPath = searchDir.getName() + File.separatorChar + searchPath;
-                        searchDir = searchDir.getParentFile();
-                    }
-                    Map<String, org.headsupdev.agile.storage.files.File> projectMap = app.getProjectFileMap( root );
+                    FileMetadata fileMeta = directoryMeta.get( rootPath + file.getName() );
                     String fileRevision = null;
-                    if ( projectMap != null )
+                    if ( fileMeta != null )
                     {
-                        org.headsupdev.agile.storage.files.File fileMeta = projectMap.get( searchPath );
-                        if ( fileMeta != null )
-                        {
-                            fileRevision = fileMeta.getRevision();
-                        }
+                        fileRevision = fileMeta.getRevision();
                     }
-                    if ( fileRevision != null )
+                    if ( fileMeta != null && fileMeta.getModified() != null )
                     {
-                        ChangeSet change = Manager.getInstance().getScmService().getChangeSet( root, fileRevision );
-                        author = change.getAuthor();
-                        comment = change.getComment();
-                        modified = change.getDate();
+                        author = fileMeta.getAuthor();
+                        comment = fileMeta.getComment();
+                        modified = fileMeta.getModified();
                     }
                     else
                     {
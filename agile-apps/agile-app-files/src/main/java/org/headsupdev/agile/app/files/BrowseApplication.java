@@ -18,6 +18,7 @@
 
 package org.headsupdev.agile.app.files;
 
+import org.headsupdev.agile.api.service.ChangeSet;
 import org.headsupdev.agile.api.service.ScmService;
 import org.headsupdev.agile.app.files.event.FileChangeSetEvent;
 import org.headsupdev.agile.app.files.permission.FileListPermission;
@@ -45,8 +46,20 @@ public class BrowseApplication
 {
     public static final String ID = "files";
 
+    // the number of directory listings we keep the file metadata for
+    private static final int METADATA_CACHE_SIZE = 500;
+
     static transient BrowseScmUpdater updater = new BrowseScmUpdater();
 
+    private final Map<String, Map<String, FileMetadata>> metadataCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, Map<String, FileMetadata>>( 16, 0.75f, true )
+            {
+                protected boolean removeEldestEntry( Map.Entry<String, Map<String, FileMetadata>> eldest )
+                {
+                    return size() > METADATA_CACHE_SIZE;
+                }
+            } );
+
     List<MenuLink> links;
     List<String> eventTypes;
 
@@ -128,26 +141,72 @@ public class BrowseApplication
         updater.stop();
     }
 
-    public List<File> getProjectFiles( Project project )
+    /**
+     * Get the last change information for each file directly within a directory of a root project.
+     * This is loaded in a single query and cached until the next changes for the project are imported.
+     *
+     * @param root The root project that the files are stored against
+     * @param directory The path of the directory, relative to the root project, "" for the top level
+     * @return a map of file path to the metadata for the last change
+     */
+    public Map<String, FileMetadata> getDirectoryMetadata( Project root, String directory )
     {
+        String key = root.getId() + ":" + directory;
+        Map<String, FileMetadata> ret = metadataCache.get( key );
+        if ( ret != null )
+        {
+            return ret;
+        }
+
         Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
-        Query q = session.createQuery( "from File f where name.project = :project" );
-        q.setEntity( "project", project );
+        Query q = session.createQuery( "from File f where name.project = :project and parent = :parent" );
+        q.setEntity( "project", root );
+        q.setString( "parent", directory );
         List<File> files = q.list();
 
-        return files;
+        ret = new HashMap<String, FileMetadata>();
+        for ( File file : files )
+        {
+            String author = file.getAuthor();
+            String comment = file.getComment();
+            Date modified = file.getModified();
+
+            // files that have not been touched since we started storing metadata need a lookup
+            if ( modified == null && file.getRevision() != null )
+            {
+                ChangeSet change = Manager.getInstance().getScmService().getChangeSet( root, file.getRevision() );
+                if ( change != null )
+                {
+                    author = change.getAuthor();
+                    comment = change.getComment();
+                    modified = change.getDate();
+                }
+            }
+            ret.put( file.getName(), new FileMetadata( file.getRevision(), author, comment, modified ) );
+        }
+
+        ret = Collections.unmodifiableMap( ret );
+        metadataCache.put( key, ret );
+        return ret;
     }
 
-    public Map<String, File> getProjectFileMap( Project project )
+    /**
+     * Drop any cached directory metadata for the specified root project, called when new changes are stored.
+     */
+    public void invalidateDirectoryMetadata( Project root )
     {
-        List<File> files = getProjectFiles( project );
-        Map<String, File> ret = new HashMap<String, File>();
-
-        for ( File file : files )
+        String prefix = root.getId() + ":";
+        synchronized ( metadataCache )
         {
-            ret.put( file.getName(), file );
+            Iterator<String> keys = metadataCache.keySet().iterator();
+            while ( keys.hasNext() )
+            {
+                if ( keys.next().startsWith( prefix ) )
+                {
+                    keys.remove();
+                }
+            }
         }
-        return ret;
     }
 
     public static List<ScmChange> getChanges( Project project, String path )
@@ -147,15 +147,12 @@ public class BrowseFile
             searchPath = searchDir.getName() + File.separatorChar + searchPath;
             searchDir = searchDir.getParentFile();
         }
-        Map<String, org.headsupdev.agile.storage.files.File> projectMap = app.getProjectFileMap( root );
+        FileMetadata fileMeta = app.getDirectoryMetadata( root,
+                org.headsupdev.agile.storage.files.File.getParentPath( searchPath ) ).get( searchPath );
         String fileRevision = null;
-        if ( projectMap != null )
+        if ( fileMeta != null )
         {
-            org.headsupdev.agile.storage.files.File fileMeta = projectMap.get( searchPath );
-            if ( fileMeta != null )
-            {
-                fileRevision = fileMeta.getRevision();
-            }
+            fileRevision = fileMeta.getRevision();
         }
 
         if ( fileRevision != null )
@@ -33,12 +33,19 @@ import org.apache.maven.scm.command.changelog.ChangeLogSet;
 import org.apache.maven.scm.command.diff.DiffScmResult;
 import org.apache.maven.scm.command.update.UpdateScmResult;
 import org.headsupdev.support.java.FileUtil;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Transaction;
 import org.hibernate.Session;
 import org.hibernate.criterion.Restrictions;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A class used to run the scm updater thread - this keeps projects up to date and loads the metadata about the chates.
@@ -50,12 +57,26 @@ import java.util.*;
 public class BrowseScmUpdater
     implements ProjectListener
 {
+    private static final long UPDATE_INTERVAL = 1000 * 60 * 15;
+    private static final long RESUME_DELAY = 1000 * 60;
+
+    private static final int PROJECT_THREADS = 3;
+    private static final int DIFF_THREADS = 4;
+    // how far ahead of the changeset being stored we will calculate diffs
+    private static final int DIFF_WINDOW = DIFF_THREADS * 4;
+    private static final int BATCH_SIZE = 25;
+
+    // configuration prefix for the per-project marker that says an import is in progress
+    static final String CHECKPOINT_PREFIX = "files.import.";
+
     private HeadsUpScmManager scmManager = HeadsUpScmManager.getInstance();
 
     private Thread updater;
-    private List<String> pendingUpdates = new LinkedList<String>();
-    private boolean shutdown = false;
-    private boolean updating = false;
+    private ExecutorService projectExecutor = Executors.newFixedThreadPool( PROJECT_THREADS );
+    private ExecutorService diffExecutor = Executors.newFixedThreadPool( DIFF_THREADS );
+    private final Set<String> pendingUpdates = Collections.synchronizedSet( new HashSet<String>() );
+    private ScmImportStatistics statistics = new ScmImportStatistics();
+    private volatile boolean shutdown = false;
 
     private Logger log = Manager.getLogger( getClass().getName() );
 
@@ -65,10 +86,14 @@ public class BrowseScmUpdater
         {
             public void run()
             {
-                // wait before starting
+                // wait before starting, picking up any imports that did not complete last time we ran
                 try
                 {
-                    Thread.sleep( 1000 * 60 * 15/* 60 */);
+                    Thread.sleep( RESUME_DELAY );
+                    fillFileMetadata();
+                    resumeProjects();
+
+                    Thread.sleep( UPDATE_INTERVAL - RESUME_DELAY );
                 }
                 catch ( InterruptedException e )
                 {
@@ -77,23 +102,25 @@ public class BrowseScmUpdater
 
                 while ( !shutdown )
                 {
+                    boolean complete = true;
                     try
                     {
-                        // add each (not currently updating) project to the list again and make sure we are updating
-                        for ( Project project : Manager.getStorageInstance().getRootProjects() )
-                        {
-                            queueProject( project );
-                        }
-                        updateProjects();
+                        complete = checkProjects();
                     }
                     catch ( Exception e )
                     {
                         e.printStackTrace();
                     }
 
+                    if ( !complete )
+                    {
+                        // we were interrupted whilst waiting, so check again straight away
+                        continue;
+                    }
+
                     try
                     {
-                        Thread.sleep( 1000 * 60 * 15/* 60 */);
+                        Thread.sleep( UPDATE_INTERVAL );
                     }
                     catch ( InterruptedException e )
                     {
@@ -111,6 +138,9 @@ public class BrowseScmUpdater
     {
         shutdown = true;
         updater.interrupt();
+
+        projectExecutor.shutdownNow();
+        diffExecutor.shutdownNow();
     }
 
     public void updateAll()
@@ -127,50 +157,183 @@ public class BrowseScmUpdater
         else
         {
             queueProject( project );
-            updateProjects();
         }
     }
 
-    public void queueProject( Project project )
+    public ScmImportStatistics getStatistics()
     {
-        if ( !pendingUpdates.contains( project ) )
+        return statistics;
+    }
+
+    /**
+     * Add a root project to the import queue, it will be picked up by the next free project worker.
+     *
+     * @param project The project to update
+     * @return a future for the queued update or null if the project is not a root or is already queued
+     */
+    public Future<?> queueProject( Project project )
+    {
+        if ( shutdown || project.getParent() != null )
+        {
+            return null;
+        }
+
+        final String projectId = project.getId();
+        if ( !pendingUpdates.add( projectId ) )
+        {
+            return null;
+        }
+
+        statistics.projectQueued();
+        return projectExecutor.submit( new Runnable()
+        {
+            public void run()
+            {
+                statistics.projectStarted();
+                try
+                {
+                    loadChangeSets( projectId );
+                }
+                catch ( Throwable t )
+                {
+                    log.error( "Error updating project " + projectId, t );
+                }
+                finally
+                {
+                    pendingUpdates.remove( projectId );
+                    statistics.projectFinished();
+                }
+            }
+        } );
+    }
+
+    /**
+     * Queue every root project and wait for the updates to complete.
+     *
+     * @return false if we were interrupted before all the projects had been updated
+     */
+    protected boolean checkProjects()
+    {
+        Task check = new CheckUpdateTask( statistics );
+        Manager.getInstance().addTask( check );
+        try
         {
-            if ( project.getParent() == null )
+            List<Future<?>> running = new LinkedList<Future<?>>();
+            for ( Project project : Manager.getStorageInstance().getRootProjects() )
             {
-                pendingUpdates.add( project.getId() );
+                Future<?> future = queueProject( project );
+                if ( future != null )
+                {
+                    running.add( future );
+                }
             }
+
+            for ( Future<?> future : running )
+            {
+                try
+                {
+                    future.get();
+                }
+                catch ( ExecutionException e )
+                {
+                    log.error( "Error updating projects", e.getCause() );
+                }
+            }
+
+            return true;
+        }
+        catch ( InterruptedException e )
+        {
+            return shutdown;
+        }
+        finally
+        {
+            Manager.getInstance().removeTask( check );
         }
     }
 
-    protected void updateProjects()
+    /**
+     * Queue any project that has a checkpoint stored - it was part way through an import when we last stopped.
+     */
+    protected void resumeProjects()
     {
-        if ( updating )
+        for ( String key : Manager.getStorageInstance().getConfigurationItems( CHECKPOINT_PREFIX ).keySet() )
         {
-            return;
+            Project project = getProject( key.substring( CHECKPOINT_PREFIX.length() ) );
+            if ( project != null )
+            {
+                log.info( "Resuming import of changesets for project " + project.getId() );
+                queueProject( project );
+            }
+            else
+            {
+                Manager.getStorageInstance().removeConfigurationItem( key );
+            }
         }
+    }
 
-        Task check = new CheckUpdateTask();
-        Manager.getInstance().addTask( check );
-        updating = true;
-        while ( pendingUpdates.size() > 0 )
+    /**
+     * Files stored before we recorded the last change details need them filling in so that directory listings
+     * can find them. This only does any work the first time it is run against an older database.
+     */
+    protected void fillFileMetadata()
+    {
+        Session session = HibernateUtil.openSession();
+        Transaction tx = session.beginTransaction();
+        try
         {
-            String next = pendingUpdates.remove( 0 );
+            ScrollableResults files = session.createQuery( "from File f where f.parent is null" )
+                    .scroll( ScrollMode.FORWARD_ONLY );
+
+            int count = 0;
+            while ( files.next() )
+            {
+                org.headsupdev.agile.storage.files.File file = (org.headsupdev.agile.storage.files.File) files.get( 0 );
+
+                org.headsupdev.agile.api.service.ChangeSet change = null;
+                if ( file.getRevision() != null )
+                {
+                    change = getChangeSet( file.getProject(), file.getRevision() );
+                }
+                file.setLastChange( change );
+
+                if ( ++count % 100 == 0 )
+                {
+                    session.flush();
+                    session.clear();
+                }
+            }
+            tx.commit();
 
-            loadChangeSets( next );
+            if ( count > 0 )
+            {
+                log.info( "Stored last change details for " + count + " files" );
+            }
+        }
+        catch ( Exception e )
+        {
+            tx.rollback();
+            log.error( "Failed to store last change details for files", e );
+        }
+        finally
+        {
+            session.close();
         }
-        updating = false;
-        Manager.getInstance().removeTask( check );
     }
 
-    // TODO if we shut down whilst this is running we need to resume when we restart
-    // (currently it waits for the next update before it sees we have changes to load)
     private void loadChangeSets( String projectId )
     {
         Project project = getProject( projectId );
+        if ( project == null )
+        {
+            return;
+        }
+
         String scm = project.getScm();
         File working = Manager.getStorageInstance().getWorkingDirectory( project );
         boolean importing = false;
         boolean first = false;
+        boolean resuming = Manager.getStorageInstance().getConfigurationItem( CHECKPOINT_PREFIX + projectId ) != null;
 
         UpdateScmResult result;
         // this date is set in the future so we get all changes from any timezone
@@ -186,7 +349,7 @@ public class BrowseScmUpdater
                 importing = true;
                 first = true;
             }
-            else if ( result.getUpdatedFiles() == null || result.getUpdatedFiles().size() == 0 )
+            else if ( !resuming && ( result.getUpdatedFiles() == null || result.getUpdatedFiles().size() == 0 ) )
             {
                 return;
             }
@@ -197,7 +360,7 @@ public class BrowseScmUpdater
             return;
         }
 
-        Task updateTask = new UpdateTask( project );
+        UpdateTask updateTask = new UpdateTask( project );
         try
         {
             Manager.getInstance().addTask( updateTask );
@@ -270,53 +433,73 @@ public class BrowseScmUpdater
                 log.info( "reversing list for provider " + repository.getProvider() );
                 Collections.reverse( changeListings );
             }
-            ListIterator changeList = changeListings.listIterator();
-            while ( changeList.hasNext() )
+
+            // stage 1: work out which of the changesets we have not yet stored
+            List<PendingChangeSet> pending = new ArrayList<PendingChangeSet>();
+            String previous = previousId;
+            for ( Object changeListing : changeListings )
             {
-                org.apache.maven.scm.ChangeSet changeSet = (org.apache.maven.scm.ChangeSet) changeList.next();
+                org.apache.maven.scm.ChangeSet changeSet = (org.apache.maven.scm.ChangeSet) changeListing;
+                String revision = getRevision( changeSet, variant );
 
-                String revision;
-                Date current = changeSet.getDate();
-                if ( variant.isTransactional() )
+                // some scms return the revision before this time for completeness...
+                if ( getChangeSet( project, revision ) != null )
                 {
-                    revision = changeSet.getRevision();
-
-                    if ( revision == null )
-                    {
-                        // Compatibility code with maven-scm bugs - TODO remove
-                        revision = ( (ChangeFile) changeSet.getFiles().get( 0 ) ).getRevision();
-                    }
+                    // note that here we may have updated info if the scm supports duplicates - i.e. 2 merges into 1 commit...
+                    continue;
                 }
-                else
+
+                pending.add( new PendingChangeSet( changeSet, revision, previous ) );
+                previous = revision;
+            }
+
+            if ( pending.isEmpty() )
+            {
+                Manager.getStorageInstance().removeConfigurationItem( CHECKPOINT_PREFIX + projectId );
+                return;
+            }
+            // the project revision records how far we got, this marks that we have more to do if we are stopped
+            Manager.getStorageInstance().setConfigurationItem( CHECKPOINT_PREFIX + projectId,
+                    pending.get( pending.size() - 1 ).revision );
+            updateTask.setTotal( pending.size() );
+
+            // stage 2: calculate diffs in parallel ahead of stage 3 storing the changesets in batches
+            List<PendingChangeSet> batch = new ArrayList<PendingChangeSet>( BATCH_SIZE );
+            int diffed = 0;
+            for ( int i = 0; i < pending.size(); i++ )
+            {
+                if ( shutdown )
                 {
-                    revision = changeSet.getAuthor() + ":" + changeSet.getDate();
+                    log.warn( "Terminating update, not all changes imported" );
+                    return;
                 }
 
-                // some scms return the revision before this time for completeness...
-                if ( getChangeSet( project, revision ) != null )
+                while ( diffed < pending.size() && diffed <= i + DIFF_WINDOW )
                 {
-                    // note that here we may have updated info if the scm supports duplicates - i.e. 2 merges into 1 commit...
-                    continue;
+                    if ( variant.isTransactional() )
+                    {
+                        queueDiff( scm, working, variant, pending.get( diffed ) );
+                    }
+                    diffed++;
                 }
 
+                PendingChangeSet next = pending.get( i );
                 // get the status of each updated file. For the first revision this is from a checkout, others an update
-                List<ScmChange> changedFiles = new LinkedList<ScmChange>();
-                List<ScmFile> updatedFiles = null;
-                boolean moved = false;
                 if ( first )
                 {
-                    updatedFiles = checkedOutFiles;
+                    next.updatedFiles = checkedOutFiles;
+                    first = false;
                 }
                 else
                 {
                     if ( variant.isTransactional() )
                     {
                         UpdateScmResult updateResult = scmManager.update( repository, new ScmFileSet( loadedWorking ),
-                            new ScmRevision( revision ), false );
+                            new ScmRevision( next.revision ), false );
 
                         if ( updateResult.isSuccess() )
                         {
-                            updatedFiles = updateResult.getUpdatedFiles();
+                            next.updatedFiles = updateResult.getUpdatedFiles();
                         }
                         else
                         {
@@ -325,174 +508,275 @@ public class BrowseScmUpdater
                                 log.warn( "Terminating update, not all changes imported" );
                                 return;
                             }
-                            moved = true;
+                            next.moved = true;
 
                             log.warn( "Failed to update, perhaps the repository has moved - re-checking out at the current revision" );
                             FileUtil.delete( loadedWorking, true );
-                            scmManager.checkOut( repository, new ScmFileSet( loadedWorking ), new ScmRevision( revision ) );
+                            scmManager.checkOut( repository, new ScmFileSet( loadedWorking ), new ScmRevision( next.revision ) );
                         }
                     }
                     else
                     {
                         // TODO fix maven-scm bug for update using Date... (then we can remove the if above)
-                        UpdateScmResult updateResult = scmManager.update( repository, new ScmFileSet( loadedWorking ), current );
-                        updatedFiles = updateResult.getUpdatedFiles();
+                        UpdateScmResult updateResult = scmManager.update( repository, new ScmFileSet( loadedWorking ),
+                            next.changeSet.getDate() );
+                        next.updatedFiles = updateResult.getUpdatedFiles();
                     }
                 }
 
-                org.headsupdev.agile.api.service.ChangeSet set;
-                if ( variant.isTransactional() )
+                batch.add( next );
+                if ( batch.size() == BATCH_SIZE || i == pending.size() - 1 )
                 {
-                    set = new TransactionalScmChangeSet( revision, changeSet.getAuthor(), changeSet.getComment(), current, project );
+                    lastChanges = storeChangeSets( project, batch, lastChanges, variant, importing, updateTask );
+                    batch.clear();
                 }
-                else
+            }
+
+            Manager.getStorageInstance().removeConfigurationItem( CHECKPOINT_PREFIX + projectId );
+        }
+        catch ( Throwable t )
+        {
+            log.error( "Error updating projects", t );
+        }
+        finally
+        {
+            Manager.getInstance().removeTask( updateTask );
+        }
+    }
+
+    private String getRevision( org.apache.maven.scm.ChangeSet changeSet, ScmVariant variant )
+    {
+        if ( !variant.isTransactional() )
+        {
+            return changeSet.getAuthor() + ":" + changeSet.getDate();
+        }
+
+        String revision = changeSet.getRevision();
+        if ( revision == null )
+        {
+            // Compatibility code with maven-scm bugs - TODO remove
+            revision = ( (ChangeFile) changeSet.getFiles().get( 0 ) ).getRevision();
+        }
+        return revision;
+    }
+
+    private void queueDiff( final String scm, final File working, final ScmVariant variant,
+                            final PendingChangeSet pending )
+    {
+        statistics.diffQueued();
+        pending.diff = diffExecutor.submit( new Callable<DiffScmResult>()
+        {
+            public DiffScmResult call()
+                throws Exception
+            {
+                try
                 {
-                    set = new ScmChangeSet( changeSet.getAuthor(), changeSet.getComment(), current, project );
+                    log.info( "Requesting diff from " + pending.previous + " to " + pending.revision );
+                    return scmManager.diff( scmManager.makeScmRepository( scm ), new ScmFileSet( working ),
+                            variant.getStartRevisionForDiff( pending.previous, pending.revision ),
+                            variant.getEndRevisionForDiff( pending.previous, pending.revision ) );
                 }
+                finally
+                {
+                    statistics.diffCompleted();
+                }
+            }
+        } );
+    }
 
-                log.info( "Requesting diff from " + previousId + " to " + revision );
-                Set<Project> affected = new HashSet<Project>();
+    /**
+     * Store a batch of changesets in a single transaction. If that fails then we fall back to storing them
+     * one at a time so that a single bad changeset does not stop the others from being imported.
+     *
+     * @return the last changeset that was stored successfully
+     */
+    private org.headsupdev.agile.api.service.ChangeSet storeChangeSets( Project project, List<PendingChangeSet> batch,
+            org.headsupdev.agile.api.service.ChangeSet lastChanges, ScmVariant variant, boolean importing,
+            UpdateTask updateTask )
+        throws InterruptedException
+    {
+        try
+        {
+            return persistChangeSets( project, batch, lastChanges, variant, importing, updateTask );
+        }
+        catch ( InterruptedException e )
+        {
+            throw e;
+        }
+        catch ( Exception e )
+        {
+            if ( batch.size() == 1 )
+            {
+                // something failed in the database, log it and move on
+                // TODO find the real cause and remove this skipping hack...
+                log.error( "Failed to load project change set", e );
+                return lastChanges;
+            }
+
+            log.warn( "Failed to store " + batch.size() + " changesets, retrying individually" );
+            for ( PendingChangeSet pending : batch )
+            {
+                lastChanges = storeChangeSets( project, Collections.singletonList( pending ), lastChanges, variant,
+                        importing, updateTask );
+            }
+            return lastChanges;
+        }
+    }
+
+    private org.headsupdev.agile.api.service.ChangeSet persistChangeSets( Project project, List<PendingChangeSet> batch,
+            org.headsupdev.agile.api.service.ChangeSet lastChanges, ScmVariant variant, boolean importing,
+            UpdateTask updateTask )
+        throws Exception
+    {
+        long started = System.currentTimeMillis();
+        Map<org.headsupdev.agile.api.service.ChangeSet, Set<Project>> stored =
+                new LinkedHashMap<org.headsupdev.agile.api.service.ChangeSet, Set<Project>>();
+
+        Session session = HibernateUtil.openSession();
+        Transaction tx = session.beginTransaction();
+        try
+        {
+            project = (Project) session.merge( project );
+            for ( PendingChangeSet pending : batch )
+            {
+                org.apache.maven.scm.ChangeSet changeSet = pending.changeSet;
                 DiffScmResult diff = null;
+                if ( pending.diff != null )
+                {
+                    diff = pending.diff.get();
+                    log.info( "Found " + diff.getChangedFiles() + " file diffs" );
+                }
+
+                org.headsupdev.agile.api.service.ChangeSet set;
                 if ( variant.isTransactional() )
                 {
-                    diff = scmManager.diff( scmManager.makeScmRepository( scm ), new ScmFileSet( working ),
-                            variant.getStartRevisionForDiff( previousId, revision ),
-                            variant.getEndRevisionForDiff( previousId, revision ) );
+                    set = new TransactionalScmChangeSet( pending.revision, changeSet.getAuthor(), changeSet.getComment(),
+                            changeSet.getDate(), project );
                 }
                 else
                 {
-                    // TODO fix glaring omission in maven-scm where the diff( Date...Date ) is not supported...
+                    set = new ScmChangeSet( changeSet.getAuthor(), changeSet.getComment(), changeSet.getDate(), project );
+                }
+                ( (ScmChangeSet) set ).setPrevious( lastChanges );
+                // saving the set first lets each change insert with its foreign key, so the inserts batch
+                session.save( set );
+
+                // enter the changes with diffs to the database
+                List<ScmFile> scmFiles;
+                if ( diff != null && ( pending.moved || ( !StringUtil.isEmpty( pending.previous ) &&
+                        variant.useDiffForFileListing() ) ) )
+                {
+                    // using extended diff is much richer than the update results (but provides nonsense for #1)
+                    scmFiles = diff.getChangedFiles();
+                }
+                else
+                {
+                    scmFiles = pending.updatedFiles;
                 }
-                log.info( "Found " + diff.getChangedFiles() + " file diffs" );
-
-                session = HibernateUtil.openSession();
-                tx = session.beginTransaction();
-                try {
-                    project = (Project) session.merge( project );
-                    ( (ScmChangeSet) set ).setPrevious( lastChanges );
-
-                    // enter the changes with diffs to the database
-                    List<ScmFile> scmFiles;
-                    if ( moved || ( !StringUtil.isEmpty( previousId ) && variant.useDiffForFileListing() ) )
-                    {
-                        // using extended diff is much richer than the update results (but provides nonsense for #1)
-                        scmFiles = diff.getChangedFiles();
-                    }
-                    else
-                    {
-                        scmFiles = updatedFiles;
-                    }
 
-                    if ( scmFiles != null )
+                List<ScmChange> changedFiles = new LinkedList<ScmChange>();
+                if ( scmFiles != null )
+                {
+                    for ( ScmFile scmFile : scmFiles )
                     {
-                        for ( ScmFile scmFile : scmFiles )
+                        int type;
+                        if ( scmFile.getStatus().equals( ScmFileStatus.ADDED ) )
                         {
-                            int type;
-                            if ( scmFile.getStatus().equals( ScmFileStatus.ADDED ) )
-                            {
-                                type = ScmChange.TYPE_ADDED;
-                            }
-                            else if ( scmFile.getStatus().equals( ScmFileStatus.DELETED ) )
-                            {
-                                type = ScmChange.TYPE_REMOVED;
-                            }
-                            else
-                            {
-                                type = ScmChange.TYPE_CHANGED;
-                            }
-
-                            ScmChange adding;
-                            String path = scmFile.getPath();
-                            String difference = null;
-                            if ( diff != null && diff.getDifferences() != null && diff.getDifferences().containsKey( path ) )
-                            {
-                                difference = diff.getDifferences().get( path ).toString();
-                            }
-                            if ( variant.isTransactional() )
-                            {
-                                adding = new ScmChange( path, type, difference, set );
-                            }
-                            else
-                            {
-                                adding = new ScmChange( path, findRevisionForScmFile( changeSet, scmFile ), type, difference, set );
-                            }
-                            changedFiles.add( adding );
-                            set.getChanges().add( adding );
-                            session.save( adding );
+                            type = ScmChange.TYPE_ADDED;
+                        }
+                        else if ( scmFile.getStatus().equals( ScmFileStatus.DELETED ) )
+                        {
+                            type = ScmChange.TYPE_REMOVED;
+                        }
+                        else
+                        {
+                            type = ScmChange.TYPE_CHANGED;
                         }
-                    }
-
-                    session.save( set );
-                    log.info( "Saved changeset " + set.getId() + " with " + set.getChanges().size() + " files" );
-
-                    if ( lastChanges != null )
-                    {
-                        ( (ScmChangeSet) lastChanges ).setNext( set );
-                        session.merge( lastChanges );
-                    }
 
-                    // update the file revision links
-                    for ( ScmChange file : changedFiles )
-                    {
+                        ScmChange adding;
+                        String path = scmFile.getPath();
+                        String difference = null;
+                        if ( diff != null && diff.getDifferences() != null && diff.getDifferences().containsKey( path ) )
+                        {
+                            difference = diff.getDifferences().get( path ).toString();
+                        }
                         if ( variant.isTransactional() )
                         {
-                            affected.add( updateFile( project, file.getName(), revision, session, importing ) );
+                            adding = new ScmChange( path, type, difference, set );
                         }
                         else
                         {
-                            affected.add( updateFile( project, file.getName(), file.getRevision(), session, importing ) );
+                            adding = new ScmChange( path, findRevisionForScmFile( changeSet, scmFile ), type, difference, set );
                         }
+                        changedFiles.add( adding );
+                        set.getChanges().add( adding );
+                        session.save( adding );
                     }
+                }
 
-                    if ( affected.isEmpty() )
+                log.info( "Saved changeset " + set.getId() + " with " + set.getChanges().size() + " files" );
+
+                if ( lastChanges != null )
+                {
+                    ( (ScmChangeSet) lastChanges ).setNext( set );
+                    session.merge( lastChanges );
+                }
+
+                // update the file revision links
+                Set<Project> affected = new HashSet<Project>();
+                for ( ScmChange file : changedFiles )
+                {
+                    if ( variant.isTransactional() )
                     {
-                        affected.add( project );
+                        affected.add( updateFile( project, file.getName(), set, pending.revision, session, importing ) );
                     }
-
-                    for ( Project affect : affected )
+                    else
                     {
-                        log.info( "Setting revision to " + revision + " for project " + affect.getId() );
-                        setRevision( affect, set.getId(), session );
+                        affected.add( updateFile( project, file.getName(), set, file.getRevision(), session, importing ) );
                     }
-
-                    ScmCommentParser.parseComment( set.getComment(), set );
-
-                    tx.commit();
                 }
-                catch ( Exception e )
-                {
-                    // something failed in the database, log it and try again
-                    // TODO find the real cause and remove this (previous(); continue) hack...
-                    log.error( "Failed to load project change set", e );
-e.printStackTrace();
-                    tx.rollback();
-//                    changeList.previous();
 
-                    continue;
-                }
-                finally
+                if ( affected.isEmpty() )
                 {
-                    session.close();
+                    affected.add( project );
                 }
 
-                previousId = set.getId();
-                lastChanges = set;
-                first = false;
-
                 for ( Project affect : affected )
                 {
-                    application.addEvent( new FileChangeSetEvent( set, affect ), !importing );
+                    log.info( "Setting revision to " + pending.revision + " for project " + affect.getId() );
+                    setRevision( affect, set.getId(), session );
                 }
+
+                ScmCommentParser.parseComment( set.getComment(), set );
+
+                stored.put( set, affected );
+                lastChanges = set;
             }
+
+            tx.commit();
         }
-        catch ( Throwable t )
+        catch ( Exception e )
         {
-            log.error( "Error updating projects", t );
+            tx.rollback();
+            throw e;
         }
         finally
         {
-            Manager.getInstance().removeTask( updateTask );
+            session.close();
         }
+
+        application.invalidateDirectoryMetadata( project );
+        statistics.changeSetsImported( stored.size(), System.currentTimeMillis() - started );
+        updateTask.addImported( stored.size() );
+        for ( Map.Entry<org.headsupdev.agile.api.service.ChangeSet, Set<Project>> entry : stored.entrySet() )
+        {
+            for ( Project affect : entry.getValue() )
+            {
+                application.addEvent( new FileChangeSetEvent( entry.getKey(), affect ), !importing );
+            }
+        }
+
+        return lastChanges;
     }
 
     private Project getProject( String id )
@@ -518,11 +802,7 @@ e.printStackTrace();
 
     public void projectAdded( Project project )
     {
-        if ( project.getParent() == null )
-        {
-            queueProject( project );
-            updateProjects();
-        }
+        queueProject( project );
     }
 
     public void projectModified( Project project )
@@ -537,22 +817,73 @@ e.printStackTrace();
     {
     }
 
-    protected Project updateFile( Project project, String path, String revision, Session session, boolean importing )
+    protected Project updateFile( Project project, String path, org.headsupdev.agile.api.service.ChangeSet change,
+                                  String revision, Session session, boolean importing )
     {
         File file = new File( path );
-        session.merge( new org.headsupdev.agile.storage.files.File( path, revision, project ) );
+        session.merge( new org.headsupdev.agile.storage.files.File( path, change, revision, project ) );
 
         while ( file.getParentFile() != null )
         {
             file = file.getParentFile();
 
-            session.merge( new org.headsupdev.agile.storage.files.File( file.getPath(), revision, project ) );
+            session.merge( new org.headsupdev.agile.storage.files.File( file.getPath(), change, revision, project ) );
+        }
+
+        return getChangedProject( path, project, session, importing );
+    }
+
+    /**
+     * Find the project (or sub project) that a changed path belongs to, walking the ProjectHierarchy so the child
+     * projects are not loaded for every file in a change.
+     */
+    private Project getChangedProject( String path, Project project, Session session, boolean importing )
+    {
+        Project changed = project;
+        String rel = "";
+        String rootId;
+
+        ProjectHierarchy.Node node = ProjectHierarchy.get().getNode( project.getId() );
+        if ( node != null )
+        {
+            StringBuilder matchedRel = new StringBuilder();
+            ProjectHierarchy.Node found = getChangedProjects( path, node, "", matchedRel );
+            if ( found != node )
+            {
+                changed = (Project) session.get( StoredProject.class, found.getId() );
+                rel = matchedRel.toString();
+            }
+
+            while ( node.getParent() != null )
+            {
+                node = node.getParent();
+            }
+            rootId = node.getId();
+        }
+        else
+        {
+            // not committed yet so the hierarchy does not know about it or any children
+            Project root = project;
+            while ( root.getParent() != null )
+            {
+                root = root.getParent();
+            }
+            rootId = root.getId();
         }
 
-        return getChangedProjects( path, project, "", session, importing );
+        if ( !importing )
+        {
+            File working = new File( Manager.getStorageInstance().getApplicationDataDirectory( application ), rootId );
+
+            String projectFilePath = path.substring( rel.length() );
+            File file = new File( working, path );
+            Manager.getInstance().fireProjectFileModified( changed, projectFilePath, file );
+        }
+        return changed;
     }
 
-    private Project getChangedProjects( String path, Project project, String rel, Session session, boolean importing )
+    private ProjectHierarchy.Node getChangedProjects( String path, ProjectHierarchy.Node project, String rel,
+                                                      StringBuilder matchedRel )
     {
         char sep;
         String test = rel;
@@ -572,11 +903,11 @@ e.printStackTrace();
             return null;
         }
 
-        for ( Project child : project.getChildProjects() )
+        for ( ProjectHierarchy.Node child : project.getChildren() )
         {
             int scmDiff = child.getScm().length() - project.getScm().length();
-            Project possible = getChangedProjects( path, child, rel + child.getScm().substring( child.getScm().length() - scmDiff ),
-                session, importing );
+            ProjectHierarchy.Node possible = getChangedProjects( path, child,
+                rel + child.getScm().substring( child.getScm().length() - scmDiff ), matchedRel );
 
             if ( possible != null )
             {
@@ -584,19 +915,7 @@ e.printStackTrace();
             }
         }
 
-        if ( !importing )
-        {
-            Project root = project;
-            while ( root.getParent() != null )
-            {
-                root = root.getParent();
-            }
-            File working = new File( Manager.getStorageInstance().getApplicationDataDirectory( application ), root.getId() );
-
-            String projectFilePath = path.substring( rel.length() );
-            File file = new File( working, path );
-            Manager.getInstance().fireProjectFileModified( project, projectFilePath, file );
-        }
+        matchedRel.append( rel );
         return project;
     }
 
@@ -631,4 +950,25 @@ e.printStackTrace();
 
         return version;
     }
+
+    /**
+     * A changeset found in the scm log that has not yet been stored, along with the data gathered for it
+     * as it passes through the import pipeline.
+     */
+    private static class PendingChangeSet
+    {
+        final org.apache.maven.scm.ChangeSet changeSet;
+        final String revision, previous;
+
+        Future<DiffScmResult> diff;
+        List<ScmFile> updatedFiles;
+        boolean moved = false;
+
+        PendingChangeSet( org.apache.maven.scm.ChangeSet changeSet, String revision, String previous )
+        {
+            this.changeSet = changeSet;
+            this.revision = revision;
+            this.previous = previous;
+        }
+    }
 }
@@ -29,8 +29,18 @@ import org.headsupdev.agile.api.AbstractTask;
  */
 public class CheckUpdateTask extends AbstractTask
 {
-    public CheckUpdateTask()
+    private ScmImportStatistics statistics;
+
+    public CheckUpdateTask( ScmImportStatistics statistics )
     {
         super( "Checking for updated source code", "Checking the projects for source code updates" );
+
+        this.statistics = statistics;
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return super.getDescription() + " (" + statistics + ")";
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,64 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.files;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A detached copy of the last change information for a file, as shown in a directory listing.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class FileMetadata
+    implements Serializable
+{
+    private String revision, author, comment;
+    private Date modified;
+
+    public FileMetadata( String revision, String author, String comment, Date modified )
+    {
+        this.revision = revision;
+        this.author = author;
+        this.comment = comment;
+        this.modified = modified;
+    }
+
+    public String getRevision()
+    {
+        return revision;
+    }
+
+    public String getAuthor()
+    {
+        return author;
+    }
+
+    public String getComment()
+    {
+        return comment;
+    }
+
+    public Date getModified()
+    {
+        return modified;
+    }
+}
@@ -25,10 +25,10 @@ import org.headsupdev.agile.api.service.ChangeSet;
 import org.headsupdev.agile.storage.ScmChangeSet;
 import org.headsupdev.agile.storage.HibernateStorage;
 import org.headsupdev.agile.storage.issues.Issue;
+import org.headsupdev.agile.web.LinkResolver;
 import org.hibernate.*;
 
 import java.util.Map;
-import java.util.StringTokenizer;
 
 /**
  * Parser for scm comments that set up relationships and actions based on commit comments
@@ -40,30 +40,30 @@ import java.util.StringTokenizer;
  */
 public class ScmCommentParser
 {
-    // TODO share a lot of this logic with the MarkedUpTextModel
-    public static void parseComment( String comment, ChangeSet set )
+    public static void parseComment( String comment, final ChangeSet set )
     {
         if ( comment == null )
         {
             return;
         }
 
-        StringTokenizer tokenizer = new StringTokenizer( comment, " \t\n\r\f<>(){}&.,!?;", true );
-
-        Map<String, LinkProvider> providers = Manager.getInstance().getLinkProviders();
-        String previous = "";
-        while ( tokenizer.hasMoreTokens() )
+        final Map<String, LinkProvider> providers = Manager.getInstance().getLinkProviders();
+        LinkResolver.tokenize( comment, new LinkResolver.TokenHandler()
         {
-            String next = tokenizer.nextToken();
+            private int previousStart = 0, previousEnd = 0;
 
-            if ( next.indexOf( ':' ) != -1 )
+            public void token( char[] chars, int start, int end, boolean link )
             {
-                parseLink( next, previous, set, providers );
-            }
-
-            previous = next;
-        }
+                if ( link )
+                {
+                    String prepend = new String( chars, previousStart, previousEnd - previousStart );
+                    parseLink( new String( chars, start, end - start ), prepend, set, providers );
+                }
 
+                previousStart = start;
+                previousEnd = end;
+            }
+        } );
     }
 
     public static String parseLink( String text, String prepend, ChangeSet set, Map<String, LinkProvider> providers )
@@ -95,7 +95,7 @@ public class ScmCommentParser
             if ( pos != -1 )
             {
                 String projectId = name.substring( 0, pos );
-                Project project = Manager.getStorageInstance().getProject( projectId );
+                Project project = LinkResolver.getInstance().getProject( projectId );
                 if ( project != null )
                 {
                     fallback = project;
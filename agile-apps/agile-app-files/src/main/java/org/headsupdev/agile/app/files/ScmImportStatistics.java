@@ -0,0 +1,118 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.files;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing the state of the scm import pipeline - how many projects are waiting or importing,
+ * how deep the diff queue is and how quickly changesets are being stored.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ScmImportStatistics
+    implements Serializable
+{
+    private AtomicInteger queuedProjects = new AtomicInteger();
+    private AtomicInteger activeProjects = new AtomicInteger();
+    private AtomicInteger pendingDiffs = new AtomicInteger();
+
+    private AtomicLong importedChangeSets = new AtomicLong();
+    private AtomicLong importMillis = new AtomicLong();
+
+    void projectQueued()
+    {
+        queuedProjects.incrementAndGet();
+    }
+
+    void projectStarted()
+    {
+        queuedProjects.decrementAndGet();
+        activeProjects.incrementAndGet();
+    }
+
+    void projectFinished()
+    {
+        activeProjects.decrementAndGet();
+    }
+
+    void diffQueued()
+    {
+        pendingDiffs.incrementAndGet();
+    }
+
+    void diffCompleted()
+    {
+        pendingDiffs.decrementAndGet();
+    }
+
+    void changeSetsImported( int count, long millis )
+    {
+        importedChangeSets.addAndGet( count );
+        importMillis.addAndGet( millis );
+    }
+
+    public int getQueuedProjects()
+    {
+        return queuedProjects.get();
+    }
+
+    public int getActiveProjects()
+    {
+        return activeProjects.get();
+    }
+
+    /**
+     * The number of changesets that are waiting for, or currently calculating, their diff.
+     */
+    public int getPendingDiffs()
+    {
+        return pendingDiffs.get();
+    }
+
+    public long getImportedChangeSets()
+    {
+        return importedChangeSets.get();
+    }
+
+    /**
+     * The average number of changesets stored per second of time spent importing.
+     */
+    public double getChangeSetsPerSecond()
+    {
+        long millis = importMillis.get();
+        if ( millis == 0 )
+        {
+            return 0;
+        }
+
+        return importedChangeSets.get() * 1000d / millis;
+    }
+
+    public String toString()
+    {
+        return activeProjects.get() + " projects importing, " + queuedProjects.get() + " waiting, " +
+                pendingDiffs.get() + " diffs pending, " + String.format( "%.1f", getChangeSetsPerSecond() ) +
+                " changesets/sec";
+    }
+}
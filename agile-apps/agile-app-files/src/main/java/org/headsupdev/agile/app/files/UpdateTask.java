@@ -30,9 +30,32 @@ import org.headsupdev.agile.api.AbstractTask;
  */
 public class UpdateTask extends AbstractTask
 {
+    private volatile int total, imported;
+
     public UpdateTask( Project project )
     {
         super( "Downloading project source code changes", "Downloading the changesets for source code from scm url " + project.getScm(),
                 project );
     }
+
+    public void setTotal( int total )
+    {
+        this.total = total;
+    }
+
+    public void addImported( int count )
+    {
+        imported += count;
+    }
+
+    @Override
+    public String getDescription()
+    {
+        if ( total == 0 )
+        {
+            return super.getDescription();
+        }
+
+        return super.getDescription() + " (imported " + imported + " of " + total + " changesets)";
+    }
 }
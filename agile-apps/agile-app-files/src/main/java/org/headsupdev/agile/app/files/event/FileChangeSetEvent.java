@@ -18,12 +18,14 @@
 
 package org.headsupdev.agile.app.files.event;
 
+import org.headsupdev.agile.api.MenuLink;
 import org.headsupdev.agile.api.User;
 import org.headsupdev.agile.api.service.Change;
 import org.headsupdev.agile.api.service.ChangeSet;
 import org.headsupdev.agile.app.files.BrowseApplication;
 import org.headsupdev.agile.app.files.BrowseChange;
 import org.headsupdev.agile.app.files.ChangeSetPanel;
+import org.headsupdev.agile.storage.EventBodyCache;
 import org.headsupdev.agile.storage.TransactionalScmChangeSet;
 import org.headsupdev.agile.web.BookmarkableMenuLink;
 import org.headsupdev.agile.web.AbstractEvent;
@@ -93,16 +95,36 @@ public class FileChangeSetEvent
         ChangeSet changeSet = Manager.getInstance().getScmService().getChangeSet( project, getObjectId() );
         if ( changeSet == null )
         {
+            EventBodyCache.renderFailed();
             return "<p>Changeset " + getObjectId() + " does not exist for project " + getProject().getAlias() + "</p>";
         }
 
+        return renderChangeSet( changeSet, stripPrefix );
+    }
+
+    @Override
+    public List<MenuLink> getLinks()
+    {
+        List<MenuLink> links = new LinkedList<MenuLink>();
+        Project project = getProject();
+        while ( project.getParent() != null )
+        {
+            project = project.getParent();
+        }
+
+        ChangeSet changeSet = Manager.getInstance().getScmService().getChangeSet( project, getObjectId() );
+        if ( changeSet == null )
+        {
+            return links;
+        }
+
         if ( changeSet.getPrevious() != null )
         {
             PageParameters params = new PageParameters();
             params.add( "project", project.getId() );
             params.add( "id", changeSet.getPrevious().getId() );
 
-            addLink( new BookmarkableMenuLink( BrowseChange.class, params, "\u25c0 previous changeset" ) );
+            links.add( new BookmarkableMenuLink( BrowseChange.class, params, "\u25c0 previous changeset" ) );
         }
         if ( changeSet.getNext() != null )
         {
@@ -110,10 +132,10 @@ public class FileChangeSetEvent
             params.add( "project", project.getId() );
             params.add( "id", changeSet.getNext().getId() );
 
-            addLink( new BookmarkableMenuLink( BrowseChange.class, params, "\u25ba next changeset" ) );
+            links.add( new BookmarkableMenuLink( BrowseChange.class, params, "\u25ba next changeset" ) );
         }
 
-        return renderChangeSet( changeSet, stripPrefix );
+        return links;
     }
 
     public List<CssReference> getBodyCssReferences()
@@ -23,6 +23,7 @@ import org.headsupdev.agile.web.HeadsUpPage;
 import org.headsupdev.agile.web.ApplicationPageMapper;
 import org.headsupdev.agile.web.MountPoint;
 import org.headsupdev.agile.api.*;
+import org.headsupdev.agile.storage.EventBodyCache;
 import org.headsupdev.agile.storage.StoredProject;
 import org.apache.wicket.markup.html.basic.Label;
 
@@ -72,7 +73,7 @@ public class ShowEvent
 
         add( new Label( "header", event.getBodyHeader() ).setEscapeModelStrings( false ) );
 
-        String body = event.getBody();
+        String body = EventBodyCache.getBody( event );
         if ( body == null )
         {
             body = "";
@@ -22,6 +22,7 @@ import org.headsupdev.agile.api.Event;
 import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.api.Permission;
 import org.headsupdev.agile.app.history.permission.HistoryViewPermission;
+import org.headsupdev.agile.storage.EventBodyCache;
 import org.headsupdev.agile.web.HeadsUpPage;
 import org.headsupdev.agile.web.MountPoint;
 import org.apache.wicket.markup.html.CSSPackageResource;
@@ -66,7 +67,7 @@ public class ShowEventBody
         add( CSSPackageResource.getHeaderContribution( HeadsUpPage.class, "embed.css" ) );
         add( new Label( "header", event.getBodyHeader() ).setEscapeModelStrings( false ) );
 
-        String body = event.getBody();
+        String body = EventBodyCache.getBody( event );
         if ( body == null ) {
             body = "";
         }
@@ -20,18 +20,21 @@ package org.headsupdev.agile.app.issues.event;
 
 import org.headsupdev.agile.web.components.issues.IssueListPanel;
 import org.headsupdev.agile.web.AbstractEvent;
+import org.headsupdev.agile.storage.EventBodyCache;
 import org.headsupdev.agile.storage.issues.Issue;
 import org.headsupdev.agile.storage.Comment;
 import org.headsupdev.agile.app.issues.IssuesApplication;
-import org.headsupdev.agile.app.issues.ViewIssue;
+import org.headsupdev.agile.api.MenuLink;
 import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.api.User;
 
 import javax.persistence.Entity;
 import javax.persistence.DiscriminatorValue;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.Set;
 
 /**
  * Event added when an issue is closed
@@ -69,20 +72,26 @@ public class CloseIssueEvent
         }
         catch ( NumberFormatException e )
         {
+            EventBodyCache.renderFailed();
             return "<p>Invalid issue ID " + getObjectId() + "</p>";
         }
 
         Issue issue = IssuesApplication.getIssue( id, getProject() );
         if ( issue == null )
         {
+            EventBodyCache.renderFailed();
             return "<p>Issue " + getObjectId() + " does not exist for project " + getProject().getAlias() + "</p>";
         }
 
-        addLinks( ViewIssue.getLinks( issue ) );
-
         return CreateIssueEvent.renderIssue( issue );
     }
 
+    @Override
+    public List<MenuLink> getLinks()
+    {
+        return CreateIssueEvent.getIssueLinks( getObjectId(), getProject() );
+    }
+
     public List<CssReference> getBodyCssReferences()
     {
         List<CssReference> ret = new LinkedList<CssReference>();
@@ -92,6 +101,19 @@ public class CloseIssueEvent
         return ret;
     }
 
+    @Override
+    public Set<User> getInterestedUsers()
+    {
+        int id = Integer.parseInt( getObjectId() );
+        Issue issue = IssuesApplication.getIssue( id, getProject() );
+        if ( issue == null )
+        {
+            return Collections.emptySet();
+        }
+
+        return issue.getWatchers();
+    }
+
     @Override
     public boolean shouldNotify( User user )
     {
@@ -18,11 +18,13 @@
 
 package org.headsupdev.agile.app.issues.event;
 
+import org.headsupdev.agile.api.MenuLink;
 import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.api.User;
 import org.headsupdev.agile.web.AbstractEvent;
 import org.headsupdev.agile.web.RenderUtil;
 import org.headsupdev.agile.web.components.issues.IssueListPanel;
+import org.headsupdev.agile.storage.EventBodyCache;
 import org.headsupdev.agile.storage.issues.Issue;
 import org.headsupdev.agile.app.issues.IssuesApplication;
 import org.headsupdev.agile.app.issues.IssuePanel;
@@ -33,8 +35,10 @@ import javax.persistence.DiscriminatorValue;
 
 import org.apache.wicket.markup.html.panel.Panel;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.Set;
 
 /**
  * Event added when an issue is created
@@ -72,20 +76,44 @@ public class CreateIssueEvent
         }
         catch ( NumberFormatException e )
         {
+            EventBodyCache.renderFailed();
             return "<p>Invalid issue ID " + getObjectId() + "</p>";
         }
 
         Issue issue = IssuesApplication.getIssue( id, getProject() );
         if ( issue == null )
         {
+            EventBodyCache.renderFailed();
             return "<p>Issue " + getObjectId() + " does not exist for project " + getProject().getAlias() + "</p>";
         }
 
-        addLinks( ViewIssue.getLinks( issue ) );
-
         return renderIssue( issue );
     }
 
+    @Override
+    public List<MenuLink> getLinks()
+    {
+        return getIssueLinks( getObjectId(), getProject() );
+    }
+
+    static List<MenuLink> getIssueLinks( String issueId, Project project )
+    {
+        try
+        {
+            Issue issue = IssuesApplication.getIssue( Long.parseLong( issueId ), project );
+            if ( issue != null )
+            {
+                return ViewIssue.getLinks( issue );
+            }
+        }
+        catch ( NumberFormatException e )
+        {
+            // no links for an invalid issue
+        }
+
+        return new LinkedList<MenuLink>();
+    }
+
     public static String getBodySummary( String body )
     {
         if ( body == null )
@@ -120,6 +148,19 @@ public class CreateIssueEvent
         }.getRenderedContent();
     }
 
+    @Override
+    public Set<User> getInterestedUsers()
+    {
+        int id = Integer.parseInt( getObjectId() );
+        Issue issue = IssuesApplication.getIssue( id, getProject() );
+        if ( issue == null )
+        {
+            return Collections.emptySet();
+        }
+
+        return issue.getWatchers();
+    }
+
     @Override
     public boolean shouldNotify( User user )
     {
@@ -19,10 +19,11 @@
 package org.headsupdev.agile.app.issues.event;
 
 import org.headsupdev.agile.web.components.CommentPanel;
-import org.headsupdev.agile.app.issues.ViewIssue;
+import org.headsupdev.agile.api.MenuLink;
 import org.headsupdev.agile.web.RenderUtil;
 import org.headsupdev.agile.web.components.issues.IssueListPanel;
 import org.headsupdev.agile.web.AbstractEvent;
+import org.headsupdev.agile.storage.EventBodyCache;
 import org.headsupdev.agile.storage.issues.Issue;
 import org.headsupdev.agile.storage.Comment;
 import org.headsupdev.agile.app.issues.IssuesApplication;
@@ -33,8 +34,10 @@ import org.apache.wicket.markup.html.panel.Panel;
 import javax.persistence.Entity;
 import javax.persistence.DiscriminatorValue;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.Set;
 
 /**
  * Event added when an issue is updated
@@ -83,18 +86,19 @@ public class UpdateIssueEvent
         }
         catch ( NumberFormatException e )
         {
+            EventBodyCache.renderFailed();
             return "<p>Invalid issue ID " + getObjectId() + "</p>";
         }
 
         Issue issue = IssuesApplication.getIssue( id, getProject() );
         if ( issue == null )
         {
+            EventBodyCache.renderFailed();
             return "<p>Issue " + getObjectId() + " does not exist for project " + getProject().getAlias() + "</p>";
         }
 
         if ( getSubObjectId() == null || "0".equals( getSubObjectId() ) )
         {
-            addLinks( ViewIssue.getLinks( issue ) );
             return CreateIssueEvent.renderIssue( issue );
         }
         else
@@ -102,6 +106,7 @@ public class UpdateIssueEvent
             Comment comment = IssuesApplication.getComment( Long.parseLong( getSubObjectId() ) );
             if ( comment == null )
             {
+                EventBodyCache.renderFailed();
                 return "<p>Comment " + getSubObjectId() + " does not exist</p>";
             }
 
@@ -109,6 +114,17 @@ public class UpdateIssueEvent
         }
     }
 
+    @Override
+    public List<MenuLink> getLinks()
+    {
+        if ( getSubObjectId() == null || "0".equals( getSubObjectId() ) )
+        {
+            return CreateIssueEvent.getIssueLinks( getObjectId(), getProject() );
+        }
+
+        return super.getLinks();
+    }
+
     public List<CssReference> getBodyCssReferences()
     {
         List<CssReference> ret = new LinkedList<CssReference>();
@@ -131,6 +147,19 @@ public class UpdateIssueEvent
         return "<table class=\"comments vertical\">" + content + "</table>";
     }
 
+    @Override
+    public Set<User> getInterestedUsers()
+    {
+        int id = Integer.parseInt( getObjectId() );
+        Issue issue = IssuesApplication.getIssue( id, getProject() );
+        if ( issue == null )
+        {
+            return Collections.emptySet();
+        }
+
+        return issue.getWatchers();
+    }
+
     @Override
     public boolean shouldNotify( User user )
     {
@@ -22,9 +22,9 @@ import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.app.milestones.permission.MilestoneViewPermission;
 import org.headsupdev.agile.storage.DurationWorkedUtil;
+import org.headsupdev.agile.storage.MilestoneSeries;
 import org.headsupdev.agile.storage.StoredProject;
 import org.headsupdev.agile.storage.issues.Duration;
-import org.headsupdev.agile.storage.issues.Issue;
 import org.headsupdev.agile.storage.issues.Milestone;
 import org.headsupdev.agile.web.CachedImageResource;
 import org.headsupdev.agile.web.MountPoint;
@@ -102,7 +102,12 @@ public class BurndownGraph
         {
             return;
         }
-        Duration[] effortRequired = DurationWorkedUtil.getMilestoneEffortRequired(getMilestone());
+        MilestoneSeries series = MilestoneSeries.get( getMilestone() );
+        Duration[] effortRequired = null;
+        if ( series != null )
+        {
+            effortRequired = series.getEffortRequired();
+        }
         double total = 0;
         if ( effortRequired != null && effortRequired.length > 0 )
         {
@@ -163,7 +168,11 @@ public class BurndownGraph
 
             int xc = PAD + ( (int) ( ( i * ( (double) WIDTH / dates.size() ) ) + ( (double) WIDTH / ( dates.size() * 2 ) ) ) );
 
-            double workedTotal = getTotalHoursForDay( date );
+            double workedTotal = 0;
+            if ( series != null )
+            {
+                workedTotal = series.getHoursWorked( date );
+            }
             int y = PAD + HEIGHT - ( (int) ( HEIGHT * ( workedTotal / total ) ) );
             g.setColor( hoursColor );
             g.fillRect( x + 5, y, x2 - x - 10, HEIGHT + PAD - y );
@@ -248,23 +257,6 @@ public class BurndownGraph
         }
     }
 
-
-    protected double getTotalHoursForDay( Date day )
-    {
-        double total = 0;
-        if ( getMilestone() == null )
-        {
-            return total;
-        }
-
-        for ( Issue issue : getMilestone().getIssues() )
-        {
-            total += DurationWorkedUtil.totalWorkedForDay( issue, day ).getHours();
-        }
-
-        return total;
-    }
-
     @Override
     protected int getWidth()
     {
@@ -0,0 +1,91 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.milestones;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Write rows as comma separated values, quoting text only when it needs to be.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+class CsvRowWriter
+    implements RowWriter
+{
+    private Writer out;
+
+    public CsvRowWriter( OutputStream out )
+        throws IOException
+    {
+        this.out = new BufferedWriter( new OutputStreamWriter( out, "UTF-8" ) );
+    }
+
+    public void row( Object... cells )
+        throws IOException
+    {
+        boolean first = true;
+        for ( Object cell : cells )
+        {
+            if ( !first )
+            {
+                out.write( ',' );
+            }
+            first = false;
+
+            if ( cell != null )
+            {
+                writeCell( cell.toString() );
+            }
+        }
+        out.write( '\n' );
+    }
+
+    private void writeCell( String value )
+        throws IOException
+    {
+        boolean quote = false;
+        for ( int i = 0; i < value.length() && !quote; i++ )
+        {
+            char c = value.charAt( i );
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if ( !quote )
+        {
+            out.write( value );
+            return;
+        }
+
+        out.write( '"' );
+        out.write( value.replace( "\"", "\"\"" ) );
+        out.write( '"' );
+    }
+
+    public void finish()
+        throws IOException
+    {
+        out.flush();
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.milestones;
+
+import org.headsupdev.agile.storage.DurationWorkedUtil;
+import org.headsupdev.agile.storage.StoredProject;
+import org.headsupdev.agile.storage.issues.Duration;
+import org.headsupdev.agile.storage.issues.DurationWorked;
+import org.headsupdev.agile.storage.issues.Issue;
+import org.headsupdev.agile.storage.issues.Milestone;
+import org.headsupdev.agile.web.components.issues.IssueUtils;
+import org.headsupdev.support.java.DateUtil;
+import org.hibernate.Query;
+import org.hibernate.Session;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Writes the estimates and time worked on milestones a row at a time.
+ * Issues are loaded in batches, in order of their key and with their time worked, and evicted once written so the
+ * memory used does not grow with the number of issues exported. Batches are used rather than a scrolled cursor as
+ * MySQL reads the whole of a cursor into memory unless it is streamed, and a streamed connection cannot load
+ * anything else until it is closed. Each issue's time worked is sorted once and swept across the milestone dates.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+class DurationWorkedExport
+{
+    private static final int BATCH_SIZE = 100;
+    private static final String AFTER = "( i.id.project.id > :afterProject or " +
+            "( i.id.project.id = :afterProject and i.id.id > :afterId ) )";
+    private static final String UP_TO = "( i.id.project.id < :lastProject or " +
+            "( i.id.project.id = :lastProject and i.id.id <= :lastId ) )";
+
+    private static final Comparator<DurationWorked> DAY_ORDER = new Comparator<DurationWorked>()
+    {
+        public int compare( DurationWorked worked1, DurationWorked worked2 )
+        {
+            return worked1.getDay().compareTo( worked2.getDay() );
+        }
+    };
+
+    private Session session;
+    private RowWriter out;
+    private Date from, to;
+
+    /**
+     * @param from the first day to export, or null to start at the beginning of each milestone
+     * @param to the last day to export, or null to continue to the end of each milestone
+     */
+    public DurationWorkedExport( Session session, RowWriter out, Date from, Date to )
+    {
+        this.session = session;
+        this.out = out;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Export all of the milestones in the listed projects, ordered by due date.
+     */
+    public void exportMilestones( Collection<String> projectIds )
+        throws IOException
+    {
+        StringBuilder hql = new StringBuilder( "from Milestone m where m.name.project.id in (:pids)" );
+        if ( from != null )
+        {
+            hql.append( " and m.due >= :from" );
+        }
+        hql.append( " order by m.due, m.name.name desc" );
+
+        Query query = session.createQuery( hql.toString() ).setParameterList( "pids", projectIds );
+        if ( from != null )
+        {
+            query.setTimestamp( "from", from );
+        }
+
+        List<Milestone> milestones = query.list();
+        for ( Milestone milestone : milestones )
+        {
+            exportMilestone( milestone );
+        }
+    }
+
+    public void exportMilestone( Milestone milestone )
+        throws IOException
+    {
+        List<Date> dates = DurationWorkedUtil.getMilestoneDates( milestone,
+                DurationWorkedUtil.queryMilestoneStartDate( milestone, session ), true );
+        boolean ranged = from != null || to != null;
+        if ( ranged )
+        {
+            dates = clipDates( dates, from, to );
+            if ( dates.isEmpty() )
+            {
+                return;
+            }
+        }
+
+        out.row( milestone.getName(), milestone.getDueDate() == null ? "no due date" : milestone.getDueDate() );
+        out.row();
+        // without a due date there are no days to report on
+        if ( dates.isEmpty() )
+        {
+            out.row();
+            return;
+        }
+
+        final boolean burndown = Boolean.parseBoolean( milestone.getProject().getConfigurationValue(
+                StoredProject.CONFIGURATION_TIMETRACKING_BURNDOWN ) );
+
+        List<Object> header = new ArrayList<Object>( dates.size() + 4 );
+        header.add( "Id" );
+        header.add( "Task" );
+        header.add( "Status" );
+        header.add( "Assignee" );
+        header.add( burndown ? "Estimate" : "Initial" );
+        header.addAll( dates.subList( 1, dates.size() ) );
+
+        out.row( burndown ? "Estimated Hours" : "Elapsed Hours" );
+        out.row( header.toArray() );
+
+        Object[] last = null;
+        List<Issue> issues;
+        while ( !( issues = loadIssues( milestone, last ) ).isEmpty() )
+        {
+            for ( Issue issue : issues )
+            {
+                WorkedTimeline timeline = new WorkedTimeline( issue );
+
+                Object[] row = new Object[dates.size() + 4];
+                setIssueCells( issue, row );
+                Duration[] estimates = timeline.getEstimates( dates, timeline.getInitialEstimate( burndown, dates.get( 0 ) ) );
+                for ( int i = 0; i < estimates.length; i++ )
+                {
+                    row[i + 4] = estimates[i].getHours();
+                }
+                out.row( row );
+
+                evict( issue );
+            }
+            last = getKey( issues.get( issues.size() - 1 ) );
+        }
+        out.row();
+        out.row();
+
+        List<Date> logDates = dates.subList( 1, dates.size() );
+        header = new ArrayList<Object>( logDates.size() + 5 );
+        header.add( "Id" );
+        header.add( "Task" );
+        header.add( "Status" );
+        header.add( "Assignee" );
+        header.add( "Worked" );
+        header.addAll( logDates );
+
+        out.row( "Hours Logged" );
+        out.row( header.toArray() );
+
+        last = null;
+        while ( !( issues = loadIssues( milestone, last ) ).isEmpty() )
+        {
+            for ( Issue issue : issues )
+            {
+                WorkedTimeline timeline = new WorkedTimeline( issue );
+
+                Object[] row = new Object[logDates.size() + 5];
+                setIssueCells( issue, row );
+                double[] worked = timeline.getWorked( logDates );
+                double total = 0;
+                for ( int i = 0; i < worked.length; i++ )
+                {
+                    row[i + 5] = worked[i];
+                    total += worked[i];
+                }
+                row[4] = total;
+                out.row( row );
+
+                evict( issue );
+            }
+            last = getKey( issues.get( issues.size() - 1 ) );
+        }
+        out.row();
+        out.row();
+    }
+
+    /**
+     * Load the next batch of issues in the milestone, with their time worked.
+     *
+     * @param after the key of the last issue loaded, from getKey(), or null to load the first batch
+     * @return the issues in key order, or an empty list if there are no more
+     */
+    private List<Issue> loadIssues( Milestone milestone, Object[] after )
+    {
+        String where = "i.milestone = :milestone";
+        if ( after != null )
+        {
+            where += " and " + AFTER;
+        }
+
+        // find the range of keys first, limiting a query that fetches a collection would be done in memory
+        Query keys = session.createQuery( "select i.id.project.id, i.id.id from Issue i where " + where +
+                " order by i.id.project.id, i.id.id" ).setEntity( "milestone", milestone );
+        setAfter( keys, after );
+        List<Object[]> batch = keys.setMaxResults( BATCH_SIZE ).list();
+        if ( batch.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        Object[] last = batch.get( batch.size() - 1 );
+        Query issues = session.createQuery( "select distinct i from Issue i left join fetch i.timeWorked where " +
+                where + " and " + UP_TO + " order by i.id.project.id, i.id.id" ).setEntity( "milestone", milestone )
+                .setString( "lastProject", (String) last[0] ).setLong( "lastId", (Long) last[1] ).setReadOnly( true );
+        setAfter( issues, after );
+        return issues.list();
+    }
+
+    private static void setAfter( Query query, Object[] after )
+    {
+        if ( after != null )
+        {
+            query.setString( "afterProject", (String) after[0] ).setLong( "afterId", (Long) after[1] );
+        }
+    }
+
+    private static Object[] getKey( Issue issue )
+    {
+        return new Object[]{ issue.getProject().getId(), issue.getId() };
+    }
+
+    private void setIssueCells( Issue issue, Object[] row )
+    {
+        row[0] = issue.getId();
+        row[1] = issue.getSummary();
+        row[2] = IssueUtils.getStatusName( issue.getStatus() );
+        if ( issue.getAssignee() != null )
+        {
+            row[3] = issue.getAssignee().getUsername();
+        }
+    }
+
+    private void evict( Issue issue )
+    {
+        for ( DurationWorked worked : issue.getTimeWorked() )
+        {
+            session.evict( worked );
+        }
+        session.evict( issue );
+    }
+
+    /**
+     * Restrict milestone dates to a range. The first date in the list is the day before the milestone, used as the
+     * starting estimate, so the day before the first date in range is kept for the same purpose.
+     *
+     * @return the dates in range preceded by the day before, or an empty list if no dates are in range
+     */
+    static List<Date> clipDates( List<Date> dates, Date from, Date to )
+    {
+        int start = 0;
+        if ( from != null )
+        {
+            while ( start < dates.size() && dates.get( start ).before( from ) )
+            {
+                start++;
+            }
+            start = Math.max( 0, start - 1 );
+        }
+
+        int end = dates.size();
+        if ( to != null )
+        {
+            while ( end > start && dates.get( end - 1 ).after( to ) )
+            {
+                end--;
+            }
+        }
+
+        if ( end - start < 2 )
+        {
+            return Collections.emptyList();
+        }
+        return new ArrayList<Date>( dates.subList( start, end ) );
+    }
+
+    /**
+     * The time worked on an issue sorted by day, giving the same answers as DurationWorkedUtil.lastEstimateForDay
+     * and DurationWorkedUtil.totalWorkedForDay for a list of increasing dates in a single pass.
+     */
+    static class WorkedTimeline
+    {
+        private Issue issue;
+        private List<DurationWorked> worked;
+
+        WorkedTimeline( Issue issue )
+        {
+            this.issue = issue;
+
+            worked = new ArrayList<DurationWorked>( issue.getTimeWorked().size() );
+            for ( DurationWorked entry : issue.getTimeWorked() )
+            {
+                if ( entry.getDay() != null )
+                {
+                    worked.add( entry );
+                }
+            }
+            Collections.sort( worked, DAY_ORDER );
+        }
+
+        /**
+         * The estimate for an issue before the first day, used when nothing has been estimated by the end of a day.
+         */
+        Duration getInitialEstimate( boolean burndown, Date firstDay )
+        {
+            Duration estimate = null;
+            // for non-burndown we start at 0 anyway
+            if ( burndown )
+            {
+                estimate = issue.getTimeEstimate();
+
+                for ( DurationWorked entry : worked )
+                {
+                    if ( estimate == null || ( entry.getDay().before( firstDay ) && entry.getUpdatedRequired() != null &&
+                            entry.getUpdatedRequired().getHours() < estimate.getHours() ) )
+                    {
+                        estimate = entry.getUpdatedRequired();
+                    }
+                }
+            }
+            if ( estimate == null )
+            {
+                estimate = new Duration( 0 );
+
+                for ( DurationWorked entry : worked )
+                {
+                    if ( entry.getDay().before( firstDay ) && entry.getUpdatedRequired() != null &&
+                            entry.getUpdatedRequired().getHours() > estimate.getHours() )
+                    {
+                        estimate = entry.getUpdatedRequired();
+                    }
+                }
+            }
+
+            return estimate;
+        }
+
+        /**
+         * @return the estimate remaining at the end of each of the dates
+         */
+        Duration[] getEstimates( List<Date> dates, Duration initial )
+        {
+            Calendar cal = Calendar.getInstance();
+            Duration[] ret = new Duration[dates.size()];
+
+            Duration estimate = initial;
+            Duration lastRequired = null;
+            Date lastDay = null;
+            int next = 0;
+            for ( int i = 0; i < ret.length; i++ )
+            {
+                Date endOfDay = DateUtil.getEndOfDate( cal, dates.get( i ) );
+                while ( next < worked.size() && worked.get( next ).getDay().before( endOfDay ) )
+                {
+                    DurationWorked entry = worked.get( next++ );
+                    if ( entry.getUpdatedRequired() != null && ( lastDay == null || entry.getDay().after( lastDay ) ) )
+                    {
+                        lastRequired = entry.getUpdatedRequired();
+                        lastDay = entry.getDay();
+                    }
+                }
+
+                Duration est = lastRequired;
+                if ( est == null )
+                {
+                    if ( issue.getIncludeInInitialEstimates() || issue.getCreated() == null ||
+                            issue.getCreated().before( endOfDay ) )
+                    {
+                        est = issue.getTimeEstimate();
+                    }
+                    else
+                    {
+                        est = new Duration( 0 );
+                    }
+                }
+
+                if ( est != null )
+                {
+                    estimate = est;
+                }
+                ret[i] = estimate;
+            }
+
+            return ret;
+        }
+
+        /**
+         * @return the hours logged on each of the dates
+         */
+        double[] getWorked( List<Date> dates )
+        {
+            Calendar cal = Calendar.getInstance();
+            double[] ret = new double[dates.size()];
+
+            int next = 0;
+            for ( int i = 0; i < ret.length; i++ )
+            {
+                Date startOfDay = DateUtil.getStartOfDate( cal, dates.get( i ) );
+                cal.setTime( startOfDay );
+                cal.add( Calendar.DATE, 1 );
+                Date nextDay = cal.getTime();
+
+                while ( next < worked.size() && worked.get( next ).getDay().before( startOfDay ) )
+                {
+                    next++;
+                }
+
+                while ( next < worked.size() && worked.get( next ).getDay().before( nextDay ) )
+                {
+                    DurationWorked entry = worked.get( next++ );
+                    if ( entry.getUpdatedRequired() != null && entry.getWorked() != null )
+                    {
+                        ret[i] += entry.getWorked().getHours();
+                    }
+                }
+            }
+
+            return ret;
+        }
+    }
+}
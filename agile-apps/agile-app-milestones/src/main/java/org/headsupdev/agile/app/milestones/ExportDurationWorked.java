@@ -21,30 +21,34 @@ package org.headsupdev.agile.app.milestones;
 import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.app.milestones.permission.MilestoneViewPermission;
-import org.headsupdev.agile.storage.DurationWorkedUtil;
-import org.headsupdev.agile.storage.StoredProject;
-import org.headsupdev.agile.storage.issues.Duration;
-import org.headsupdev.agile.storage.issues.DurationWorked;
-import org.headsupdev.agile.storage.issues.Issue;
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.ProjectHierarchy;
 import org.headsupdev.agile.storage.issues.Milestone;
-import org.headsupdev.agile.web.HeadsUpSession;
 import org.headsupdev.agile.web.MountPoint;
 import org.headsupdev.agile.web.WebUtil;
-import org.headsupdev.agile.web.components.issues.IssueUtils;
-import org.headsupdev.agile.web.wicket.SortableEntityProvider;
 import org.apache.wicket.RequestCycle;
+import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.markup.html.WebResource;
 import org.apache.wicket.protocol.http.WebRequest;
 import org.apache.wicket.protocol.http.WebResponse;
-import org.apache.wicket.util.resource.AbstractStringResourceStream;
+import org.apache.wicket.util.resource.AbstractResourceStreamWriter;
 import org.apache.wicket.util.resource.IResourceStream;
-
+import org.hibernate.Session;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
-import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Export a CSV of the estimates and time worked on milestones
+ * Export a CSV of the estimates and time worked on milestones.
+ * The rows are streamed to the response as they are calculated. Optional parameters are "from" and "to"
+ * (yyyy-MM-dd) to limit the days exported, "tree" to include milestones of sub projects and "format" which can be
+ * "csv" (the default), "csv.gz" or "xlsx".
  *
  * @author Andrew Williams
  * @version $Id$
@@ -54,24 +58,58 @@ import java.util.List;
 public class ExportDurationWorked
     extends WebResource
 {
+    private static final String FORMAT_CSV = "csv";
+    private static final String FORMAT_GZIP = "csv.gz";
+    private static final String FORMAT_XLSX = "xlsx";
+
+    private static final String DATE_FORMAT = "yyyy-MM-dd";
+
     @Override
     protected void setHeaders( WebResponse response )
     {
-        super.setHeaders(response);    //To change body of overridden methods use File | Settings | File Templates.
+        super.setHeaders( response );
 
         WebUtil.authenticate( (WebRequest) RequestCycle.get().getRequest(), response, new MilestoneViewPermission(),
                 getProject() );
+
+        String format = getFormat();
+        if ( !format.equals( FORMAT_CSV ) )
+        {
+            response.setAttachmentHeader( "worked." + format );
+        }
     }
 
     @Override
     public IResourceStream getResourceStream()
     {
-        return new AbstractStringResourceStream( "text/csv" )
+        final String format = getFormat();
+        return new AbstractResourceStreamWriter()
         {
             @Override
-            protected String getString()
+            public String getContentType()
             {
-                return getBody();
+                if ( format.equals( FORMAT_XLSX ) )
+                {
+                    return "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+                }
+                else if ( format.equals( FORMAT_GZIP ) )
+                {
+                    return "application/x-gzip";
+                }
+
+                return "text/csv";
+            }
+
+            public void write( OutputStream output )
+            {
+                try
+                {
+                    writeBody( output, format );
+                }
+                catch ( IOException e )
+                {
+                    throw new WicketRuntimeException( "Failed to export time worked", e );
+                }
             }
         };
     }
@@ -87,200 +125,90 @@ public class ExportDurationWorked
         return Manager.getStorageInstance().getProject( projectId );
     }
 
-    protected String getBody()
+    protected String getFormat()
     {
-        StringBuffer ret = new StringBuffer();
-
-        String milestoneId = getParameters().getString( "id" );
-        if ( milestoneId != null && milestoneId.length() > 0 )
+        String format = getParameters().getString( "format" );
+        if ( FORMAT_GZIP.equals( format ) || FORMAT_XLSX.equals( format ) )
         {
-            Milestone milestone = MilestonesApplication.getMilestone( milestoneId, getProject() );
-
-            if ( milestone != null )
-            {
-                exportMilestone( milestone, ret );
-
-                return ret.toString();
-            }
-            // here we could throw some error I guess...
+            return format;
         }
 
-        MilestoneFilterPanel filter = new MilestoneFilterPanel( "dummy", HeadsUpSession.ANONYMOUS_USER );
-        filter.setFilters( MilestonesApplication.QUERY_DUE_ALL, true, true );
-        SortableEntityProvider<Milestone> provider = MilestonesApplication.getMilestoneProviderForProject( getProject(),
-                filter );
-
-        // fall back to listing all milestones
-        Iterator<Milestone> milestones = provider.iterator( 0, provider.size() );
-        while ( milestones.hasNext() )
-        {
-            exportMilestone( milestones.next(), ret );
-        }
-
-        return ret.toString();
+        return FORMAT_CSV;
     }
 
-    protected void exportMilestone( Milestone milestone, StringBuffer ret )
+    protected Date getDate( String name )
     {
-        final boolean burndown = Boolean.parseBoolean( milestone.getProject().getConfigurationValue(
-                StoredProject.CONFIGURATION_TIMETRACKING_BURNDOWN ) );
-
-        ret.append( "\"" );
-        ret.append( milestone.getName() );
-        ret.append( "\"," );
-        if ( milestone.getDueDate() == null )
+        String date = getParameters().getString( name );
+        if ( date == null || date.length() == 0 )
         {
-            ret.append( "\"no due date\"" );
+            return null;
         }
-        else
+
+        try
         {
-            ret.append( milestone.getDueDate() );
+            return new SimpleDateFormat( DATE_FORMAT ).parse( date );
         }
-        ret.append( "\n\n" );
-
-        List<Date> dates = DurationWorkedUtil.getMilestoneDates( milestone, true );
-        if ( burndown )
+        catch ( ParseException e )
         {
-            ret.append( "\"Estimated Hours\"\n" );
+            Manager.getLogger( getClass().getName() ).warn( "Ignoring invalid date " + date );
+            return null;
         }
-        else
+    }
+
+    protected void writeBody( OutputStream output, String format )
+        throws IOException
+    {
+        GZIPOutputStream gzip = null;
+        RowWriter out;
+        if ( format.equals( FORMAT_XLSX ) )
         {
-            ret.append( "\"Elapsed Hours\"\n" );
+            out = new XlsxRowWriter( output );
         }
-        ret.append( "Id,Task,Status,Assignee," );
-        if ( burndown )
+        else if ( format.equals( FORMAT_GZIP ) )
         {
-            ret.append( "Estimate" );
+            gzip = new GZIPOutputStream( output );
+            out = new CsvRowWriter( gzip );
         }
         else
         {
-            ret.append( "Initial" );
+            out = new CsvRowWriter( output );
         }
 
-        boolean first = true;
-        for ( Date date : dates )
-        {
-            if ( first )
-            {
-                first = false;
-                continue;
-            }
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+        DurationWorkedExport export = new DurationWorkedExport( session, out, getDate( "from" ), getDate( "to" ) );
 
-            ret.append( "," );
-            ret.append( date );
-        }
-        ret.append( "\n" );
-
-        for ( Issue issue : milestone.getIssues() )
+        Project project = getProject();
+        String milestoneId = getParameters().getString( "id" );
+        if ( project != null && milestoneId != null && milestoneId.length() > 0 )
         {
-            ret.append( "\"" );
-            ret.append( issue.getId() );
-            ret.append( "\",\"" );
-            ret.append( issue.getSummary().replace( "\"","\"\"" ) );
-            ret.append( "\"," );
-            ret.append( IssueUtils.getStatusName( issue.getStatus() ) );
-
-            ret.append( "," );
-            if ( issue.getAssignee() != null )
-            {
-                ret.append( issue.getAssignee().getUsername() );
-            }
-
-            Duration estimate = null;
-            // for non-burndown we start at 0 anyway
-            if ( burndown )
-            {
-                estimate = issue.getTimeEstimate();
+            Milestone milestone = MilestonesApplication.getMilestone( milestoneId, project );
 
-                Date firstDay = dates.get( 0 );
-                for ( DurationWorked worked : issue.getTimeWorked() )
-                {
-                    if ( estimate == null || ( worked.getDay().before( firstDay ) && worked.getUpdatedRequired() != null &&
-                            worked.getUpdatedRequired().getHours() < estimate.getHours() ) ) {
-                        estimate = worked.getUpdatedRequired();
-                    }
-                }
-            }
-            if ( estimate == null )
-            {
-                estimate = new Duration( 0 );
-
-                Date firstDay = dates.get( 0 );
-                for ( DurationWorked worked : issue.getTimeWorked() )
-                {
-                    if ( worked.getDay().before( firstDay ) && worked.getUpdatedRequired() != null &&
-                            worked.getUpdatedRequired().getHours() > estimate.getHours() ) {
-                        estimate = worked.getUpdatedRequired();
-                    }
-                }
-            }
-
-            for ( Date date : dates )
+            if ( milestone != null )
             {
-                Duration est = DurationWorkedUtil.lastEstimateForDay( issue, date);
-
-                if ( est != null )
-                {
-                    estimate = est;
-                }
-
-                ret.append( "," );
-                ret.append( estimate.getHours() );
+                export.exportMilestone( milestone );
             }
-
-            ret.append( "\n" );
-        }
-
-        ret.append( "\n\n" );
-
-        dates.remove( 0 );
-        ret.append( "Hours Logged\nId,Task,Status,Assignee,Worked" );
-        for ( Date date : dates )
-        {
-            ret.append( "," );
-            ret.append( date );
+            // here we could throw some error I guess...
         }
-        ret.append( "\n" );
-
-        for ( Issue issue : milestone.getIssues() )
+        else if ( project != null )
         {
-            ret.append( issue.getId() );
-            ret.append( "," );
-            ret.append( "\"" );
-            ret.append( issue.getSummary() );
-            ret.append( "\"," );
-            ret.append( IssueUtils.getStatusName( issue.getStatus() ) );
-
-            StringBuilder hourLog = new StringBuilder();
-            int totalHours = 0;
-            for ( Date date : dates )
+            // fall back to listing all milestones
+            Collection<String> projectIds;
+            if ( getParameters().getBoolean( "tree" ) )
             {
-                hourLog.append( "," );
-                Duration total = DurationWorkedUtil.totalWorkedForDay(issue, date);
-                if ( total != null )
-                {
-                    hourLog.append( total.getHours() );
-                    totalHours += total.getHours();
-                }
-                else
-                {
-                    hourLog.append( "0" );
-                }
+                projectIds = ProjectHierarchy.get().getProjectIds( project.getId() );
             }
-
-            ret.append( "," );
-            if ( issue.getAssignee() != null )
+            else
             {
-                ret.append( issue.getAssignee().getUsername() );
+                projectIds = Collections.singleton( project.getId() );
             }
-            ret.append( "," );
-            ret.append( totalHours );
-
-            ret.append( hourLog.toString() );
 
-            ret.append( "\n" );
+            export.exportMilestones( projectIds );
         }
 
-        ret.append( "\n\n" );
+        out.finish();
+        if ( gzip != null )
+        {
+            gzip.finish();
+        }
     }
 }
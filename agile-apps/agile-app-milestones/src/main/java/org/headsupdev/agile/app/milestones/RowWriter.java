@@ -0,0 +1,41 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.milestones;
+
+import java.io.IOException;
+
+/**
+ * A simple spreadsheet output that is written a row at a time, so exports do not need to be held in memory.
+ * Numbers are written as numeric cells, anything else as text; a row with no cells is left blank.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+interface RowWriter
+{
+    void row( Object... cells )
+        throws IOException;
+
+    /**
+     * Complete the output - the underlying stream is flushed but not closed.
+     */
+    void finish()
+        throws IOException;
+}
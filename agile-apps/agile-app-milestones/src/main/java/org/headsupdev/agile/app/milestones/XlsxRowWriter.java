@@ -0,0 +1,166 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.milestones;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Write rows to a single sheet Office Open XML workbook (.xlsx).
+ * The sheet is streamed into the zip as it is written using inline strings, so no shared string table is needed.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+class XlsxRowWriter
+    implements RowWriter
+{
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+    private static final String SHEET_NAME = "Time Worked";
+
+    private ZipOutputStream zip;
+    private Writer out;
+    private int rowNumber = 0;
+
+    public XlsxRowWriter( OutputStream out )
+        throws IOException
+    {
+        zip = new ZipOutputStream( out );
+        this.out = new BufferedWriter( new OutputStreamWriter( zip, "UTF-8" ) );
+
+        writeEntry( "[Content_Types].xml", XML_HEADER +
+                "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">" +
+                "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>" +
+                "<Default Extension=\"xml\" ContentType=\"application/xml\"/>" +
+                "<Override PartName=\"/xl/workbook.xml\" " +
+                "ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>" +
+                "<Override PartName=\"/xl/worksheets/sheet1.xml\" " +
+                "ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>" +
+                "</Types>" );
+        writeEntry( "_rels/.rels", XML_HEADER +
+                "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" +
+                "<Relationship Id=\"rId1\" Target=\"xl/workbook.xml\" " +
+                "Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\"/>" +
+                "</Relationships>" );
+        writeEntry( "xl/workbook.xml", XML_HEADER +
+                "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" " +
+                "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">" +
+                "<sheets><sheet name=\"" + SHEET_NAME + "\" sheetId=\"1\" r:id=\"rId1\"/></sheets>" +
+                "</workbook>" );
+        writeEntry( "xl/_rels/workbook.xml.rels", XML_HEADER +
+                "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" +
+                "<Relationship Id=\"rId1\" Target=\"worksheets/sheet1.xml\" " +
+                "Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\"/>" +
+                "</Relationships>" );
+
+        zip.putNextEntry( new ZipEntry( "xl/worksheets/sheet1.xml" ) );
+        this.out.write( XML_HEADER );
+        this.out.write( "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>" );
+    }
+
+    private void writeEntry( String name, String content )
+        throws IOException
+    {
+        zip.putNextEntry( new ZipEntry( name ) );
+        out.write( content );
+        out.flush();
+        zip.closeEntry();
+    }
+
+    public void row( Object... cells )
+        throws IOException
+    {
+        rowNumber++;
+        if ( cells.length == 0 )
+        {
+            return;
+        }
+
+        out.write( "<row r=\"" );
+        out.write( String.valueOf( rowNumber ) );
+        out.write( "\">" );
+        for ( Object cell : cells )
+        {
+            if ( cell == null )
+            {
+                out.write( "<c/>" );
+            }
+            else if ( cell instanceof Number )
+            {
+                out.write( "<c><v>" );
+                out.write( cell.toString() );
+                out.write( "</v></c>" );
+            }
+            else
+            {
+                out.write( "<c t=\"inlineStr\"><is><t>" );
+                out.write( escape( cell.toString() ) );
+                out.write( "</t></is></c>" );
+            }
+        }
+        out.write( "</row>" );
+    }
+
+    public void finish()
+        throws IOException
+    {
+        out.write( "</sheetData></worksheet>" );
+        out.flush();
+        zip.closeEntry();
+        zip.finish();
+    }
+
+    static String escape( String in )
+    {
+        StringBuilder ret = new StringBuilder( in.length() );
+        for ( int i = 0; i < in.length(); i++ )
+        {
+            char c = in.charAt( i );
+            switch ( c )
+            {
+                case '&':
+                    ret.append( "&amp;" );
+                    break;
+                case '<':
+                    ret.append( "&lt;" );
+                    break;
+                case '>':
+                    ret.append( "&gt;" );
+                    break;
+                case '"':
+                    ret.append( "&quot;" );
+                    break;
+                default:
+                    // drop the control characters that are not allowed in XML
+                    if ( c >= 0x20 || c == '\t' || c == '\n' || c == '\r' )
+                    {
+                        ret.append( c );
+                    }
+            }
+        }
+
+        return ret.toString();
+    }
+}
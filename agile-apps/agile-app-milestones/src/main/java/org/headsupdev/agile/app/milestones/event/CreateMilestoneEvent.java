@@ -25,6 +25,7 @@ import org.headsupdev.agile.web.components.PercentagePanel;
 import org.headsupdev.agile.app.milestones.MilestonesApplication;
 import org.headsupdev.agile.app.milestones.ViewMilestone;
 import org.headsupdev.agile.app.milestones.MilestonePanel;
+import org.headsupdev.agile.storage.EventBodyCache;
 import org.headsupdev.agile.storage.issues.Milestone;
 
 import javax.persistence.Entity;
@@ -67,14 +68,30 @@ public class CreateMilestoneEvent
         Milestone milestone = MilestonesApplication.getMilestone( name, getProject() );
         if ( milestone == null )
         {
+            EventBodyCache.renderFailed();
             return "<p>Milestone " + getObjectId() + " does not exist for project " + getProject().getAlias() + "</p>";
         }
 
-        addLinks( ViewMilestone.getLinks( milestone ) );
-
         return renderMilestone( milestone );
     }
 
+    @Override
+    public List<MenuLink> getLinks()
+    {
+        return getMilestoneLinks( getObjectId(), getProject() );
+    }
+
+    static List<MenuLink> getMilestoneLinks( String name, Project project )
+    {
+        Milestone milestone = MilestonesApplication.getMilestone( name, project );
+        if ( milestone == null )
+        {
+            return new LinkedList<MenuLink>();
+        }
+
+        return ViewMilestone.getLinks( milestone );
+    }
+
     public List<CssReference> getBodyCssReferences()
     {
         List<CssReference> ret = new LinkedList<CssReference>();
@@ -22,7 +22,7 @@ import org.headsupdev.agile.api.*;
 import org.headsupdev.agile.web.components.PercentagePanel;
 import org.headsupdev.agile.web.AbstractEvent;
 import org.headsupdev.agile.app.milestones.MilestonesApplication;
-import org.headsupdev.agile.app.milestones.ViewMilestone;
+import org.headsupdev.agile.storage.EventBodyCache;
 import org.headsupdev.agile.storage.issues.Milestone;
 import org.headsupdev.agile.storage.Comment;
 
@@ -75,14 +75,19 @@ public class UpdateMilestoneEvent
         Milestone milestone = MilestonesApplication.getMilestone( name, getProject() );
         if ( milestone == null )
         {
+            EventBodyCache.renderFailed();
             return "<p>Milestone " + getObjectId() + " does not exist for project " + getProject().getAlias() + "</p>";
         }
 
-        addLinks( ViewMilestone.getLinks( milestone ) );
-
         return CreateMilestoneEvent.renderMilestone( milestone );
     }
 
+    @Override
+    public List<MenuLink> getLinks()
+    {
+        return CreateMilestoneEvent.getMilestoneLinks( getObjectId(), getProject() );
+    }
+
     public List<CssReference> getBodyCssReferences()
     {
         List<CssReference> ret = new LinkedList<CssReference>();
@@ -0,0 +1,167 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.app.milestones;
+
+import junit.framework.TestCase;
+import org.headsupdev.agile.storage.DurationWorkedUtil;
+import org.headsupdev.agile.storage.StoredProject;
+import org.headsupdev.agile.storage.issues.Duration;
+import org.headsupdev.agile.storage.issues.DurationWorked;
+import org.headsupdev.agile.storage.issues.Issue;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests that the single sweep of an issue's time worked matches the per day calculations in DurationWorkedUtil,
+ * and the restriction of milestone dates to an exported range.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class DurationWorkedExportTest
+    extends TestCase
+{
+    private static final int DAYS = 12;
+
+    public void testTimelineMatchesDurationWorkedUtil()
+    {
+        for ( boolean includeInInitial : new boolean[]{ true, false } )
+        {
+            // created part way through the milestone, with work logged before and after
+            Issue issue = createIssue( 3, 10.0, includeInInitial );
+            addWorked( issue, 1, 10, 2, 8.0 );
+            addWorked( issue, 4, 9, 1, 7.0 );
+            // several entries on the same day, including two at the same time
+            addWorked( issue, 4, 9, 1, 6.0 );
+            addWorked( issue, 4, 15, 3, 4.0 );
+            // time logged without an estimate is not counted by either
+            addWorked( issue, 6, 11, 2, null );
+            // an estimate raised without any work
+            addWorked( issue, 8, 12, 0, 5.0 );
+            addWorked( issue, 10, 23, 5, 0.0 );
+
+            assertTimelineMatches( issue );
+        }
+    }
+
+    public void testTimelineMatchesWithoutWork()
+    {
+        assertTimelineMatches( createIssue( 5, 6.0, false ) );
+        assertTimelineMatches( createIssue( 5, 6.0, true ) );
+    }
+
+    public void testTimelineMatchesWithoutEstimate()
+    {
+        Issue issue = createIssue( 2, null, true );
+        addWorked( issue, 3, 12, 1, 3.0 );
+        assertTimelineMatches( issue );
+    }
+
+    public void testClipDates()
+    {
+        List<Date> dates = getDates();
+
+        assertEquals( dates, DurationWorkedExport.clipDates( dates, null, null ) );
+        assertEquals( dates, DurationWorkedExport.clipDates( dates, getDay( -5, 0 ), getDay( DAYS + 5, 0 ) ) );
+
+        // the day before the first day in range is kept as the starting estimate
+        assertEquals( dates.subList( 2, DAYS ), DurationWorkedExport.clipDates( dates, getDay( 3, 0 ), null ) );
+        assertEquals( dates.subList( 0, 5 ), DurationWorkedExport.clipDates( dates, null, getDay( 4, 0 ) ) );
+        assertEquals( dates.subList( 3, 5 ), DurationWorkedExport.clipDates( dates, getDay( 4, 0 ),
+            getDay( 4, 0 ) ) );
+
+        // nothing left apart from a day before
+        assertTrue( DurationWorkedExport.clipDates( dates, getDay( DAYS, 0 ), null ).isEmpty() );
+        assertTrue( DurationWorkedExport.clipDates( dates, null, getDay( 0, 0 ) ).isEmpty() );
+        assertTrue( DurationWorkedExport.clipDates( dates, getDay( 5, 0 ), getDay( 3, 0 ) ).isEmpty() );
+        assertTrue( DurationWorkedExport.clipDates( new ArrayList<Date>(), null, null ).isEmpty() );
+    }
+
+    private void assertTimelineMatches( Issue issue )
+    {
+        List<Date> dates = getDates();
+        DurationWorkedExport.WorkedTimeline timeline = new DurationWorkedExport.WorkedTimeline( issue );
+
+        Duration initial = new Duration( 1.5 );
+        Duration[] estimates = timeline.getEstimates( dates, initial );
+        double[] worked = timeline.getWorked( dates );
+        assertEquals( dates.size(), estimates.length );
+        assertEquals( dates.size(), worked.length );
+
+        Duration estimate = initial;
+        for ( int i = 0; i < dates.size(); i++ )
+        {
+            Duration expected = DurationWorkedUtil.lastEstimateForDay( issue, dates.get( i ) );
+            if ( expected != null )
+            {
+                estimate = expected;
+            }
+
+            assertEquals( "estimate on day " + i, estimate.getHours(), estimates[i].getHours(), 0.001 );
+            assertEquals( "worked on day " + i, DurationWorkedUtil.totalWorkedForDay( issue, dates.get( i ) ).getHours(),
+                worked[i], 0.001 );
+        }
+    }
+
+    private Issue createIssue( int createdDay, Double estimate, boolean includeInInitial )
+    {
+        Issue issue = new Issue( new StoredProject( "test", "Test" ) );
+        issue.setCreated( getDay( createdDay, 14 ) );
+        issue.setTimeEstimate( estimate == null ? null : new Duration( estimate ) );
+        issue.setIncludeInInitialEstimates( includeInInitial );
+
+        return issue;
+    }
+
+    private void addWorked( Issue issue, int day, int hour, double hours, Double required )
+    {
+        DurationWorked worked = new DurationWorked();
+        worked.setDay( getDay( day, hour ) );
+        worked.setWorked( new Duration( hours ) );
+        worked.setUpdatedRequired( required == null ? null : new Duration( required ) );
+        worked.setIssue( issue );
+        issue.getTimeWorked().add( worked );
+    }
+
+    private List<Date> getDates()
+    {
+        List<Date> dates = new ArrayList<Date>();
+        for ( int i = 0; i < DAYS; i++ )
+        {
+            dates.add( getDay( i, 0 ) );
+        }
+
+        return dates;
+    }
+
+    private Date getDay( int day, int hour )
+    {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set( 2012, Calendar.MARCH, 1, hour, 0, 0 );
+        cal.add( Calendar.DATE, day );
+
+        return cal.getTime();
+    }
+}
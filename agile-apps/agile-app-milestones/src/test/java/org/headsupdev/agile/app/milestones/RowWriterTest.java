@@ -0,0 +1,114 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.app.milestones;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Tests for the escaping and layout of the csv and xlsx exports.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class RowWriterTest
+    extends TestCase
+{
+    public void testCsvQuoting()
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RowWriter out = new CsvRowWriter( bytes );
+        out.row( "plain", "a,b", "say \"hi\"", null, 2.5, "two\nlines", "\u00e9t\u00e9" );
+        out.row();
+        out.row( 1L, "" );
+        out.finish();
+
+        assertEquals( "plain,\"a,b\",\"say \"\"hi\"\"\",,2.5,\"two\nlines\",\u00e9t\u00e9\n\n1,\n",
+            bytes.toString( "UTF-8" ) );
+    }
+
+    public void testXlsxCells()
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RowWriter out = new XlsxRowWriter( bytes );
+        out.row( "Tom & Jerry <\"quoted\">", 2.5, null );
+        out.row();
+        out.row( "bell\u0007\ttab" );
+        out.finish();
+
+        Map<String, String> entries = readZip( bytes.toByteArray() );
+        assertTrue( entries.containsKey( "[Content_Types].xml" ) );
+        assertTrue( entries.containsKey( "xl/workbook.xml" ) );
+
+        String sheet = entries.get( "xl/worksheets/sheet1.xml" );
+        assertNotNull( sheet );
+        assertTrue( sheet.contains( "<row r=\"1\"><c t=\"inlineStr\"><is><t>Tom &amp; Jerry &lt;&quot;quoted&quot;&gt;" +
+            "</t></is></c><c><v>2.5</v></c><c/></row>" ) );
+        // blank rows are skipped but still counted
+        assertFalse( sheet.contains( "<row r=\"2\">" ) );
+        assertTrue( sheet.contains( "<row r=\"3\"><c t=\"inlineStr\"><is><t>bell\ttab</t></is></c></row>" ) );
+        assertTrue( sheet.endsWith( "</sheetData></worksheet>" ) );
+    }
+
+    public void testXmlEscape()
+    {
+        assertEquals( "a &amp;&amp; b &lt; c &gt; d &quot;e&quot;", XlsxRowWriter.escape( "a && b < c > d \"e\"" ) );
+        assertEquals( "line\r\nnext", XlsxRowWriter.escape( "line\r\nnext" ) );
+        assertEquals( "nulls", XlsxRowWriter.escape( "nu\u0000ll\u001fs" ) );
+    }
+
+    private Map<String, String> readZip( byte[] data )
+        throws IOException
+    {
+        Map<String, String> entries = new HashMap<String, String>();
+        ZipInputStream in = new ZipInputStream( new ByteArrayInputStream( data ) );
+        try
+        {
+            ZipEntry entry;
+            while ( ( entry = in.getNextEntry() ) != null )
+            {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ( ( read = in.read( buffer ) ) != -1 )
+                {
+                    content.write( buffer, 0, read );
+                }
+                entries.put( entry.getName(), content.toString( "UTF-8" ) );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return entries;
+    }
+}
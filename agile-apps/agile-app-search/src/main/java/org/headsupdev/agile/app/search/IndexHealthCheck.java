@@ -0,0 +1,327 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.search;
+
+import org.headsupdev.agile.api.logging.Logger;
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.storage.SessionProxy;
+import org.hibernate.EntityMode;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.search.FullTextSession;
+import org.hibernate.search.annotations.Indexed;
+import org.hibernate.search.store.DirectoryProvider;
+import org.hibernate.search.store.FSDirectoryProvider;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A background check of the on disk search indexes run at startup. If the index version is out of date everything
+ * is rebuilt, otherwise only the indexes that are missing or fail to open are reindexed.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+class IndexHealthCheck
+    extends Thread
+{
+    private static final long STARTUP_DELAY = 60 * 1000;
+    private static final String VERSION_FILE = "version";
+
+    private Logger log = Manager.getLogger( getClass().getName() );
+
+    IndexHealthCheck()
+    {
+        super( "IndexHealthCheck" );
+        setDaemon( true );
+    }
+
+    public void run()
+    {
+        try
+        {
+            // let the storage settle and the file backed indexes get configured
+            Thread.sleep( STARTUP_DELAY );
+        }
+        catch ( InterruptedException e )
+        {
+            return;
+        }
+
+        try
+        {
+            check();
+        }
+        catch ( Exception e )
+        {
+            log.error( "Failed to check search indexes", e );
+        }
+    }
+
+    void check()
+    {
+        List<String> indexed = new LinkedList<String>();
+        Map<DirectoryProvider, List<String>> providers = new HashMap<DirectoryProvider, List<String>>();
+        List<String> rebuild = new LinkedList<String>();
+        boolean everything = false;
+
+        Session session = HibernateUtil.getCurrentSession();
+        FullTextSession fullTextSession = org.hibernate.search.Search.createFullTextSession(
+            ( (SessionProxy) session ).getRealSession() );
+        Transaction tx = fullTextSession.beginTransaction();
+        try
+        {
+            for ( String className : HibernateUtil.getEntityClassNames() )
+            {
+                ClassMetadata meta = fullTextSession.getSessionFactory().getClassMetadata( className );
+                Class type = meta.getMappedClass( EntityMode.POJO );
+                if ( !type.isAnnotationPresent( Indexed.class ) )
+                {
+                    continue;
+                }
+
+                indexed.add( className );
+                for ( DirectoryProvider provider : fullTextSession.getSearchFactory().getDirectoryProviders( type ) )
+                {
+                    List<String> classes = providers.get( provider );
+                    if ( classes == null )
+                    {
+                        classes = new LinkedList<String>();
+                        providers.put( provider, classes );
+                    }
+                    classes.add( className );
+                }
+            }
+
+            for ( DirectoryProvider provider : providers.keySet() )
+            {
+                if ( !( provider instanceof FSDirectoryProvider ) )
+                {
+                    log.info( "Search indexes are not on disk yet, skipping health check" );
+                    return;
+                }
+            }
+
+            if ( !isIndexVersionCurrent() )
+            {
+                log.info( "Search index version changed or a rebuild did not complete, rebuilding all indexes" );
+                rebuild.addAll( indexed );
+                everything = true;
+            }
+            else
+            {
+                for ( DirectoryProvider provider : providers.keySet() )
+                {
+                    List<String> classes = providers.get( provider );
+                    if ( !isHealthy( provider.getDirectory(), classes, fullTextSession ) )
+                    {
+                        rebuild.addAll( classes );
+                    }
+                }
+            }
+
+            tx.commit();
+        }
+        catch ( RuntimeException e )
+        {
+            tx.rollback();
+            throw e;
+        }
+
+        if ( rebuild.isEmpty() )
+        {
+            log.debug( "Search indexes are up to date" );
+            return;
+        }
+
+        // the rebuild removes the index version and writes it back when it completes
+        ReindexScope scope = everything ? new ReindexScope() : new ReindexScope( rebuild, null );
+        log.info( "Rebuilding search indexes for " + scope );
+        if ( !Reindexer.getInstance().run( scope ) )
+        {
+            log.warn( "Search index rebuild did not complete, it can be resumed from the reindex page" );
+        }
+    }
+
+    private boolean isHealthy( Directory directory, List<String> classes, Session session )
+    {
+        int docs;
+        IndexReader reader = null;
+        try
+        {
+            reader = IndexReader.open( directory );
+            docs = reader.numDocs();
+        }
+        catch ( IOException e )
+        {
+            log.error( "Search index for " + classes + " is corrupt, recreating", e );
+            try
+            {
+                new IndexWriter( directory, new StandardAnalyzer(), true,
+                    IndexWriter.MaxFieldLength.UNLIMITED ).close();
+            }
+            catch ( IOException e2 )
+            {
+                log.error( "Unable to recreate search index for " + classes, e2 );
+            }
+            return false;
+        }
+        finally
+        {
+            if ( reader != null )
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch ( IOException e )
+                {
+                    // ignore
+                }
+            }
+        }
+
+        if ( docs > 0 )
+        {
+            return true;
+        }
+
+        // an empty index is only a problem if there is something to put in it
+        for ( String className : classes )
+        {
+            if ( countRows( className, session ) > 0 )
+            {
+                log.info( "Search index for " + classes + " is missing" );
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long countRows( String className, Session session )
+    {
+        ClassMetadata meta = session.getSessionFactory().getClassMetadata( className );
+        boolean hasSubclasses = meta instanceof EntityPersister &&
+            ( (EntityPersister) meta ).getEntityMetamodel().hasSubclasses();
+
+        String hql = "select count(*) from " + className + " o";
+        if ( meta.isInherited() || hasSubclasses )
+        {
+            // subclasses are indexed separately so only count this exact type
+            hql += " where o.class = " + className;
+        }
+        return ( (Number) session.createQuery( hql ).uniqueResult() ).longValue();
+    }
+
+    private static File getVersionFile()
+    {
+        return new File( HibernateUtil.getIndexDirectory(), VERSION_FILE );
+    }
+
+    static String readIndexVersion()
+    {
+        File file = getVersionFile();
+        if ( !file.exists() )
+        {
+            return null;
+        }
+
+        BufferedReader in = null;
+        try
+        {
+            in = new BufferedReader( new FileReader( file ) );
+            String line = in.readLine();
+            return line == null ? null : line.trim();
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+        finally
+        {
+            if ( in != null )
+            {
+                try
+                {
+                    in.close();
+                }
+                catch ( IOException e )
+                {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    static boolean isIndexVersionCurrent()
+    {
+        return String.valueOf( HibernateUtil.SEARCH_INDEX_VERSION ).equals( readIndexVersion() );
+    }
+
+    /**
+     * Remove the index version so a rebuild that does not complete is redone at the next startup.
+     *
+     * @return false if the version file exists and could not be deleted
+     */
+    static boolean deleteIndexVersion()
+    {
+        File file = getVersionFile();
+        return !file.exists() || file.delete();
+    }
+
+    static void writeIndexVersion()
+    {
+        File file = getVersionFile();
+        file.getParentFile().mkdirs();
+
+        Writer out = null;
+        try
+        {
+            out = new FileWriter( file );
+            out.write( String.valueOf( HibernateUtil.SEARCH_INDEX_VERSION ) );
+        }
+        catch ( IOException e )
+        {
+            Manager.getLogger( IndexHealthCheck.class.getName() ).error( "Unable to write search index version", e );
+        }
+        finally
+        {
+            if ( out != null )
+            {
+                try
+                {
+                    out.close();
+                }
+                catch ( IOException e )
+                {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -18,21 +18,26 @@
 
 package org.headsupdev.agile.app.search;
 
-import org.headsupdev.agile.api.HeadsUpConfiguration;
 import org.headsupdev.agile.web.HeadsUpPage;
 import org.headsupdev.agile.web.MountPoint;
 import org.headsupdev.agile.api.Permission;
-import org.headsupdev.agile.api.Task;
-import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.security.permission.AdminPermission;
 import org.headsupdev.agile.storage.HibernateUtil;
-import org.headsupdev.agile.storage.SessionProxy;
-import org.hibernate.*;
-import org.hibernate.search.FullTextSession;
+import org.headsupdev.agile.storage.StoredProject;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.hibernate.EntityMode;
+import org.hibernate.SessionFactory;
 import org.hibernate.search.annotations.Indexed;
 
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
 /**
- * A simple page to re-index our search cache
+ * A simple page to re-index our search cache, either completely or for a single type or project
  *
  * @author Andrew Williams
  * @version $Id$
@@ -50,76 +55,100 @@ public class Reindex
     {
         super.layout();
 
-        new ReindexThread().start();
-    }
-
-    @Override
-    public String getTitle()
-    {
-        return "Reindex Search Cache";
-    }
-}
-
-class ReindexThread
-    extends Thread
-{
-    static int BATCH_SIZE = 100;
-    public void run()
-    {
-        Task reindex = new ReindexTask();
-        Manager.getInstance().addTask( reindex );
+        final Reindexer reindexer = Reindexer.getInstance();
+        String status;
+        if ( reindexer.isRunning() )
+        {
+            status = "The search cache is being reindexed (" + reindexer.getScope() +
+                "), the progress is shown in the task list.";
+        }
+        else if ( reindexer.canResume() )
+        {
+            status = "The last reindex (" + reindexer.getScope() + ") did not complete, it can be resumed.";
+        }
+        else
+        {
+            status = "Choose which part of the search cache to reindex.";
+        }
+        add( new Label( "status", status ) );
 
-        try
+        add( new Link( "cancel" )
         {
-            for ( String className: HibernateUtil.getEntityClassNames() )
+            public void onClick()
             {
-                Session session = HibernateUtil.getCurrentSession();
-                FullTextSession fullTextSession = org.hibernate.search.Search.createFullTextSession(
-                    ( (SessionProxy) session ).getRealSession() );
-                Transaction tx = fullTextSession.beginTransaction();
+                reindexer.cancel();
+                setResponsePage( Reindex.class, getProjectPageParameters() );
+            }
+        }.setVisible( reindexer.isRunning() ) );
+        add( new Link( "resume" )
+        {
+            public void onClick()
+            {
+                reindexer.resume();
+                setResponsePage( Reindex.class, getProjectPageParameters() );
+            }
+        }.setVisible( reindexer.canResume() ) );
 
-                fullTextSession.setFlushMode( FlushMode.MANUAL );
-                fullTextSession.setCacheMode( CacheMode.IGNORE );
+        add( new Link( "all" )
+        {
+            public void onClick()
+            {
+                reindexer.start( new ReindexScope() );
+                setResponsePage( Reindex.class, getProjectPageParameters() );
+            }
+        }.setEnabled( !reindexer.isRunning() ) );
 
-                Manager.getLogger( getClass().getName() ).debug("  object type " + className);
+        Link project = new Link( "project" )
+        {
+            public void onClick()
+            {
+                reindexer.start( new ReindexScope( null, getProject() ) );
+                setResponsePage( Reindex.class, getProjectPageParameters() );
+            }
+        };
+        project.add( new Label( "name", getProject().getAlias() ) );
+        add( project.setEnabled( !reindexer.isRunning() )
+            .setVisible( !getProject().equals( StoredProject.getDefault() ) ) );
 
-                //Scrollable results will avoid loading too many objects in memory
-                ScrollableResults results = fullTextSession.createCriteria( className )
-                    .setFetchSize( BATCH_SIZE )
-                    .scroll( ScrollMode.FORWARD_ONLY );
+        add( new ListView<String>( "types", getIndexedTypes() )
+        {
+            protected void populateItem( ListItem<String> listItem )
+            {
+                final String className = listItem.getModelObject();
 
-                int index = 0;
-                while( results.next() )
+                Link type = new Link( "reindex" )
                 {
-                    Object o = results.get( 0 );
-
-                    index++;
-                    if ( o.getClass().isAnnotationPresent( Indexed.class ) )
+                    public void onClick()
                     {
-                        if ( HeadsUpConfiguration.isDebug() )
-                        {
-                            System.out.print( "." );
-                        }
-                        fullTextSession.index( o ); //index each element
-                    }
-                    if ( index % BATCH_SIZE == 0 ) {
-                        fullTextSession.flushToIndexes(); //apply changes to indexes
-                        fullTextSession.clear(); //clear since the queue is processed
+                        reindexer.start( new ReindexScope( Collections.singletonList( className ), null ) );
+                        setResponsePage( Reindex.class, getProjectPageParameters() );
                     }
-                }
-                tx.commit();
-
-                if ( HeadsUpConfiguration.isDebug() )
-                {
-                    System.out.println();
-                }
+                };
+                type.add( new Label( "name", ReindexTask.getTypeName( className ) ) );
+                listItem.add( type.setEnabled( !reindexer.isRunning() ) );
             }
-        }
-        catch ( Exception e )
+        } );
+    }
+
+    protected List<String> getIndexedTypes()
+    {
+        SessionFactory factory = HibernateUtil.getCurrentSession().getSessionFactory();
+        List<String> types = new LinkedList<String>();
+        for ( String className : HibernateUtil.getEntityClassNames() )
         {
-            Manager.getLogger( getClass().getName() ).error( "Failed to reindex search data", e );
+            if ( factory.getClassMetadata( className ).getMappedClass( EntityMode.POJO )
+                    .isAnnotationPresent( Indexed.class ) )
+            {
+                types.add( className );
+            }
         }
 
-        Manager.getInstance().removeTask( reindex );
+        return types;
     }
-}
\ No newline at end of file
+
+    @Override
+    public String getTitle()
+    {
+        return "Reindex Search Cache";
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.search;
+
+import org.headsupdev.agile.api.Project;
+
+import java.util.Collection;
+
+/**
+ * The entity types and project that a reindex should cover. A null type list means every indexed type and a null
+ * project means all projects.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+class ReindexScope
+{
+    private Collection<String> classNames;
+    private Project project;
+
+    ReindexScope()
+    {
+        this( null, null );
+    }
+
+    ReindexScope( Collection<String> classNames, Project project )
+    {
+        this.classNames = classNames;
+        this.project = project;
+    }
+
+    public Collection<String> getClassNames()
+    {
+        return classNames;
+    }
+
+    public Project getProject()
+    {
+        return project;
+    }
+
+    /**
+     * @return true if this scope will rebuild the whole search index
+     */
+    public boolean isEverything()
+    {
+        return classNames == null && project == null;
+    }
+
+    public String toString()
+    {
+        StringBuilder ret = new StringBuilder();
+        if ( classNames == null )
+        {
+            ret.append( "all types" );
+        }
+        else
+        {
+            boolean first = true;
+            for ( String className : classNames )
+            {
+                if ( !first )
+                {
+                    ret.append( ", " );
+                }
+                ret.append( ReindexTask.getTypeName( className ) );
+                first = false;
+            }
+        }
+
+        if ( project != null )
+        {
+            ret.append( " in project " ).append( project.getAlias() );
+        }
+        return ret.toString();
+    }
+}
@@ -20,8 +20,11 @@ package org.headsupdev.agile.app.search;
 
 import org.headsupdev.agile.api.AbstractTask;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
- * A task object representing the updating of the search index
+ * A task object representing the updating of the search index, tracking the progress through each entity type.
  *
  * @author Andrew Williams
  * @version $Id$
@@ -29,8 +32,66 @@ import org.headsupdev.agile.api.AbstractTask;
  */
 public class ReindexTask extends AbstractTask
 {
+    private final Map<String, int[]> progress = new LinkedHashMap<String, int[]>();
+
     public ReindexTask()
     {
         super( "Reindexing the search cache", "Reindexing all database objects to enhance search results" );
     }
-}
\ No newline at end of file
+
+    ReindexTask( ReindexScope scope )
+    {
+        super( "Reindexing the search cache", "Reindexing " + scope + " to enhance search results",
+            scope.getProject() );
+    }
+
+    synchronized void addRows( String className, int rows )
+    {
+        getProgress( className )[1] += rows;
+    }
+
+    synchronized void indexed( String className, int rows )
+    {
+        getProgress( className )[0] += rows;
+    }
+
+    private int[] getProgress( String className )
+    {
+        int[] ret = progress.get( className );
+        if ( ret == null )
+        {
+            ret = new int[2];
+            progress.put( className, ret );
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized String getDescription()
+    {
+        if ( progress.isEmpty() )
+        {
+            return super.getDescription();
+        }
+
+        StringBuilder ret = new StringBuilder( super.getDescription() );
+        ret.append( " (" );
+        boolean first = true;
+        for ( Map.Entry<String, int[]> type : progress.entrySet() )
+        {
+            if ( !first )
+            {
+                ret.append( ", " );
+            }
+            ret.append( getTypeName( type.getKey() ) ).append( ' ' ).append( type.getValue()[0] ).append( " of " )
+                .append( type.getValue()[1] );
+            first = false;
+        }
+        return ret.append( ")" ).toString();
+    }
+
+    static String getTypeName( String className )
+    {
+        return className.substring( className.lastIndexOf( '.' ) + 1 );
+    }
+}
@@ -0,0 +1,649 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.search;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.logging.Logger;
+import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.storage.SessionProxy;
+import org.headsupdev.agile.storage.StoredProject;
+import org.hibernate.*;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.search.FullTextSession;
+import org.hibernate.search.annotations.Indexed;
+import org.hibernate.type.ComponentType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The engine that rebuilds the search index. Each entity type is split into ranges of its identifier, found with a
+ * single ordered scan of the keys, and the ranges are indexed in parallel by a pool of workers.
+ * Only one reindex can run at a time. A cancelled or failed reindex remembers the ranges it did not complete so that
+ * it can be resumed without starting over.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+class Reindexer
+{
+    static final int CHUNK_SIZE = 1000;
+    static final int BATCH_SIZE = 100;
+    static final int MAX_THREADS = 16;
+
+    private static Reindexer instance = new Reindexer();
+
+    private Logger log = Manager.getLogger( getClass().getName() );
+
+    private boolean running;
+    private volatile boolean cancelled;
+    private ReindexScope scope;
+    private List<ReindexChunk> remaining = new LinkedList<ReindexChunk>();
+    // whether the index version should be written once the remaining chunks complete
+    private boolean restoreVersion;
+
+    static Reindexer getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Start a reindex in the background.
+     *
+     * @return false if there was already a reindex running
+     */
+    public boolean start( final ReindexScope scope )
+    {
+        if ( !begin( scope ) )
+        {
+            return false;
+        }
+
+        new Thread( "Reindex" )
+        {
+            public void run()
+            {
+                execute( scope, null );
+            }
+        }.start();
+        return true;
+    }
+
+    /**
+     * Run a reindex on the current thread.
+     *
+     * @return true if the reindex completed, false if it failed, was cancelled or another reindex was running
+     */
+    public boolean run( ReindexScope scope )
+    {
+        return begin( scope ) && execute( scope, null );
+    }
+
+    /**
+     * Continue a reindex that was cancelled or failed, only processing the ranges that did not complete.
+     *
+     * @return false if there was nothing to resume or another reindex is running
+     */
+    public synchronized boolean resume()
+    {
+        if ( running || remaining.isEmpty() )
+        {
+            return false;
+        }
+
+        final ReindexScope resumeScope = scope;
+        final List<ReindexChunk> chunks = remaining;
+        remaining = new LinkedList<ReindexChunk>();
+        running = true;
+        cancelled = false;
+
+        new Thread( "Reindex" )
+        {
+            public void run()
+            {
+                execute( resumeScope, chunks );
+            }
+        }.start();
+        return true;
+    }
+
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public synchronized boolean isRunning()
+    {
+        return running;
+    }
+
+    public synchronized boolean canResume()
+    {
+        return !running && !remaining.isEmpty();
+    }
+
+    public synchronized ReindexScope getScope()
+    {
+        return scope;
+    }
+
+    private synchronized boolean begin( ReindexScope scope )
+    {
+        if ( running )
+        {
+            return false;
+        }
+
+        this.scope = scope;
+        remaining = new LinkedList<ReindexChunk>();
+        running = true;
+        cancelled = false;
+        return true;
+    }
+
+    private boolean execute( ReindexScope scope, List<ReindexChunk> chunks )
+    {
+        ReindexTask task = new ReindexTask( scope );
+        Manager.getInstance().addTask( task );
+
+        boolean success = false;
+        try
+        {
+            if ( chunks == null )
+            {
+                restoreVersion = false;
+                List<String> classNames = getClassNames( scope );
+                if ( scope.getProject() == null )
+                {
+                    // the purged index is incomplete until this run finishes, so the health check must not trust it
+                    restoreVersion = scope.isEverything() || IndexHealthCheck.isIndexVersionCurrent();
+                    if ( !IndexHealthCheck.deleteIndexVersion() )
+                    {
+                        throw new IllegalStateException( "Unable to remove the search index version" );
+                    }
+
+                    // whole types are being rebuilt so we can drop them up front and index without checking
+                    purge( classNames );
+                }
+                chunks = plan( classNames, scope );
+            }
+
+            for ( ReindexChunk chunk : chunks )
+            {
+                task.addRows( chunk.className, chunk.size );
+            }
+            success = process( chunks, task );
+
+            if ( success && restoreVersion )
+            {
+                IndexHealthCheck.writeIndexVersion();
+                restoreVersion = false;
+            }
+        }
+        catch ( Exception e )
+        {
+            log.error( "Failed to reindex search data", e );
+        }
+        finally
+        {
+            Manager.getInstance().removeTask( task );
+            synchronized ( this )
+            {
+                running = false;
+            }
+        }
+
+        return success;
+    }
+
+    /**
+     * Work out the indexed entity names to process - a requested type also covers any indexed subclasses,
+     * as purging a type removes those too.
+     */
+    private List<String> getClassNames( ReindexScope scope )
+    {
+        SessionFactory factory = HibernateUtil.getCurrentSession().getSessionFactory();
+        List<String> ret = new LinkedList<String>();
+
+        for ( String className : HibernateUtil.getEntityClassNames() )
+        {
+            Class type = factory.getClassMetadata( className ).getMappedClass( EntityMode.POJO );
+            if ( !type.isAnnotationPresent( Indexed.class ) )
+            {
+                continue;
+            }
+
+            if ( scope.getClassNames() == null )
+            {
+                ret.add( className );
+                continue;
+            }
+
+            for ( String requested : scope.getClassNames() )
+            {
+                Class requestedType = factory.getClassMetadata( requested ).getMappedClass( EntityMode.POJO );
+                if ( requestedType.isAssignableFrom( type ) )
+                {
+                    ret.add( className );
+                    break;
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    private void purge( List<String> classNames )
+    {
+        Session session = HibernateUtil.openSession();
+        FullTextSession fullTextSession = org.hibernate.search.Search.createFullTextSession(
+            ( (SessionProxy) session ).getRealSession() );
+        Transaction tx = fullTextSession.beginTransaction();
+        try
+        {
+            for ( String className : classNames )
+            {
+                fullTextSession.purgeAll( fullTextSession.getSessionFactory().getClassMetadata( className )
+                    .getMappedClass( EntityMode.POJO ) );
+            }
+            tx.commit();
+        }
+        catch ( RuntimeException e )
+        {
+            tx.rollback();
+            throw e;
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    /**
+     * Scan the keys of each type in order, recording a boundary every CHUNK_SIZE rows.
+     * Only the boundaries are kept so this is cheap even for very large tables.
+     */
+    private List<ReindexChunk> plan( List<String> classNames, ReindexScope scope )
+    {
+        String projectId = scope.getProject() == null ? null : scope.getProject().getId();
+        List<ReindexChunk> chunks = new LinkedList<ReindexChunk>();
+
+        Session session = HibernateUtil.openSession();
+        Transaction tx = session.beginTransaction();
+        try
+        {
+            for ( String className : classNames )
+            {
+                ClassMetadata meta = session.getSessionFactory().getClassMetadata( className );
+                List<String> restrictions = getRestrictions( meta, className, projectId );
+                if ( restrictions == null )
+                {
+                    continue;
+                }
+
+                List<String> keys = getKeyPaths( meta, session.getSessionFactory() );
+                StringBuilder hql = new StringBuilder( "select " );
+                appendList( hql, keys, ", " );
+                hql.append( " from " ).append( className ).append( " o" );
+                if ( !restrictions.isEmpty() )
+                {
+                    hql.append( " where " );
+                    appendList( hql, restrictions, " and " );
+                }
+                hql.append( " order by " );
+                appendList( hql, keys, ", " );
+
+                Query query = session.createQuery( hql.toString() );
+                if ( projectId != null )
+                {
+                    query.setString( "projectId", projectId );
+                }
+                ScrollableResults results = query.setFetchSize( CHUNK_SIZE ).scroll( ScrollMode.FORWARD_ONLY );
+
+                List<Object[]> boundaries = new ArrayList<Object[]>();
+                int rows = 0;
+                while ( results.next() )
+                {
+                    if ( rows % CHUNK_SIZE == 0 )
+                    {
+                        boundaries.add( results.get() );
+                    }
+                    rows++;
+                }
+                results.close();
+
+                for ( int i = 0; i < boundaries.size(); i++ )
+                {
+                    Object[] to = i + 1 < boundaries.size() ? boundaries.get( i + 1 ) : null;
+                    int size = to == null ? rows - i * CHUNK_SIZE : CHUNK_SIZE;
+
+                    chunks.add( new ReindexChunk( className, projectId, boundaries.get( i ), to, size,
+                        projectId != null ) );
+                }
+            }
+            tx.commit();
+        }
+        catch ( RuntimeException e )
+        {
+            tx.rollback();
+            throw e;
+        }
+        finally
+        {
+            session.close();
+        }
+
+        return chunks;
+    }
+
+    private boolean process( List<ReindexChunk> chunks, final ReindexTask task )
+        throws InterruptedException
+    {
+        final List<ReindexChunk> incomplete = Collections.synchronizedList( new LinkedList<ReindexChunk>() );
+        final AtomicBoolean failed = new AtomicBoolean( false );
+
+        ExecutorService pool = Executors.newFixedThreadPool( getThreadCount() );
+        for ( final ReindexChunk chunk : chunks )
+        {
+            pool.execute( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        if ( cancelled || !index( chunk, task ) )
+                        {
+                            incomplete.add( chunk );
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        log.error( "Failed to reindex " + chunk, e );
+                        failed.set( true );
+                        incomplete.add( chunk );
+                    }
+                }
+            } );
+        }
+
+        pool.shutdown();
+        while ( !pool.awaitTermination( 1, TimeUnit.SECONDS ) )
+        {
+            // wait for the workers to finish or notice the cancellation
+        }
+
+        synchronized ( this )
+        {
+            for ( ReindexChunk chunk : incomplete )
+            {
+                // these may have been part indexed so make sure we replace rather than duplicate entries
+                chunk.replace = true;
+            }
+            remaining = new LinkedList<ReindexChunk>( incomplete );
+        }
+
+        if ( cancelled )
+        {
+            log.info( "Reindex cancelled with " + incomplete.size() + " ranges left to index" );
+        }
+        return !failed.get() && incomplete.isEmpty();
+    }
+
+    /**
+     * Index all the rows in a chunk.
+     *
+     * @return false if the reindex was cancelled before the chunk completed
+     */
+    private boolean index( ReindexChunk chunk, ReindexTask task )
+    {
+        Session session = HibernateUtil.openSession();
+        FullTextSession fullTextSession = org.hibernate.search.Search.createFullTextSession(
+            ( (SessionProxy) session ).getRealSession() );
+        Transaction tx = fullTextSession.beginTransaction();
+        try
+        {
+            fullTextSession.setFlushMode( FlushMode.MANUAL );
+            fullTextSession.setCacheMode( CacheMode.IGNORE );
+
+            ClassMetadata meta = fullTextSession.getSessionFactory().getClassMetadata( chunk.className );
+            List<String> keys = getKeyPaths( meta, fullTextSession.getSessionFactory() );
+            List<String> restrictions = getRestrictions( meta, chunk.className, chunk.projectId );
+            restrictions.add( compareKeys( keys, "from", ">", ">=" ) );
+            if ( chunk.to != null )
+            {
+                restrictions.add( compareKeys( keys, "to", "<", "<" ) );
+            }
+
+            StringBuilder hql = new StringBuilder( "select o from " ).append( chunk.className ).append( " o where " );
+            appendList( hql, restrictions, " and " );
+
+            Query query = fullTextSession.createQuery( hql.toString() );
+            if ( chunk.projectId != null )
+            {
+                query.setString( "projectId", chunk.projectId );
+            }
+            for ( int i = 0; i < keys.size(); i++ )
+            {
+                query.setParameter( "from" + i, chunk.from[i] );
+                if ( chunk.to != null )
+                {
+                    query.setParameter( "to" + i, chunk.to[i] );
+                }
+            }
+
+            ScrollableResults results = query.setFetchSize( BATCH_SIZE ).scroll( ScrollMode.FORWARD_ONLY );
+            int count = 0;
+            while ( results.next() )
+            {
+                Object o = results.get( 0 );
+                if ( chunk.replace )
+                {
+                    fullTextSession.purge( o.getClass(), fullTextSession.getIdentifier( o ) );
+                }
+                fullTextSession.index( o );
+
+                if ( ++count % BATCH_SIZE == 0 )
+                {
+                    fullTextSession.flushToIndexes();
+                    fullTextSession.clear();
+                    task.indexed( chunk.className, BATCH_SIZE );
+
+                    if ( cancelled )
+                    {
+                        results.close();
+                        tx.commit();
+                        return false;
+                    }
+                }
+            }
+            results.close();
+            tx.commit();
+
+            task.indexed( chunk.className, count % BATCH_SIZE );
+            return true;
+        }
+        catch ( RuntimeException e )
+        {
+            tx.rollback();
+            throw e;
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    /**
+     * The where clauses limiting a query to exactly this type and, if set, the given project.
+     *
+     * @return the restrictions or null if this type cannot be limited to a project
+     */
+    private static List<String> getRestrictions( ClassMetadata meta, String className, String projectId )
+    {
+        List<String> ret = new ArrayList<String>();
+        boolean hasSubclasses = meta instanceof EntityPersister &&
+            ( (EntityPersister) meta ).getEntityMetamodel().hasSubclasses();
+        if ( meta.isInherited() || hasSubclasses )
+        {
+            // subclasses are processed as their own type
+            ret.add( "o.class = " + className );
+        }
+
+        if ( projectId != null )
+        {
+            String path = getProjectPath( meta );
+            if ( path == null )
+            {
+                return null;
+            }
+            ret.add( path + " = :projectId" );
+        }
+
+        return ret;
+    }
+
+    private static String getProjectPath( ClassMetadata meta )
+    {
+        if ( StoredProject.class.isAssignableFrom( meta.getMappedClass( EntityMode.POJO ) ) )
+        {
+            return "o." + meta.getIdentifierPropertyName();
+        }
+        if ( Arrays.asList( meta.getPropertyNames() ).contains( "project" ) )
+        {
+            return "o.project.id";
+        }
+
+        Type idType = meta.getIdentifierType();
+        if ( idType instanceof ComponentType &&
+            Arrays.asList( ( (ComponentType) idType ).getPropertyNames() ).contains( "project" ) )
+        {
+            return "o." + meta.getIdentifierPropertyName() + ".project.id";
+        }
+
+        return null;
+    }
+
+    /**
+     * The identifier of a type as a list of simple, ordered paths - composite ids are broken into their parts and
+     * associations are referenced by their own id.
+     */
+    private static List<String> getKeyPaths( ClassMetadata meta, SessionFactory factory )
+    {
+        List<String> ret = new ArrayList<String>();
+        String idPath = "o." + meta.getIdentifierPropertyName();
+
+        Type idType = meta.getIdentifierType();
+        if ( !( idType instanceof ComponentType ) )
+        {
+            ret.add( idPath );
+            return ret;
+        }
+
+        ComponentType component = (ComponentType) idType;
+        for ( int i = 0; i < component.getPropertyNames().length; i++ )
+        {
+            String path = idPath + "." + component.getPropertyNames()[i];
+            Type subType = component.getSubtypes()[i];
+            if ( subType instanceof EntityType )
+            {
+                String entityName = ( (EntityType) subType ).getAssociatedEntityName();
+                path += "." + factory.getClassMetadata( entityName ).getIdentifierPropertyName();
+            }
+            ret.add( path );
+        }
+        return ret;
+    }
+
+    /**
+     * Build a lexicographic comparison of the key paths against the numbered parameters with the given prefix.
+     */
+    private static String compareKeys( List<String> keys, String param, String op, String lastOp )
+    {
+        StringBuilder clause = new StringBuilder( "(" );
+        for ( int i = 0; i < keys.size(); i++ )
+        {
+            if ( i > 0 )
+            {
+                clause.append( " or " );
+            }
+
+            clause.append( "(" );
+            for ( int j = 0; j < i; j++ )
+            {
+                clause.append( keys.get( j ) ).append( " = :" ).append( param ).append( j ).append( " and " );
+            }
+            clause.append( keys.get( i ) ).append( ' ' ).append( i == keys.size() - 1 ? lastOp : op )
+                .append( " :" ).append( param ).append( i );
+            clause.append( ")" );
+        }
+        return clause.append( ")" ).toString();
+    }
+
+    private static void appendList( StringBuilder out, List<String> items, String separator )
+    {
+        boolean first = true;
+        for ( String item : items )
+        {
+            if ( !first )
+            {
+                out.append( separator );
+            }
+            out.append( item );
+            first = false;
+        }
+    }
+
+    private static int getThreadCount()
+    {
+        return Math.min( MAX_THREADS, Math.max( 2, Runtime.getRuntime().availableProcessors() ) );
+    }
+
+    /**
+     * A range of rows of one type to index - from is inclusive and a null to means the end of the table.
+     */
+    static class ReindexChunk
+    {
+        final String className, projectId;
+        final Object[] from, to;
+        final int size;
+        boolean replace;
+
+        ReindexChunk( String className, String projectId, Object[] from, Object[] to, int size, boolean replace )
+        {
+            this.className = className;
+            this.projectId = projectId;
+            this.from = from;
+            this.to = to;
+            this.size = size;
+            this.replace = replace;
+        }
+
+        public String toString()
+        {
+            return ReindexTask.getTypeName( className ) + " from " + Arrays.asList( from );
+        }
+    }
+}
@@ -26,7 +26,6 @@ import org.headsupdev.agile.web.components.HeadsUpResourceReference;
 import org.headsupdev.agile.api.*;
 import org.headsupdev.agile.storage.HibernateStorage;
 import org.headsupdev.agile.storage.SessionProxy;
-import org.headsupdev.agile.storage.HibernateUtil;
 
 import java.util.*;
 import java.lang.reflect.Method;
@@ -46,10 +45,7 @@ import org.apache.wicket.model.AbstractReadOnlyModel;
 import org.apache.wicket.model.PropertyModel;
 import org.apache.wicket.PageParameters;
 import org.apache.wicket.ResourceReference;
-import org.apache.lucene.queryParser.MultiFieldQueryParser;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.Explanation;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.hibernate.Session;
 import org.hibernate.search.FullTextSession;
 import org.hibernate.search.FullTextQuery;
@@ -67,6 +63,7 @@ public class Search
     private static final int PAGE_SIZE = 25;
     private String query = null;
     private int from = 0;
+    private Map<String, List<String>> matches = new HashMap<String, List<String>>();
     private WebMarkupContainer noresults;
     private BookmarkablePageLink moreresultsLink, notallprojectsLink;
 
@@ -118,8 +115,19 @@ public class Search
         add( form );
         form.add( new TextField<String>( "query", new PropertyModel<String>( this, "query" ) ) );
 
+        SearchModel results = new SearchModel();
         final Map<String,Integer> colors = new HashMap<String,Integer>();
-        add( new ListView<Object[]>( "result", new SearchModel() )
+        for ( List<String> terms : matches.values() )
+        {
+            for ( String term : terms )
+            {
+                if ( !colors.containsKey( term ) )
+                {
+                    colors.put( term, colors.size() + 1 );
+                }
+            }
+        }
+        add( new ListView<Object[]>( "result", results )
         {
             protected void populateItem( ListItem<Object[]> listItem ) {
                 Object[] o = listItem.getModelObject();
@@ -152,10 +160,7 @@ public class Search
 
                 listItem.add( new Label( "project", getProjectFromResult( o ).getAlias() ) );
 
-                Map<String,List<String>> fields = new HashMap<String,List<String>>();
-                parseMatches( (Explanation) o[2], fields, colors );
-
-                listItem.add( new Label( "summary", new SearchRenderModel( o[1], fields, colors ) )
+                listItem.add( new Label( "summary", new SearchRenderModel( o[1], matches, colors ) )
                     .setEscapeModelStrings( false ) );
             }
         });
@@ -186,49 +191,6 @@ public class Search
         }
     }
 
-    private void parseMatches( Explanation e, Map<String,List<String>> fields, Map<String,Integer> colors )
-    {
-        if ( e.getDescription().contains( "fieldWeight" ) )
-        {
-            String desc = e.getDescription();
-            String sub = desc.substring(desc.indexOf('(') + 1, desc.indexOf(')') );
-
-            int colon = sub.indexOf( ':' );
-            String field = sub.substring( 0, colon );
-
-            int inPlace = sub.length();
-            if ( sub.lastIndexOf( " in " ) > 0 )
-            {
-                inPlace = sub.lastIndexOf( " in " );
-            }
-            String match = sub.substring( colon + 1, inPlace );
-            List<String> matches;
-            if ( fields.containsKey( field ) )
-            {
-                matches = fields.get( field );
-            }
-            else
-            {
-                matches = new LinkedList<String>();
-                fields.put( field, matches );
-            }
-
-            matches.add( match );
-            if ( !colors.containsKey( match ) )
-            {
-                colors.put( match, colors.size() + 1 ); 
-            }
-        }
-
-        if ( e.getDetails() != null )
-        {
-            for ( Explanation e2 : e.getDetails() )
-            {
-                parseMatches( e2, fields, colors );
-            }
-        }
-    }
-
     public static String getClassImageName( Object o )
     {
         if ( o instanceof SearchResult )
@@ -270,7 +232,6 @@ public class Search
         extends AbstractReadOnlyModel<List<Object[]>>
     {
         List<Object[]> results = new LinkedList<Object[]>();
-        int newFrom;
 
         public SearchModel()
         {
@@ -280,20 +241,23 @@ public class Search
                 FullTextSession fullTextSession = org.hibernate.search.Search.createFullTextSession(
                     ( (SessionProxy) session ).getRealSession() );
 
-                MultiFieldQueryParser parser = new MultiFieldQueryParser(
-                    new ArrayList<String>( HibernateUtil.getSearchFields() ).toArray(
-                            new String[ HibernateUtil.getSearchFields().size() ] ),
-                    new StandardAnalyzer());
+                int total = 0;
                 try
                 {
-                    Query q = parser.parse( query );
+                    Query q = SearchQueries.parse( query );
+                    matches = SearchQueries.getQueryTerms( q );
 
-                    newFrom = from;
-                    boolean more = true;
-                    while ( more && results.size() < PAGE_SIZE )
+                    FullTextQuery textQuery = fullTextSession.createFullTextQuery( q );
+                    textQuery.setFilter( SearchQueries.getProjectFilter( getProject() ) );
+                    textQuery.setProjection( FullTextQuery.SCORE, FullTextQuery.THIS );
+                    textQuery.setFirstResult( from );
+                    textQuery.setMaxResults( PAGE_SIZE );
+
+                    for ( Object result : textQuery.list() )
                     {
-                        more = addResults( q, fullTextSession, newFrom );
+                        results.add( (Object[]) result );
                     }
+                    total = textQuery.getResultSize();
                 }
                 catch ( Exception e )
                 {
@@ -302,8 +266,7 @@ public class Search
 
                 noresults.setVisible( results.size() == 0 );
                 notallprojectsLink.setVisible( results.size() == 0 && !getProject().equals( StoredProject.getDefault() ) );
-                moreresultsLink.setVisible( results.size() == PAGE_SIZE );
-                moreresultsLink.setParameter( "from", newFrom );
+                moreresultsLink.setVisible( from + PAGE_SIZE < total );
             }
         }
 
@@ -311,34 +274,5 @@ public class Search
         {
             return results;
         }
-
-        private boolean addResults( Query q, FullTextSession fullTextSession, int from )
-        {
-            FullTextQuery textQuery = fullTextSession.createFullTextQuery( q );
-            textQuery.setProjection( FullTextQuery.SCORE, FullTextQuery.THIS, FullTextQuery.EXPLANATION );
-            textQuery.setMaxResults(PAGE_SIZE);
-            textQuery.setFirstResult( from );
-
-            Iterator i = textQuery.iterate();
-            while ( i.hasNext() ) {
-                try
-                {
-                    Object[] result = (Object[]) i.next();
-
-                    if ( getProject().equals( StoredProject.getDefault() ) || getProject().equals(
-                            getProjectFromResult( result ) ) )
-                    {
-                        results.add( result );
-                    }
-                }
-                catch ( Exception e )
-                {
-                    Manager.getLogger( "Search" ).error( "Error extracting search results", e );
-                }
-                newFrom++;
-            }
-            
-            return textQuery.getResultSize() == PAGE_SIZE;
-        }
     }
 }
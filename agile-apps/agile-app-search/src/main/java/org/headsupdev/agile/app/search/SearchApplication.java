@@ -22,6 +22,10 @@ import org.headsupdev.agile.api.*;
 import org.headsupdev.agile.web.WebApplication;
 import org.headsupdev.agile.app.search.feed.SearchFeed;
 import org.headsupdev.agile.app.search.permission.SearchPermission;
+import org.headsupdev.agile.storage.backup.BackupManifest;
+import org.headsupdev.agile.storage.backup.DatabaseBackup;
+import org.headsupdev.agile.storage.backup.ImportListener;
+import org.osgi.framework.BundleContext;
 
 import java.util.List;
 import java.util.LinkedList;
@@ -38,6 +42,19 @@ public class SearchApplication
 {
     List<MenuLink> links;
 
+    // an imported database has none of its objects indexed
+    private ImportListener importListener = new ImportListener()
+    {
+        public void backupImported( BackupManifest manifest )
+        {
+            if ( !Reindexer.getInstance().start( new ReindexScope() ) )
+            {
+                Manager.getLogger( SearchApplication.class.getName() ).warn( "A reindex was already running " +
+                    "when the database was imported, the search cache should be reindexed again" );
+            }
+        }
+    };
+
     public SearchApplication()
     {
         links = new LinkedList<MenuLink>();
@@ -58,6 +75,24 @@ public class SearchApplication
         return "The " + HeadsUpConfiguration.getProductName() + " search application";
     }
 
+    @Override
+    public void start( BundleContext bc )
+    {
+        super.start( bc );
+
+        // the indexes persist on disk so we only rebuild those that are out of date or damaged
+        new IndexHealthCheck().start();
+        DatabaseBackup.getInstance().addImportListener( importListener );
+    }
+
+    @Override
+    public void stop( BundleContext bc )
+        throws Exception
+    {
+        DatabaseBackup.getInstance().removeImportListener( importListener );
+        super.stop( bc );
+    }
+
     public List<MenuLink> getLinks()
     {
         return links;
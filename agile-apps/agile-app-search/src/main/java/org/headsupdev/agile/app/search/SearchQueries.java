@@ -0,0 +1,167 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.search;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.MultiFieldQueryParser;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.*;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.storage.StoredProject;
+import org.headsupdev.agile.storage.hibernate.ProjectFieldBridge;
+
+import java.util.*;
+
+/**
+ * Helpers for building and interpreting search queries. Query parsers are not thread safe so each thread keeps
+ * its own, rebuilt only when the list of searchable fields changes.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class SearchQueries
+{
+    private static final ThreadLocal<CachedParser> parsers = new ThreadLocal<CachedParser>();
+
+    public static Query parse( String query )
+        throws ParseException
+    {
+        List<String> fields = HibernateUtil.getSearchFields();
+
+        CachedParser parser = parsers.get();
+        if ( parser == null || parser.fieldCount != fields.size() )
+        {
+            parser = new CachedParser( new ArrayList<String>( fields ) );
+            parsers.set( parser );
+        }
+
+        return parser.parser.parse( query );
+    }
+
+    /**
+     * Get a filter that restricts results to those belonging to the project.
+     *
+     * @return the filter to apply or null if the project is the "all projects" default
+     */
+    public static Filter getProjectFilter( Project project )
+    {
+        if ( project == null || project.equals( StoredProject.getDefault() ) )
+        {
+            return null;
+        }
+
+        return new QueryWrapperFilter( new TermQuery( new Term( ProjectFieldBridge.FIELD_NAME, project.getId() ) ) );
+    }
+
+    /**
+     * Find the terms a query is looking for, grouped by field, to be highlighted in the results.
+     * Prohibited clauses are skipped and wildcard terms are reduced to their leading text.
+     */
+    public static Map<String, List<String>> getQueryTerms( Query query )
+    {
+        Map<String, List<String>> terms = new HashMap<String, List<String>>();
+        addQueryTerms( query, terms );
+
+        return terms;
+    }
+
+    private static void addQueryTerms( Query query, Map<String, List<String>> terms )
+    {
+        if ( query instanceof BooleanQuery )
+        {
+            for ( BooleanClause clause : ( (BooleanQuery) query ).getClauses() )
+            {
+                if ( !clause.isProhibited() )
+                {
+                    addQueryTerms( clause.getQuery(), terms );
+                }
+            }
+        }
+        else if ( query instanceof TermQuery )
+        {
+            addTerm( ( (TermQuery) query ).getTerm(), terms );
+        }
+        else if ( query instanceof PhraseQuery )
+        {
+            for ( Term term : ( (PhraseQuery) query ).getTerms() )
+            {
+                addTerm( term, terms );
+            }
+        }
+        else if ( query instanceof PrefixQuery )
+        {
+            addTerm( ( (PrefixQuery) query ).getPrefix(), terms );
+        }
+        else if ( query instanceof WildcardQuery )
+        {
+            Term term = ( (WildcardQuery) query ).getTerm();
+            String text = term.text();
+            int wildcard = text.length();
+            for ( int i = 0; i < text.length(); i++ )
+            {
+                if ( text.charAt( i ) == '*' || text.charAt( i ) == '?' )
+                {
+                    wildcard = i;
+                    break;
+                }
+            }
+            addTerm( new Term( term.field(), text.substring( 0, wildcard ) ), terms );
+        }
+        else if ( query instanceof FuzzyQuery )
+        {
+            addTerm( ( (FuzzyQuery) query ).getTerm(), terms );
+        }
+    }
+
+    private static void addTerm( Term term, Map<String, List<String>> terms )
+    {
+        if ( term.text() == null || term.text().length() == 0 )
+        {
+            return;
+        }
+
+        List<String> matches = terms.get( term.field() );
+        if ( matches == null )
+        {
+            matches = new LinkedList<String>();
+            terms.put( term.field(), matches );
+        }
+
+        String text = term.text().toLowerCase();
+        if ( !matches.contains( text ) )
+        {
+            matches.add( text );
+        }
+    }
+
+    private static class CachedParser
+    {
+        private int fieldCount;
+        private MultiFieldQueryParser parser;
+
+        CachedParser( List<String> fields )
+        {
+            fieldCount = fields.size();
+            parser = new MultiFieldQueryParser( fields.toArray( new String[fields.size()] ), new StandardAnalyzer() );
+        }
+    }
+}
@@ -22,6 +22,8 @@ import org.apache.wicket.model.Model;
 import org.apache.wicket.util.string.Strings;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 
@@ -37,6 +39,12 @@ public class SearchRenderModel
     extends Model<String>
 {
     private static final int BUFFER_CHARS = 50;
+
+    private static final Map<String, AccessibleObject> accessors = new ConcurrentHashMap<String, AccessibleObject>();
+    private static final AccessibleObject NO_ACCESSOR = new AccessibleObject()
+    {
+    };
+
     private Object object;
     private Map<String, List<String>> fields;
     private Map<String, Integer> colors;
@@ -63,34 +71,43 @@ public class SearchRenderModel
     private void renderOutput()
     {
         StringBuffer summary = new StringBuffer();
-        Iterator<String> fieldIter = fields.keySet().iterator();
-        while ( fieldIter.hasNext() )
+        for ( String field : fields.keySet() )
         {
-            String field = fieldIter.next();
-
-            summary.append( "<span class=\"search-field\">" );
-            summary.append( field );
-            summary.append( "</span> " );
-
+            // the query covers the fields of every indexed type, only show those this object has that match
             List<String> matches = fields.get( field );
             String content = getFieldContent( object, field, matches );
-            if ( content == null )
-            {
-                summary.append( "&lt;content unavailable&gt;" );
-            }
-            else
+            if ( content == null || !containsMatch( content, matches ) )
             {
-                renderField( field, content, matches, summary );
+                continue;
             }
 
-            if ( fieldIter.hasNext() )
+            if ( summary.length() > 0 )
             {
                 summary.append( "<br />" );
             }
+            summary.append( "<span class=\"search-field\">" );
+            summary.append( field );
+            summary.append( "</span> " );
+
+            renderField( field, content, matches, summary );
         }
         output = summary.toString();
     }
 
+    private boolean containsMatch( String content, List<String> matches )
+    {
+        String lowerContent = content.toLowerCase();
+        for ( String match : matches )
+        {
+            if ( lowerContent.contains( match ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     private String getFieldContent( Object o, String fieldName, List<String> matches )
     {
         int split = fieldName.indexOf( '.' );
@@ -130,33 +147,60 @@ public class SearchRenderModel
 
     private Object getField( Object o, String fieldName )
     {
-        try
+        AccessibleObject accessor = getAccessor( o.getClass(), fieldName );
+        if ( accessor == null )
         {
-            String methodName = "get" + fieldName.substring( 0, 1 ).toUpperCase() + fieldName.substring( 1 );
-            Method method = o.getClass().getMethod( methodName );
+            return null;
+        }
 
-            return method.invoke( o );
+        try
+        {
+            if ( accessor instanceof Method )
+            {
+                return ( (Method) accessor ).invoke( o );
+            }
+            return ( (Field) accessor ).get( o );
         }
         catch ( Exception e )
         {
-            // TODO tidy this up, no debug just better coded :-p
-            System.err.println("method fail = " + e.getMessage() );
-            // ignore, just fall to next method
+            return null;
+        }
+    }
+
+    /**
+     * Look up the getter, or failing that the field, for a property - lookups are cached per class as the same
+     * fields are checked for every result.
+     */
+    private static AccessibleObject getAccessor( Class type, String fieldName )
+    {
+        String key = type.getName() + "#" + fieldName;
+        AccessibleObject accessor = accessors.get( key );
+        if ( accessor != null )
+        {
+            return accessor == NO_ACCESSOR ? null : accessor;
+        }
 
+        try
+        {
+            String methodName = "get" + fieldName.substring( 0, 1 ).toUpperCase() + fieldName.substring( 1 );
+            accessor = type.getMethod( methodName );
+        }
+        catch ( NoSuchMethodException e )
+        {
             try
             {
-                Field field = o.getClass().getDeclaredField( fieldName );
+                Field field = type.getDeclaredField( fieldName );
                 field.setAccessible( true );
-                return field.get( o );
+                accessor = field;
             }
-            catch ( Exception e2 )
+            catch ( NoSuchFieldException e2 )
             {
-                System.err.println("field fail = " + e2.getMessage() );
-                // ignore, just fall to next method
+                accessor = NO_ACCESSOR;
             }
         }
 
-        return null;
+        accessors.put( key, accessor );
+        return accessor == NO_ACCESSOR ? null : accessor;
     }
 
     private void renderField( String field, String content, List<String> matches, StringBuffer out )
@@ -21,19 +21,17 @@ package org.headsupdev.agile.app.search.feed;
 import org.headsupdev.agile.web.WebUtil;
 import org.headsupdev.agile.web.MountPoint;
 import org.headsupdev.agile.app.search.Search;
+import org.headsupdev.agile.app.search.SearchQueries;
 import org.headsupdev.agile.security.permission.ProjectListPermission;
 import org.headsupdev.agile.api.Storage;
 import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.api.Permission;
 import org.headsupdev.agile.api.SearchResult;
-import org.headsupdev.agile.storage.HibernateUtil;
 import org.headsupdev.agile.storage.SessionProxy;
 import org.headsupdev.agile.storage.HibernateStorage;
 import org.hibernate.Session;
 import org.hibernate.search.FullTextSession;
 import org.hibernate.search.FullTextQuery;
-import org.apache.lucene.queryParser.MultiFieldQueryParser;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.search.Query;
 import org.apache.wicket.markup.MarkupStream;
 import org.apache.wicket.markup.html.WebPage;
@@ -107,16 +105,17 @@ public class SearchFeed
         FullTextSession fullTextSession = org.hibernate.search.Search.createFullTextSession(
             ( (SessionProxy) session ).getRealSession() );
 
-        MultiFieldQueryParser parser = new MultiFieldQueryParser(
-            new ArrayList<String>( HibernateUtil.getSearchFields() ).toArray( new String[ 0 ] ),
-            new StandardAnalyzer());
         try
         {
-            // TODO can we limit by project somehow? I think not :(
-            Query q = parser.parse( query );
+            Query q = SearchQueries.parse( query );
 
             FullTextQuery textQuery = fullTextSession.createFullTextQuery( q );
-            textQuery.setProjection( FullTextQuery.SCORE, FullTextQuery.THIS );//, FullTextQuery.EXPLANATION );
+            String projectId = parameters.getString( "project" );
+            if ( projectId != null )
+            {
+                textQuery.setFilter( SearchQueries.getProjectFilter( storage.getProject( projectId ) ) );
+            }
+            textQuery.setProjection( FullTextQuery.SCORE, FullTextQuery.THIS );
             textQuery.setMaxResults( 25 );
             results = textQuery.list();
         }
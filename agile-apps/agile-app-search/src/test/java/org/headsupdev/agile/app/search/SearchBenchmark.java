@@ -0,0 +1,182 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.app.search;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.MultiFieldQueryParser;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.RAMDirectory;
+import org.headsupdev.agile.storage.hibernate.ProjectFieldBridge;
+
+import java.util.Random;
+
+/**
+ * A benchmark comparing the old search strategy (filtering pages of results by project after the query and
+ * computing an explanation for every hit) with filtering inside lucene and offset paging.
+ * It is not run as part of the test suite, run the main method with an optional document count (default 100000).
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class SearchBenchmark
+{
+    private static final String[] FIELDS = { "summary", "body", "comment", "name" };
+    private static final String[] WORDS = { "build", "release", "issue", "fix", "crash", "login", "report",
+            "upload", "search", "index", "milestone", "deploy", "server", "client", "parser", "cache" };
+
+    private static final int PROJECTS = 200;
+    private static final int PAGE_SIZE = 25;
+    private static final int RUNS = 50;
+
+    public static void main( String[] args )
+        throws Exception
+    {
+        int docs = 100000;
+        if ( args.length > 0 )
+        {
+            docs = Integer.parseInt( args[0] );
+        }
+
+        RAMDirectory dir = new RAMDirectory();
+        buildIndex( dir, docs );
+        IndexSearcher searcher = new IndexSearcher( dir );
+
+        Query query = new MultiFieldQueryParser( FIELDS, new StandardAnalyzer() ).parse( "build OR crash" );
+        // a small project, roughly 1 in PROJECTS documents
+        String project = "project" + ( PROJECTS - 1 );
+
+        // warm up both strategies before timing
+        postFilter( searcher, query, project, 0 );
+        luceneFilter( searcher, query, project, 0 );
+
+        System.out.println( "Searching " + docs + " documents for \"" + query + "\" in " + project );
+        for ( int page = 0; page < 3; page++ )
+        {
+            long start = System.nanoTime();
+            for ( int i = 0; i < RUNS; i++ )
+            {
+                postFilter( searcher, query, project, page * PAGE_SIZE );
+            }
+            long post = ( System.nanoTime() - start ) / RUNS;
+
+            start = System.nanoTime();
+            for ( int i = 0; i < RUNS; i++ )
+            {
+                luceneFilter( searcher, query, project, page * PAGE_SIZE );
+            }
+            long filtered = ( System.nanoTime() - start ) / RUNS;
+
+            System.out.println( "page " + ( page + 1 ) + ": post filter with explanations " + post / 1000 +
+                    "us, lucene filter " + filtered / 1000 + "us" );
+        }
+
+        searcher.close();
+    }
+
+    private static void buildIndex( RAMDirectory dir, int docs )
+        throws Exception
+    {
+        Random random = new Random( 42 );
+        IndexWriter writer = new IndexWriter( dir, new StandardAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED );
+        for ( int i = 0; i < docs; i++ )
+        {
+            Document doc = new Document();
+            for ( String field : FIELDS )
+            {
+                StringBuilder text = new StringBuilder();
+                for ( int word = 0; word < 8; word++ )
+                {
+                    text.append( WORDS[random.nextInt( WORDS.length )] ).append( ' ' );
+                }
+                doc.add( new Field( field, text.toString(), Field.Store.YES, Field.Index.ANALYZED ) );
+            }
+
+            // skew the projects so that most documents belong to a few big projects
+            int project = Math.min( PROJECTS - 1, (int) Math.abs( random.nextGaussian() * PROJECTS / 4 ) );
+            doc.add( new Field( ProjectFieldBridge.FIELD_NAME, "project" + project, Field.Store.YES,
+                    Field.Index.NOT_ANALYZED ) );
+            writer.addDocument( doc );
+        }
+        writer.optimize();
+        writer.close();
+    }
+
+    /**
+     * The previous strategy - fetch pages from the whole index, explain each hit and filter by project in java
+     * until we have a page of results for our project.
+     */
+    private static int postFilter( IndexSearcher searcher, Query query, String project, int from )
+        throws Exception
+    {
+        int found = 0, skipped = 0, position = 0;
+        while ( found < PAGE_SIZE )
+        {
+            TopDocs top = searcher.search( query, null, position + PAGE_SIZE );
+            if ( position >= top.scoreDocs.length )
+            {
+                break;
+            }
+
+            for ( int i = position; i < top.scoreDocs.length && found < PAGE_SIZE; i++ )
+            {
+                int doc = top.scoreDocs[i].doc;
+                searcher.explain( query, doc );
+                if ( project.equals( searcher.doc( doc ).get( ProjectFieldBridge.FIELD_NAME ) ) )
+                {
+                    if ( skipped < from )
+                    {
+                        skipped++;
+                    }
+                    else
+                    {
+                        found++;
+                    }
+                }
+            }
+            position += PAGE_SIZE;
+        }
+
+        return found;
+    }
+
+    /**
+     * The new strategy - filter by project inside lucene and take just the page requested.
+     */
+    private static int luceneFilter( IndexSearcher searcher, Query query, String project, int from )
+        throws Exception
+    {
+        Filter filter = new QueryWrapperFilter( new TermQuery( new Term( ProjectFieldBridge.FIELD_NAME, project ) ) );
+        TopDocs top = searcher.search( query, filter, from + PAGE_SIZE );
+
+        int found = 0;
+        for ( int i = from; i < top.scoreDocs.length; i++ )
+        {
+            searcher.doc( top.scoreDocs[i].doc );
+            found++;
+        }
+        SearchQueries.getQueryTerms( query );
+
+        return found;
+    }
+}
@@ -34,6 +34,8 @@ import org.headsupdev.agile.core.logging.HeadsUpLoggerManager;
 import org.headsupdev.agile.core.notifiers.IRCNotifier;
 import org.headsupdev.agile.core.notifiers.TwitterNotifier;
 import org.headsupdev.agile.core.notifiers.EmailNotifier;
+import org.headsupdev.agile.core.notifiers.NotificationDispatcher;
+import org.headsupdev.agile.core.notifiers.SubscriptionMailer;
 
 import java.util.*;
 import java.io.Serializable;
@@ -70,6 +72,9 @@ public class DefaultManager
     
     private ScmService scmService;
 
+    transient private NotificationDispatcher dispatcher;
+    transient private SubscriptionMailer mailer;
+
     public void load()
     {
         new DefaultIRCServiceManager().addCommand( new ProjectCommand() );
@@ -139,6 +144,17 @@ public class DefaultManager
         updatesThread.cancel();
         updatesThread = null;
 
+        if ( mailer != null )
+        {
+            mailer.shutdown();
+            mailer = null;
+        }
+        if ( dispatcher != null )
+        {
+            dispatcher.shutdown();
+            dispatcher = null;
+        }
+
         deinitNotifiers( StoredProject.getDefault() );
         for ( Project project : Manager.getStorageInstance().getProjects() )
         {
@@ -283,6 +299,10 @@ public class DefaultManager
         notifier.setConfiguration( null );
     }
 
+    /**
+     * Queue notifications for the event with each notifier in the project tree and for subscribed users.
+     * This returns as soon as they are queued, the notifiers run on the NotificationDispatcher's threads.
+     */
     public void fireEventAdded( Event event )
     {
         Project project = event.getProject();
@@ -295,56 +315,68 @@ public class DefaultManager
         }
 
         sendNotification( event, StoredProject.getDefault() );
-        sendSubscriptions( event );
+        getNotificationDispatcher().dispatch( SubscriptionMailer.LANE, SubscriptionMailer.WORKERS, event, new NotificationDispatcher.Delivery()
+        {
+            public String getDescription()
+            {
+                return "subscriptions";
+            }
+
+            public void deliver( Event event )
+            {
+                sendSubscriptions( event );
+            }
+        } );
+    }
+
+    public synchronized NotificationDispatcher getNotificationDispatcher()
+    {
+        if ( dispatcher == null )
+        {
+            dispatcher = new NotificationDispatcher();
+        }
+
+        return dispatcher;
     }
 
-    private void sendNotification( Event event, Project project )
+    private void sendNotification( Event event, final Project project )
     {
         if ( notifiers.get( project ) != null )
         {
-            for ( Notifier notifier : notifiers.get( project ) ) {
-                try
+            for ( final Notifier notifier : notifiers.get( project ) ) {
+                getNotificationDispatcher().dispatch( notifier.getId(), event, new NotificationDispatcher.Delivery()
                 {
-                    getLoggerForComponent( getClass().getName() ).info( "Running " + notifier.getId() + " notifier for project " + project.getId() );
-                    notifier.eventAdded( event );
-                }
-                catch ( Exception e )
-                {
-                    // we do not want broken notifiers to kill the process that spawned them!!!
-                    getLoggerForComponent( getClass().getName() ).error( "Problem found in notifier " + notifier.getId(), e );
-                }
+                    public String getDescription()
+                    {
+                        return notifier.getId() + " notifier for project " + project.getId();
+                    }
+
+                    public void deliver( Event event )
+                    {
+                        getLoggerForComponent( DefaultManager.class.getName() ).info( "Running " + getDescription() );
+                        notifier.eventAdded( event );
+                    }
+                } );
             }
         }
     }
 
     private void sendSubscriptions( Event event )
     {
-        String from = Manager.getStorageInstance().getGlobalConfiguration().getSmtpHost();
-        if ( StringUtil.isEmpty( from ) )
+        Set<User> candidates = event.getInterestedUsers();
+        if ( candidates == null )
         {
-            from = "noreply@headsupdev.com";
+            candidates = new HashSet<User>( Manager.getSecurityInstance().getUsers() );
         }
 
-        Session session = HibernateUtil.getCurrentSession();
-        for ( User user : Manager.getSecurityInstance().getUsers() )
+        for ( User user : candidates )
         {
-            user = (User) session.load( StoredUser.class, user.getUsername() );
-
             // TODO a configurable system for controlling what a user gets sent
             if ( ( event.getUsername() == null || !event.getUsername().equals( user.getUsername() ) ) && event.shouldNotify( user ) )
             {
                 if ( !StringUtil.isEmpty( user.getEmail() ) )
                 {
-                    getLoggerForComponent( getClass().getName() ).info( "Emailing event to user " + user.getUsername() + " at " + user.getEmail() );
-                    try
-                    {
-                        EmailNotifier.sendEventEmail( event, user.getEmail(), from );
-                    }
-                    catch ( Exception e )
-                    {
-                        // we do not want broken notifiers to kill the process that spawned them!!!
-                        getLoggerForComponent( getClass().getName() ).error( "Problem found sending email subscriptions", e );
-                    }
+                    getSubscriptionMailer().add( event, user );
                 }
                 else
                 {
@@ -354,6 +386,16 @@ public class DefaultManager
         }
     }
 
+    private synchronized SubscriptionMailer getSubscriptionMailer()
+    {
+        if ( mailer == null )
+        {
+            mailer = new SubscriptionMailer( getNotificationDispatcher() );
+        }
+
+        return mailer;
+    }
+
     public Map<String, LinkProvider> getLinkProviders()
     {
         return linkProviders;
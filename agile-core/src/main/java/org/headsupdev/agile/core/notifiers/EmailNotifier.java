@@ -20,6 +20,7 @@ package org.headsupdev.agile.core.notifiers;
 
 import org.headsupdev.agile.api.*;
 import org.headsupdev.agile.api.util.MailUtil;
+import org.headsupdev.agile.storage.EventBodyCache;
 
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
@@ -59,20 +60,77 @@ public class EmailNotifier
 
     public static void sendEventEmail( Event event, String to, String from )
     {
-        HeadsUpConfiguration config = Manager.getStorageInstance().getGlobalConfiguration();
+        MailUtil.sendEmail( to, from, getEventEmailTitle( event ), getEventEmailBody( event ),
+                getConfig().getSmtpHost(), getConfig().getSmtpUsername(), getConfig().getSmtpPassword(), false );
+    }
+
+    public static String getEventEmailTitle( Event event )
+    {
         String title = "[HeadsUp Agile] " + event.getTitle();
         if ( event.getProject() != null ) {
             title += " (project " + event.getProject().getAlias() + ")";
         }
 
-        StringBuilder body = new StringBuilder( "<html><head><title>" );
+        return title;
+    }
+
+    public static String getEventEmailBody( Event event )
+    {
+        StringBuilder body = new StringBuilder();
+        appendHeader( body, getEventEmailTitle( event ), event.getBodyHeader(), event.getUsername(),
+                String.valueOf( event.getProject() ) );
+        appendEvent( body, event );
+
+        String content = EventBodyCache.getBody( event );
+        if ( content != null ) {
+            body.append( content );
+        }
+
+        body.append( "</div></div></body></html>" );
+        return body.toString();
+    }
+
+    public static String getDigestEmailTitle( List<Event> events )
+    {
+        return "[HeadsUp Agile] " + events.size() + " updates";
+    }
+
+    /**
+     * Build a single email body that summarises a number of events, each linking to the full details.
+     */
+    public static String getDigestEmailBody( List<Event> events )
+    {
+        StringBuilder body = new StringBuilder();
+        appendHeader( body, getDigestEmailTitle( events ), null, null, events.size() + " updates" );
+        for ( Event event : events )
+        {
+            appendEvent( body, event );
+        }
+
+        body.append( "</div></div></body></html>" );
+        return body.toString();
+    }
+
+    private static HeadsUpConfiguration getConfig()
+    {
+        return Manager.getStorageInstance().getGlobalConfiguration();
+    }
+
+    private static void appendHeader( StringBuilder body, String title, String bodyHeader, String username,
+                                      String heading )
+    {
+        HeadsUpConfiguration config = getConfig();
+        body.append( "<html><head><title>" );
         body.append( title );
         body.append( "</title>" );
         body.append( "<base href=\"" );
         body.append( config.getBaseUrl() );
         body.append( "\" />" );
         body.append( "<link rel=\"stylesheet\" type=\"text/css\" href=\"/resources/org.headsupdev.agile.web.HeadsUpPage/common.css\" />" );
-        body.append( event.getBodyHeader() );
+        if ( bodyHeader != null )
+        {
+            body.append( bodyHeader );
+        }
         body.append( "</head><body><div id=\"page\" style=\"background:#fff;\n" +
                 "            width:100%;\n" +
                 "            margin:0;\n" +
@@ -93,10 +151,10 @@ public class EmailNotifier
                 "            height: 34px;\n" +
                 "            overflow: hidden;\">" );
         body.append( "<img style=\"padding:1px;float:left;margin-left:30px\" src=\"http://headsupdev.com/api/agile/images/2/header-logo.png\" />" );
-        if ( event.getUsername() != null )
+        if ( username != null )
         {
             body.append( "<span class=\"user\" style=\"float: right; padding: 8px 30px; margin-right: 30px;\">" );
-            body.append( Manager.getSecurityInstance().getUserByUsername( event.getUsername() ) );
+            body.append( Manager.getSecurityInstance().getUserByUsername( username ) );
             body.append( "</span>" );
         }
         body.append( "</div>" );
@@ -107,10 +165,14 @@ public class EmailNotifier
                 "            font-size:38px;\n" +
                 "            background-color:#f0f1eb;\n" +
                 "            height:45px;\n" +
-                "            color:#555b5b;\"><div style=\"margin: 0 30px;\">" + event.getProject() + "</div></h1>" );
+                "            color:#555b5b;\"><div style=\"margin: 0 30px;\">" + heading + "</div></h1>" );
 
         body.append( "<div id=\"content\" style=\"padding: 0 30px;\">" );
+    }
 
+    private static void appendEvent( StringBuilder body, Event event )
+    {
+        HeadsUpConfiguration config = getConfig();
         String time = new SimpleDateFormat( "hh:mm aa" ).format( event.getTime() );
         String link = config.getFullUrl( "/activity/event/id/" ) + event.getId();
         body.append( "<div class=\"history-item\" style=\"margin-top: 15pt;\n" +
@@ -147,16 +209,6 @@ public class EmailNotifier
                 "        </div>\n" +
                 "        \n" +
                 "      </div>" );
-
-        String content = event.getBody();
-        if ( content != null ) {
-            body.append( content );
-        }
-
-        body.append( "</div></div></body></html>" );
-
-        MailUtil.sendEmail( to, from, title, body.toString(), config.getSmtpHost(),
-                config.getSmtpUsername(), config.getSmtpPassword(), false );
     }
 
     public PropertyTree getConfiguration()
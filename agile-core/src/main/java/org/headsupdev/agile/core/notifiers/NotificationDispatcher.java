@@ -0,0 +1,364 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.core.notifiers;
+
+import org.headsupdev.agile.api.Event;
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.logging.Logger;
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.storage.StoredEvent;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers event notifications in the background so the code that created an event does not wait on SMTP, IRC or
+ * other remote services.
+ * Each notifier type has its own lane - a bounded queue and workers - so a slow or broken service only holds up
+ * its own notifications. When a lane is full new notifications for it are dropped and counted. A delivery that
+ * throws is tried again after a delay that doubles each time, up to MAX_ATTEMPTS.
+ * Deliveries run with their own database session and reload the event so lazy properties can be read.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class NotificationDispatcher
+{
+    public static final int QUEUE_SIZE = 500;
+    public static final int MAX_ATTEMPTS = 4;
+    public static final long RETRY_DELAY = 30 * 1000;
+
+    /**
+     * The work for a single notification, run on one of the lane's worker threads.
+     */
+    public interface Delivery
+    {
+        String getDescription();
+
+        void deliver( Event event )
+            throws Exception;
+    }
+
+    private final Map<String, Lane> lanes = new TreeMap<String, Lane>();
+    private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(
+        new LaneThreadFactory( "retry" ) );
+
+    private Logger log = Manager.getLogger( getClass().getName() );
+
+    /**
+     * Queue a delivery on the named lane, using a single worker so notifications arrive in order.
+     *
+     * @param lane The name of the lane, normally the notifier id
+     * @param event The event being notified
+     * @param delivery The work to do for the event
+     * @return true if the delivery was queued, false if the lane was full and it was dropped
+     */
+    public boolean dispatch( String lane, Event event, Delivery delivery )
+    {
+        return dispatch( lane, 1, event, delivery );
+    }
+
+    /**
+     * Queue a delivery on the named lane, creating the lane with the given number of workers if needed.
+     *
+     * @return true if the delivery was queued, false if the lane was full and it was dropped
+     */
+    public boolean dispatch( String lane, int workers, Event event, Delivery delivery )
+    {
+        return getLane( lane, workers ).submit( new Job( event, delivery, 1 ) );
+    }
+
+    public List<LaneStatistics> getStatistics()
+    {
+        List<LaneStatistics> ret = new ArrayList<LaneStatistics>();
+        synchronized ( lanes )
+        {
+            for ( Lane lane : lanes.values() )
+            {
+                ret.add( lane.getStatistics() );
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Stop accepting notifications. Those already queued are still delivered but no more retries are scheduled.
+     */
+    public void shutdown()
+    {
+        retries.shutdownNow();
+        synchronized ( lanes )
+        {
+            for ( Lane lane : lanes.values() )
+            {
+                lane.executor.shutdown();
+            }
+        }
+    }
+
+    private Lane getLane( String name, int workers )
+    {
+        synchronized ( lanes )
+        {
+            Lane lane = lanes.get( name );
+            if ( lane == null )
+            {
+                lane = new Lane( name, workers );
+                lanes.put( name, lane );
+            }
+
+            return lane;
+        }
+    }
+
+    /**
+     * Load the event in the current thread's session so lazy properties can be read, falling back to the object
+     * passed if it has not been saved or is not yet visible.
+     */
+    static Event reload( Event event )
+    {
+        if ( event == null || event.getId() == 0 )
+        {
+            return event;
+        }
+
+        Event loaded = (Event) HibernateUtil.getCurrentSession().get( StoredEvent.class, event.getId() );
+        if ( loaded == null )
+        {
+            return event;
+        }
+
+        return loaded;
+    }
+
+    private class Lane
+    {
+        private String name;
+        private ThreadPoolExecutor executor;
+
+        private AtomicLong delivered = new AtomicLong(), retried = new AtomicLong(), failed = new AtomicLong(),
+            dropped = new AtomicLong(), totalTime = new AtomicLong(), maxTime = new AtomicLong();
+
+        Lane( String name, int workers )
+        {
+            this.name = name;
+            executor = new ThreadPoolExecutor( workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( QUEUE_SIZE ), new LaneThreadFactory( name ) );
+        }
+
+        boolean submit( final Job job )
+        {
+            try
+            {
+                executor.execute( new Runnable()
+                {
+                    public void run()
+                    {
+                        deliver( job );
+                    }
+                } );
+                return true;
+            }
+            catch ( RejectedExecutionException e )
+            {
+                dropped.incrementAndGet();
+                log.warn( "Notification queue " + name + " is full, dropped " + job.delivery.getDescription() );
+                return false;
+            }
+        }
+
+        void deliver( final Job job )
+        {
+            long start = System.currentTimeMillis();
+            try
+            {
+                job.delivery.deliver( reload( job.event ) );
+                delivered.incrementAndGet();
+            }
+            catch ( Exception e )
+            {
+                if ( job.attempt < MAX_ATTEMPTS && !retries.isShutdown() )
+                {
+                    long delay = RETRY_DELAY << ( job.attempt - 1 );
+                    log.warn( "Failed " + job.delivery.getDescription() + " (attempt " + job.attempt +
+                        "), retrying in " + ( delay / 1000 ) + "s" );
+                    retried.incrementAndGet();
+
+                    try
+                    {
+                        retries.schedule( new Runnable()
+                        {
+                            public void run()
+                            {
+                                submit( new Job( job.event, job.delivery, job.attempt + 1 ) );
+                            }
+                        }, delay, TimeUnit.MILLISECONDS );
+                    }
+                    catch ( RejectedExecutionException shutdown )
+                    {
+                        failed.incrementAndGet();
+                    }
+                }
+                else
+                {
+                    failed.incrementAndGet();
+                    log.error( "Giving up on " + job.delivery.getDescription() + " after " + job.attempt +
+                        " attempts", e );
+                }
+            }
+            finally
+            {
+                recordTime( System.currentTimeMillis() - start );
+                ( (HibernateStorage) Manager.getStorageInstance() ).closeSession();
+            }
+        }
+
+        private void recordTime( long time )
+        {
+            totalTime.addAndGet( time );
+
+            long max = maxTime.get();
+            while ( time > max && !maxTime.compareAndSet( max, time ) )
+            {
+                max = maxTime.get();
+            }
+        }
+
+        LaneStatistics getStatistics()
+        {
+            long attempts = delivered.get() + retried.get() + failed.get();
+            long average = attempts == 0 ? 0 : totalTime.get() / attempts;
+
+            return new LaneStatistics( name, executor.getQueue().size(), executor.getActiveCount(), delivered.get(),
+                retried.get(), failed.get(), dropped.get(), average, maxTime.get() );
+        }
+    }
+
+    private static class Job
+    {
+        private Event event;
+        private Delivery delivery;
+        private int attempt;
+
+        Job( Event event, Delivery delivery, int attempt )
+        {
+            this.event = event;
+            this.delivery = delivery;
+            this.attempt = attempt;
+        }
+    }
+
+    private static class LaneThreadFactory
+        implements ThreadFactory
+    {
+        private String name;
+        private AtomicInteger count = new AtomicInteger();
+
+        LaneThreadFactory( String name )
+        {
+            this.name = name;
+        }
+
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, "notify-" + name + "-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+
+    /**
+     * A snapshot of the counters for a single lane.
+     */
+    public static class LaneStatistics
+        implements Serializable
+    {
+        private String name;
+        private int queued, active;
+        private long delivered, retried, failed, dropped, averageTime, maxTime;
+
+        LaneStatistics( String name, int queued, int active, long delivered, long retried, long failed,
+                        long dropped, long averageTime, long maxTime )
+        {
+            this.name = name;
+            this.queued = queued;
+            this.active = active;
+            this.delivered = delivered;
+            this.retried = retried;
+            this.failed = failed;
+            this.dropped = dropped;
+            this.averageTime = averageTime;
+            this.maxTime = maxTime;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public int getQueued()
+        {
+            return queued;
+        }
+
+        public int getActive()
+        {
+            return active;
+        }
+
+        public long getDelivered()
+        {
+            return delivered;
+        }
+
+        public long getRetried()
+        {
+            return retried;
+        }
+
+        public long getFailed()
+        {
+            return failed;
+        }
+
+        public long getDropped()
+        {
+            return dropped;
+        }
+
+        public long getAverageTime()
+        {
+            return averageTime;
+        }
+
+        public long getMaxTime()
+        {
+            return maxTime;
+        }
+    }
+}
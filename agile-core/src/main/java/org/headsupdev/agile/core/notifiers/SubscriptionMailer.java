@@ -0,0 +1,330 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.core.notifiers;
+
+import org.headsupdev.agile.api.Event;
+import org.headsupdev.agile.api.HeadsUpConfiguration;
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.User;
+import org.headsupdev.agile.api.logging.Logger;
+import org.headsupdev.agile.api.util.MailUtil;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends subscription emails in batches over a single SMTP connection.
+ * Emails are collected for a few seconds (or until a batch is full) and sent together through the
+ * NotificationDispatcher, keeping the connection open between batches until it has been idle for a minute.
+ * Users that set the digest preference get one email covering all of the events from a period instead of one per
+ * event.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class SubscriptionMailer
+{
+    public static final String PREFERENCE_DIGEST = "notification.digest";
+
+    public static final long BATCH_DELAY = 5 * 1000;
+    public static final int BATCH_SIZE = 50;
+    public static final long DIGEST_DELAY = 15 * 60 * 1000;
+    public static final long IDLE_TIMEOUT = 60 * 1000;
+
+    public static final String LANE = "subscriptions";
+    public static final int WORKERS = 2;
+
+    private NotificationDispatcher dispatcher;
+    private ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    private List<Recipient> batch = new LinkedList<Recipient>();
+    private Map<String, Digest> digests = new HashMap<String, Digest>();
+
+    private final Object connectionLock = new Object();
+    private Transport transport;
+    private Session transportSession;
+    private long lastSent;
+
+    private Logger log = Manager.getLogger( getClass().getName() );
+
+    public SubscriptionMailer( NotificationDispatcher dispatcher )
+    {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Queue an email about the event to the user, either in the next batch or in their digest.
+     */
+    public synchronized void add( Event event, User user )
+    {
+        if ( user.getPreference( PREFERENCE_DIGEST, false ) )
+        {
+            Digest digest = digests.get( user.getUsername() );
+            if ( digest == null )
+            {
+                digest = new Digest( user.getUsername(), user.getEmail() );
+                digests.put( user.getUsername(), digest );
+
+                final String username = user.getUsername();
+                schedule( new Runnable()
+                {
+                    public void run()
+                    {
+                        flushDigest( username );
+                    }
+                }, DIGEST_DELAY );
+            }
+
+            digest.events.add( event );
+            return;
+        }
+
+        batch.add( new Recipient( user.getUsername(), user.getEmail(), event ) );
+        if ( batch.size() >= BATCH_SIZE )
+        {
+            flushBatch();
+        }
+        else if ( batch.size() == 1 )
+        {
+            schedule( new Runnable()
+            {
+                public void run()
+                {
+                    flushBatch();
+                }
+            }, BATCH_DELAY );
+        }
+    }
+
+    /**
+     * Send everything that is waiting, including digests that are not yet due.
+     */
+    public synchronized void flush()
+    {
+        flushBatch();
+        for ( String username : new ArrayList<String>( digests.keySet() ) )
+        {
+            flushDigest( username );
+        }
+    }
+
+    public void shutdown()
+    {
+        flush();
+        timer.shutdownNow();
+        synchronized ( connectionLock )
+        {
+            closeConnection();
+        }
+    }
+
+    private synchronized void flushBatch()
+    {
+        if ( batch.isEmpty() )
+        {
+            return;
+        }
+
+        final List<Recipient> sending = batch;
+        batch = new LinkedList<Recipient>();
+        dispatcher.dispatch( LANE, WORKERS, null, new NotificationDispatcher.Delivery()
+        {
+            public String getDescription()
+            {
+                return "subscription emails to " + sending.size() + " users";
+            }
+
+            public void deliver( Event ignored )
+                throws MessagingException
+            {
+                // anything sent is removed so a retry only covers the emails that failed
+                Iterator<Recipient> recipients = sending.iterator();
+                while ( recipients.hasNext() )
+                {
+                    Recipient recipient = recipients.next();
+                    Event event = NotificationDispatcher.reload( recipient.event );
+
+                    log.info( "Emailing event to user " + recipient.username + " at " + recipient.email );
+                    send( recipient.email, EmailNotifier.getEventEmailTitle( event ),
+                        EmailNotifier.getEventEmailBody( event ) );
+                    recipients.remove();
+                }
+            }
+        } );
+    }
+
+    private synchronized void flushDigest( String username )
+    {
+        final Digest digest = digests.remove( username );
+        if ( digest == null )
+        {
+            return;
+        }
+
+        dispatcher.dispatch( LANE, WORKERS, null, new NotificationDispatcher.Delivery()
+        {
+            public String getDescription()
+            {
+                return "subscription digest of " + digest.events.size() + " events to user " + digest.username;
+            }
+
+            public void deliver( Event ignored )
+                throws MessagingException
+            {
+                List<Event> events = new ArrayList<Event>();
+                for ( Event event : digest.events )
+                {
+                    events.add( NotificationDispatcher.reload( event ) );
+                }
+
+                log.info( "Emailing digest to user " + digest.username + " at " + digest.email );
+                send( digest.email, EmailNotifier.getDigestEmailTitle( events ),
+                    EmailNotifier.getDigestEmailBody( events ) );
+            }
+        } );
+    }
+
+    private void schedule( Runnable task, long delay )
+    {
+        if ( !timer.isShutdown() )
+        {
+            timer.schedule( task, delay, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    private void send( String to, String subject, String body )
+        throws MessagingException
+    {
+        synchronized ( connectionLock )
+        {
+            Transport connection = getConnection();
+            Message message = MailUtil.createMessage( transportSession, to, getFrom(), subject, body );
+            try
+            {
+                connection.sendMessage( message, new InternetAddress[]{ new InternetAddress( to ) } );
+            }
+            catch ( MessagingException e )
+            {
+                // the server may have dropped us, connect again when retried
+                closeConnection();
+                throw e;
+            }
+
+            lastSent = System.currentTimeMillis();
+        }
+
+        schedule( new Runnable()
+        {
+            public void run()
+            {
+                synchronized ( connectionLock )
+                {
+                    if ( System.currentTimeMillis() - lastSent >= IDLE_TIMEOUT )
+                    {
+                        closeConnection();
+                    }
+                }
+            }
+        }, IDLE_TIMEOUT );
+    }
+
+    private Transport getConnection()
+        throws MessagingException
+    {
+        HeadsUpConfiguration config = Manager.getStorageInstance().getGlobalConfiguration();
+        Session session = MailUtil.getSession( config.getSmtpHost(), config.getSmtpUsername(),
+            config.getSmtpPassword(), false );
+
+        if ( transport != null && ( session != transportSession || !transport.isConnected() ) )
+        {
+            closeConnection();
+        }
+
+        if ( transport == null )
+        {
+            transportSession = session;
+            transport = session.getTransport();
+            transport.connect();
+        }
+
+        return transport;
+    }
+
+    private void closeConnection()
+    {
+        if ( transport == null )
+        {
+            return;
+        }
+
+        try
+        {
+            transport.close();
+        }
+        catch ( MessagingException e )
+        {
+            // we are finished with it anyway
+        }
+        transport = null;
+    }
+
+    private static String getFrom()
+    {
+        String from = Manager.getStorageInstance().getGlobalConfiguration().getSmtpFrom();
+        if ( from == null || from.length() == 0 )
+        {
+            from = "noreply@headsupdev.com";
+        }
+
+        return from;
+    }
+
+    private static class Recipient
+    {
+        private String username, email;
+        private Event event;
+
+        Recipient( String username, String email, Event event )
+        {
+            this.username = username;
+            this.email = email;
+            this.event = event;
+        }
+    }
+
+    private static class Digest
+    {
+        private String username, email;
+        private List<Event> events = new LinkedList<Event>();
+
+        Digest( String username, String email )
+        {
+            this.username = username;
+            this.email = email;
+        }
+    }
+}
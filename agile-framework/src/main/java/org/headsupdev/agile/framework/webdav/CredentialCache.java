@@ -0,0 +1,178 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.framework.webdav;
+
+import org.headsupdev.agile.storage.hibernate.PermissionChangeListener;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A short lived cache of Basic authentication headers that have already been verified, so repeat requests from
+ * build tools do not need to look up and check the account again.
+ * Headers are stored as a digest salted with a value chosen at startup, never in plain text. An entry is dropped
+ * when it expires or when the account changes in any way (such as a new password or being disabled), which we
+ * detect from the user version that PermissionChangeListener keeps.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class CredentialCache
+{
+    public static final long DEFAULT_TTL = 5 * 60 * 1000;
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final long ttl;
+    private final byte[] salt = new byte[16];
+
+    private final Map<String, Entry> entries;
+
+    public CredentialCache()
+    {
+        this( DEFAULT_TTL, DEFAULT_MAX_ENTRIES );
+    }
+
+    public CredentialCache( long ttl, final int maxEntries )
+    {
+        this.ttl = ttl;
+        new SecureRandom().nextBytes( salt );
+
+        entries = new LinkedHashMap<String, Entry>( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, Entry> eldest )
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Look up a previously verified authorization header.
+     *
+     * @param header The full Authorization header sent by the client
+     * @return the username the header was verified for or null if it is not known, has expired or the account has
+     *         changed since
+     */
+    public String get( String header )
+    {
+        String key = digest( header );
+
+        Entry entry;
+        synchronized ( entries )
+        {
+            entry = entries.get( key );
+        }
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        if ( entry.expires < System.currentTimeMillis() ||
+            entry.userVersion != PermissionChangeListener.getUserVersion( entry.username ) )
+        {
+            synchronized ( entries )
+            {
+                entries.remove( key );
+            }
+            return null;
+        }
+
+        return entry.username;
+    }
+
+    /**
+     * Remember that an authorization header was verified for the given user.
+     * The user version should be read before the account was loaded so a change made while verifying is not missed.
+     *
+     * @param header The full Authorization header sent by the client
+     * @param username The username of the account that the header matched
+     * @param userVersion The account version from PermissionChangeListener when the account was loaded
+     */
+    public void put( String header, String username, long userVersion )
+    {
+        Entry entry = new Entry( username, userVersion, System.currentTimeMillis() + ttl );
+        String key = digest( header );
+
+        synchronized ( entries )
+        {
+            entries.put( key, entry );
+        }
+    }
+
+    public void clear()
+    {
+        synchronized ( entries )
+        {
+            entries.clear();
+        }
+    }
+
+    public int size()
+    {
+        synchronized ( entries )
+        {
+            return entries.size();
+        }
+    }
+
+    private String digest( String header )
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+            digest.update( salt );
+            byte[] hash = digest.digest( header.getBytes( "UTF-8" ) );
+
+            StringBuilder ret = new StringBuilder( hash.length * 2 );
+            for ( byte b : hash )
+            {
+                ret.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) );
+                ret.append( Character.forDigit( b & 0xf, 16 ) );
+            }
+            return ret.toString();
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "SHA-256 is not available", e );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( "UTF-8 is not available", e );
+        }
+    }
+
+    private static class Entry
+    {
+        private final String username;
+        private final long userVersion, expires;
+
+        Entry( String username, long userVersion, long expires )
+        {
+            this.username = username;
+            this.userVersion = userVersion;
+            this.expires = expires;
+        }
+    }
+}
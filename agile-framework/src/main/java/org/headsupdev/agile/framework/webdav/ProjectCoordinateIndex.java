@@ -0,0 +1,174 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.framework.webdav;
+
+import org.headsupdev.agile.api.AntProject;
+import org.headsupdev.agile.api.MavenTwoProject;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.api.ProjectListener;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * An in-memory index of project coordinates, used to find the project that owns a path in the repository.
+ * Maven projects are keyed by groupId and artifactId, Ant projects by organisation and module.
+ * The index is kept current by listening for project events, so lookups never touch the database.
+ * Readers see an immutable snapshot, writers replace it - project changes are rare compared to lookups.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ProjectCoordinateIndex
+    implements ProjectListener
+{
+    private volatile Map<String, Project> index = Collections.emptyMap();
+
+    /**
+     * Replace the contents of this index with the coordinates of the projects passed.
+     * Where two projects share coordinates the first one in the collection wins.
+     *
+     * @param projects All the projects that should be resolvable
+     */
+    public synchronized void rebuild( Collection<? extends Project> projects )
+    {
+        Map<String, Project> newIndex = new HashMap<String, Project>();
+        for ( Project project : projects )
+        {
+            String key = getKey( project );
+            if ( key != null && !newIndex.containsKey( key ) )
+            {
+                newIndex.put( key, project );
+            }
+        }
+
+        index = Collections.unmodifiableMap( newIndex );
+    }
+
+    /**
+     * Find the project for a path within a repository, such as "org/example/app/1.0/app-1.0.pom".
+     * The longest prefix of the path matching a set of coordinates is used, the path must have at least two
+     * elements to match anything.
+     *
+     * @param path The path relative to the repository root, without leading or trailing separators
+     * @return The project that matches the deepest part of the path or null if there was no match
+     */
+    public Project find( String path )
+    {
+        if ( path == null )
+        {
+            return null;
+        }
+
+        Map<String, Project> current = index;
+        String prefix = path;
+        int pos = prefix.lastIndexOf( File.separatorChar );
+        while ( pos > 0 )
+        {
+            String group = prefix.substring( 0, pos ).replace( File.separatorChar, '.' );
+            Project project = current.get( getKey( group, prefix.substring( pos + 1 ) ) );
+            if ( project != null )
+            {
+                return project;
+            }
+
+            prefix = prefix.substring( 0, pos );
+            pos = prefix.lastIndexOf( File.separatorChar );
+        }
+
+        return null;
+    }
+
+    public int size()
+    {
+        return index.size();
+    }
+
+    public void projectAdded( Project project )
+    {
+        update( project, false );
+    }
+
+    public void projectModified( Project project )
+    {
+        update( project, false );
+    }
+
+    public void projectFileModified( Project project, String path, File file )
+    {
+        // coordinates are only changed through projectModified
+    }
+
+    public void projectRemoved( Project project )
+    {
+        update( project, true );
+    }
+
+    private synchronized void update( Project project, boolean remove )
+    {
+        Map<String, Project> newIndex = new HashMap<String, Project>( index );
+
+        // the coordinates may have changed so drop any old entries for this project
+        Iterator<Project> values = newIndex.values().iterator();
+        while ( values.hasNext() )
+        {
+            if ( values.next().getId().equals( project.getId() ) )
+            {
+                values.remove();
+            }
+        }
+
+        String key = getKey( project );
+        if ( !remove && key != null && !newIndex.containsKey( key ) )
+        {
+            newIndex.put( key, project );
+        }
+
+        index = Collections.unmodifiableMap( newIndex );
+    }
+
+    static String getKey( Project project )
+    {
+        if ( project instanceof MavenTwoProject )
+        {
+            return getKey( ( (MavenTwoProject) project ).getGroupId(), ( (MavenTwoProject) project ).getArtifactId() );
+        }
+        else if ( project instanceof AntProject )
+        {
+            return getKey( ( (AntProject) project ).getOrganisation(), ( (AntProject) project ).getModule() );
+        }
+
+        return null;
+    }
+
+    private static String getKey( String group, String artifact )
+    {
+        if ( group == null || artifact == null )
+        {
+            return null;
+        }
+
+        return group + ':' + artifact;
+    }
+}
@@ -28,6 +28,11 @@ import org.headsupdev.agile.security.permission.RepositoryWritePermission;
 import org.headsupdev.agile.storage.HibernateStorage;
 import org.headsupdev.agile.storage.HibernateUtil;
 import org.headsupdev.agile.storage.StoredProject;
+import org.headsupdev.agile.storage.StoredUser;
+import org.headsupdev.agile.storage.backup.BackupManifest;
+import org.headsupdev.agile.storage.backup.DatabaseBackup;
+import org.headsupdev.agile.storage.backup.ImportListener;
+import org.headsupdev.agile.storage.hibernate.PermissionChangeListener;
 import org.headsupdev.agile.web.ApplicationPageMapper;
 import org.apache.catalina.servlets.WebdavServlet;
 import org.hibernate.Session;
@@ -57,6 +62,20 @@ public class RepositoryServlet
 
     private static File repoRoot;
 
+    private static ProjectCoordinateIndex projectIndex = new ProjectCoordinateIndex();
+
+    private static CredentialCache credentialCache = new CredentialCache();
+
+    // an import replaces the projects without notifying project listeners
+    private static ImportListener importListener = new ImportListener()
+    {
+        public void backupImported( BackupManifest manifest )
+        {
+            rebuildProjectIndex();
+            credentialCache.clear();
+        }
+    };
+
     private static final List<String> READ_METHODS;
 
     static
@@ -102,6 +121,11 @@ public class RepositoryServlet
 
         setDebug( HeadsUpConfiguration.isDebug() );
         setRootDirectory( repoRoot );
+
+        rebuildProjectIndex();
+        Manager.getInstance().addProjectListener( projectIndex );
+        DatabaseBackup.getInstance().addImportListener( importListener );
+
         try {
             configureRepository( repoRoot, "release" );
             configureRepository( repoRoot, "snapshot" );
@@ -117,6 +141,21 @@ public class RepositoryServlet
         }
     }
 
+    @Override
+    public void destroy()
+    {
+        DatabaseBackup.getInstance().removeImportListener( importListener );
+        Manager.getInstance().removeProjectListener( projectIndex );
+        credentialCache.clear();
+        super.destroy();
+    }
+
+    private static void rebuildProjectIndex()
+    {
+        projectIndex.rebuild( storage.getProjects() );
+        ( (HibernateStorage) storage ).closeSession();
+    }
+
     private void configureRepository( File root, String name )
             throws IOException
     {
@@ -200,6 +239,19 @@ public class RepositoryServlet
         String message = "You must provide a username and password to access this resource.";
         if ( ( header != null ) && header.startsWith( "Basic " ) )
         {
+            // a header we have recently verified can skip the password check and the username query
+            String cachedUsername = credentialCache.get( header );
+            if ( cachedUsername != null )
+            {
+                User user = (User) ( (HibernateStorage) storage ).getHibernateSession().get( StoredUser.class,
+                    cachedUsername );
+                if ( user != null )
+                {
+                    req.setAttribute( "agile-user", user );
+                    return true;
+                }
+            }
+
             String base64Token = header.substring( 6 );
             String token = new String( Base64.decodeBase64( base64Token.getBytes() ) );
 
@@ -215,7 +267,9 @@ public class RepositoryServlet
 
             String encodedPass = HashUtil.getMD5Hex( password );
 
-                    User user = securityManager.getUserByUsername(username);
+            // read before loading the user so a change while we are checking stops the entry being used
+            long userVersion = PermissionChangeListener.getUserVersion( username );
+            User user = securityManager.getUserByUsername( username );
             if ( user != null )
             {
                 if ( !user.getPassword().equals( encodedPass ) )
@@ -228,6 +282,12 @@ public class RepositoryServlet
                 }
                 else
                 {
+                    // versions are kept against the exact username so only cache when the case matched
+                    if ( user.getUsername().equals( username ) )
+                    {
+                        credentialCache.put( header, username, userVersion );
+                    }
+
                     req.setAttribute( "agile-user", user );
                     return true;
                 }
@@ -449,14 +509,7 @@ public class RepositoryServlet
 
     protected Project getProject( String repoName, String resource )
     {
-        File repo = new File( repoRoot, repoName );
-
-        Project project = null;
-        resource = stripSlashes( resource );
-        if ( resource != null )
-        {
-            project = getProjectDepthFirst( resource, repo );
-        }
+        Project project = projectIndex.find( stripSlashes( resource ) );
 
         // there are actually no matches - return "all" project
         if ( project == null )
@@ -467,45 +520,6 @@ public class RepositoryServlet
         return project;
     }
 
-    private Project getProjectDepthFirst( String path, File root )
-    {
-        // this heirarchy will not bottom out as we require this depth in $HEADSUP_HOME/repository/name/
-        File file = new File( root, path );
-        File parentFile = file.getParentFile();
-        if ( root.equals( file ) || root.equals( parentFile ) )
-        {
-            return null;
-        }
-
-        String artifactId = file.getName();
-        String groupId = path.substring( 0, path.length() - file.getName().length() - 1 );
-        groupId = groupId.replace( File.separatorChar, '.' );
-
-        for ( Project test : storage.getProjects() )
-        {
-            if ( test instanceof MavenTwoProject )
-            {
-                if ( artifactId.equals( ( (MavenTwoProject) test ).getArtifactId() ) &&
-                        groupId.equals( ( (MavenTwoProject) test ).getGroupId() ) )
-                {
-                    return test;
-                }
-            }
-            else if ( test instanceof AntProject )
-            {
-                if ( artifactId.equals( ( (AntProject) test ).getModule() ) &&
-                    groupId.equals( ( (AntProject) test ).getOrganisation() ) )
-                {
-                    return test;
-                }
-            }
-        }
-
-        // no matches, try next resource up the path
-        String parentPath = new File( path ).getParent();
-        return getProjectDepthFirst( parentPath, root );
-    }
-
     protected String getRepositoryName( HttpServletRequest request )
     {
         String path = request.getPathInfo();
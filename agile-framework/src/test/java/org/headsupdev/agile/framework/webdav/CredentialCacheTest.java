@@ -0,0 +1,86 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.framework.webdav;
+
+import junit.framework.TestCase;
+import org.headsupdev.agile.storage.hibernate.PermissionChangeListener;
+
+/**
+ * Tests for the verified credential cache used by the repository.
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+public class CredentialCacheTest
+        extends TestCase
+{
+    private static final String HEADER = "Basic dGVzdDpwYXNz";
+
+    public void testVerifiedHeaderIsReturned()
+    {
+        CredentialCache cache = new CredentialCache();
+        assertNull( cache.get( HEADER ) );
+
+        cache.put( HEADER, "test", PermissionChangeListener.getUserVersion( "test" ) );
+        assertEquals( "test", cache.get( HEADER ) );
+        assertNull( cache.get( "Basic dGVzdDp3cm9uZw==" ) );
+    }
+
+    public void testChangedAccountIsNotReturned()
+    {
+        CredentialCache cache = new CredentialCache();
+
+        cache.put( HEADER, "test", PermissionChangeListener.getUserVersion( "test" ) - 1 );
+        assertNull( cache.get( HEADER ) );
+        assertEquals( 0, cache.size() );
+    }
+
+    public void testAccountsInvalidatedByImport()
+    {
+        CredentialCache cache = new CredentialCache();
+
+        cache.put( HEADER, "test", PermissionChangeListener.getUserVersion( "test" ) );
+        cache.put( "Basic c2Vjb25k", "unchanged", PermissionChangeListener.getUserVersion( "unchanged" ) );
+        PermissionChangeListener.invalidateAll();
+
+        assertNull( cache.get( HEADER ) );
+        assertNull( cache.get( "Basic c2Vjb25k" ) );
+    }
+
+    public void testExpiredHeaderIsNotReturned()
+    {
+        CredentialCache cache = new CredentialCache( -1, 10 );
+
+        cache.put( HEADER, "test", PermissionChangeListener.getUserVersion( "test" ) );
+        assertNull( cache.get( HEADER ) );
+    }
+
+    public void testOldestHeaderIsEvicted()
+    {
+        CredentialCache cache = new CredentialCache( CredentialCache.DEFAULT_TTL, 2 );
+
+        cache.put( "Basic a", "a", PermissionChangeListener.getUserVersion( "a" ) );
+        cache.put( "Basic b", "b", PermissionChangeListener.getUserVersion( "b" ) );
+        cache.put( "Basic c", "c", PermissionChangeListener.getUserVersion( "c" ) );
+
+        assertEquals( 2, cache.size() );
+        assertNull( cache.get( "Basic a" ) );
+        assertEquals( "c", cache.get( "Basic c" ) );
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.framework.webdav;
+
+import org.headsupdev.agile.api.MavenTwoProject;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.storage.StoredMavenTwoProject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A benchmark of the project lookup made by RepositoryServlet for each request, simulating the requests a
+ * "mvn dependency:resolve" makes (metadata, pom, jar and checksums) against a repository hosting 500 projects,
+ * where half of the resolved artifacts are external and match no project.
+ * The old lookup is measured scanning an in-memory list, so it does not include the database load that it made
+ * at each level of the path - the real difference is much larger than reported.
+ * It is not run as part of the test suite, run the main method with an optional number of projects.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class RepositoryLookupBenchmark
+{
+    private static final int ROUNDS = 5;
+    private static final long ROUND_MILLIS = 2000;
+
+    private static final String[] FILES = { "maven-metadata.xml", "maven-metadata.xml.sha1", "%s-1.0.pom",
+            "%s-1.0.pom.sha1", "%s-1.0.jar", "%s-1.0.jar.sha1" };
+
+    public static void main( String[] args )
+    {
+        int count = 500;
+        if ( args.length > 0 )
+        {
+            count = Integer.parseInt( args[0] );
+        }
+
+        List<Project> projects = new ArrayList<Project>();
+        List<String> paths = new ArrayList<String>();
+        for ( int i = 0; i < count; i++ )
+        {
+            String groupId = "org.example.group" + ( i % 20 );
+            String artifactId = "artifact" + i;
+            projects.add( new BenchmarkProject( groupId, artifactId ) );
+
+            addPaths( paths, groupId, artifactId );
+            addPaths( paths, "org.external.vendor" + ( i % 20 ), "library" + i );
+        }
+
+        ProjectCoordinateIndex index = new ProjectCoordinateIndex();
+        index.rebuild( projects );
+
+        System.out.println( "Resolving " + paths.size() + " paths against " + count + " projects" );
+        for ( int round = 1; round <= ROUNDS; round++ )
+        {
+            System.out.println( "Round " + round + ":" );
+            System.out.println( "  scan:  " + measure( paths, projects, null ) + " requests/sec" );
+            System.out.println( "  index: " + measure( paths, projects, index ) + " requests/sec" );
+        }
+    }
+
+    private static void addPaths( List<String> paths, String groupId, String artifactId )
+    {
+        String dir = groupId.replace( '.', File.separatorChar ) + File.separatorChar + artifactId;
+        paths.add( dir + File.separatorChar + FILES[0] );
+        paths.add( dir + File.separatorChar + FILES[1] );
+
+        for ( int i = 2; i < FILES.length; i++ )
+        {
+            paths.add( dir + File.separatorChar + "1.0" + File.separatorChar + String.format( FILES[i], artifactId ) );
+        }
+    }
+
+    private static long measure( List<String> paths, List<Project> projects, ProjectCoordinateIndex index )
+    {
+        long requests = 0;
+        int found = 0;
+        long start = System.currentTimeMillis();
+        long elapsed;
+        do
+        {
+            for ( String path : paths )
+            {
+                Project project;
+                if ( index == null )
+                {
+                    project = scan( path, projects );
+                }
+                else
+                {
+                    project = index.find( path );
+                }
+
+                if ( project != null )
+                {
+                    found++;
+                }
+            }
+            requests += paths.size();
+            elapsed = System.currentTimeMillis() - start;
+        }
+        while ( elapsed < ROUND_MILLIS );
+
+        if ( found * 2 != requests )
+        {
+            throw new IllegalStateException( "Unexpected match count " + found + " of " + requests );
+        }
+        return requests * 1000 / elapsed;
+    }
+
+    /**
+     * The lookup RepositoryServlet used before the coordinate index, with the project list passed in.
+     */
+    private static Project scan( String path, List<Project> projects )
+    {
+        int pos = path.lastIndexOf( File.separatorChar );
+        if ( pos <= 0 )
+        {
+            return null;
+        }
+
+        String artifactId = path.substring( pos + 1 );
+        String groupId = path.substring( 0, pos ).replace( File.separatorChar, '.' );
+        for ( Project test : projects )
+        {
+            if ( artifactId.equals( ( (MavenTwoProject) test ).getArtifactId() ) &&
+                    groupId.equals( ( (MavenTwoProject) test ).getGroupId() ) )
+            {
+                return test;
+            }
+        }
+
+        return scan( path.substring( 0, pos ), projects );
+    }
+
+    static class BenchmarkProject
+        extends StoredMavenTwoProject
+    {
+        BenchmarkProject( String groupId, String artifactId )
+        {
+            setId( artifactId );
+            setGroupId( groupId );
+            setArtifactId( artifactId );
+        }
+    }
+}
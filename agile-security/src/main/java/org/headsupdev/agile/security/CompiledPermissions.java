@@ -0,0 +1,67 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.security;
+
+import java.util.BitSet;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the permissions a user holds. Permissions granted everywhere (including the anonymous
+ * role) and those granted only within the user's projects are held as bitsets indexed by permission, so a check
+ * is a bit test and a set lookup.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+class CompiledPermissions
+{
+    private final BitSet global, member;
+    private final Set<String> projectIds;
+    private final long globalVersion, userVersion;
+
+    CompiledPermissions( BitSet global, BitSet member, Set<String> projectIds, long globalVersion, long userVersion )
+    {
+        this.global = global;
+        this.member = member;
+        this.projectIds = projectIds;
+        this.globalVersion = globalVersion;
+        this.userVersion = userVersion;
+    }
+
+    boolean isCurrent( long globalVersion, long userVersion )
+    {
+        return this.globalVersion == globalVersion && this.userVersion == userVersion;
+    }
+
+    boolean hasGlobalPermission( int index )
+    {
+        return global.get( index );
+    }
+
+    boolean hasMemberPermission( int index )
+    {
+        return member.get( index );
+    }
+
+    boolean isMember( String projectId )
+    {
+        return projectIds.contains( projectId );
+    }
+}
@@ -19,11 +19,14 @@
 package org.headsupdev.agile.security;
 
 import org.headsupdev.agile.storage.*;
+import org.headsupdev.agile.storage.hibernate.PermissionChangeListener;
 import org.hibernate.Transaction;
 import org.hibernate.Session;
 import org.hibernate.Query;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.io.Serializable;
 
 import org.headsupdev.agile.api.*;
@@ -43,6 +46,10 @@ public class DefaultSecurityManager
     List<Permission> permissions = new LinkedList<Permission>();
     Map<String, Permission> permissionIdMap = new HashMap<String, Permission>();
 
+    private static final ConcurrentMap<String, Integer> permissionIndexes = new ConcurrentHashMap<String, Integer>();
+    private static final ConcurrentMap<String, CompiledPermissions> compiledPermissions =
+            new ConcurrentHashMap<String, CompiledPermissions>();
+
     public void scanPermissions( Application application )
     {
         if ( !PrivateConfiguration.isInstalled() )
@@ -102,7 +109,7 @@ public class DefaultSecurityManager
     {
         Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
         Transaction tx = session.beginTransaction();
-        List<User> list = session.createQuery( "from StoredUser u order by username" ).list();
+        List<User> list = session.createQuery( "from StoredUser u order by username" ).setCacheable( true ).list();
         tx.commit();
 
         Collections.sort( list );
@@ -113,7 +120,8 @@ public class DefaultSecurityManager
     {
         Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
         Transaction tx = session.beginTransaction();
-        List<User> list = session.createQuery( "from StoredUser u where username != 'anonymous' and (disabled is null or disabled = 0) order by username" ).list();
+        List<User> list = session.createQuery( "from StoredUser u where username != 'anonymous' and (disabled is null or disabled = 0) order by username" )
+                .setCacheable( true ).list();
         tx.commit();
 
         Collections.sort( list );
@@ -136,8 +144,9 @@ public class DefaultSecurityManager
     {
         Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
         Transaction tx = session.beginTransaction();
-        Query q = session.createQuery( "from StoredUser u where UPPER(username) = UPPER(:username)" );
-        q.setString( "username", username );
+        Query q = session.createQuery( "from StoredUser u where usernameLower = :username" );
+        q.setString( "username", StoredUser.normalizeUsername( username ) );
+        q.setCacheable( true );
         User ret = (User) q.uniqueResult();
         tx.commit();
 
@@ -167,22 +176,22 @@ public class DefaultSecurityManager
         {
             if ( pos2 > -1 )
             {
-                q = session.createQuery( "from StoredUser u where UPPER(username) = UPPER(:username) or firstname||' '||lastname like :name or email = :email" );
-                q.setString( "username", possibleUsername );
+                q = session.createQuery( "from StoredUser u where usernameLower = :username or firstname||' '||lastname like :name or email = :email" );
+                q.setString( "username", StoredUser.normalizeUsername( possibleUsername ) );
                 q.setString( "name", possibleName );
                 q.setString( "email", possibleEmail );
             }
             else
             {
-                q = session.createQuery( "from StoredUser u where UPPER(username) = UPPER(:username) or firstname||' '||lastname like :name" );
-                q.setString( "username", possibleUsername );
+                q = session.createQuery( "from StoredUser u where usernameLower = :username or firstname||' '||lastname like :name" );
+                q.setString( "username", StoredUser.normalizeUsername( possibleUsername ) );
                 q.setString( "name", possibleName );
             }
         }
         else
         {
-            q = session.createQuery( "from StoredUser u where UPPER(username) = UPPER(:username)" );
-            q.setString( "username", possibleUsername );
+            q = session.createQuery( "from StoredUser u where usernameLower = :username" );
+            q.setString( "username", StoredUser.normalizeUsername( possibleUsername ) );
 
             if ( q.uniqueResult() == null && possibleUsername.contains( "@" ) )
             {
@@ -206,7 +215,7 @@ public class DefaultSecurityManager
     {
         Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
         Transaction tx = session.beginTransaction();
-        List<Role> list = session.createQuery( "from StoredRole r order by id" ).list();
+        List<Role> list = session.createQuery( "from StoredRole r order by id" ).setCacheable( true ).list();
         tx.commit();
 
         return list;
@@ -216,9 +225,7 @@ public class DefaultSecurityManager
     {
         Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
         Transaction tx = session.beginTransaction();
-        Query q = session.createQuery( "from StoredRole r where id = :id" );
-        q.setString( "id", id );
-        Role ret = (Role) q.uniqueResult();
+        Role ret = (Role) session.get( StoredRole.class, id );
         tx.commit();
 
         return ret;
@@ -246,29 +253,110 @@ public class DefaultSecurityManager
 
     public boolean userHasPermission( User user, Permission permission, Project project )
     {
-        String permId = permission.getId();
-        for ( Role role : user.getRoles() )
+        int index = getPermissionIndex( permission.getId() );
+        CompiledPermissions compiled = getCompiledPermissions( user );
+        if ( compiled.hasGlobalPermission( index ) )
+        {
+            return true;
+        }
+        if ( !compiled.hasMemberPermission( index ) )
+        {
+            return false;
+        }
+
+        if ( project == null )
+        {
+            return true;
+        }
+        if ( Project.ALL_PROJECT_ID.equals( project.getId() ) )
+        {
+            // the default project's members are held in configuration rather than the user's projects
+            return project.getUsers().contains( user );
+        }
+        return compiled.isMember( project.getId() );
+    }
+
+    /**
+     * Get the compiled permissions for a user, rebuilding them if roles or this user have changed since they were
+     * compiled. Each snapshot is immutable and replaced whole, so request threads can share them without locking.
+     */
+    CompiledPermissions getCompiledPermissions( User user )
+    {
+        String username = user.getUsername();
+        long globalVersion = PermissionChangeListener.getGlobalVersion();
+        long userVersion = PermissionChangeListener.getUserVersion( username );
+
+        CompiledPermissions compiled = compiledPermissions.get( username );
+        if ( compiled == null || !compiled.isCurrent( globalVersion, userVersion ) )
         {
-            if ( role.equals( new MemberRole() ) )
+            compiled = compilePermissions( user, globalVersion, userVersion );
+            compiledPermissions.put( username, compiled );
+        }
+
+        return compiled;
+    }
+
+    private CompiledPermissions compilePermissions( User user, long globalVersion, long userVersion )
+    {
+        BitSet global = new BitSet();
+        BitSet member = new BitSet();
+        Set<String> projectIds = new HashSet<String>();
+
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+        Transaction tx = session.beginTransaction();
+
+        // read the current state rather than a user object that may have been held since login
+        User stored = (User) session.get( StoredUser.class, user.getUsername() );
+        if ( stored == null )
+        {
+            stored = user;
+        }
+
+        String memberId = new MemberRole().getId();
+        for ( Role role : stored.getRoles() )
+        {
+            addPermissions( role, memberId.equals( role.getId() ) ? member : global );
+        }
+        for ( Project project : stored.getProjects() )
+        {
+            projectIds.add( project.getId() );
+        }
+
+        Role anon = (Role) session.get( StoredRole.class, new AnonymousRole().getId() );
+        if ( anon != null ) // can be null if we are setting up
+        {
+            addPermissions( anon, global );
+        }
+        tx.commit();
+
+        return new CompiledPermissions( global, member, Collections.unmodifiableSet( projectIds ), globalVersion,
+                userVersion );
+    }
+
+    private void addPermissions( Role role, BitSet bits )
+    {
+        for ( String permId : role.getPermissions() )
+        {
+            bits.set( getPermissionIndex( permId ) );
+        }
+    }
+
+    static int getPermissionIndex( String permId )
+    {
+        Integer index = permissionIndexes.get( permId );
+        if ( index == null )
+        {
+            synchronized ( permissionIndexes )
             {
-                if ( !( project == null || project.getUsers().contains( user ) ) )
+                index = permissionIndexes.get( permId );
+                if ( index == null )
                 {
-                    continue;
+                    index = permissionIndexes.size();
+                    permissionIndexes.put( permId, index );
                 }
             }
-            if ( role.getPermissions().contains( permId ) )
-            {
-                return true;
-            }
-        }
-
-        Role anon = getRoleById( new AnonymousRole().getId() );
-        if ( anon == null ) // can be null if we are setting up
-        {
-            return false;
         }
 
-        Set<String> permissionIds = anon.getPermissions();
-        return permissionIds.contains( permId );
+        return index;
     }
 }
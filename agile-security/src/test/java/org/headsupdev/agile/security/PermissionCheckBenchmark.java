@@ -0,0 +1,168 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.security;
+
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.api.Role;
+import org.headsupdev.agile.api.User;
+import org.headsupdev.agile.storage.AnonymousRole;
+import org.headsupdev.agile.storage.MemberRole;
+import org.headsupdev.agile.storage.StoredProject;
+import org.headsupdev.agile.storage.StoredRole;
+import org.headsupdev.agile.storage.StoredUser;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A micro benchmark comparing the role walking permission check with a test against compiled permissions.
+ * The old check also loaded the project's users and queried the anonymous role for each call, that database cost
+ * is not included here so the real difference is larger.
+ * It is not run as part of the test suite, run the main method with an optional iteration count.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class PermissionCheckBenchmark
+{
+    private static final int PERMISSIONS = 60;
+    private static final int MEMBERS = 200;
+
+    public static void main( String[] args )
+    {
+        int iterations = 5000000;
+        if ( args.length > 0 )
+        {
+            iterations = Integer.parseInt( args[0] );
+        }
+
+        Role member = new MemberRole();
+        Role anon = new AnonymousRole();
+        for ( int i = 0; i < PERMISSIONS; i++ )
+        {
+            member.getPermissions().add( "perm" + i );
+            if ( i % 4 == 0 )
+            {
+                anon.getPermissions().add( "perm" + i );
+            }
+        }
+
+        StoredUser user = new StoredUser( "benchmark" );
+        user.getRoles().add( new StoredRole( "tester" ) );
+        user.getRoles().add( member );
+        Project project = new StoredProject( "project", "Project" );
+        for ( int i = 0; i < MEMBERS; i++ )
+        {
+            project.getUsers().add( new StoredUser( "user" + i ) );
+        }
+        project.getUsers().add( user );
+        user.getProjects().add( project );
+
+        CompiledPermissions compiled = compile( user, anon );
+        String[] checks = new String[] { "perm3", "perm8", "admin", "perm" + ( PERMISSIONS - 1 ) };
+        int[] indexes = new int[checks.length];
+        for ( int i = 0; i < checks.length; i++ )
+        {
+            indexes[i] = DefaultSecurityManager.getPermissionIndex( checks[i] );
+        }
+
+        // warm up
+        run( user, anon, project, checks, 100000 );
+        run( compiled, project, indexes, 100000 );
+
+        long start = System.nanoTime();
+        int granted = run( user, anon, project, checks, iterations );
+        long walking = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int granted2 = run( compiled, project, indexes, iterations );
+        long bits = System.nanoTime() - start;
+
+        System.out.println( "Role walking:  " + ( walking / iterations ) + "ns per check (" + granted + " granted)" );
+        System.out.println( "Compiled bits: " + ( bits / iterations ) + "ns per check (" + granted2 + " granted)" );
+    }
+
+    private static CompiledPermissions compile( User user, Role anon )
+    {
+        BitSet global = new BitSet(), member = new BitSet();
+        for ( Role role : user.getRoles() )
+        {
+            BitSet target = role.equals( new MemberRole() ) ? member : global;
+            for ( String permId : role.getPermissions() )
+            {
+                target.set( DefaultSecurityManager.getPermissionIndex( permId ) );
+            }
+        }
+        for ( String permId : anon.getPermissions() )
+        {
+            global.set( DefaultSecurityManager.getPermissionIndex( permId ) );
+        }
+
+        Set<String> projectIds = new HashSet<String>();
+        for ( Project project : user.getProjects() )
+        {
+            projectIds.add( project.getId() );
+        }
+        return new CompiledPermissions( global, member, projectIds, 0, 0 );
+    }
+
+    private static int run( User user, Role anon, Project project, String[] checks, int iterations )
+    {
+        int granted = 0;
+        for ( int i = 0; i < iterations; i++ )
+        {
+            String permId = checks[i % checks.length];
+            boolean allowed = false;
+            for ( Role role : user.getRoles() )
+            {
+                if ( role.equals( new MemberRole() ) && !project.getUsers().contains( user ) )
+                {
+                    continue;
+                }
+                if ( role.getPermissions().contains( permId ) )
+                {
+                    allowed = true;
+                    break;
+                }
+            }
+            if ( allowed || anon.getPermissions().contains( permId ) )
+            {
+                granted++;
+            }
+        }
+        return granted;
+    }
+
+    private static int run( CompiledPermissions compiled, Project project, int[] indexes, int iterations )
+    {
+        int granted = 0;
+        for ( int i = 0; i < iterations; i++ )
+        {
+            int index = indexes[i % indexes.length];
+            if ( compiled.hasGlobalPermission( index ) ||
+                ( compiled.hasMemberPermission( index ) && compiled.isMember( project.getId() ) ) )
+            {
+                granted++;
+            }
+        }
+        return granted;
+    }
+}
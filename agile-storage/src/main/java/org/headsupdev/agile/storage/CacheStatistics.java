@@ -0,0 +1,89 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import org.headsupdev.agile.storage.hibernate.BoundedCacheProvider;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Hit and miss counts for the second level entity cache and the query cache since the storage was last configured.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class CacheStatistics
+{
+    private Statistics stats;
+
+    public CacheStatistics( Statistics stats )
+    {
+        this.stats = stats;
+    }
+
+    public long getEntityHits()
+    {
+        return stats.getSecondLevelCacheHitCount();
+    }
+
+    public long getEntityMisses()
+    {
+        return stats.getSecondLevelCacheMissCount();
+    }
+
+    public long getEntityPuts()
+    {
+        return stats.getSecondLevelCachePutCount();
+    }
+
+    public long getQueryHits()
+    {
+        return stats.getQueryCacheHitCount();
+    }
+
+    public long getQueryMisses()
+    {
+        return stats.getQueryCacheMissCount();
+    }
+
+    public long getQueryPuts()
+    {
+        return stats.getQueryCachePutCount();
+    }
+
+    public long getElementCount()
+    {
+        return BoundedCacheProvider.getElementCount();
+    }
+
+    public int getRegionCount()
+    {
+        return BoundedCacheProvider.getRegionCount();
+    }
+
+    public static int getHitPercentage( long hits, long misses )
+    {
+        if ( hits + misses == 0 )
+        {
+            return 0;
+        }
+
+        return (int) ( hits * 100 / ( hits + misses ) );
+    }
+}
@@ -37,11 +37,9 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 /**
@@ -167,18 +165,7 @@ public class DurationWorkedUtil
             return startSet;
         }
 
-        Date due = milestone.getDueDate();
-        if ( due == null )
-        {
-            due = new Date();
-        }
-
-        Calendar cal = GregorianCalendar.getInstance();
-        cal.setTime( due );
-
-        cal.add( Calendar.DATE, -14 );
-        Date start = cal.getTime();
-
+        Date start = getDefaultStartDate( milestone );
         for ( Issue issue : milestone.getIssues() )
         {
             for ( DurationWorked worked : issue.getTimeWorked() )
@@ -198,11 +185,53 @@ public class DurationWorkedUtil
         return start;
     }
 
+    /**
+     * Calculate the same start date as getMilestoneStartDate but look up the earliest work logged with a query
+     * rather than loading all of the issues and their time worked.
+     */
+    public static Date queryMilestoneStartDate( Milestone milestone, Session session )
+    {
+        Date startSet = milestone.getStartDate();
+        if ( startSet != null )
+        {
+            return startSet;
+        }
+
+        Date start = getDefaultStartDate( milestone );
+        Date firstWorked = (Date) session.createQuery( "select min(w.day) from Issue i join i.timeWorked w " +
+                "where i.milestone = :milestone" ).setEntity( "milestone", milestone ).uniqueResult();
+        if ( firstWorked != null && start.after( firstWorked ) )
+        {
+            start = firstWorked;
+        }
+
+        return start;
+    }
+
+    private static Date getDefaultStartDate( Milestone milestone )
+    {
+        Date due = milestone.getDueDate();
+        if ( due == null )
+        {
+            due = new Date();
+        }
+
+        Calendar cal = GregorianCalendar.getInstance();
+        cal.setTime( due );
+
+        cal.add( Calendar.DATE, -14 );
+        return cal.getTime();
+    }
+
     public static List<Date> getMilestoneDates( Milestone milestone, boolean includeDayBefore )
+    {
+        return getMilestoneDates( milestone, DurationWorkedUtil.getMilestoneStartDate( milestone ), includeDayBefore );
+    }
+
+    public static List<Date> getMilestoneDates( Milestone milestone, Date dateStartMilestone, boolean includeDayBefore )
     {
         // some prep work to make sure we have valid dates for start and end of milestone
         Date dateEndMilestone = milestone.getDueDate();
-        Date dateStartMilestone = DurationWorkedUtil.getMilestoneStartDate( milestone );
         List<Date> dates = new LinkedList<Date>();
         if ( dateEndMilestone == null || dateStartMilestone == null )
         {
@@ -259,55 +288,13 @@ public class DurationWorkedUtil
             return null;
         }
 
-        List<Date> milestoneDates = getMilestoneDates( milestone, false );
-        if ( milestoneDates == null || milestoneDates.size() == 0 )
+        MilestoneSeries series = MilestoneSeries.get( milestone );
+        if ( series == null )
         {
             return null;
         }
-        // TODO fix getMilestoneDates to work correctly ....
-        // manually add the start date to the milestone dates list as getMilestoneDates acts weird.
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTime( milestoneDates.get( 0 ) );
-        calendar.add( Calendar.DATE, -1 );
-
-        List<Date> dates = new ArrayList<Date>();
-        dates.add( calendar.getTime() );
-        for ( Date date : milestoneDates )
-        {
-            dates.add( date );
-        }
-
-        Set<Issue> issues = milestone.getIssues();
-        Duration[] effortRequired = new Duration[ dates.size() ];
-        // initialise the returnArray if there are no issues on milestone.
-        if ( issues == null || issues.size() == 0 )
-        {
-            for ( int i = 0; i < effortRequired.length; i++ )
-            {
-                effortRequired[ i ] = new Duration( 0 );
-            }
-            return effortRequired;
-        }
-
-        // iterate over each day and calculate the effort remaining.
-        int dayIndex = 0;
-        for ( Date date : dates )
-        {
-            double totalHoursForDay = 0;
-            for ( Issue issue : issues )
-            {
-                Duration lastEstimate = lastEstimateForDay( issue, date );
-                if ( lastEstimate != null )
-                {
-                    totalHoursForDay += lastEstimate.getHours();
-                }
-            }
-            effortRequired[ dayIndex ] = new Duration( totalHoursForDay );
-
-            dayIndex++;
-        }
 
-        return effortRequired;
+        return series.getEffortRequired();
     }
 
     public static double getMilestoneCompleteness( Milestone milestone )
@@ -363,85 +350,34 @@ public class DurationWorkedUtil
 
     public static Double getAverageVelocity()
     {
-        if ( !averageVelocity.equals( Double.NaN ) )
-        {
-            return averageVelocity;
-        }
-
-        double velocities = 0.0;
-        int velocityCount = 0;
-        for ( User user : Manager.getSecurityInstance().getRealUsers() )
-        {
-            if ( !user.canLogin() )
-            {
-                continue;
-            }
-
-            Double velocity = getUserVelocity( user );
-            if ( !velocity.equals( Double.NaN ) )
-            {
-                velocities += velocity;
-                velocityCount++;
-            }
-        }
-
-        averageVelocity = velocities / velocityCount;
-        return averageVelocity;
+        return VelocityCache.getInstance().getAverageVelocity();
     }
 
-    // TODO we need to expire this once a week (or day)...
-    private static Map<User, Double> userVelocities = new HashMap<User, Double>();
-    private static Double averageVelocity = Double.NaN;
-
     public static Double getUserVelocity( User user )
     {
-        if ( userVelocities.get( user ) != null )
-        {
-            return userVelocities.get( user );
-        }
-
-        List<DurationWorked> worked = getDurationWorkedForUser(user);
-        Double velocity = calculateVelocity( worked, user );
-
-        userVelocities.put( user, velocity );
-        return velocity;
+        return VelocityCache.getInstance().getVelocity( user, null, null );
     }
 
     public static Double getCurrentUserVelocity( User user )
     {
-//        if ( userVelocities.get( user ) != null )
-//        {
-//            return userVelocities.get( user );
-//        }
-
         Calendar cal = Calendar.getInstance();
         cal.add( Calendar.WEEK_OF_YEAR, -1 );
-        List<DurationWorked> worked = getDurationWorkedForUser(user, cal.getTime(), new Date());
-        Double velocity = calculateVelocity( worked, user );
-
-//        userVelocities.put( user, velocity );
-        return velocity;
+        return VelocityCache.getInstance().getVelocity( user, cal.getTime(), new Date() );
     }
 
     public static Double getUserVelocityInWeek( User user, Date week )
     {
-// TODO cache this
-//        if ( userVelocities.get( user ) != null )
-//        {
-//            return userVelocities.get( user );
-//        }
+        return VelocityCache.getInstance().getVelocity( user, week, getEndOfWeek( week ) );
+    }
 
+    private static Date getEndOfWeek( Date week )
+    {
         Calendar cal = Calendar.getInstance();
         cal.setTime( week );
         cal.add( Calendar.WEEK_OF_YEAR, 1 );
-        // TODO midnight next week is not included now - right?
         cal.add( Calendar.MILLISECOND, -1 );
 
-        List<DurationWorked> worked = getDurationWorkedForUser(user, week, cal.getTime());
-        Double velocity = calculateVelocity( worked, user );
-
-//        userVelocities.put( user, velocity );
-        return velocity;
+        return cal.getTime();
     }
 
     public static Double getVelocity( List<DurationWorked> worked, Milestone milestone )
@@ -626,65 +562,12 @@ public class DurationWorkedUtil
 
     public static Double getUserHoursLogged( User user )
     {
-// TODO cache
-//        if ( userVelocities.get( user ) != null )
-//        {
-//            return userVelocities.get( user );
-//        }
-
-        Double logged = calculateHoursLogged( getDurationWorkedForUser( user ), user );
-
-//        userVelocities.put( user, logged );
-        return logged;
+        return VelocityCache.getInstance().getHoursLogged( user, null, null );
     }
 
     public static Double getUserHoursLoggedInWeek( User user, Date week )
     {
-// TODO cache this
-//        if ( userVelocities.get( user ) != null )
-//        {
-//            return userVelocities.get( user );
-//        }
-
-        Calendar cal = Calendar.getInstance();
-        cal.setTime( week );
-        cal.add( Calendar.WEEK_OF_YEAR, 1 );
-        // TODO midnight next week is not included now - right?
-        cal.add( Calendar.MILLISECOND, -1 );
-        Double logged = calculateHoursLogged( getDurationWorkedForUser( user, week, cal.getTime() ), user );
-
-//        userVelocities.put( user, velocity );
-        return logged;
-    }
-
-    private static Double calculateHoursLogged( List<DurationWorked> workedList, User user )
-    {
-        double total = 0;
-        int daysWorked = 0;
-        Set<Date> daysSeen = new HashSet<Date>();
-        Calendar cal = Calendar.getInstance();
-
-        for ( DurationWorked worked : workedList )
-        {
-            if ( worked.getUser().equals( user ) && worked.getWorked() != null )
-            {
-                total += worked.getWorked().getHours();
-
-                // check if this is a new day
-                cal.setTime( worked.getDay() );
-                cal.set( Calendar.HOUR_OF_DAY, 0 );
-                cal.set( Calendar.MINUTE, 0 );
-                cal.set( Calendar.SECOND, 0 );
-                cal.set( Calendar.MILLISECOND, 0 );
-                if ( !daysSeen.contains( cal.getTime() ) )
-                {
-                    daysWorked++;
-                    daysSeen.add( cal.getTime() );
-                }
-            }
-        }
-
-        return total / daysWorked;
+        return VelocityCache.getInstance().getHoursLogged( user, week, getEndOfWeek( week ) );
     }
 
     private static List<Issue> getAllIssuesWithDurationWorked()
@@ -704,17 +587,6 @@ public class DurationWorkedUtil
         return allIssues;
     }
 
-    private static List<DurationWorked> getDurationWorkedForUser( User user )
-    {
-        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
-
-        Criteria c = session.createCriteria( DurationWorked.class );
-        c.add( Restrictions.eq( "user", user ) );
-        c.add( Restrictions.gt( "worked.time", 0 ) );
-
-        return c.list();
-    }
-
     private static List<DurationWorked> getDurationWorkedForUser( User user, Date start, Date end )
     {
         List<DurationWorked> workedList = new ArrayList<DurationWorked>();
@@ -0,0 +1,284 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import org.headsupdev.agile.api.Event;
+import org.headsupdev.agile.api.Manager;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Rendered event bodies, keyed by event id. The first request for a body renders it and stores it compressed in the
+ * database, every email and page view after that reuses the stored copy. A small number of recent bodies are also
+ * kept in memory as they are usually requested together (one per email recipient).
+ * Bodies are not stored if the rendering failed or for events that have not been saved yet.
+ * Increase BODY_VERSION when the rendered output changes and the stored bodies will be rendered again.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class EventBodyCache
+{
+    public static final int BODY_VERSION = 1;
+
+    private static final int MEMORY_ENTRIES = 100;
+    private static final String CHARSET = "UTF-8";
+
+    private static final EventBodyCache instance = new EventBodyCache();
+    private static final ThreadLocal<Boolean> failed = new ThreadLocal<Boolean>();
+
+    private final Map<Long, byte[]> recent = new LinkedHashMap<Long, byte[]>( 16, 0.75f, true )
+    {
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Long, byte[]> eldest )
+        {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+    private final ConcurrentMap<Long, Object> rendering = new ConcurrentHashMap<Long, Object>();
+
+    protected EventBodyCache()
+    {
+    }
+
+    /**
+     * Get the body of the event, rendering it only if it has not been rendered before.
+     * Concurrent requests for the same event wait for a single render.
+     *
+     * @param event the event to get the body for
+     * @return the html body, as returned by event.getBody()
+     */
+    public static String getBody( Event event )
+    {
+        return instance.get( event );
+    }
+
+    /**
+     * Called when rendering some part of a body failed, or an event returns an error message in place of its body,
+     * so that the error message is not stored as the body.
+     * This applies to the body being rendered on the current thread.
+     */
+    public static void renderFailed()
+    {
+        failed.set( Boolean.TRUE );
+    }
+
+    /**
+     * Forget the bodies held in memory, for when the stored bodies have been replaced.
+     */
+    public static void clear()
+    {
+        instance.clearMemory();
+    }
+
+    String get( Event event )
+    {
+        long id = event.getId();
+        if ( id <= 0 )
+        {
+            return event.getBody();
+        }
+
+        String body = lookup( id );
+        if ( body != null )
+        {
+            return body;
+        }
+
+        Object lock = new Object();
+        Object existing = rendering.putIfAbsent( id, lock );
+        if ( existing != null )
+        {
+            lock = existing;
+        }
+
+        synchronized ( lock )
+        {
+            try
+            {
+                body = lookup( id );
+                if ( body != null )
+                {
+                    return body;
+                }
+
+                failed.remove();
+                body = event.getBody();
+                if ( body != null && failed.get() == null )
+                {
+                    store( id, body );
+                }
+
+                return body;
+            }
+            finally
+            {
+                failed.remove();
+                rendering.remove( id, lock );
+            }
+        }
+    }
+
+    void clearMemory()
+    {
+        synchronized ( recent )
+        {
+            recent.clear();
+        }
+    }
+
+    private String lookup( long id )
+    {
+        byte[] compressed;
+        synchronized ( recent )
+        {
+            compressed = recent.get( id );
+        }
+
+        if ( compressed == null )
+        {
+            RenderedEventBody stored = loadStored( id );
+            if ( stored == null || stored.getVersion() != BODY_VERSION || stored.getBody() == null )
+            {
+                return null;
+            }
+
+            compressed = stored.getBody();
+            synchronized ( recent )
+            {
+                recent.put( id, compressed );
+            }
+        }
+
+        return decompress( compressed );
+    }
+
+    private void store( long id, String body )
+    {
+        byte[] compressed = compress( body );
+        synchronized ( recent )
+        {
+            recent.put( id, compressed );
+        }
+
+        saveStored( new RenderedEventBody( id, BODY_VERSION, compressed ) );
+    }
+
+    /**
+     * Load the stored body for an event, of any version.
+     *
+     * @return the stored body or null if there is none or it could not be loaded
+     */
+    protected RenderedEventBody loadStored( long id )
+    {
+        Session session = HibernateUtil.openSession();
+        try
+        {
+            return (RenderedEventBody) session.get( RenderedEventBody.class, id );
+        }
+        catch ( HibernateException e )
+        {
+            Manager.getLogger( EventBodyCache.class.getName() ).error( "Failed to load event body " + id, e );
+            return null;
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    protected void saveStored( RenderedEventBody body )
+    {
+        Session session = HibernateUtil.openSession();
+        Transaction tx = session.beginTransaction();
+        try
+        {
+            session.merge( body );
+            tx.commit();
+        }
+        catch ( HibernateException e )
+        {
+            // another server may have stored it first - we still have it in memory
+            tx.rollback();
+            Manager.getLogger( EventBodyCache.class.getName() ).error( "Failed to store event body " +
+                body.getEventId(), e );
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    static byte[] compress( String body )
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( body.length() / 4 + 32 );
+        try
+        {
+            Writer out = new OutputStreamWriter( new GZIPOutputStream( bytes ), CHARSET );
+            out.write( body );
+            out.close();
+        }
+        catch ( IOException e )
+        {
+            // not gonna happen, just a byte array
+            throw new IllegalStateException( e );
+        }
+
+        return bytes.toByteArray();
+    }
+
+    static String decompress( byte[] compressed )
+    {
+        StringBuilder body = new StringBuilder( compressed.length * 4 );
+        try
+        {
+            Reader in = new InputStreamReader( new GZIPInputStream( new ByteArrayInputStream( compressed ) ), CHARSET );
+            char[] buffer = new char[4096];
+            int read;
+            while ( ( read = in.read( buffer ) ) != -1 )
+            {
+                body.append( buffer, 0, read );
+            }
+            in.close();
+        }
+        catch ( IOException e )
+        {
+            Manager.getLogger( EventBodyCache.class.getName() ).error( "Failed to read stored event body", e );
+            return null;
+        }
+
+        return body.toString();
+    }
+}
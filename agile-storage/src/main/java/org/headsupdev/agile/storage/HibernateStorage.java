@@ -22,6 +22,8 @@ import org.headsupdev.support.java.StringUtil;
 import org.hibernate.Transaction;
 import org.hibernate.Session;
 import org.hibernate.Query;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.SessionImplementor;
 
 import java.util.*;
 import java.io.*;
@@ -183,8 +185,7 @@ public class HibernateStorage
     {
         Session session = getHibernateSession();
         Transaction tx = session.beginTransaction();
-        StoredConfigurationItem item = (StoredConfigurationItem) session.createQuery( "from StoredConfigurationItem i where name = '" +
-            name + "'" ).uniqueResult();
+        StoredConfigurationItem item = (StoredConfigurationItem) session.get( StoredConfigurationItem.class, name );
         tx.commit();
 
         if ( item == null )
@@ -198,8 +199,7 @@ public class HibernateStorage
     {
         Session session = getHibernateSession();
         Transaction tx = session.beginTransaction();
-        StoredConfigurationItem item = (StoredConfigurationItem) session.createQuery( "from StoredConfigurationItem i where name = '" +
-            name + "'" ).uniqueResult();
+        StoredConfigurationItem item = (StoredConfigurationItem) session.get( StoredConfigurationItem.class, name );
 
         boolean requiresReload = false;
         if ( item == null )
@@ -226,7 +226,12 @@ public class HibernateStorage
         Session session = getHibernateSession();
         Transaction tx = session.beginTransaction();
 
-        session.createQuery( "delete from StoredConfigurationItem i where name = '" + name + "'" ).executeUpdate();
+        // delete through the session so the cached copies are removed too
+        StoredConfigurationItem item = (StoredConfigurationItem) session.get( StoredConfigurationItem.class, name );
+        if ( item != null )
+        {
+            session.delete( item );
+        }
 
         tx.commit();
     }
@@ -236,8 +241,10 @@ public class HibernateStorage
         Map<String, String> ret = new HashMap<String, String>();
         Session session = getHibernateSession();
         Transaction tx = session.beginTransaction();
-        List<StoredConfigurationItem> items = (List<StoredConfigurationItem>) session.createQuery( "from StoredConfigurationItem i where name like '" +
-            prefix + "%'" ).list();
+        Query q = session.createQuery( "from StoredConfigurationItem i where name like :prefix" );
+        q.setString( "prefix", prefix + "%" );
+        q.setCacheable( true );
+        List<StoredConfigurationItem> items = (List<StoredConfigurationItem>) q.list();
         tx.commit();
 
         for ( StoredConfigurationItem item : items )
@@ -255,8 +262,7 @@ public class HibernateStorage
 
         for ( String name : items.keySet() )
         {
-            StoredConfigurationItem item = (StoredConfigurationItem) session.createQuery( "from StoredConfigurationItem i where name = '" +
-                name + "'" ).uniqueResult();
+            StoredConfigurationItem item = (StoredConfigurationItem) session.get( StoredConfigurationItem.class, name );
 
             if ( item == null )
             {
@@ -289,8 +295,13 @@ public class HibernateStorage
 
     public Project getProject( String id )
     {
+        if ( id == null )
+        {
+            return null;
+        }
+
         Session session = getHibernateSession();
-        Project ret = (Project) session.createQuery( "from StoredProject p where id = '" + id + "'" ).uniqueResult();
+        Project ret = (Project) session.get( StoredProject.class, id );
 
         return ret;
     }
@@ -298,7 +309,8 @@ public class HibernateStorage
     public List<Project> getProjects()
     {
         Session session = getHibernateSession();
-        List<Project> list = session.createQuery( "from StoredProject p where id != '" + Project.ALL_PROJECT_ID + "' order by name" ).list();
+        List<Project> list = session.createQuery( "from StoredProject p where id != '" + Project.ALL_PROJECT_ID + "' order by name" )
+                .setCacheable( true ).list();
 
         return list;
     }
@@ -317,7 +329,7 @@ public class HibernateStorage
             disabledWhere = " and (disabled is null or disabled = false)";
         }
         List<Project> list = session.createQuery( "from StoredProject p where id != '" + Project.ALL_PROJECT_ID + "' and parent is null" +
-                disabledWhere + " order by name" ).list();
+                disabledWhere + " order by name" ).setCacheable( true ).list();
 
         return list;
     }
@@ -390,10 +402,7 @@ public class HibernateStorage
 
         if ( tree )
         {
-            project = (Project) session.merge( project );
-            List<String> projects = new LinkedList<String>();
-            doListProjectIds( project, projects );
-            q.setParameterList( "pids", projects );
+            q.setParameterList( "pids", ProjectHierarchy.get().getProjectIds( project.getId() ) );
         }
         else
         {
@@ -417,15 +426,6 @@ public class HibernateStorage
         return list;
     }
 
-    private void doListProjectIds( Project project, List<String> projects )
-    {
-        projects.add( project.getId() );
-        for ( Project child : project.getChildProjects() )
-        {
-            doListProjectIds( child, projects );
-        }
-    }
-
     public List<Event> getEventsForUser( User user, Date start, Date stop )
     {
         Session session = getHibernateSession();
@@ -502,6 +502,74 @@ public class HibernateStorage
         return ret;
     }
 
+    /**
+     * Save a number of new objects in a single transaction. The session is flushed and cleared every batch so the
+     * inserts go to the database in JDBC batches and memory use stays flat for large collections.
+     * The objects are detached once this returns.
+     */
+    public void saveAll( Collection<?> objects )
+    {
+        int batchSize = Math.max( 1, HibernateUtil.getBatchSize() );
+        Session session = HibernateUtil.openSession();
+        Transaction tx = session.beginTransaction();
+        try
+        {
+            int count = 0;
+            for ( Object o : objects )
+            {
+                session.save( o );
+
+                if ( ++count % batchSize == 0 )
+                {
+                    session.flush();
+                    session.clear();
+                }
+            }
+
+            tx.commit();
+        }
+        catch ( RuntimeException e )
+        {
+            tx.rollback();
+            throw e;
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    /**
+     * Insert append only data through a stateless session, skipping the session cache, cascades, events and
+     * search indexing. The generated ids are set on the objects as they are inserted.
+     * This must not be used for types that are searchable, have collections to save or use an IdProjectId.
+     */
+    public void insertAll( Collection<?> objects )
+    {
+        StatelessSession session = HibernateUtil.openStatelessSession();
+        Transaction tx = session.beginTransaction();
+        try
+        {
+            for ( Object o : objects )
+            {
+                session.insert( o );
+            }
+
+            // stateless sessions do not send their last partial batch before committing
+            ( (SessionImplementor) session ).getBatcher().executeBatch();
+            tx.commit();
+        }
+        catch ( RuntimeException e )
+        {
+            tx.rollback();
+            throw e;
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
     public void update( Object o )
     {
         Session session = getHibernateSession();
@@ -19,9 +19,12 @@
 package org.headsupdev.agile.storage;
 
 import org.headsupdev.agile.api.Application;
-import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.api.Manager;
-import org.headsupdev.agile.storage.hibernate.IdProjectId;
+import org.headsupdev.agile.storage.activity.ActivityRollup;
+import org.headsupdev.agile.storage.hibernate.BoundedCacheProvider;
+import org.headsupdev.agile.storage.hibernate.IdProjectIdAllocator;
+import org.headsupdev.agile.storage.hibernate.IssueChangeListener;
+import org.headsupdev.agile.storage.hibernate.PermissionChangeListener;
 import org.headsupdev.agile.storage.docs.Document;
 import org.headsupdev.agile.storage.issues.Issue;
 import org.headsupdev.agile.storage.issues.Milestone;
@@ -31,18 +34,31 @@ import org.hibernate.*;
 import org.hibernate.mapping.PersistentClass;
 import org.hibernate.search.annotations.Indexed;
 import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.connection.ConnectionProvider;
 import org.hibernate.connection.DBCPConnectionProvider;
+import org.hibernate.persister.collection.CollectionPersister;
 import org.hibernate.cfg.AnnotationConfiguration;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.event.EventListeners;
+import org.hibernate.event.PostCollectionRecreateEventListener;
+import org.hibernate.event.PostCollectionRemoveEventListener;
+import org.hibernate.event.PostCollectionUpdateEventListener;
+import org.hibernate.event.PostDeleteEventListener;
+import org.hibernate.event.PostInsertEventListener;
+import org.hibernate.event.PostUpdateEventListener;
 
 import java.util.*;
 import java.net.URL;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.File;
+import java.io.Serializable;
 import java.lang.reflect.*;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.DocumentBuilder;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 
 /**
  * Utility for working with Hibernate.
@@ -54,10 +70,19 @@ import javax.xml.parsers.DocumentBuilder;
  * @since 1.0
  */
 public class HibernateUtil {
+    /**
+     * The version of the search index layout, increase this when the indexed fields change so that the search
+     * indexes are rebuilt on startup.
+     */
+    public static final int SEARCH_INDEX_VERSION = 2;
+
+    static final String LUCENE_DIRECTORY_PROPERTY = "org.apache.lucene.FSDirectory.class";
+
     public static Properties properties = new Properties();
     private static HibernateThread thread;
 
     private static Map<Session, Exception> sessions = new HashMap<Session, Exception>();
+    private static IdProjectIdAllocator idAllocator = new IdProjectIdAllocator();
 
     public static Map<Session, Exception> getOpenSessions()
     {
@@ -80,8 +105,31 @@ public class HibernateUtil {
         return thread.openSession();
     }
 
+    public static StatelessSession openStatelessSession() {
+        initThread();
+        return thread.openStatelessSession();
+    }
+
+    /**
+     * @return the number of statements hibernate will send to the database in a single JDBC batch
+     */
+    public static int getBatchSize()
+    {
+        initThread();
+        return thread.getBatchSize();
+    }
+
+    /**
+     * Drop the ids reserved for new items, needed when the id sequences have been replaced by an import.
+     */
+    public static void resetIdAllocator()
+    {
+        idAllocator.reset();
+    }
+
     public static void shutdown() {
         initThread();
+        idAllocator.releaseUnused();
         thread.shutdown();
     }
 
@@ -90,6 +138,11 @@ public class HibernateUtil {
         return thread.getSearchFields();
     }
 
+    public static File getIndexDirectory()
+    {
+        return new File( Manager.getStorageInstance().getDataDirectory(), "index" );
+    }
+
     public static DatabasePoolStatistics getStatistics()
     {
         return thread.getStatistics();
@@ -100,6 +153,106 @@ public class HibernateUtil {
         return thread.getEntityClassNames();
     }
 
+    /**
+     * List the tables holding the entities and their collections, in the order the entities are configured.
+     */
+    public static List<String> getEntityTableNames()
+    {
+        return thread.getEntityTableNames();
+    }
+
+    /**
+     * @return the pool that hibernate takes its connections from, for working with the database directly
+     */
+    public static ConnectionProvider getConnectionProvider()
+    {
+        initThread();
+        return thread.getConnectionProvider();
+    }
+
+    /**
+     * Run an action once the session's transaction has committed, so other threads can already see the change.
+     * If there is no transaction (auto-commit) the change is already visible and the action is run straight away.
+     * Nothing is run if the transaction rolls back.
+     */
+    public static void afterCommit( Session session, final Runnable action )
+    {
+        Transaction tx = session.getTransaction();
+        if ( tx != null && tx.isActive() )
+        {
+            tx.registerSynchronization( new Synchronization()
+            {
+                public void beforeCompletion()
+                {
+                }
+
+                public void afterCompletion( int status )
+                {
+                    if ( status == Status.STATUS_COMMITTED )
+                    {
+                        action.run();
+                    }
+                }
+            } );
+        }
+        else
+        {
+            action.run();
+        }
+    }
+
+    /**
+     * Add a listener to the configuration for each of the post insert, update and delete entity and collection
+     * events that it implements, after any listeners already registered.
+     */
+    public static void addEventListener( Configuration config, Object listener )
+    {
+        EventListeners listeners = config.getEventListeners();
+
+        if ( listener instanceof PostInsertEventListener )
+        {
+            listeners.setPostInsertEventListeners( append( listeners.getPostInsertEventListeners(),
+                (PostInsertEventListener) listener ) );
+        }
+        if ( listener instanceof PostUpdateEventListener )
+        {
+            listeners.setPostUpdateEventListeners( append( listeners.getPostUpdateEventListeners(),
+                (PostUpdateEventListener) listener ) );
+        }
+        if ( listener instanceof PostDeleteEventListener )
+        {
+            listeners.setPostDeleteEventListeners( append( listeners.getPostDeleteEventListeners(),
+                (PostDeleteEventListener) listener ) );
+        }
+        if ( listener instanceof PostCollectionRecreateEventListener )
+        {
+            listeners.setPostCollectionRecreateEventListeners( append(
+                listeners.getPostCollectionRecreateEventListeners(), (PostCollectionRecreateEventListener) listener ) );
+        }
+        if ( listener instanceof PostCollectionUpdateEventListener )
+        {
+            listeners.setPostCollectionUpdateEventListeners( append(
+                listeners.getPostCollectionUpdateEventListeners(), (PostCollectionUpdateEventListener) listener ) );
+        }
+        if ( listener instanceof PostCollectionRemoveEventListener )
+        {
+            listeners.setPostCollectionRemoveEventListeners( append(
+                listeners.getPostCollectionRemoveEventListeners(), (PostCollectionRemoveEventListener) listener ) );
+        }
+    }
+
+    private static <T> T[] append( T[] existing, T listener )
+    {
+        T[] ret = Arrays.copyOf( existing, existing.length + 1 );
+        ret[existing.length] = listener;
+        return ret;
+    }
+
+    public static CacheStatistics getCacheStatistics()
+    {
+        return thread.getCacheStatistics();
+    }
+
     private static void initThread()
     {
         if ( thread == null )
@@ -142,52 +295,9 @@ public class HibernateUtil {
             }
             if ( method.getName().equals( "save" ) || method.getName().equals( "saveOrUpdate" ) )
             {
+                // will have a length of 1 or 2 for save
                 Object saving = args[ args.length - 1 ];
-                try
-                {
-                    // will have a length of 1 or 2 for save
-                    Field field = saving.getClass().getDeclaredField( "id" );
-                    field.setAccessible( true );
-
-                    if ( field.get( saving ) instanceof IdProjectId )
-                    {
-                        IdProjectId id = (IdProjectId) field.get( saving );
-
-                        Field idId = id.getClass().getDeclaredField( "id" );
-                        idId.setAccessible( true );
-                        if ( idId.getLong( id ) == 0 )
-                        {
-                            Field projectField = id.getClass().getDeclaredField( "project" );
-                            projectField.setAccessible( true );
-                            Project project = (Project) projectField.get( id );
-
-                            synchronized( session )
-                            {
-                                long max = 0;
-                                try
-                                {
-                                    max = (Long) session.createQuery( "select max(id.id) from " +
-                                            saving.getClass().getName() + " where id.project.id = '" + project.getId() + "'" )
-                                            .uniqueResult();
-                                }
-                                catch ( NullPointerException e )
-                                {
-                                    // thrown from hibernate when there is no id listed for the project (i.e. first time)
-                                    // just use a max of 0 as above
-                                }
-
-                                idId.setLong( id, max + 1 );
-                                // duplicate the method call here so we save in the syncronized block
-                                // the session we are synced on has a transaction open already, so the SQL is fine too
-                                return method.invoke( session, args );
-                            }
-                        }
-                    }
-                }
-                catch ( NoSuchFieldException e )
-                {
-                    // ignore and fall through
-                }
+                idAllocator.assignId( saving, session );
             }
             else if ( method.getName().equals( "close" ) )
             {
@@ -232,10 +342,22 @@ class HibernateThread extends Thread
         config.setProperty( "hibernate.connection.password", (String) HibernateUtil.properties.get( "headsup.db.password" ) );
 
         // we cannot find out this property until we have loaded the initial context.
-        // Thankfully this will run a few times so we will get there in the end
+        // Thankfully this will run a few times so we will get there in the end - until then indexes stay in memory
         if ( sessionFactory != null ) {
-            File dataDir = Manager.getStorageInstance().getDataDirectory();
-            config.setProperty( "hibernate.search.default.indexBase", new File( dataDir, "index" ).getAbsolutePath() );
+            config.setProperty( "hibernate.search.default.indexBase", HibernateUtil.getIndexDirectory().getAbsolutePath() );
+            config.setProperty( "hibernate.search.default.directory_provider",
+                "org.hibernate.search.store.FSDirectoryProvider" );
+
+            // lucene picks the FSDirectory implementation from this property, leave it if set by the admin
+            if ( System.getProperty( HibernateUtil.LUCENE_DIRECTORY_PROPERTY ) == null )
+            {
+                System.setProperty( HibernateUtil.LUCENE_DIRECTORY_PROPERTY, "org.apache.lucene.store.MMapDirectory" );
+            }
+        }
+        else
+        {
+            config.setProperty( "hibernate.search.default.directory_provider",
+                "org.hibernate.search.store.RAMDirectoryProvider" );
         }
 
         try
@@ -248,6 +370,15 @@ class HibernateThread extends Thread
             System.err.println( "Unable to load hibernate configuration" );
             e.printStackTrace();
         }
+        // applied after the xml so it can override the default batch size set there
+        if ( HibernateUtil.properties.get( "headsup.db.batchsize" ) != null )
+        {
+            config.setProperty( "hibernate.jdbc.batch_size", (String) HibernateUtil.properties.get( "headsup.db.batchsize" ) );
+        }
+        PermissionChangeListener.register( config );
+        ActivityRollup.register( config );
+        IssueChangeListener.register( config );
+        ProjectHierarchy.register( config );
 
         sessionFactory = config.buildSessionFactory();
         provider = (DBCPConnectionProvider) ( (SessionFactoryImplementor) sessionFactory ).getConnectionProvider();
@@ -262,6 +393,43 @@ class HibernateThread extends Thread
                 System.out.println( "Unrecognised persistent object " + o );
             }
         }
+
+        normalizeUsernames();
+    }
+
+    /**
+     * Fill in the lower case username for accounts created before the column was added.
+     * This is done in Java rather than with the database's lower() so the values match StoredUser.normalizeUsername.
+     */
+    private void normalizeUsernames()
+    {
+        Session session = sessionFactory.openSession();
+        Transaction tx = null;
+        try
+        {
+            tx = session.beginTransaction();
+            List<String> usernames = session.createQuery(
+                "select username from StoredUser u where usernameLower is null" ).list();
+            for ( String username : usernames )
+            {
+                session.createQuery( "update StoredUser set usernameLower = :lower where username = :username" )
+                    .setString( "lower", StoredUser.normalizeUsername( username ) )
+                    .setString( "username", username ).executeUpdate();
+            }
+            tx.commit();
+        }
+        catch ( HibernateException e )
+        {
+            if ( tx != null )
+            {
+                tx.rollback();
+            }
+            Manager.getLogger( getClass().getName() ).error( "Unable to normalize usernames", e );
+        }
+        finally
+        {
+            session.close();
+        }
     }
 
     /**
@@ -294,18 +462,7 @@ class HibernateThread extends Thread
         Enumeration<Class> annotationIter = annotated.elements();
         while ( annotationIter.hasMoreElements() )
         {
-            Class annotation = annotationIter.nextElement();
-            config.addAnnotatedClass( annotation );
-
-            if ( annotation.isAnnotationPresent( Indexed.class ) ) {
-                String indexName = ( (Indexed) annotation.getAnnotation( Indexed.class ) ).index();
-                if ( indexName == null || indexName.length() == 0 )
-                {
-                    indexName = annotation.getName();
-                }
-                config.setProperty( "hibernate.search." + indexName + ".directory_provider",
-                    "org.hibernate.search.store.FSDirectoryProvider" );
-            }
+            config.addAnnotatedClass( annotationIter.nextElement() );
         }
         initFactory( config );
     }
@@ -378,9 +535,19 @@ class HibernateThread extends Thread
         return HibernateUtil.SessionProxyImpl.newInstance( sessionFactory.openSession() );
     }
 
+    public StatelessSession openStatelessSession() {
+        return sessionFactory.openStatelessSession();
+    }
+
+    public int getBatchSize()
+    {
+        return ( (SessionFactoryImplementor) sessionFactory ).getSettings().getJdbcBatchSize();
+    }
+
     public void shutdown() {
         // Close caches and connection pools
         sessionFactory.close();
+        BoundedCacheProvider.clearAll();
         provider.close();
     }
 
@@ -399,6 +566,43 @@ class HibernateThread extends Thread
         return classNames;
     }
 
+    public List<String> getEntityTableNames()
+    {
+        SessionFactoryImplementor factory = (SessionFactoryImplementor) sessionFactory;
+        Set<String> tables = new LinkedHashSet<String>();
+        for ( String className : classNames )
+        {
+            for ( Serializable space : factory.getEntityPersister( className ).getQuerySpaces() )
+            {
+                tables.add( (String) space );
+            }
+        }
+
+        for ( Object role : factory.getAllCollectionMetadata().keySet() )
+        {
+            CollectionPersister persister = factory.getCollectionPersister( (String) role );
+            if ( classNames.contains( persister.getOwnerEntityPersister().getEntityName() ) )
+            {
+                for ( Serializable space : persister.getCollectionSpaces() )
+                {
+                    tables.add( (String) space );
+                }
+            }
+        }
+
+        return new ArrayList<String>( tables );
+    }
+
+    public ConnectionProvider getConnectionProvider()
+    {
+        return provider;
+    }
+
+    public CacheStatistics getCacheStatistics()
+    {
+        return new CacheStatistics( sessionFactory.getStatistics() );
+    }
+
     class HibernateClassLoader extends ClassLoader
     {
         private Vector<ClassLoader> loaders = new Vector<ClassLoader>();
@@ -0,0 +1,286 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import org.headsupdev.agile.storage.hibernate.IssueChangeListener;
+import org.headsupdev.agile.storage.issues.Duration;
+import org.headsupdev.agile.storage.issues.DurationWorked;
+import org.headsupdev.agile.storage.issues.Issue;
+import org.headsupdev.agile.storage.issues.Milestone;
+import org.headsupdev.support.java.DateUtil;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The daily estimate and time worked series for a milestone.
+ * Each issue's contribution is calculated in a single sorted sweep over its DurationWorked rows and kept so that
+ * when time is logged or an estimate changes only the issues affected are recalculated and the totals adjusted.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class MilestoneSeries
+{
+    private static final Map<String, MilestoneSeries> series = new ConcurrentHashMap<String, MilestoneSeries>();
+
+    private final List<Date> dates;
+    private final double[] estimates;
+    private final Map<Long, Double> worked = new HashMap<Long, Double>();
+    private final Map<String, IssueSeries> issues = new HashMap<String, IssueSeries>();
+
+    private MilestoneSeries( List<Date> dates )
+    {
+        this.dates = dates;
+        this.estimates = new double[dates.size()];
+    }
+
+    /**
+     * Get the series for a milestone, updating any issues that have changed since it was last requested.
+     *
+     * @param milestone The milestone to get the series for
+     * @return the series, or null if the milestone does not have dates to plot
+     */
+    public static MilestoneSeries get( Milestone milestone )
+    {
+        if ( milestone == null )
+        {
+            return null;
+        }
+
+        List<Date> dates = getEstimateDates( milestone );
+        if ( dates == null )
+        {
+            return null;
+        }
+
+        String key = milestone.getProject().getId() + ":" + milestone.getName();
+        MilestoneSeries ret = series.get( key );
+        if ( ret == null || !ret.dates.equals( dates ) )
+        {
+            ret = new MilestoneSeries( dates );
+            series.put( key, ret );
+        }
+
+        ret.update( milestone );
+        return ret;
+    }
+
+    /**
+     * The days that estimates are calculated for - the day before the milestone starts followed by each milestone day.
+     */
+    private static List<Date> getEstimateDates( Milestone milestone )
+    {
+        List<Date> milestoneDates = DurationWorkedUtil.getMilestoneDates( milestone, false );
+        if ( milestoneDates == null || milestoneDates.size() == 0 )
+        {
+            return null;
+        }
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime( milestoneDates.get( 0 ) );
+        calendar.add( Calendar.DATE, -1 );
+
+        List<Date> dates = new ArrayList<Date>( milestoneDates.size() + 1 );
+        dates.add( calendar.getTime() );
+        dates.addAll( milestoneDates );
+        return dates;
+    }
+
+    private synchronized void update( Milestone milestone )
+    {
+        Set<String> current = new HashSet<String>();
+        for ( Issue issue : milestone.getIssues() )
+        {
+            String key = IssueChangeListener.getIssueKey( issue.getInternalId() );
+            current.add( key );
+
+            long version = IssueChangeListener.getIssueVersion( key );
+            IssueSeries existing = issues.get( key );
+            if ( existing != null && existing.version == version )
+            {
+                continue;
+            }
+
+            if ( existing != null )
+            {
+                apply( existing, -1 );
+            }
+            IssueSeries updated = calculate( issue, dates );
+            updated.version = version;
+            apply( updated, 1 );
+            issues.put( key, updated );
+        }
+
+        Iterator<Map.Entry<String, IssueSeries>> removed = issues.entrySet().iterator();
+        while ( removed.hasNext() )
+        {
+            Map.Entry<String, IssueSeries> entry = removed.next();
+            if ( !current.contains( entry.getKey() ) )
+            {
+                apply( entry.getValue(), -1 );
+                removed.remove();
+            }
+        }
+    }
+
+    private void apply( IssueSeries issue, int sign )
+    {
+        for ( int i = 0; i < estimates.length; i++ )
+        {
+            estimates[i] += sign * issue.estimates[i];
+        }
+
+        for ( Map.Entry<Long, Double> day : issue.worked.entrySet() )
+        {
+            Double total = worked.get( day.getKey() );
+            double updated = ( total == null ? 0 : total ) + sign * day.getValue();
+            if ( Math.abs( updated ) < 0.0001 )
+            {
+                worked.remove( day.getKey() );
+            }
+            else
+            {
+                worked.put( day.getKey(), updated );
+            }
+        }
+    }
+
+    /**
+     * The effort remaining at the end of each day, starting with the day before the milestone starts.
+     */
+    public synchronized Duration[] getEffortRequired()
+    {
+        Duration[] ret = new Duration[estimates.length];
+        for ( int i = 0; i < estimates.length; i++ )
+        {
+            ret[i] = new Duration( Math.max( 0, estimates[i] ) );
+        }
+
+        return ret;
+    }
+
+    /**
+     * The total hours worked on the issues in this milestone on the specified day.
+     */
+    public synchronized double getHoursWorked( Date day )
+    {
+        Double total = worked.get( getDayKey( day ) );
+        if ( total == null )
+        {
+            return 0;
+        }
+
+        return total;
+    }
+
+    public List<Date> getDates()
+    {
+        return Collections.unmodifiableList( dates );
+    }
+
+    /**
+     * Calculate the estimates and time worked for a single issue over the days specified, visiting each
+     * DurationWorked once in day order.
+     */
+    static IssueSeries calculate( Issue issue, List<Date> dates )
+    {
+        IssueSeries ret = new IssueSeries( dates.size() );
+
+        List<DurationWorked> sorted = new ArrayList<DurationWorked>( issue.getTimeWorked().size() );
+        for ( DurationWorked worked : issue.getTimeWorked() )
+        {
+            if ( worked.getDay() == null || worked.getUpdatedRequired() == null )
+            {
+                continue;
+            }
+
+            sorted.add( worked );
+            if ( worked.getWorked() != null )
+            {
+                Long day = getDayKey( worked.getDay() );
+                Double total = ret.worked.get( day );
+                ret.worked.put( day, ( total == null ? 0 : total ) + worked.getWorked().getHours() );
+            }
+        }
+        Collections.sort( sorted, new Comparator<DurationWorked>()
+        {
+            public int compare( DurationWorked worked1, DurationWorked worked2 )
+            {
+                return worked1.getDay().compareTo( worked2.getDay() );
+            }
+        } );
+
+        Calendar calendar = Calendar.getInstance();
+        Iterator<DurationWorked> sweep = sorted.iterator();
+        DurationWorked next = sweep.hasNext() ? sweep.next() : null;
+        Duration estimate = null;
+        for ( int i = 0; i < dates.size(); i++ )
+        {
+            Date endOfDay = DateUtil.getEndOfDate( calendar, dates.get( i ) );
+            while ( next != null && next.getDay().before( endOfDay ) )
+            {
+                estimate = next.getUpdatedRequired();
+                next = sweep.hasNext() ? sweep.next() : null;
+            }
+
+            Duration dayEstimate = estimate;
+            if ( dayEstimate == null && ( issue.getIncludeInInitialEstimates() ||
+                    issue.getCreated().before( endOfDay ) ) )
+            {
+                dayEstimate = issue.getTimeEstimate();
+            }
+
+            if ( dayEstimate != null )
+            {
+                ret.estimates[i] = dayEstimate.getHours();
+            }
+        }
+
+        return ret;
+    }
+
+    private static Long getDayKey( Date date )
+    {
+        return DateUtil.getStartOfDate( Calendar.getInstance(), date ).getTime();
+    }
+
+    static class IssueSeries
+    {
+        final double[] estimates;
+        final Map<Long, Double> worked = new HashMap<Long, Double>();
+        long version;
+
+        IssueSeries( int days )
+        {
+            estimates = new double[days];
+        }
+    }
+}
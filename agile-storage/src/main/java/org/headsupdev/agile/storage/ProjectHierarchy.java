@@ -0,0 +1,442 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+import org.hibernate.Session;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.event.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable snapshot of the project hierarchy - the ids, aliases, scm locations and disabled flags of every
+ * project and how they are nested. Menus and anything else that walks the project tree can use this rather than
+ * loading each level of child projects from the database.
+ * Nodes should not be kept between requests (they are not serializable), store the project id instead.
+ * The snapshot is loaded in a single query and replaced, on the next call to get(), after any change to a project's
+ * place in the hierarchy has been committed.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ProjectHierarchy
+{
+    private static final Set<String> HIERARCHY_PROPERTIES = new HashSet<String>( Arrays.asList(
+            "name", "alias", "scm", "disabled", "parent" ) );
+
+    private static final AtomicLong changes = new AtomicLong();
+    private static volatile ProjectHierarchy current;
+
+    private static final Comparator<Node> ALIAS_ORDER = new Comparator<Node>()
+    {
+        public int compare( Node node1, Node node2 )
+        {
+            return node1.getAlias().compareToIgnoreCase( node2.getAlias() );
+        }
+    };
+
+    private long version;
+    private Map<String, Node> nodes;
+    private List<Node> roots;
+
+    /**
+     * Get the current project hierarchy, loading it if projects have changed since it was last loaded.
+     */
+    public static ProjectHierarchy get()
+    {
+        ProjectHierarchy ret = current;
+        if ( ret != null && ret.version == changes.get() )
+        {
+            return ret;
+        }
+
+        synchronized ( ProjectHierarchy.class )
+        {
+            ret = current;
+            long version = changes.get();
+            if ( ret == null || ret.version != version )
+            {
+                ret = load( version );
+                current = ret;
+            }
+
+            return ret;
+        }
+    }
+
+    /**
+     * Mark the hierarchy as out of date so it is loaded again next time it is used.
+     */
+    public static void invalidate()
+    {
+        changes.incrementAndGet();
+    }
+
+    private static ProjectHierarchy load( long version )
+    {
+        List<Object[]> rows;
+        Session session = HibernateUtil.openSession();
+        try
+        {
+            rows = session.createQuery( "select p.id, p.name, p.alias, p.scm, p.disabled, parent.id " +
+                    "from StoredProject p left join p.parent parent where p.id != :all" )
+                    .setString( "all", Project.ALL_PROJECT_ID ).list();
+        }
+        finally
+        {
+            session.close();
+        }
+
+        return new ProjectHierarchy( version, rows );
+    }
+
+    ProjectHierarchy( long version, List<Object[]> rows )
+    {
+        this.version = version;
+
+        Map<String, Node> nodes = new HashMap<String, Node>( rows.size() * 2 );
+        Map<String, String> parents = new HashMap<String, String>();
+        for ( Object[] row : rows )
+        {
+            String id = (String) row[0];
+            String alias = (String) ( row[2] == null ? row[1] : row[2] );
+            boolean disabled = Boolean.TRUE.equals( row[4] );
+
+            nodes.put( id, new Node( id, alias, (String) row[3], disabled ) );
+            if ( row[5] != null )
+            {
+                parents.put( id, (String) row[5] );
+            }
+        }
+
+        List<Node> roots = new ArrayList<Node>();
+        for ( Node node : nodes.values() )
+        {
+            Node parent = nodes.get( parents.get( node.id ) );
+            if ( parent == null )
+            {
+                roots.add( node );
+            }
+            else
+            {
+                node.parent = parent;
+                parent.children.add( node );
+            }
+        }
+
+        Collections.sort( roots, ALIAS_ORDER );
+        for ( Node root : roots )
+        {
+            root.seal( 0 );
+        }
+
+        this.nodes = Collections.unmodifiableMap( nodes );
+        this.roots = Collections.unmodifiableList( roots );
+    }
+
+    public long getVersion()
+    {
+        return version;
+    }
+
+    public boolean isEmpty()
+    {
+        return nodes.isEmpty();
+    }
+
+    public Node getNode( String projectId )
+    {
+        return nodes.get( projectId );
+    }
+
+    /**
+     * @return the top level projects, ordered by alias
+     */
+    public List<Node> getRoots( boolean withDisabled )
+    {
+        if ( withDisabled )
+        {
+            return roots;
+        }
+
+        List<Node> ret = new ArrayList<Node>( roots.size() );
+        for ( Node root : roots )
+        {
+            if ( !root.isDisabled() )
+            {
+                ret.add( root );
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * List the projects in tree order - each project is followed by its children, ordered by alias.
+     * Disabled projects at the top level are only included if requested, like Storage.getRootProjects().
+     *
+     * @param projectId the project to list below, or the id of the default project to list all projects
+     * @return the projects below the project passed in, not including it
+     */
+    public List<Node> getTree( String projectId, boolean withDisabled )
+    {
+        List<Node> ret = new ArrayList<Node>();
+        if ( Project.ALL_PROJECT_ID.equals( projectId ) )
+        {
+            for ( Node root : getRoots( withDisabled ) )
+            {
+                ret.add( root );
+                root.addDescendants( ret );
+            }
+        }
+        else
+        {
+            Node node = nodes.get( projectId );
+            if ( node != null )
+            {
+                node.addDescendants( ret );
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * List the id of a project and all of its descendants.
+     */
+    public List<String> getProjectIds( String projectId )
+    {
+        List<String> ret = new LinkedList<String>();
+        ret.add( projectId );
+        for ( Node node : getTree( projectId, true ) )
+        {
+            ret.add( node.getId() );
+        }
+
+        return ret;
+    }
+
+    /**
+     * Load all of the projects in a single query, for walking the hierarchy when the projects themselves are needed.
+     *
+     * @return the projects keyed by id
+     */
+    public static Map<String, Project> loadProjects()
+    {
+        Map<String, Project> projects = new HashMap<String, Project>();
+        for ( Project project : Manager.getStorageInstance().getProjects() )
+        {
+            projects.put( project.getId(), project );
+        }
+
+        return projects;
+    }
+
+    /**
+     * A single project in the hierarchy.
+     */
+    public static class Node
+    {
+        private String id, alias, scm;
+        private boolean disabled;
+        private int depth;
+        private Node parent;
+        private List<Node> children = new ArrayList<Node>();
+
+        Node( String id, String alias, String scm, boolean disabled )
+        {
+            this.id = id;
+            this.alias = alias == null ? id : alias;
+            this.scm = scm;
+            this.disabled = disabled;
+        }
+
+        private void seal( int depth )
+        {
+            this.depth = depth;
+            Collections.sort( children, ALIAS_ORDER );
+            for ( Node child : children )
+            {
+                child.seal( depth + 1 );
+            }
+
+            children = Collections.unmodifiableList( children );
+        }
+
+        private void addDescendants( List<Node> list )
+        {
+            for ( Node child : children )
+            {
+                list.add( child );
+                child.addDescendants( list );
+            }
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public String getAlias()
+        {
+            return alias;
+        }
+
+        public String getScm()
+        {
+            return scm;
+        }
+
+        public boolean isDisabled()
+        {
+            return disabled;
+        }
+
+        /**
+         * @return how many parents this project has, 0 for a top level project
+         */
+        public int getDepth()
+        {
+            return depth;
+        }
+
+        public Node getParent()
+        {
+            return parent;
+        }
+
+        public List<Node> getChildren()
+        {
+            return children;
+        }
+
+        /**
+         * @return true if the node passed is this project or one of its descendants
+         */
+        public boolean contains( Node node )
+        {
+            Node traverse = node;
+            while ( traverse != null )
+            {
+                if ( traverse == this )
+                {
+                    return true;
+                }
+
+                traverse = traverse.getParent();
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Add a listener to the configuration that invalidates the hierarchy when projects change.
+     */
+    public static void register( Configuration config )
+    {
+        HibernateUtil.addEventListener( config, new ChangeListener() );
+    }
+
+    static class ChangeListener
+        implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener
+    {
+        public void onPostInsert( PostInsertEvent event )
+        {
+            if ( event.getEntity() instanceof StoredProject )
+            {
+                changed( event.getSession() );
+            }
+        }
+
+        public void onPostUpdate( PostUpdateEvent event )
+        {
+            if ( event.getEntity() instanceof StoredProject &&
+                    hierarchyChanged( event.getPersister().getPropertyNames(), event.getOldState(), event.getState() ) )
+            {
+                changed( event.getSession() );
+            }
+        }
+
+        public void onPostDelete( PostDeleteEvent event )
+        {
+            if ( event.getEntity() instanceof StoredProject )
+            {
+                changed( event.getSession() );
+            }
+        }
+
+        static boolean hierarchyChanged( String[] names, Object[] oldState, Object[] state )
+        {
+            if ( oldState == null )
+            {
+                // updated without being loaded, we cannot tell what changed
+                return true;
+            }
+
+            for ( int i = 0; i < names.length; i++ )
+            {
+                if ( HIERARCHY_PROPERTIES.contains( names[i] ) )
+                {
+                    Object before = oldState[i];
+                    Object after = state[i];
+                    if ( before instanceof Project )
+                    {
+                        // compare the parent ids so a lazy parent is not loaded
+                        before = ( (Project) before ).getId();
+                    }
+                    if ( after instanceof Project )
+                    {
+                        after = ( (Project) after ).getId();
+                    }
+                    if ( before == null ? after != null : !before.equals( after ) )
+                    {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+
+        private void changed( EventSource session )
+        {
+            HibernateUtil.afterCommit( session, new Runnable()
+            {
+                public void run()
+                {
+                    invalidate();
+                }
+            } );
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import javax.persistence.*;
+
+/**
+ * The compressed html body of an event, stored the first time the event is rendered so it can be reused for every
+ * email and page view that follows. The version is the body version of EventBodyCache when this was rendered.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+@Entity
+@Table( name = "EventBodies" )
+public class RenderedEventBody
+{
+    @Id
+    private long eventId;
+
+    private int version;
+
+    @Lob
+    @Column( length = 16777215 )
+    private byte[] body;
+
+    protected RenderedEventBody()
+    {
+    }
+
+    public RenderedEventBody( long eventId, int version, byte[] body )
+    {
+        this.eventId = eventId;
+        this.version = version;
+        this.body = body;
+    }
+
+    public long getEventId()
+    {
+        return eventId;
+    }
+
+    public int getVersion()
+    {
+        return version;
+    }
+
+    public byte[] getBody()
+    {
+        return body;
+    }
+}
@@ -25,6 +25,7 @@ import org.headsupdev.agile.api.service.Change;
 import org.headsupdev.agile.api.service.ChangeSet;
 import org.headsupdev.agile.storage.hibernate.NameProjectBridge;
 import org.headsupdev.agile.storage.hibernate.NameProjectId;
+import org.headsupdev.agile.storage.hibernate.ProjectFieldBridge;
 
 import javax.persistence.*;
 import java.util.Date;
@@ -50,6 +51,8 @@ import org.hibernate.search.annotations.*;
 @DiscriminatorColumn( name = "type", discriminatorType = DiscriminatorType.STRING )
 @DiscriminatorValue( "scm" )
 @Indexed( index = "ChangeSets" )
+@ClassBridge( name = ProjectFieldBridge.FIELD_NAME, index = Index.UN_TOKENIZED, store = Store.NO,
+        impl = ProjectFieldBridge.class )
 @Proxy( lazy = false )
 public class ScmChangeSet
     implements ChangeSet, Serializable, SearchResult
@@ -19,6 +19,7 @@
 package org.headsupdev.agile.storage;
 
 import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.storage.activity.ActivityRollup;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 
@@ -59,6 +60,8 @@ public class StorageActivator
         throws Exception
     {
         tracker.close();
+        // write out queued activity counts while the database is still open
+        ActivityRollup.stop();
 
         if ( "org.h2.Driver".equals( bc.getProperty( "headsup.db.driver" ) ) )
         {
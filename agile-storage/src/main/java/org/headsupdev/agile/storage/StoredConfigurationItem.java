@@ -19,6 +19,7 @@
 package org.headsupdev.agile.storage;
 
 import org.hibernate.annotations.Type;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.Entity;
 import javax.persistence.Table;
@@ -33,6 +34,7 @@ import javax.persistence.Id;
  */
 @Entity
 @Table( name = "Configuration" )
+@org.hibernate.annotations.Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
 public class StoredConfigurationItem
 {
     @Id
@@ -23,9 +23,11 @@ import org.hibernate.annotations.Index;
 import org.hibernate.annotations.Type;
 
 import javax.persistence.*;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.Set;
 
 import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.api.Event;
@@ -196,6 +198,11 @@ public class StoredEvent
         return false;
     }
 
+    public Set<User> getInterestedUsers()
+    {
+        return Collections.emptySet();
+    }
+
     public int hashCode() {
         return ( (Long) getId() ).hashCode();
     }
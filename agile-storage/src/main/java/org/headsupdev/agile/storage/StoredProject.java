@@ -22,7 +22,9 @@ import org.headsupdev.agile.api.*;
 import org.headsupdev.support.java.StringUtil;
 import org.headsupdev.support.java.Base64;
 import org.hibernate.search.annotations.*;
+import org.headsupdev.agile.storage.hibernate.ProjectFieldBridge;
 import org.hibernate.annotations.Proxy;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.util.Iterator;
@@ -43,7 +45,10 @@ import java.io.File;
 @Inheritance( strategy = InheritanceType.SINGLE_TABLE )
 @DiscriminatorColumn( name = "type", discriminatorType = DiscriminatorType.STRING )
 @Indexed( index = "Projects" )
+@ClassBridge( name = ProjectFieldBridge.FIELD_NAME, index = Index.UN_TOKENIZED, store = Store.NO,
+        impl = ProjectFieldBridge.class )
 @Proxy( lazy = false )
+@org.hibernate.annotations.Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
 public class StoredProject
     implements Project, SearchResult
 {
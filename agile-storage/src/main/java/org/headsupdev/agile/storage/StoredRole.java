@@ -19,6 +19,7 @@
 package org.headsupdev.agile.storage;
 
 import org.headsupdev.agile.api.Role;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.util.HashSet;
@@ -36,6 +37,7 @@ import java.util.Set;
 @Inheritance( strategy = InheritanceType.SINGLE_TABLE )
 @DiscriminatorColumn( name = "type", discriminatorType = DiscriminatorType.STRING )
 @DiscriminatorValue( "default" )
+@org.hibernate.annotations.Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
 public class StoredRole
     implements Role
 {
@@ -46,6 +48,7 @@ public class StoredRole
 
     @org.hibernate.annotations.CollectionOfElements
     @JoinTable( name = "RolePermissions", joinColumns = @JoinColumn( name = "Role_id" ) )
+    @org.hibernate.annotations.Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
     private Set<String> permissions = new HashSet<String>();
 
     StoredRole()
@@ -22,6 +22,7 @@ import org.headsupdev.agile.api.util.HashUtil;
 import org.headsupdev.support.java.StringUtil;
 import org.headsupdev.agile.api.*;
 import org.hibernate.annotations.Type;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.search.annotations.Indexed;
 import org.hibernate.search.annotations.DocumentId;
 import org.hibernate.search.annotations.Field;
@@ -40,6 +41,7 @@ import java.util.*;
 @Entity
 @Table( name = "Users" )
 @Indexed( index = "Users" )
+@org.hibernate.annotations.Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
 public class StoredUser
     implements User, SearchResult
 {
@@ -48,6 +50,10 @@ public class StoredUser
     @Field
     private String username;
 
+    // a lower case copy of the username so case insensitive lookups can use an index
+    @org.hibernate.annotations.Index( name = "UsersUsernameLower" )
+    private String usernameLower;
+
     private String password;
 
     @Field(index = Index.TOKENIZED)
@@ -70,13 +76,16 @@ public class StoredUser
     private Boolean hiddenInTimeTracking = Boolean.FALSE;
 
     @ManyToMany( targetEntity = StoredRole.class, fetch = FetchType.LAZY )
+    @org.hibernate.annotations.Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
     private Set<Role> roles = new HashSet<Role>();
 
     @ManyToMany( targetEntity = StoredProject.class, fetch = FetchType.LAZY )
+    @org.hibernate.annotations.Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
     private Set<Project> projects = new HashSet<Project>();
 
     @ManyToMany( targetEntity = StoredProject.class, fetch = FetchType.LAZY )
     @JoinTable( name = "Users_Subscriptions" )
+    @org.hibernate.annotations.Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
     private Set<Project> subscriptions = new HashSet<Project>();
 
     private transient Map<String, String> preferences = null;
@@ -88,6 +97,23 @@ public class StoredUser
     public StoredUser( String username )
     {
         this.username = username;
+        this.usernameLower = normalizeUsername( username );
+    }
+
+    /**
+     * Get the form of a username that is stored for case insensitive matching.
+     *
+     * @param username The username as entered
+     * @return the lower case username, or null if username was null
+     */
+    public static String normalizeUsername( String username )
+    {
+        if ( username == null )
+        {
+            return null;
+        }
+
+        return username.toLowerCase( Locale.ENGLISH );
     }
 
     public String getUsername()
@@ -0,0 +1,137 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.api.User;
+import org.headsupdev.agile.storage.hibernate.PermissionChangeListener;
+import org.hibernate.Session;
+
+import java.util.*;
+
+/**
+ * An index of the users subscribed to each project, so finding who to notify does not mean checking every user.
+ * The index is rebuilt from a single query the next time it is used after any user, role or project changes.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class SubscriptionIndex
+{
+    private static Map<String, Set<String>> subscribers;
+    private static long builtGlobalVersion, builtUsersVersion;
+
+    /**
+     * Get the users subscribed to a project, including the subscribers of the default project where appropriate.
+     *
+     * @param project The project to look up, null is treated as the default project
+     * @return the users subscribed to the project
+     */
+    public static Set<User> getSubscribers( Project project )
+    {
+        Set<User> ret = new HashSet<User>();
+        if ( project == null || project.equals( StoredProject.getDefault() ) )
+        {
+            for ( User user : StoredProject.getDefaultProjectSubscribers() )
+            {
+                if ( user != null )
+                {
+                    ret.add( user );
+                }
+            }
+
+            if ( project == null )
+            {
+                return ret;
+            }
+        }
+
+        Set<String> usernames = getSubscriberNames( project.getId() );
+        if ( usernames.isEmpty() )
+        {
+            return ret;
+        }
+
+        // users are in the second level cache so this should not hit the database
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+        for ( String username : usernames )
+        {
+            User user = (User) session.get( StoredUser.class, username );
+            if ( user != null )
+            {
+                ret.add( user );
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Get the usernames of users that have subscribed to a project directly.
+     *
+     * @param projectId The id of the project to look up
+     * @return the usernames, never null
+     */
+    public static synchronized Set<String> getSubscriberNames( String projectId )
+    {
+        long globalVersion = PermissionChangeListener.getGlobalVersion();
+        long usersVersion = PermissionChangeListener.getUsersVersion();
+        if ( subscribers == null || globalVersion != builtGlobalVersion || usersVersion != builtUsersVersion )
+        {
+            subscribers = load();
+            builtGlobalVersion = globalVersion;
+            builtUsersVersion = usersVersion;
+        }
+
+        Set<String> ret = subscribers.get( projectId );
+        if ( ret == null )
+        {
+            return Collections.emptySet();
+        }
+
+        return ret;
+    }
+
+    private static Map<String, Set<String>> load()
+    {
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+        List<Object[]> rows = session.createQuery(
+            "select u.username, p.id from StoredUser u join u.subscriptions p" ).list();
+
+        Map<String, Set<String>> ret = new HashMap<String, Set<String>>();
+        for ( Object[] row : rows )
+        {
+            Set<String> usernames = ret.get( (String) row[1] );
+            if ( usernames == null )
+            {
+                usernames = new HashSet<String>();
+                ret.put( (String) row[1], usernames );
+            }
+            usernames.add( (String) row[0] );
+        }
+
+        for ( String projectId : ret.keySet() )
+        {
+            ret.put( projectId, Collections.unmodifiableSet( ret.get( projectId ) ) );
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.User;
+import org.headsupdev.agile.storage.hibernate.IssueChangeListener;
+import org.headsupdev.agile.storage.issues.Duration;
+import org.headsupdev.support.java.DateUtil;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Daily velocity and time logged totals for each user, built from all the time worked in one query.
+ * The totals from each issue are kept so that when an issue or its time worked changes only that issue is reloaded
+ * and the users' totals adjusted. Everything is rebuilt once a day to pick up anything that was missed.
+ * Velocity for any period is then the sum of the daily buckets in that period.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class VelocityCache
+{
+    private static final long REBUILD_INTERVAL = 24 * 60 * 60 * 1000;
+    private static final String QUERY = "select i.id.project.id, i.id.id, i.timeEstimate, w.user.username, w.day, " +
+        "w.worked, w.updatedRequired from DurationWorked w join w.issue i";
+
+    private static final VelocityCache instance = new VelocityCache();
+
+    private final Map<String, Collection<Bucket>> issueBuckets = new HashMap<String, Collection<Bucket>>();
+    private final Map<String, TreeMap<Long, Bucket>> userBuckets = new HashMap<String, TreeMap<Long, Bucket>>();
+    private long builtAt, version;
+
+    public static VelocityCache getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Get the velocity of a user between the dates specified.
+     *
+     * @param user The user to calculate velocity for
+     * @param start The start of the period, or null for all time
+     * @param end The end of the period, or null for all time
+     * @return the estimated hours completed per day worked, or NaN if the user is hidden from time tracking
+     */
+    public synchronized Double getVelocity( User user, Date start, Date end )
+    {
+        if ( user.isHiddenInTimeTracking() )
+        {
+            return Double.NaN;
+        }
+
+        double estimated = 0;
+        int days = 0;
+        for ( Bucket bucket : getBuckets( user, start, end ) )
+        {
+            if ( bucket.velocityEntries > 0 )
+            {
+                estimated += bucket.estimated;
+                days++;
+            }
+        }
+
+        if ( days == 0 )
+        {
+            return 0d;
+        }
+        return estimated / days;
+    }
+
+    /**
+     * Get the average hours logged per day worked by a user between the dates specified.
+     *
+     * @param user The user to calculate for
+     * @param start The start of the period, or null for all time
+     * @param end The end of the period, or null for all time
+     * @return the hours logged per day worked, or NaN if no time was logged
+     */
+    public synchronized Double getHoursLogged( User user, Date start, Date end )
+    {
+        double logged = 0;
+        int days = 0;
+        for ( Bucket bucket : getBuckets( user, start, end ) )
+        {
+            if ( bucket.loggedEntries > 0 )
+            {
+                logged += bucket.logged;
+                days++;
+            }
+        }
+
+        return logged / days;
+    }
+
+    /**
+     * The average velocity of all the users that can log in.
+     */
+    public synchronized Double getAverageVelocity()
+    {
+        double velocities = 0.0;
+        int velocityCount = 0;
+        for ( User user : Manager.getSecurityInstance().getRealUsers() )
+        {
+            if ( !user.canLogin() )
+            {
+                continue;
+            }
+
+            Double velocity = getVelocity( user, null, null );
+            if ( !velocity.equals( Double.NaN ) )
+            {
+                velocities += velocity;
+                velocityCount++;
+            }
+        }
+
+        return velocities / velocityCount;
+    }
+
+    private Collection<Bucket> getBuckets( User user, Date start, Date end )
+    {
+        sync();
+
+        TreeMap<Long, Bucket> buckets = userBuckets.get( user.getUsername() );
+        if ( buckets == null )
+        {
+            return Collections.emptyList();
+        }
+
+        NavigableMap<Long, Bucket> range = buckets;
+        if ( start != null )
+        {
+            // buckets are keyed by the start of their day, so include all of the first day
+            range = range.tailMap( DateUtil.getStartOfDate( Calendar.getInstance(), start ).getTime(), true );
+        }
+        if ( end != null )
+        {
+            range = range.headMap( end.getTime(), true );
+        }
+        return range.values();
+    }
+
+    private void sync()
+    {
+        if ( System.currentTimeMillis() - builtAt > REBUILD_INTERVAL )
+        {
+            rebuild();
+            return;
+        }
+
+        long current = IssueChangeListener.getVersion();
+        if ( current == version )
+        {
+            return;
+        }
+
+        Set<String> changed = IssueChangeListener.getIssuesChangedSince( version );
+        if ( changed == null )
+        {
+            // changes that old are no longer tracked
+            rebuild();
+            return;
+        }
+
+        Session session = HibernateUtil.openSession();
+        try
+        {
+            for ( String key : changed )
+            {
+                int split = key.lastIndexOf( ':' );
+                Query q = session.createQuery( QUERY + " where i.id.project.id = :pid and i.id.id = :id" );
+                q.setString( "pid", key.substring( 0, split ) );
+                q.setLong( "id", Long.parseLong( key.substring( split + 1 ) ) );
+
+                List<Row> rows = new LinkedList<Row>();
+                Duration estimate = null;
+                for ( Object[] result : (List<Object[]>) q.list() )
+                {
+                    estimate = (Duration) result[2];
+                    rows.add( new Row( result ) );
+                }
+                setIssueBuckets( key, calculate( estimate, rows ) );
+            }
+
+            // only move on once everything has reloaded, if this fails the same issues are tried again next time
+            version = current;
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    private void rebuild()
+    {
+        long current = IssueChangeListener.getVersion();
+        issueBuckets.clear();
+        userBuckets.clear();
+
+        Session session = HibernateUtil.openSession();
+        try
+        {
+            ScrollableResults results = session.createQuery( QUERY + " order by i.id.project.id, i.id.id" )
+                .scroll( ScrollMode.FORWARD_ONLY );
+
+            String key = null;
+            Duration estimate = null;
+            List<Row> rows = new LinkedList<Row>();
+            while ( results.next() )
+            {
+                Object[] result = results.get();
+                String next = IssueChangeListener.getIssueKey( (String) result[0], (Long) result[1] );
+                if ( !next.equals( key ) )
+                {
+                    if ( key != null )
+                    {
+                        setIssueBuckets( key, calculate( estimate, rows ) );
+                    }
+
+                    key = next;
+                    estimate = (Duration) result[2];
+                    rows = new LinkedList<Row>();
+                }
+                rows.add( new Row( result ) );
+            }
+            if ( key != null )
+            {
+                setIssueBuckets( key, calculate( estimate, rows ) );
+            }
+            results.close();
+
+            version = current;
+            builtAt = System.currentTimeMillis();
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    private void setIssueBuckets( String key, Collection<Bucket> buckets )
+    {
+        Collection<Bucket> old = issueBuckets.remove( key );
+        if ( old != null )
+        {
+            for ( Bucket bucket : old )
+            {
+                apply( bucket, -1 );
+            }
+        }
+
+        if ( !buckets.isEmpty() )
+        {
+            issueBuckets.put( key, buckets );
+            for ( Bucket bucket : buckets )
+            {
+                apply( bucket, 1 );
+            }
+        }
+    }
+
+    private void apply( Bucket bucket, int sign )
+    {
+        TreeMap<Long, Bucket> buckets = userBuckets.get( bucket.username );
+        if ( buckets == null )
+        {
+            buckets = new TreeMap<Long, Bucket>();
+            userBuckets.put( bucket.username, buckets );
+        }
+
+        Bucket total = buckets.get( bucket.day );
+        if ( total == null )
+        {
+            total = new Bucket( bucket.username, bucket.day );
+            buckets.put( bucket.day, total );
+        }
+
+        total.add( bucket, sign );
+        if ( total.velocityEntries == 0 && total.loggedEntries == 0 )
+        {
+            buckets.remove( bucket.day );
+        }
+    }
+
+    /**
+     * Work out the contribution of one issue to each user's daily totals. The estimate completed by each piece of work
+     * is tracked from the perspective of the user that logged it, matching the calculation that
+     * DurationWorkedUtil uses for a list of DurationWorked.
+     */
+    static Collection<Bucket> calculate( Duration issueEstimate, List<Row> rows )
+    {
+        Map<String, Bucket> ret = new HashMap<String, Bucket>();
+        List<Row> sorted = new ArrayList<Row>( rows.size() );
+        Set<String> users = new HashSet<String>();
+        for ( Row row : rows )
+        {
+            if ( row.day == null )
+            {
+                continue;
+            }
+            sorted.add( row );
+
+            if ( row.username != null && row.hours > 0 )
+            {
+                users.add( row.username );
+
+                Bucket bucket = getBucket( ret, row );
+                bucket.logged += row.hours;
+                bucket.loggedEntries++;
+            }
+        }
+
+        if ( issueEstimate == null || issueEstimate.getHours() == 0 )
+        {
+            return ret.values();
+        }
+
+        Collections.sort( sorted, new Comparator<Row>()
+        {
+            public int compare( Row r1, Row r2 )
+            {
+                if ( r1.day.equals( r2.day ) )
+                {
+                    return Double.compare( r1.required == null ? 0 : r1.required,
+                        r2.required == null ? 0 : r2.required );
+                }
+                return r1.day.compareTo( r2.day );
+            }
+        } );
+
+        for ( String username : users )
+        {
+            double estimate = issueEstimate.getHours();
+            for ( Row row : sorted )
+            {
+                if ( row.hours == 0 || !username.equals( row.username ) )
+                {
+                    // respect the estimate of empty work and other users' work
+                    if ( row.required != null )
+                    {
+                        estimate = row.required;
+                    }
+                    continue;
+                }
+
+                Bucket bucket = getBucket( ret, row );
+                bucket.velocityEntries++;
+                if ( row.required != null )
+                {
+                    bucket.estimated += estimate - row.required;
+                    estimate = Math.min( estimate, row.required );
+                }
+            }
+        }
+
+        return ret.values();
+    }
+
+    private static Bucket getBucket( Map<String, Bucket> buckets, Row row )
+    {
+        String key = row.username + "@" + row.dayStart;
+        Bucket bucket = buckets.get( key );
+        if ( bucket == null )
+        {
+            bucket = new Bucket( row.username, row.dayStart );
+            buckets.put( key, bucket );
+        }
+
+        return bucket;
+    }
+
+    static class Row
+    {
+        final String username;
+        final Date day;
+        final Long dayStart;
+        final double hours;
+        final Double required;
+
+        Row( Object[] result )
+        {
+            this( (String) result[3], (Date) result[4], (Duration) result[5], (Duration) result[6] );
+        }
+
+        Row( String username, Date day, Duration worked, Duration required )
+        {
+            this.username = username;
+            this.day = day;
+            this.dayStart = day == null ? null : DateUtil.getStartOfDate( Calendar.getInstance(), day ).getTime();
+            this.hours = worked == null ? 0 : worked.getHours();
+            this.required = required == null ? null : required.getHours();
+        }
+    }
+
+    static class Bucket
+    {
+        final String username;
+        final Long day;
+        double estimated, logged;
+        int velocityEntries, loggedEntries;
+
+        Bucket( String username, Long day )
+        {
+            this.username = username;
+            this.day = day;
+        }
+
+        void add( Bucket bucket, int sign )
+        {
+            estimated += sign * bucket.estimated;
+            logged += sign * bucket.logged;
+            velocityEntries += sign * bucket.velocityEntries;
+            loggedEntries += sign * bucket.loggedEntries;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.activity;
+
+import org.hibernate.annotations.Index;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * The number of events of one type that happened on a day, for a project, application and user.
+ * The time of the latest of these events is kept too so the order of events within a day can be compared.
+ * Rows for the same key are summed when read, so a duplicate from concurrent updates does not matter.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+@Entity
+@Table( name = "ActivityCounts" )
+@org.hibernate.annotations.Table( appliesTo = "ActivityCounts", indexes = {
+    @Index( name = "ActivityCountsProjectDay", columnNames = { "projectId", "activityDay" } ),
+    @Index( name = "ActivityCountsUserDay", columnNames = { "username", "activityDay" } ) } )
+public class ActivityCount
+{
+    @Id
+    @GeneratedValue
+    private long id;
+
+    @Temporal( TemporalType.DATE )
+    @Column( name = "activityDay" )
+    private Date day;
+
+    private String projectId, applicationId, eventType, username;
+
+    @Column( name = "eventCount" )
+    private int count;
+
+    @Temporal( TemporalType.TIMESTAMP )
+    private Date lastTime;
+
+    protected ActivityCount()
+    {
+    }
+
+    public ActivityCount( Date day, String projectId, String applicationId, String eventType, String username )
+    {
+        this.day = day;
+        this.projectId = projectId;
+        this.applicationId = applicationId;
+        this.eventType = eventType;
+        this.username = username;
+    }
+
+    public long getId()
+    {
+        return id;
+    }
+
+    public Date getDay()
+    {
+        return day;
+    }
+
+    public String getProjectId()
+    {
+        return projectId;
+    }
+
+    public String getApplicationId()
+    {
+        return applicationId;
+    }
+
+    /**
+     * @return the simple class name of the events counted, such as "CreateIssueEvent"
+     */
+    public String getEventType()
+    {
+        return eventType;
+    }
+
+    public String getUsername()
+    {
+        return username;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    public Date getLastTime()
+    {
+        return lastTime;
+    }
+
+    void add( int count, Date time )
+    {
+        this.count += count;
+        if ( lastTime == null || ( time != null && time.after( lastTime ) ) )
+        {
+            lastTime = time;
+        }
+    }
+}
@@ -0,0 +1,554 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.activity;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.api.User;
+import org.headsupdev.agile.storage.HibernateStorage;
+import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.storage.ProjectHierarchy;
+import org.headsupdev.agile.storage.StoredConfigurationItem;
+import org.headsupdev.agile.storage.StoredEvent;
+import org.headsupdev.support.java.StringUtil;
+import org.hibernate.*;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.event.PostInsertEvent;
+import org.hibernate.event.PostInsertEventListener;
+import org.hibernate.persister.entity.Loadable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maintains the ActivityCount rollup of events so activity graphs can be drawn from a few hundred rows rather than
+ * loading every event in the period.
+ * New events are queued once their transaction commits and written to the rollup every minute, whenever it is read
+ * and when storage stops. The id of the newest event written is stored with the counts so that on startup any events
+ * after it (queued but not written when the server stopped) are counted. The first flush after an upgrade counts
+ * all of the existing events.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ActivityRollup
+    implements PostInsertEventListener
+{
+    public static final String VERSION_KEY = "activity.rollup.version";
+    public static final String EVENT_ID_KEY = "activity.rollup.eventid";
+    // version 2 started recording the newest event counted, older rollups are counted again
+    private static final String VERSION = "2";
+
+    private static final long FLUSH_INTERVAL_SECONDS = 60;
+
+    private static final Queue<Pending> pending = new ConcurrentLinkedQueue<Pending>();
+    private static boolean backfilled = false;
+    private static long eventId;
+    private static ScheduledExecutorService timer;
+
+    /**
+     * Add a listener to the configuration so new events are counted, and start writing them out regularly.
+     */
+    public static void register( Configuration config )
+    {
+        HibernateUtil.addEventListener( config, new ActivityRollup() );
+        startTimer();
+    }
+
+    private static synchronized void startTimer()
+    {
+        if ( timer != null )
+        {
+            return;
+        }
+
+        timer = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "ActivityRollup" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+        timer.scheduleWithFixedDelay( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    flush();
+                }
+                catch ( RuntimeException e )
+                {
+                    Manager.getLogger( ActivityRollup.class.getName() ).error( "Failed to update activity counts", e );
+                }
+            }
+        }, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS );
+    }
+
+    /**
+     * Stop the regular updates and write out anything still queued, this should be called before the database closes.
+     * If the existing events have not been counted yet the queue is left for the next startup to pick up.
+     */
+    public static void stop()
+    {
+        ScheduledExecutorService stopping;
+        synchronized ( ActivityRollup.class )
+        {
+            stopping = timer;
+            timer = null;
+        }
+        if ( stopping != null )
+        {
+            stopping.shutdown();
+        }
+
+        synchronized ( ActivityRollup.class )
+        {
+            if ( backfilled )
+            {
+                writePending();
+            }
+        }
+    }
+
+    /**
+     * Drop anything queued and count events again from the stored position, for when the data has been replaced.
+     */
+    public static synchronized void reset()
+    {
+        pending.clear();
+        backfilled = false;
+    }
+
+    public void onPostInsert( PostInsertEvent event )
+    {
+        if ( !( event.getEntity() instanceof StoredEvent ) )
+        {
+            return;
+        }
+
+        final Pending count = new Pending( (StoredEvent) event.getEntity() );
+        HibernateUtil.afterCommit( event.getSession(), new Runnable()
+        {
+            public void run()
+            {
+                pending.add( count );
+            }
+        } );
+    }
+
+    /**
+     * Get the counts for the projects listed, optionally limited to one application.
+     *
+     * @param projectIds The ids of the projects to count
+     * @param applicationId The application to count events from, or null for all
+     * @param start The first day to include
+     * @param end The time to count up to
+     * @return the counts found, ordered by day
+     */
+    public static List<ActivityCount> getCounts( Collection<String> projectIds, String applicationId, Date start,
+                                                 Date end )
+    {
+        flush();
+
+        String query = "from ActivityCount c where projectId in (:pids) and day >= :start and day <= :end";
+        if ( applicationId != null )
+        {
+            query += " and applicationId = :appId";
+        }
+
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+        Query q = session.createQuery( query + " order by day" );
+        q.setParameterList( "pids", projectIds );
+        q.setDate( "start", start );
+        q.setDate( "end", end );
+        if ( applicationId != null )
+        {
+            q.setString( "appId", applicationId );
+        }
+
+        return q.list();
+    }
+
+    /**
+     * Get the counts of events attributed to a user, matching the events that Storage.getEventsForUser would find.
+     */
+    public static List<ActivityCount> getCountsForUser( User user, Date start, Date end )
+    {
+        flush();
+
+        Session session = ( (HibernateStorage) Manager.getStorageInstance() ).getHibernateSession();
+        Query q = session.createQuery( "from ActivityCount c where day >= :start and day <= :end and " +
+            "(username = :username or username like :emailLike or username like :nameLike) order by day" );
+        q.setDate( "start", start );
+        q.setDate( "end", end );
+        q.setString( "username", user.getUsername() );
+
+        if ( !StringUtil.isEmpty( user.getEmail() ) )
+        {
+            q.setString( "emailLike", "%<" + user.getEmail() + ">" );
+        }
+        else
+        {
+            q.setString( "emailLike", user.getUsername() );
+        }
+
+        if ( !StringUtil.isEmpty( user.getFullname() ) )
+        {
+            q.setString( "nameLike", user.getFullname() + " <%" );
+        }
+        else
+        {
+            q.setString( "nameLike", user.getUsername() );
+        }
+
+        return q.list();
+    }
+
+    /**
+     * List the id of a project and, if requested, all of its descendants.
+     */
+    public static List<String> getProjectIds( Project project, boolean tree )
+    {
+        if ( tree )
+        {
+            return ProjectHierarchy.get().getProjectIds( project.getId() );
+        }
+
+        List<String> ret = new LinkedList<String>();
+        ret.add( project.getId() );
+        return ret;
+    }
+
+    /**
+     * Get the start of the day that a time falls in, used as the key for counts.
+     */
+    public static Date getDay( Date time )
+    {
+        Calendar cal = new GregorianCalendar();
+        cal.setTime( time );
+        cal.set( Calendar.HOUR_OF_DAY, 0 );
+        cal.set( Calendar.MINUTE, 0 );
+        cal.set( Calendar.SECOND, 0 );
+        cal.set( Calendar.MILLISECOND, 0 );
+
+        return cal.getTime();
+    }
+
+    /**
+     * Write any queued counts to the database, counting existing events first if that has not been done since startup.
+     */
+    public static synchronized void flush()
+    {
+        if ( !backfilled )
+        {
+            backfill();
+        }
+        // until the existing events are counted anything written could move the stored event id past them
+        if ( backfilled )
+        {
+            writePending();
+        }
+    }
+
+    private static void writePending()
+    {
+        if ( pending.isEmpty() )
+        {
+            return;
+        }
+
+        Map<String, Pending> totals = new HashMap<String, Pending>();
+        Pending next;
+        while ( ( next = pending.poll() ) != null )
+        {
+            merge( totals, next );
+        }
+
+        long newest = eventId;
+        for ( Pending total : totals.values() )
+        {
+            newest = Math.max( newest, total.eventId );
+        }
+
+        Session session = HibernateUtil.openSession();
+        Transaction tx = session.beginTransaction();
+        try
+        {
+            addCounts( session, totals.values() );
+            if ( newest > eventId )
+            {
+                setItem( session, EVENT_ID_KEY, String.valueOf( newest ) );
+            }
+            tx.commit();
+
+            eventId = newest;
+        }
+        catch ( HibernateException e )
+        {
+            tx.rollback();
+            Manager.getLogger( ActivityRollup.class.getName() ).error( "Failed to update activity counts", e );
+
+            // try again next time
+            pending.addAll( totals.values() );
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    private static void addCounts( Session session, Collection<Pending> totals )
+    {
+        for ( Pending total : totals )
+        {
+            ActivityCount count = find( session, total );
+            if ( count == null )
+            {
+                count = total.createCount();
+            }
+            count.add( total.count, total.time );
+
+            session.saveOrUpdate( count );
+        }
+    }
+
+    private static ActivityCount find( Session session, Pending key )
+    {
+        StringBuilder query = new StringBuilder( "from ActivityCount c where day = :day and eventType = :type" );
+        query.append( key.projectId == null ? " and projectId is null" : " and projectId = :pid" );
+        query.append( key.applicationId == null ? " and applicationId is null" : " and applicationId = :appId" );
+        query.append( key.username == null ? " and username is null" : " and username = :username" );
+
+        Query q = session.createQuery( query.toString() );
+        q.setDate( "day", key.day );
+        q.setString( "type", key.eventType );
+        if ( key.projectId != null )
+        {
+            q.setString( "pid", key.projectId );
+        }
+        if ( key.applicationId != null )
+        {
+            q.setString( "appId", key.applicationId );
+        }
+        if ( key.username != null )
+        {
+            q.setString( "username", key.username );
+        }
+
+        q.setMaxResults( 1 );
+        return (ActivityCount) q.uniqueResult();
+    }
+
+    /**
+     * Count the events that are not yet in the rollup - all of them after an upgrade, otherwise those after the
+     * stored event id.
+     */
+    private static void backfill()
+    {
+        int batchSize = Math.max( 1, HibernateUtil.getBatchSize() );
+        Session session = HibernateUtil.openSession();
+        Transaction tx = session.beginTransaction();
+        try
+        {
+            long fromId = -1;
+            if ( VERSION.equals( getItem( session, VERSION_KEY ) ) )
+            {
+                String stored = getItem( session, EVENT_ID_KEY );
+                if ( stored != null )
+                {
+                    fromId = Long.parseLong( stored );
+                }
+            }
+
+            boolean all = fromId < 0;
+            if ( all )
+            {
+                Manager.getLogger( ActivityRollup.class.getName() ).info( "Counting existing events for activity graphs" );
+                session.createQuery( "delete from ActivityCount" ).executeUpdate();
+                fromId = 0;
+            }
+
+            Long maxId = (Long) session.createQuery( "select max(e.id) from StoredEvent e" ).uniqueResult();
+            if ( maxId == null )
+            {
+                maxId = 0L;
+            }
+            maxId = Math.max( maxId, fromId );
+
+            // anything queued up to now will be included in the count below
+            Iterator<Pending> queued = pending.iterator();
+            while ( queued.hasNext() )
+            {
+                if ( queued.next().eventId <= maxId )
+                {
+                    queued.remove();
+                }
+            }
+
+            Loadable persister = (Loadable) ( (SessionFactoryImplementor) session.getSessionFactory() )
+                .getEntityPersister( StoredEvent.class.getName() );
+            Map<String, Pending> totals = new HashMap<String, Pending>();
+            ScrollableResults events = session.createQuery( "select e.project.id, e.applicationId, e.class, " +
+                "e.username, e.time from StoredEvent e where e.id > :fromId and e.id <= :maxId" )
+                .setLong( "fromId", fromId ).setLong( "maxId", maxId ).scroll( ScrollMode.FORWARD_ONLY );
+            while ( events.next() )
+            {
+                Object discriminator = events.get( 2 );
+                String entityName = persister.getSubclassForDiscriminatorValue( discriminator );
+                if ( entityName == null )
+                {
+                    entityName = String.valueOf( discriminator );
+                }
+
+                merge( totals, new Pending( (String) events.get( 0 ), (String) events.get( 1 ),
+                    getSimpleName( entityName ), (String) events.get( 3 ), (Date) events.get( 4 ), 0 ) );
+            }
+            events.close();
+
+            if ( all )
+            {
+                int saved = 0;
+                for ( Pending total : totals.values() )
+                {
+                    ActivityCount count = total.createCount();
+                    count.add( total.count, total.time );
+                    session.save( count );
+
+                    if ( ++saved % batchSize == 0 )
+                    {
+                        session.flush();
+                        session.clear();
+                    }
+                }
+            }
+            else
+            {
+                addCounts( session, totals.values() );
+            }
+
+            setItem( session, EVENT_ID_KEY, String.valueOf( maxId ) );
+            setItem( session, VERSION_KEY, VERSION );
+            tx.commit();
+
+            eventId = maxId;
+            backfilled = true;
+        }
+        catch ( HibernateException e )
+        {
+            tx.rollback();
+            Manager.getLogger( ActivityRollup.class.getName() ).error( "Failed to count existing events", e );
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    private static String getItem( Session session, String name )
+    {
+        StoredConfigurationItem item = (StoredConfigurationItem) session.get( StoredConfigurationItem.class, name );
+        if ( item == null )
+        {
+            return null;
+        }
+
+        return item.getValue();
+    }
+
+    private static void setItem( Session session, String name, String value )
+    {
+        StoredConfigurationItem item = (StoredConfigurationItem) session.get( StoredConfigurationItem.class, name );
+        if ( item == null )
+        {
+            session.save( new StoredConfigurationItem( name, value ) );
+        }
+        else
+        {
+            item.setValue( value );
+        }
+    }
+
+    private static void merge( Map<String, Pending> totals, Pending count )
+    {
+        String key = count.getKey();
+        Pending total = totals.get( key );
+        if ( total == null )
+        {
+            totals.put( key, count );
+        }
+        else
+        {
+            total.count += count.count;
+            total.eventId = Math.max( total.eventId, count.eventId );
+            if ( count.time != null && ( total.time == null || count.time.after( total.time ) ) )
+            {
+                total.time = count.time;
+            }
+        }
+    }
+
+    private static String getSimpleName( String className )
+    {
+        return className.substring( className.lastIndexOf( '.' ) + 1 );
+    }
+
+    private static class Pending
+    {
+        private Date day, time;
+        private String projectId, applicationId, eventType, username;
+        private long eventId;
+        private int count = 1;
+
+        Pending( StoredEvent event )
+        {
+            this( event.getProject() == null ? null : event.getProject().getId(), event.getApplicationId(),
+                event.getClass().getSimpleName(), event.getUsername(), event.getTime(), event.getId() );
+        }
+
+        Pending( String projectId, String applicationId, String eventType, String username, Date time, long eventId )
+        {
+            this.projectId = projectId;
+            this.applicationId = applicationId;
+            this.eventType = eventType;
+            this.username = username;
+            this.time = time;
+            this.day = getDay( time );
+            this.eventId = eventId;
+        }
+
+        String getKey()
+        {
+            return day.getTime() + "\n" + projectId + "\n" + applicationId + "\n" + eventType + "\n" + username;
+        }
+
+        ActivityCount createCount()
+        {
+            return new ActivityCount( day, projectId, applicationId, eventType, username );
+        }
+    }
+}
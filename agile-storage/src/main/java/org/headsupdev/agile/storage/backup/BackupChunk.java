@@ -0,0 +1,55 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.backup;
+
+/**
+ * A range of rows of one table stored in a single file of a backup. If the table has an integer key the range is
+ * from (inclusive) to to (exclusive), with nulls meaning the start or end of the table, otherwise it is the table.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+class BackupChunk
+{
+    final String table, fileName;
+    final String key;
+    final Long from, to;
+    long rows;
+
+    BackupChunk( String table, String fileName, String key, Long from, Long to, long rows )
+    {
+        this.table = table;
+        this.fileName = fileName;
+        this.key = key;
+        this.from = from;
+        this.to = to;
+        this.rows = rows;
+    }
+
+    public String toString()
+    {
+        if ( key == null )
+        {
+            return table;
+        }
+
+        return table + " " + key + " from " + from + " to " + to;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.backup;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * The layout of a database backup. A backup is a directory of gzipped chunk files, each holding a range of rows of
+ * one table, and a manifest listing the chunks that is written last so an incomplete backup is never imported.
+ * <p/>
+ * A chunk starts with a magic number, the format version, the table name and its column names. Each row follows as
+ * a ROW marker and one tagged value per column, ending with an END marker and the number of rows written.
+ * Values are tagged with their general type rather than the column type so they can be loaded into other databases.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+class BackupFormat
+{
+    static final int MAGIC = 0x48554142;
+    static final int FORMAT_VERSION = 1;
+
+    static final String MANIFEST_FILE = "manifest.properties";
+    static final String CHUNK_SUFFIX = ".chunk.gz";
+
+    static final byte END = 0;
+    static final byte ROW = 1;
+
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_BOOLEAN = 1;
+    static final byte TYPE_INT = 2;
+    static final byte TYPE_LONG = 3;
+    static final byte TYPE_DOUBLE = 4;
+    static final byte TYPE_DECIMAL = 5;
+    static final byte TYPE_TIMESTAMP = 6;
+    static final byte TYPE_STRING = 7;
+    static final byte TYPE_BYTES = 8;
+
+    private BackupFormat()
+    {
+    }
+
+    /**
+     * Pick the tag used to write a column of the given JDBC type.
+     */
+    static byte getTag( int sqlType )
+    {
+        switch ( sqlType )
+        {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return TYPE_BOOLEAN;
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return TYPE_INT;
+            case Types.BIGINT:
+                return TYPE_LONG;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return TYPE_DOUBLE;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return TYPE_DECIMAL;
+            case Types.DATE:
+            case Types.TIME:
+            case Types.TIMESTAMP:
+                return TYPE_TIMESTAMP;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return TYPE_BYTES;
+            default:
+                return TYPE_STRING;
+        }
+    }
+
+    /**
+     * Read a column from the result set and write it with the tag for the column type.
+     */
+    static void writeValue( DataOutputStream out, ResultSet results, int column, byte tag )
+        throws IOException, SQLException
+    {
+        switch ( tag )
+        {
+            case TYPE_BOOLEAN:
+                boolean bool = results.getBoolean( column );
+                if ( results.wasNull() )
+                {
+                    out.writeByte( TYPE_NULL );
+                    return;
+                }
+                out.writeByte( TYPE_BOOLEAN );
+                out.writeBoolean( bool );
+                return;
+            case TYPE_INT:
+                int integer = results.getInt( column );
+                if ( results.wasNull() )
+                {
+                    out.writeByte( TYPE_NULL );
+                    return;
+                }
+                out.writeByte( TYPE_INT );
+                out.writeInt( integer );
+                return;
+            case TYPE_LONG:
+                long value = results.getLong( column );
+                if ( results.wasNull() )
+                {
+                    out.writeByte( TYPE_NULL );
+                    return;
+                }
+                out.writeByte( TYPE_LONG );
+                out.writeLong( value );
+                return;
+            case TYPE_DOUBLE:
+                double number = results.getDouble( column );
+                if ( results.wasNull() )
+                {
+                    out.writeByte( TYPE_NULL );
+                    return;
+                }
+                out.writeByte( TYPE_DOUBLE );
+                out.writeDouble( number );
+                return;
+            case TYPE_DECIMAL:
+                BigDecimal decimal = results.getBigDecimal( column );
+                if ( decimal == null )
+                {
+                    out.writeByte( TYPE_NULL );
+                    return;
+                }
+                out.writeByte( TYPE_DECIMAL );
+                writeString( out, decimal.toString() );
+                return;
+            case TYPE_TIMESTAMP:
+                Timestamp time = results.getTimestamp( column );
+                if ( time == null )
+                {
+                    out.writeByte( TYPE_NULL );
+                    return;
+                }
+                out.writeByte( TYPE_TIMESTAMP );
+                out.writeLong( time.getTime() );
+                return;
+            case TYPE_BYTES:
+                byte[] bytes = results.getBytes( column );
+                if ( bytes == null )
+                {
+                    out.writeByte( TYPE_NULL );
+                    return;
+                }
+                out.writeByte( TYPE_BYTES );
+                out.writeInt( bytes.length );
+                out.write( bytes );
+                return;
+            default:
+                String string = results.getString( column );
+                if ( string == null )
+                {
+                    out.writeByte( TYPE_NULL );
+                    return;
+                }
+                out.writeByte( TYPE_STRING );
+                writeString( out, string );
+        }
+    }
+
+    /**
+     * Read a tagged value, returning null, Boolean, Integer, Long, Double, BigDecimal, Timestamp, String or byte[].
+     */
+    static Object readValue( DataInputStream in )
+        throws IOException
+    {
+        byte tag = in.readByte();
+        switch ( tag )
+        {
+            case TYPE_NULL:
+                return null;
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_INT:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_DECIMAL:
+                return new BigDecimal( readString( in ) );
+            case TYPE_TIMESTAMP:
+                return new Timestamp( in.readLong() );
+            case TYPE_STRING:
+                return readString( in );
+            case TYPE_BYTES:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully( bytes );
+                return bytes;
+            default:
+                throw new IOException( "Unknown value type " + tag + " in backup" );
+        }
+    }
+
+    /**
+     * Strings are written as a length and UTF-8 bytes as writeUTF is limited to 64k.
+     */
+    static void writeString( DataOutputStream out, String string )
+        throws IOException
+    {
+        byte[] bytes = string.getBytes( "UTF-8" );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    static String readString( DataInputStream in )
+        throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+        return new String( bytes, "UTF-8" );
+    }
+}
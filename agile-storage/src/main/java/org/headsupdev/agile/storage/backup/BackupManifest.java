@@ -0,0 +1,280 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.backup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The description of a complete backup - when and where it was made from, the tables it holds and the chunk files
+ * for each table. It is written once every chunk is complete so a backup without one is ignored.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class BackupManifest
+{
+    private File directory;
+    private int formatVersion = BackupFormat.FORMAT_VERSION;
+    private Date created;
+    private String productVersion, database;
+    private Map<String, Long> maxKeys = new LinkedHashMap<String, Long>();
+    private List<BackupChunk> chunks = new ArrayList<BackupChunk>();
+
+    BackupManifest( File directory, String productVersion, String database )
+    {
+        this.directory = directory;
+        this.productVersion = productVersion;
+        this.database = database;
+        this.created = new Date();
+    }
+
+    private BackupManifest( File directory )
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * List the complete backups in a directory, most recent first.
+     */
+    public static List<BackupManifest> list( File parent )
+    {
+        List<BackupManifest> ret = new ArrayList<BackupManifest>();
+        File[] dirs = parent.listFiles();
+        if ( dirs == null )
+        {
+            return ret;
+        }
+
+        for ( File dir : dirs )
+        {
+            if ( dir.isDirectory() && new File( dir, BackupFormat.MANIFEST_FILE ).exists() )
+            {
+                try
+                {
+                    ret.add( read( dir ) );
+                }
+                catch ( IOException e )
+                {
+                    // not a backup we can read, leave it out of the list
+                }
+            }
+        }
+
+        Collections.sort( ret, new Comparator<BackupManifest>()
+        {
+            public int compare( BackupManifest manifest1, BackupManifest manifest2 )
+            {
+                return manifest2.getCreated().compareTo( manifest1.getCreated() );
+            }
+        } );
+        return ret;
+    }
+
+    public static BackupManifest read( File directory )
+        throws IOException
+    {
+        Properties props = new Properties();
+        InputStream in = new FileInputStream( new File( directory, BackupFormat.MANIFEST_FILE ) );
+        try
+        {
+            props.load( in );
+        }
+        finally
+        {
+            in.close();
+        }
+
+        BackupManifest ret = new BackupManifest( directory );
+        try
+        {
+            ret.formatVersion = Integer.parseInt( props.getProperty( "format.version" ) );
+            ret.created = new Date( Long.parseLong( props.getProperty( "created" ) ) );
+            ret.productVersion = props.getProperty( "version" );
+            ret.database = props.getProperty( "database" );
+
+            for ( String table : props.getProperty( "tables", "" ).split( "," ) )
+            {
+                String maxKey = props.getProperty( "table." + table + ".maxKey" );
+                if ( table.length() > 0 )
+                {
+                    ret.maxKeys.put( table, maxKey == null ? null : Long.valueOf( maxKey ) );
+                }
+            }
+
+            int count = Integer.parseInt( props.getProperty( "chunks" ) );
+            for ( int i = 0; i < count; i++ )
+            {
+                String prefix = "chunk." + i + ".";
+                ret.chunks.add( new BackupChunk( props.getProperty( prefix + "table" ),
+                    props.getProperty( prefix + "file" ), null, null, null,
+                    Long.parseLong( props.getProperty( prefix + "rows" ) ) ) );
+            }
+        }
+        catch ( RuntimeException e )
+        {
+            throw new IOException( "Invalid backup manifest in " + directory + ": " + e.getMessage() );
+        }
+
+        return ret;
+    }
+
+    void write()
+        throws IOException
+    {
+        Properties props = new Properties();
+        props.setProperty( "format.version", String.valueOf( formatVersion ) );
+        props.setProperty( "created", String.valueOf( created.getTime() ) );
+        if ( productVersion != null )
+        {
+            props.setProperty( "version", productVersion );
+        }
+        if ( database != null )
+        {
+            props.setProperty( "database", database );
+        }
+
+        StringBuilder tables = new StringBuilder();
+        for ( Map.Entry<String, Long> table : maxKeys.entrySet() )
+        {
+            if ( tables.length() > 0 )
+            {
+                tables.append( ',' );
+            }
+            tables.append( table.getKey() );
+
+            if ( table.getValue() != null )
+            {
+                props.setProperty( "table." + table.getKey() + ".maxKey", table.getValue().toString() );
+            }
+        }
+        props.setProperty( "tables", tables.toString() );
+
+        props.setProperty( "chunks", String.valueOf( chunks.size() ) );
+        for ( int i = 0; i < chunks.size(); i++ )
+        {
+            BackupChunk chunk = chunks.get( i );
+            String prefix = "chunk." + i + ".";
+            props.setProperty( prefix + "table", chunk.table );
+            props.setProperty( prefix + "file", chunk.fileName );
+            props.setProperty( prefix + "rows", String.valueOf( chunk.rows ) );
+        }
+
+        OutputStream out = new FileOutputStream( new File( directory, BackupFormat.MANIFEST_FILE ) );
+        try
+        {
+            props.store( out, "HeadsUp Agile database backup" );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    void addTable( String table, Long maxKey )
+    {
+        maxKeys.put( table, maxKey );
+    }
+
+    void addChunk( BackupChunk chunk )
+    {
+        chunks.add( chunk );
+    }
+
+    List<BackupChunk> getChunks()
+    {
+        return chunks;
+    }
+
+    /**
+     * @return the largest integer key across all tables when the export started, or 0 if there were none
+     */
+    long getMaxKey()
+    {
+        long ret = 0;
+        for ( Long key : maxKeys.values() )
+        {
+            if ( key != null && key > ret )
+            {
+                ret = key;
+            }
+        }
+
+        return ret;
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    public String getName()
+    {
+        return directory.getName();
+    }
+
+    public int getFormatVersion()
+    {
+        return formatVersion;
+    }
+
+    public Date getCreated()
+    {
+        return created;
+    }
+
+    public String getProductVersion()
+    {
+        return productVersion;
+    }
+
+    public String getDatabase()
+    {
+        return database;
+    }
+
+    public List<String> getTables()
+    {
+        return new ArrayList<String>( maxKeys.keySet() );
+    }
+
+    public long getRowCount()
+    {
+        long ret = 0;
+        for ( BackupChunk chunk : chunks )
+        {
+            ret += chunk.rows;
+        }
+
+        return ret;
+    }
+}
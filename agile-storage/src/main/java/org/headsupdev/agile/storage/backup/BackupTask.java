@@ -0,0 +1,99 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.backup;
+
+import org.headsupdev.agile.api.AbstractTask;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A task object representing a database export or import, tracking the rows copied out of the total.
+ * Tables are only listed while they are in progress to keep the description short.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class BackupTask
+    extends AbstractTask
+{
+    private final Map<String, long[]> progress = new LinkedHashMap<String, long[]>();
+    private long done, total;
+
+    public BackupTask( String title, String description )
+    {
+        super( title, description );
+    }
+
+    synchronized void addRows( String table, long rows )
+    {
+        getProgress( table )[1] += rows;
+        total += rows;
+    }
+
+    synchronized void copied( String table, long rows )
+    {
+        getProgress( table )[0] += rows;
+        done += rows;
+    }
+
+    private long[] getProgress( String table )
+    {
+        long[] ret = progress.get( table );
+        if ( ret == null )
+        {
+            ret = new long[2];
+            progress.put( table, ret );
+        }
+        return ret;
+    }
+
+    public synchronized long getRowsCopied()
+    {
+        return done;
+    }
+
+    public synchronized long getRowsTotal()
+    {
+        return total;
+    }
+
+    @Override
+    public synchronized String getDescription()
+    {
+        if ( total == 0 )
+        {
+            return super.getDescription();
+        }
+
+        StringBuilder ret = new StringBuilder( super.getDescription() );
+        ret.append( " (" ).append( done ).append( " of " ).append( total ).append( " rows" );
+        for ( Map.Entry<String, long[]> table : progress.entrySet() )
+        {
+            long[] counts = table.getValue();
+            if ( counts[0] > 0 && counts[0] < counts[1] )
+            {
+                ret.append( ", " ).append( table.getKey() ).append( ' ' ).append( counts[0] ).append( " of " )
+                    .append( counts[1] );
+            }
+        }
+        return ret.append( ")" ).toString();
+    }
+}
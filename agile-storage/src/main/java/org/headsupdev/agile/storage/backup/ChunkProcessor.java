@@ -0,0 +1,143 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.backup;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.logging.Logger;
+import org.hibernate.connection.ConnectionProvider;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The shared parts of exporting and importing - a pool of workers that each take a connection and process one chunk
+ * at a time. If any chunk fails the others are stopped and the failure is passed back to the caller.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+abstract class ChunkProcessor
+{
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final int PROGRESS_ROWS = 1000;
+
+    protected Logger log = Manager.getLogger( getClass().getName() );
+
+    protected final ConnectionProvider connections;
+    private final int threads;
+
+    ChunkProcessor( ConnectionProvider connections, int threads )
+    {
+        this.connections = connections;
+        this.threads = threads;
+    }
+
+    /**
+     * Process a single chunk on the current thread.
+     *
+     * @return the number of rows in the chunk
+     */
+    protected abstract long process( BackupChunk chunk )
+        throws IOException, SQLException;
+
+    protected void processAll( List<BackupChunk> chunks )
+        throws IOException, SQLException, InterruptedException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool( Math.min( threads, Math.max( 1, chunks.size() ) ) );
+        List<Future<Long>> results = new ArrayList<Future<Long>>( chunks.size() );
+        try
+        {
+            for ( final BackupChunk chunk : chunks )
+            {
+                results.add( pool.submit( new Callable<Long>()
+                {
+                    public Long call()
+                        throws Exception
+                    {
+                        return process( chunk );
+                    }
+                } ) );
+            }
+
+            for ( int i = 0; i < chunks.size(); i++ )
+            {
+                try
+                {
+                    chunks.get( i ).rows = results.get( i ).get();
+                }
+                catch ( ExecutionException e )
+                {
+                    Throwable cause = e.getCause();
+                    log.error( "Failed to process backup of " + chunks.get( i ), cause );
+                    if ( cause instanceof IOException )
+                    {
+                        throw (IOException) cause;
+                    }
+                    if ( cause instanceof SQLException )
+                    {
+                        throw (SQLException) cause;
+                    }
+                    if ( cause instanceof RuntimeException )
+                    {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new RuntimeException( cause );
+                }
+            }
+        }
+        finally
+        {
+            // stops any waiting chunks if one failed
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Finish any transaction the pool started for a connection and return it to the pool.
+     */
+    protected void release( Connection conn )
+        throws SQLException
+    {
+        try
+        {
+            if ( !conn.getAutoCommit() )
+            {
+                conn.commit();
+            }
+        }
+        finally
+        {
+            connections.closeConnection( conn );
+        }
+    }
+
+    static int getThreadCount()
+    {
+        return Math.min( 8, Math.max( 2, Runtime.getRuntime().availableProcessors() ) );
+    }
+}
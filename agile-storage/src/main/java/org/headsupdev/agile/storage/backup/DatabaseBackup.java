@@ -0,0 +1,277 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.backup;
+
+import org.headsupdev.agile.api.HeadsUpConfiguration;
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.logging.Logger;
+import org.headsupdev.agile.storage.EventBodyCache;
+import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.storage.ProjectHierarchy;
+import org.headsupdev.agile.storage.activity.ActivityRollup;
+import org.headsupdev.agile.storage.hibernate.IssueChangeListener;
+import org.headsupdev.agile.storage.hibernate.PermissionChangeListener;
+import org.hibernate.SessionFactory;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Exports the whole database to a portable backup and imports it again, possibly into a different type of database.
+ * Every table mapped for the entities in HibernateUtil.getEntityClassNames() is copied, in parallel, to the backups
+ * directory in the data directory. Only one export or import can run at a time and the progress is shown as a task.
+ * The tables are not copied as a single snapshot, so the system should not be in use while an export runs.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class DatabaseBackup
+{
+    private static DatabaseBackup instance = new DatabaseBackup();
+
+    private Logger log = Manager.getLogger( getClass().getName() );
+
+    private boolean running;
+    private String status;
+    private final List<ImportListener> listeners = new LinkedList<ImportListener>();
+
+    public static DatabaseBackup getInstance()
+    {
+        return instance;
+    }
+
+    public static File getBackupDirectory()
+    {
+        return new File( Manager.getStorageInstance().getDataDirectory(), "backups" );
+    }
+
+    /**
+     * @return the complete backups in the backup directory, most recent first
+     */
+    public List<BackupManifest> getBackups()
+    {
+        return BackupManifest.list( getBackupDirectory() );
+    }
+
+    /**
+     * Start exporting the database to a new backup in the background.
+     *
+     * @return false if there was already an export or import running
+     */
+    public boolean startExport()
+    {
+        if ( !begin() )
+        {
+            return false;
+        }
+
+        final File directory = new File( getBackupDirectory(),
+            new SimpleDateFormat( "yyyyMMdd-HHmmss" ).format( new Date() ) );
+        new Thread( "DatabaseExport" )
+        {
+            public void run()
+            {
+                export( directory );
+            }
+        }.start();
+        return true;
+    }
+
+    /**
+     * Start replacing the contents of the database with a backup in the background.
+     *
+     * @return false if there was already an export or import running
+     */
+    public boolean startImport( final BackupManifest manifest )
+    {
+        if ( !begin() )
+        {
+            return false;
+        }
+
+        new Thread( "DatabaseImport" )
+        {
+            public void run()
+            {
+                load( manifest );
+            }
+        }.start();
+        return true;
+    }
+
+    public synchronized boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * @return a description of how the last export or import finished, or null if none has run
+     */
+    public synchronized String getStatus()
+    {
+        return status;
+    }
+
+    public void addImportListener( ImportListener listener )
+    {
+        synchronized ( listeners )
+        {
+            listeners.add( listener );
+        }
+    }
+
+    public void removeImportListener( ImportListener listener )
+    {
+        synchronized ( listeners )
+        {
+            listeners.remove( listener );
+        }
+    }
+
+    private synchronized boolean begin()
+    {
+        if ( running )
+        {
+            return false;
+        }
+
+        running = true;
+        return true;
+    }
+
+    private synchronized void finish( String status )
+    {
+        this.status = status;
+        running = false;
+    }
+
+    private void export( File directory )
+    {
+        BackupTask task = new BackupTask( "Exporting the database", "Writing a backup to " + directory.getName() );
+        Manager.getInstance().addTask( task );
+
+        String result;
+        try
+        {
+            long start = System.currentTimeMillis();
+            BackupManifest manifest = new DatabaseExporter( HibernateUtil.getConnectionProvider(),
+                ChunkProcessor.getThreadCount() ).export( HibernateUtil.getEntityTableNames(), directory,
+                HeadsUpConfiguration.getBuildVersion(), task );
+
+            result = "Exported " + manifest.getRowCount() + " rows to " + directory.getName() + " in " +
+                ( System.currentTimeMillis() - start ) / 1000 + "s";
+            log.info( result );
+        }
+        catch ( Exception e )
+        {
+            log.error( "Failed to export the database", e );
+            result = "Export to " + directory.getName() + " failed: " + e.getMessage();
+        }
+        finally
+        {
+            Manager.getInstance().removeTask( task );
+        }
+
+        finish( result );
+    }
+
+    private void load( BackupManifest manifest )
+    {
+        BackupTask task = new BackupTask( "Importing the database", "Loading the backup " + manifest.getName() );
+        Manager.getInstance().addTask( task );
+
+        String result;
+        boolean success = false;
+        try
+        {
+            long start = System.currentTimeMillis();
+            new DatabaseImporter( HibernateUtil.getConnectionProvider(), ChunkProcessor.getThreadCount() )
+                .load( manifest, task );
+            success = true;
+
+            result = "Imported " + manifest.getRowCount() + " rows from " + manifest.getName() + " in " +
+                ( System.currentTimeMillis() - start ) / 1000 + "s";
+            log.info( result );
+        }
+        catch ( Exception e )
+        {
+            log.error( "Failed to import the database", e );
+            result = "Import of " + manifest.getName() + " failed: " + e.getMessage();
+        }
+        finally
+        {
+            Manager.getInstance().removeTask( task );
+
+            // the tables have been changed underneath hibernate (even if only partly) so drop anything cached
+            evictCaches();
+            HibernateUtil.resetIdAllocator();
+            ProjectHierarchy.invalidate();
+            EventBodyCache.clear();
+            // the permission and subscription caches and the velocities are rebuilt when these versions move on
+            PermissionChangeListener.invalidateAll();
+            IssueChangeListener.invalidateAll();
+            ActivityRollup.reset();
+        }
+
+        finish( result );
+        if ( success )
+        {
+            fireImported( manifest );
+        }
+    }
+
+    private void evictCaches()
+    {
+        SessionFactory factory = HibernateUtil.getCurrentSession().getSessionFactory();
+        for ( String className : HibernateUtil.getEntityClassNames() )
+        {
+            factory.evictEntity( className );
+        }
+        for ( Object role : factory.getAllCollectionMetadata().keySet() )
+        {
+            factory.evictCollection( (String) role );
+        }
+        factory.evictQueries();
+    }
+
+    private void fireImported( BackupManifest manifest )
+    {
+        List<ImportListener> copy;
+        synchronized ( listeners )
+        {
+            copy = new LinkedList<ImportListener>( listeners );
+        }
+
+        for ( ImportListener listener : copy )
+        {
+            try
+            {
+                listener.backupImported( manifest );
+            }
+            catch ( RuntimeException e )
+            {
+                log.error( "Failed to notify " + listener + " of the import", e );
+            }
+        }
+    }
+}
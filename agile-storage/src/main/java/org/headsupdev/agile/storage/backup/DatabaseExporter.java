@@ -0,0 +1,273 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.backup;
+
+import org.hibernate.connection.ConnectionProvider;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes tables to a backup directory. Tables with an integer key are split into ranges of about CHUNK_ROWS rows
+ * so that large tables are written by several workers, each streaming its rows straight into a gzipped chunk file.
+ * Each chunk is read in its own transaction, so the backup is only consistent if nothing changes the data while the
+ * export runs.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+class DatabaseExporter
+    extends ChunkProcessor
+{
+    static final long CHUNK_ROWS = 100000;
+
+    private long chunkRows = CHUNK_ROWS;
+    private File directory;
+    private BackupTask task;
+    private Map<String, String> tableNames = new HashMap<String, String>();
+
+    DatabaseExporter( ConnectionProvider connections, int threads )
+    {
+        super( connections, threads );
+    }
+
+    void setChunkRows( long chunkRows )
+    {
+        this.chunkRows = chunkRows;
+    }
+
+    public BackupManifest export( List<String> tables, File directory, String productVersion, BackupTask task )
+        throws IOException, SQLException, InterruptedException
+    {
+        if ( new File( directory, BackupFormat.MANIFEST_FILE ).exists() )
+        {
+            throw new IOException( "There is already a backup in " + directory );
+        }
+        if ( !directory.mkdirs() && !directory.isDirectory() )
+        {
+            throw new IOException( "Unable to create backup directory " + directory );
+        }
+        this.directory = directory;
+        this.task = task;
+
+        BackupManifest manifest;
+        List<BackupChunk> chunks;
+        Connection conn = connections.getConnection();
+        try
+        {
+            manifest = new BackupManifest( directory, productVersion, conn.getMetaData().getDatabaseProductName() +
+                " " + conn.getMetaData().getDatabaseProductVersion() );
+            chunks = plan( conn, tables, manifest );
+        }
+        finally
+        {
+            release( conn );
+        }
+
+        processAll( chunks );
+
+        for ( BackupChunk chunk : chunks )
+        {
+            manifest.addChunk( chunk );
+        }
+        manifest.write();
+        return manifest;
+    }
+
+    /**
+     * Count the rows of each table and, where there is an integer key, split the key range into chunks.
+     * The first and last chunks are open ended so rows added while exporting are not lost, the key recorded in the
+     * manifest is the largest at the time of planning.
+     */
+    private List<BackupChunk> plan( Connection conn, List<String> tables, BackupManifest manifest )
+        throws SQLException
+    {
+        List<BackupChunk> chunks = new ArrayList<BackupChunk>();
+        Map<String, String> existing = DatabaseSupport.getTables( conn );
+
+        for ( String table : tables )
+        {
+            String tableName = existing.get( table.toLowerCase() );
+            if ( tableName == null )
+            {
+                log.warn( "Table " + table + " does not exist, not including it in the backup" );
+                continue;
+            }
+            tableNames.put( table, tableName );
+
+            String key = DatabaseSupport.getIntegerKey( conn, tableName );
+            long[] stats = getStats( conn, tableName, key );
+            long rows = stats[0];
+            task.addRows( table, rows );
+
+            if ( key == null || rows == 0 )
+            {
+                manifest.addTable( table, key == null ? null : 0L );
+                chunks.add( new BackupChunk( table, getFileName( chunks.size(), table ), null, null, null, rows ) );
+                continue;
+            }
+
+            long min = stats[1], max = stats[2];
+            manifest.addTable( table, max );
+
+            long count = ( rows + chunkRows - 1 ) / chunkRows;
+            long step = ( max - min ) / count + 1;
+            for ( long i = 0; i < count; i++ )
+            {
+                Long from = i == 0 ? null : min + i * step;
+                Long to = i == count - 1 ? null : min + ( i + 1 ) * step;
+
+                chunks.add( new BackupChunk( table, getFileName( chunks.size(), table ), key, from, to,
+                    rows / count ) );
+            }
+        }
+
+        return chunks;
+    }
+
+    private static long[] getStats( Connection conn, String table, String key )
+        throws SQLException
+    {
+        String sql = "select count(*) from " + table;
+        if ( key != null )
+        {
+            sql = "select count(*), min(" + key + "), max(" + key + ") from " + table;
+        }
+
+        Statement statement = conn.createStatement();
+        try
+        {
+            ResultSet results = statement.executeQuery( sql );
+            results.next();
+
+            long[] ret = new long[3];
+            ret[0] = results.getLong( 1 );
+            if ( key != null )
+            {
+                ret[1] = results.getLong( 2 );
+                ret[2] = results.getLong( 3 );
+            }
+            results.close();
+            return ret;
+        }
+        finally
+        {
+            statement.close();
+        }
+    }
+
+    private static String getFileName( int index, String table )
+    {
+        return String.format( "%05d-%s%s", index, table, BackupFormat.CHUNK_SUFFIX );
+    }
+
+    protected long process( BackupChunk chunk )
+        throws IOException, SQLException
+    {
+        StringBuilder sql = new StringBuilder( "select * from " ).append( tableNames.get( chunk.table ) );
+        if ( chunk.key != null )
+        {
+            String and = " where ";
+            if ( chunk.from != null )
+            {
+                sql.append( and ).append( chunk.key ).append( " >= " ).append( chunk.from );
+                and = " and ";
+            }
+            if ( chunk.to != null )
+            {
+                sql.append( and ).append( chunk.key ).append( " < " ).append( chunk.to );
+            }
+        }
+
+        long rows = 0;
+        Connection conn = connections.getConnection();
+        try
+        {
+            Statement statement = DatabaseSupport.createStreamingStatement( conn );
+            try
+            {
+                ResultSet results = statement.executeQuery( sql.toString() );
+                DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new GZIPOutputStream(
+                    new FileOutputStream( new File( directory, chunk.fileName ) ), BUFFER_SIZE ), BUFFER_SIZE ) );
+                try
+                {
+                    ResultSetMetaData meta = results.getMetaData();
+                    int columns = meta.getColumnCount();
+                    byte[] tags = new byte[columns];
+
+                    out.writeInt( BackupFormat.MAGIC );
+                    out.writeInt( BackupFormat.FORMAT_VERSION );
+                    out.writeUTF( chunk.table );
+                    out.writeInt( columns );
+                    for ( int i = 0; i < columns; i++ )
+                    {
+                        out.writeUTF( meta.getColumnName( i + 1 ) );
+                        tags[i] = BackupFormat.getTag( meta.getColumnType( i + 1 ) );
+                    }
+
+                    while ( results.next() )
+                    {
+                        out.writeByte( BackupFormat.ROW );
+                        for ( int i = 0; i < columns; i++ )
+                        {
+                            BackupFormat.writeValue( out, results, i + 1, tags[i] );
+                        }
+
+                        if ( ++rows % PROGRESS_ROWS == 0 )
+                        {
+                            task.copied( chunk.table, PROGRESS_ROWS );
+                        }
+                    }
+                    out.writeByte( BackupFormat.END );
+                    out.writeLong( rows );
+                }
+                finally
+                {
+                    out.close();
+                    results.close();
+                }
+            }
+            finally
+            {
+                statement.close();
+            }
+        }
+        finally
+        {
+            release( conn );
+        }
+
+        task.copied( chunk.table, rows % PROGRESS_ROWS );
+        return rows;
+    }
+}
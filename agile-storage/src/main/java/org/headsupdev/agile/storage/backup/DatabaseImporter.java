@@ -0,0 +1,518 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.backup;
+
+import org.hibernate.connection.ConnectionProvider;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Loads a backup into the database, replacing the rows of every table in it. Tables are cleared and loaded with
+ * foreign key checks off so the chunks can be loaded in parallel, each with batched inserts. Columns are matched by
+ * name so a backup can be loaded into a schema that has gained or lost columns since it was written.
+ * Every chunk is read through and checked before any table is cleared, so a damaged backup leaves the data alone.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+class DatabaseImporter
+    extends ChunkProcessor
+{
+    static final int BATCH_SIZE = 500;
+    static final int COMMIT_ROWS = 10000;
+
+    static final String SEQUENCE_NAME = "hibernate_sequence";
+
+    private File directory;
+    private volatile boolean verifying;
+    private BackupTask task;
+    private Map<String, String> tableNames = new HashMap<String, String>();
+    private Map<String, Map<String, Integer>> columnTypes = new HashMap<String, Map<String, Integer>>();
+
+    DatabaseImporter( ConnectionProvider connections, int threads )
+    {
+        super( connections, threads );
+    }
+
+    public void load( BackupManifest manifest, BackupTask task )
+        throws IOException, SQLException, InterruptedException
+    {
+        if ( manifest.getFormatVersion() > BackupFormat.FORMAT_VERSION )
+        {
+            throw new IOException( "Backup format " + manifest.getFormatVersion() + " is newer than this version " +
+                "can read (" + BackupFormat.FORMAT_VERSION + ")" );
+        }
+        this.directory = manifest.getDirectory();
+        this.task = task;
+
+        List<BackupChunk> chunks = new ArrayList<BackupChunk>();
+        Connection conn = connections.getConnection();
+        try
+        {
+            Map<String, String> existing = DatabaseSupport.getTables( conn );
+            for ( String table : manifest.getTables() )
+            {
+                String tableName = existing.get( table.toLowerCase() );
+                if ( tableName == null )
+                {
+                    log.warn( "Table " + table + " does not exist, not importing it" );
+                    continue;
+                }
+
+                tableNames.put( table, tableName );
+                columnTypes.put( table, getColumnTypes( conn, tableName ) );
+            }
+
+            for ( BackupChunk chunk : manifest.getChunks() )
+            {
+                if ( !tableNames.containsKey( chunk.table ) )
+                {
+                    continue;
+                }
+                if ( !new File( directory, chunk.fileName ).exists() )
+                {
+                    throw new IOException( "Backup file " + chunk.fileName + " is missing" );
+                }
+
+                chunks.add( chunk );
+                task.addRows( chunk.table, chunk.rows );
+            }
+
+            // nothing can be undone once the tables are cleared so read every chunk through before starting
+            verifying = true;
+            try
+            {
+                processAll( chunks );
+            }
+            finally
+            {
+                verifying = false;
+            }
+
+            DatabaseSupport.setDatabaseForeignKeyChecks( conn, false );
+            DatabaseSupport.setConnectionForeignKeyChecks( conn, false );
+            try
+            {
+                clear( conn );
+
+                processAll( chunks );
+            }
+            finally
+            {
+                DatabaseSupport.setConnectionForeignKeyChecks( conn, true );
+                DatabaseSupport.setDatabaseForeignKeyChecks( conn, true );
+            }
+
+            updateSequence( conn );
+        }
+        finally
+        {
+            release( conn );
+        }
+    }
+
+    private void clear( Connection conn )
+        throws SQLException
+    {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit( false );
+        Statement statement = conn.createStatement();
+        try
+        {
+            List<String> tables = new ArrayList<String>( tableNames.values() );
+            // reverse order so dependent tables go first for databases that keep checking foreign keys
+            ListIterator<String> iter = tables.listIterator( tables.size() );
+            while ( iter.hasPrevious() )
+            {
+                statement.executeUpdate( "delete from " + iter.previous() );
+            }
+            conn.commit();
+        }
+        catch ( SQLException e )
+        {
+            conn.rollback();
+            throw e;
+        }
+        finally
+        {
+            statement.close();
+            conn.setAutoCommit( autoCommit );
+        }
+    }
+
+    /**
+     * @return the largest integer key across the imported tables, or 0 if there were none
+     */
+    private long getMaxKey( Connection conn )
+        throws SQLException
+    {
+        long ret = 0;
+        Statement statement = conn.createStatement();
+        try
+        {
+            for ( String tableName : tableNames.values() )
+            {
+                String key = DatabaseSupport.getIntegerKey( conn, tableName );
+                if ( key == null )
+                {
+                    continue;
+                }
+
+                ResultSet results = statement.executeQuery( "select max(" + key + ") from " + tableName );
+                if ( results.next() )
+                {
+                    ret = Math.max( ret, results.getLong( 1 ) );
+                }
+                results.close();
+            }
+        }
+        finally
+        {
+            statement.close();
+        }
+
+        return ret;
+    }
+
+    /**
+     * Move the identifier sequence past the imported keys so new objects do not collide with them.
+     * Only needed where Hibernate generates ids with a sequence (H2) - MySQL auto increment columns follow the data.
+     */
+    private void updateSequence( Connection conn )
+    {
+        try
+        {
+            if ( !DatabaseSupport.isH2( conn ) )
+            {
+                return;
+            }
+
+            // the manifest only has the keys from when the export started, rows added after are in the last chunks
+            long maxKey = getMaxKey( conn );
+            if ( maxKey <= 0 )
+            {
+                return;
+            }
+
+            Statement statement = conn.createStatement();
+            try
+            {
+                statement.execute( "alter sequence " + SEQUENCE_NAME + " restart with " + ( maxKey + 1 ) );
+            }
+            finally
+            {
+                statement.close();
+            }
+        }
+        catch ( SQLException e )
+        {
+            log.error( "Unable to update the id sequence after import, new items may clash with imported ones", e );
+        }
+    }
+
+    private static Map<String, Integer> getColumnTypes( Connection conn, String table )
+        throws SQLException
+    {
+        Map<String, Integer> ret = new HashMap<String, Integer>();
+        Statement statement = conn.createStatement();
+        try
+        {
+            ResultSet results = statement.executeQuery( "select * from " + table + " where 1 = 0" );
+            ResultSetMetaData meta = results.getMetaData();
+            for ( int i = 1; i <= meta.getColumnCount(); i++ )
+            {
+                ret.put( meta.getColumnName( i ).toLowerCase(), meta.getColumnType( i ) );
+            }
+            results.close();
+        }
+        finally
+        {
+            statement.close();
+        }
+
+        return ret;
+    }
+
+    protected long process( BackupChunk chunk )
+        throws IOException, SQLException
+    {
+        if ( verifying )
+        {
+            return verify( chunk );
+        }
+
+        DataInputStream in = open( chunk );
+        try
+        {
+            // match the backup columns to the table, remembering where each goes in the insert or -1 to skip it
+            String table = chunk.table;
+            Map<String, Integer> types = columnTypes.get( table );
+            int columns = in.readInt();
+            int[] positions = new int[columns];
+            int[] sqlTypes = new int[columns];
+            StringBuilder names = new StringBuilder();
+            StringBuilder params = new StringBuilder();
+            int count = 0;
+            for ( int i = 0; i < columns; i++ )
+            {
+                String column = in.readUTF();
+                Integer type = types.get( column.toLowerCase() );
+                if ( type == null )
+                {
+                    log.warn( "Column " + column + " no longer exists in " + table + ", not importing it" );
+                    positions[i] = -1;
+                    continue;
+                }
+
+                if ( count > 0 )
+                {
+                    names.append( ", " );
+                    params.append( ", " );
+                }
+                names.append( column );
+                params.append( '?' );
+                positions[i] = ++count;
+                sqlTypes[i] = type;
+            }
+
+            return load( in, chunk, "insert into " + tableNames.get( table ) + " (" + names + ") values (" +
+                params + ")", positions, sqlTypes );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Read a chunk to the end without loading it, checking that it is complete.
+     *
+     * @return the number of rows in the chunk
+     */
+    private long verify( BackupChunk chunk )
+        throws IOException
+    {
+        DataInputStream in = open( chunk );
+        try
+        {
+            int columns = in.readInt();
+            for ( int i = 0; i < columns; i++ )
+            {
+                in.readUTF();
+            }
+
+            long rows = 0;
+            byte marker;
+            while ( ( marker = in.readByte() ) == BackupFormat.ROW )
+            {
+                for ( int i = 0; i < columns; i++ )
+                {
+                    BackupFormat.readValue( in );
+                }
+                rows++;
+            }
+            if ( marker != BackupFormat.END )
+            {
+                throw new IOException( chunk.fileName + " has an unknown marker " + marker + " after " + rows +
+                    " rows" );
+            }
+
+            long written = in.readLong();
+            if ( written != rows )
+            {
+                throw new IOException( chunk.fileName + " should contain " + written + " rows but had " + rows );
+            }
+            return rows;
+        }
+        catch ( EOFException e )
+        {
+            throw new IOException( chunk.fileName + " is incomplete" );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Open a chunk and check its header, leaving the stream at the column list.
+     */
+    private DataInputStream open( BackupChunk chunk )
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new GZIPInputStream(
+            new FileInputStream( new File( directory, chunk.fileName ) ), BUFFER_SIZE ), BUFFER_SIZE ) );
+        try
+        {
+            if ( in.readInt() != BackupFormat.MAGIC )
+            {
+                throw new IOException( chunk.fileName + " is not a backup file" );
+            }
+            int version = in.readInt();
+            if ( version > BackupFormat.FORMAT_VERSION )
+            {
+                throw new IOException( chunk.fileName + " is format " + version + " which is not supported" );
+            }
+            String table = in.readUTF();
+            if ( !table.equals( chunk.table ) )
+            {
+                throw new IOException( chunk.fileName + " contains " + table + " not " + chunk.table );
+            }
+        }
+        catch ( IOException e )
+        {
+            in.close();
+            throw e;
+        }
+
+        return in;
+    }
+
+    private long load( DataInputStream in, BackupChunk chunk, String sql, int[] positions, int[] sqlTypes )
+        throws IOException, SQLException
+    {
+        long rows = 0;
+        Connection conn = connections.getConnection();
+        boolean autoCommit = conn.getAutoCommit();
+        try
+        {
+            DatabaseSupport.setConnectionForeignKeyChecks( conn, false );
+            conn.setAutoCommit( false );
+
+            PreparedStatement insert = conn.prepareStatement( sql );
+            try
+            {
+                while ( in.readByte() == BackupFormat.ROW )
+                {
+                    for ( int i = 0; i < positions.length; i++ )
+                    {
+                        Object value = BackupFormat.readValue( in );
+                        if ( positions[i] > 0 )
+                        {
+                            setValue( insert, positions[i], value, sqlTypes[i] );
+                        }
+                    }
+                    insert.addBatch();
+
+                    if ( ++rows % BATCH_SIZE == 0 )
+                    {
+                        insert.executeBatch();
+                        task.copied( chunk.table, BATCH_SIZE );
+                    }
+                    if ( rows % COMMIT_ROWS == 0 )
+                    {
+                        conn.commit();
+                    }
+                }
+                insert.executeBatch();
+                conn.commit();
+
+                long written = in.readLong();
+                if ( written != rows )
+                {
+                    throw new IOException( chunk.fileName + " should contain " + written + " rows but had " + rows );
+                }
+            }
+            finally
+            {
+                insert.close();
+            }
+        }
+        catch ( SQLException e )
+        {
+            conn.rollback();
+            throw e;
+        }
+        catch ( IOException e )
+        {
+            conn.rollback();
+            throw e;
+        }
+        finally
+        {
+            DatabaseSupport.setConnectionForeignKeyChecks( conn, true );
+            conn.setAutoCommit( autoCommit );
+            release( conn );
+        }
+
+        task.copied( chunk.table, rows % BATCH_SIZE );
+        return rows;
+    }
+
+    private static void setValue( PreparedStatement insert, int position, Object value, int sqlType )
+        throws SQLException
+    {
+        if ( value == null )
+        {
+            insert.setNull( position, sqlType );
+        }
+        else if ( value instanceof Boolean )
+        {
+            insert.setBoolean( position, (Boolean) value );
+        }
+        else if ( value instanceof Integer )
+        {
+            insert.setInt( position, (Integer) value );
+        }
+        else if ( value instanceof Long )
+        {
+            insert.setLong( position, (Long) value );
+        }
+        else if ( value instanceof Double )
+        {
+            insert.setDouble( position, (Double) value );
+        }
+        else if ( value instanceof BigDecimal )
+        {
+            insert.setBigDecimal( position, (BigDecimal) value );
+        }
+        else if ( value instanceof Timestamp )
+        {
+            insert.setTimestamp( position, (Timestamp) value );
+        }
+        else if ( value instanceof byte[] )
+        {
+            insert.setBytes( position, (byte[]) value );
+        }
+        else
+        {
+            insert.setString( position, (String) value );
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.backup;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The few places where backups need to know which database they are talking to - finding tables regardless of the
+ * case the database stores them in, streaming large results and loading tables in any order.
+ * Only H2 and MySQL are supported for running HeadsUp so other databases get the plain JDBC behaviour.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+class DatabaseSupport
+{
+    static final int FETCH_SIZE = 1000;
+
+    private DatabaseSupport()
+    {
+    }
+
+    static boolean isMySQL( Connection conn )
+        throws SQLException
+    {
+        return conn.getMetaData().getDatabaseProductName().toLowerCase().contains( "mysql" );
+    }
+
+    static boolean isH2( Connection conn )
+        throws SQLException
+    {
+        return conn.getMetaData().getDatabaseProductName().toLowerCase().contains( "h2" );
+    }
+
+    /**
+     * List the tables in the database keyed by their lower case name, as H2 upper cases unquoted names and MySQL
+     * keeps the case they were created with.
+     */
+    static Map<String, String> getTables( Connection conn )
+        throws SQLException
+    {
+        Map<String, String> ret = new HashMap<String, String>();
+        ResultSet tables = conn.getMetaData().getTables( conn.getCatalog(), null, "%", new String[]{ "TABLE" } );
+        try
+        {
+            while ( tables.next() )
+            {
+                String name = tables.getString( "TABLE_NAME" );
+                ret.put( name.toLowerCase(), name );
+            }
+        }
+        finally
+        {
+            tables.close();
+        }
+
+        return ret;
+    }
+
+    /**
+     * Find the primary key of a table if it is a single integer column, so the table can be split into ranges.
+     *
+     * @return the column name or null if the table has no such key
+     */
+    static String getIntegerKey( Connection conn, String table )
+        throws SQLException
+    {
+        DatabaseMetaData meta = conn.getMetaData();
+        String key = null;
+        ResultSet keys = meta.getPrimaryKeys( conn.getCatalog(), null, table );
+        try
+        {
+            while ( keys.next() )
+            {
+                if ( key != null )
+                {
+                    return null;
+                }
+                key = keys.getString( "COLUMN_NAME" );
+            }
+        }
+        finally
+        {
+            keys.close();
+        }
+
+        if ( key == null )
+        {
+            return null;
+        }
+
+        ResultSet columns = meta.getColumns( conn.getCatalog(), null, table, key );
+        try
+        {
+            if ( !columns.next() )
+            {
+                return null;
+            }
+
+            int type = columns.getInt( "DATA_TYPE" );
+            if ( type == Types.BIGINT || type == Types.INTEGER || type == Types.SMALLINT || type == Types.TINYINT )
+            {
+                return key;
+            }
+            return null;
+        }
+        finally
+        {
+            columns.close();
+        }
+    }
+
+    /**
+     * Ask the driver to stream a large result rather than read it all into memory - MySQL only does this for
+     * forward only, read only statements with a fetch size of Integer.MIN_VALUE.
+     */
+    static Statement createStreamingStatement( Connection conn )
+        throws SQLException
+    {
+        Statement statement = conn.createStatement( ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+        statement.setFetchSize( isMySQL( conn ) ? Integer.MIN_VALUE : FETCH_SIZE );
+        return statement;
+    }
+
+    /**
+     * Turn foreign key checking on or off for the whole database so tables can be cleared and loaded in any order.
+     * In H2 this is a database setting; MySQL only has a connection setting so see setConnectionForeignKeyChecks.
+     */
+    static void setDatabaseForeignKeyChecks( Connection conn, boolean enabled )
+        throws SQLException
+    {
+        if ( isH2( conn ) )
+        {
+            execute( conn, "SET REFERENTIAL_INTEGRITY " + ( enabled ? "TRUE" : "FALSE" ) );
+        }
+    }
+
+    /**
+     * Turn foreign key checking on or off for a single connection, which must be turned back on before the
+     * connection is returned to the pool.
+     */
+    static void setConnectionForeignKeyChecks( Connection conn, boolean enabled )
+        throws SQLException
+    {
+        if ( isMySQL( conn ) )
+        {
+            execute( conn, "SET FOREIGN_KEY_CHECKS=" + ( enabled ? "1" : "0" ) );
+        }
+    }
+
+    private static void execute( Connection conn, String sql )
+        throws SQLException
+    {
+        Statement statement = conn.createStatement();
+        try
+        {
+            statement.execute( sql );
+        }
+        finally
+        {
+            statement.close();
+        }
+    }
+}
@@ -22,6 +22,7 @@ import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.api.SearchResult;
 import org.headsupdev.agile.storage.hibernate.IdProjectBridge;
 import org.headsupdev.agile.storage.hibernate.IdProjectId;
+import org.headsupdev.agile.storage.hibernate.ProjectFieldBridge;
 
 import javax.persistence.*;
 import java.util.Date;
@@ -30,6 +31,9 @@ import java.util.HashSet;
 import java.io.Serializable;
 
 import org.hibernate.search.annotations.Indexed;
+import org.hibernate.search.annotations.ClassBridge;
+import org.hibernate.search.annotations.Index;
+import org.hibernate.search.annotations.Store;
 import org.hibernate.search.annotations.FieldBridge;
 import org.hibernate.search.annotations.Field;
 import org.hibernate.search.annotations.DocumentId;
@@ -45,6 +49,8 @@ import org.hibernate.search.annotations.DocumentId;
 @Entity
 @Table( name = "Builds" )
 @Indexed( index = "Builds" )
+@ClassBridge( name = ProjectFieldBridge.FIELD_NAME, index = Index.UN_TOKENIZED, store = Store.NO,
+        impl = ProjectFieldBridge.class )
 public class Build
     implements Serializable, SearchResult
 {
@@ -75,6 +81,9 @@ public class Build
     private Integer failures = 0;
     private Integer errors = 0;
 
+    // time spent in each phase of the build, in milliseconds
+    private Long prepareTime, buildTime, cleanupTime;
+
     Build()
     {
     }
@@ -155,6 +164,45 @@ public class Build
         this.endTime = endTime;
     }
 
+    /**
+     * @return the time taken to prepare the build workspace, in milliseconds
+     */
+    public long getPrepareTime()
+    {
+        return prepareTime == null ? 0 : prepareTime;
+    }
+
+    public void setPrepareTime( long prepareTime )
+    {
+        this.prepareTime = prepareTime;
+    }
+
+    /**
+     * @return the time taken running the build tool and parsing results, in milliseconds
+     */
+    public long getBuildTime()
+    {
+        return buildTime == null ? 0 : buildTime;
+    }
+
+    public void setBuildTime( long buildTime )
+    {
+        this.buildTime = buildTime;
+    }
+
+    /**
+     * @return the time taken notifying of the result and cleaning the workspace, in milliseconds
+     */
+    public long getCleanupTime()
+    {
+        return cleanupTime == null ? 0 : cleanupTime;
+    }
+
+    public void setCleanupTime( long cleanupTime )
+    {
+        this.cleanupTime = cleanupTime;
+    }
+
     public Set<TestResultSet> getTestResults()
     {
         return testResults;
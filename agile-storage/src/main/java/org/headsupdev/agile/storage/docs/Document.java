@@ -21,6 +21,7 @@ package org.headsupdev.agile.storage.docs;
 import org.headsupdev.agile.api.*;
 import org.headsupdev.agile.storage.hibernate.NameProjectBridge;
 import org.headsupdev.agile.storage.hibernate.NameProjectId;
+import org.headsupdev.agile.storage.hibernate.ProjectFieldBridge;
 import org.headsupdev.agile.storage.StoredUser;
 import org.headsupdev.agile.storage.Comment;
 import org.headsupdev.agile.storage.Attachment;
@@ -44,6 +45,8 @@ import org.hibernate.search.annotations.*;
 @Entity
 @Table( name = "Documents" )
 @Indexed( index = "Documents" )
+@ClassBridge( name = ProjectFieldBridge.FIELD_NAME, index = Index.UN_TOKENIZED, store = Store.NO,
+        impl = ProjectFieldBridge.class )
 public class Document
     implements Serializable, SearchResult, Comparable<Document>
 {
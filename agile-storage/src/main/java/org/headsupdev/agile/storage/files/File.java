@@ -23,13 +23,17 @@ import org.headsupdev.agile.api.SearchResult;
 import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.storage.hibernate.NameProjectBridge;
 import org.headsupdev.agile.storage.hibernate.NameProjectId;
+import org.headsupdev.agile.storage.hibernate.ProjectFieldBridge;
 import org.headsupdev.agile.api.mime.Mime;
+import org.headsupdev.agile.api.service.ChangeSet;
 
 import javax.persistence.*;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.Date;
 
+import org.hibernate.annotations.Type;
 import org.hibernate.search.annotations.*;
 
 /**
@@ -42,6 +46,8 @@ import org.hibernate.search.annotations.*;
 @Entity
 @Table( name = "Files" )
 @Indexed( index = "Files" )
+@ClassBridge( name = ProjectFieldBridge.FIELD_NAME, index = Index.UN_TOKENIZED, store = Store.NO,
+        impl = ProjectFieldBridge.class )
 public class File
     implements Serializable, SearchResult
 {
@@ -54,6 +60,18 @@ public class File
     @Field
     String revision;
 
+    // the containing directory and a copy of the last change so a directory can be listed in a single query
+    @org.hibernate.annotations.Index( name = "fileParentIndex" )
+    String parent;
+
+    String author;
+
+    @Type( type = "text" )
+    String comment;
+
+    @Temporal( TemporalType.TIMESTAMP )
+    Date modified;
+
     public File()
     {
     }
@@ -62,6 +80,28 @@ public class File
     {
         this.name = new NameProjectId( path, project );
         this.revision = revision;
+        this.parent = getParentPath( path );
+    }
+
+    public File( String path, ChangeSet change, String revision, Project project )
+    {
+        this( path, revision, project );
+
+        setLastChange( change );
+    }
+
+    /**
+     * Work out the directory that a path is listed in - top level files have a parent of "".
+     */
+    public static String getParentPath( String path )
+    {
+        String parent = new java.io.File( path ).getParent();
+        if ( parent == null )
+        {
+            return "";
+        }
+
+        return parent;
     }
 
     public Project getProject()
@@ -79,6 +119,46 @@ public class File
         return revision;
     }
 
+    public String getParent()
+    {
+        return parent;
+    }
+
+    public String getAuthor()
+    {
+        return author;
+    }
+
+    public String getComment()
+    {
+        return comment;
+    }
+
+    public Date getModified()
+    {
+        return modified;
+    }
+
+    /**
+     * Copy the details of the change that last touched this file, also filling in the parent if it is missing.
+     *
+     * @param change The last change to this file, or null if it is not known
+     */
+    public void setLastChange( ChangeSet change )
+    {
+        if ( parent == null )
+        {
+            parent = getParentPath( getName() );
+        }
+
+        if ( change != null )
+        {
+            author = change.getAuthor();
+            comment = change.getComment();
+            modified = change.getDate();
+        }
+    }
+
     public String getIconPath() {
         java.io.File path = Manager.getStorageInstance().getWorkingDirectory( getProject() );
         java.io.File file = new java.io.File( path, getName() );
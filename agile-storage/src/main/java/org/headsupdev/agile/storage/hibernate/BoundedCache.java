@@ -0,0 +1,137 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.Timestamper;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A simple in memory cache region that holds at most a fixed number of entries, dropping the least recently used.
+ * A maximum of 0 means the region is unbounded.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class BoundedCache
+    implements Cache
+{
+    private final String regionName;
+    private final Map<Object, Object> entries;
+
+    public BoundedCache( String regionName, final int maxEntries )
+    {
+        this.regionName = regionName;
+        this.entries = new LinkedHashMap<Object, Object>( 16, 0.75f, true )
+        {
+            protected boolean removeEldestEntry( Map.Entry<Object, Object> eldest )
+            {
+                return maxEntries > 0 && size() > maxEntries;
+            }
+        };
+    }
+
+    public synchronized Object read( Object key )
+    {
+        return entries.get( key );
+    }
+
+    public synchronized Object get( Object key )
+    {
+        return entries.get( key );
+    }
+
+    public synchronized void put( Object key, Object value )
+    {
+        entries.put( key, value );
+    }
+
+    public synchronized void update( Object key, Object value )
+    {
+        entries.put( key, value );
+    }
+
+    public synchronized void remove( Object key )
+    {
+        entries.remove( key );
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    public void destroy()
+    {
+        clear();
+    }
+
+    public void lock( Object key )
+    {
+        // the read-write strategy does its own locking
+    }
+
+    public void unlock( Object key )
+    {
+    }
+
+    public long nextTimestamp()
+    {
+        return Timestamper.next();
+    }
+
+    public int getTimeout()
+    {
+        return Timestamper.ONE_MS * 60000;
+    }
+
+    public String getRegionName()
+    {
+        return regionName;
+    }
+
+    public long getSizeInMemory()
+    {
+        return -1;
+    }
+
+    public synchronized long getElementCountInMemory()
+    {
+        return entries.size();
+    }
+
+    public long getElementCountOnDisk()
+    {
+        return 0;
+    }
+
+    public synchronized Map toMap()
+    {
+        return new HashMap<Object, Object>( entries );
+    }
+
+    public String toString()
+    {
+        return "BoundedCache(" + regionName + ")";
+    }
+}
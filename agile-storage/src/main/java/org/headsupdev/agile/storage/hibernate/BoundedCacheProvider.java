@@ -0,0 +1,141 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.CacheProvider;
+import org.hibernate.cache.Timestamper;
+import org.hibernate.cache.UpdateTimestampsCache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A second level cache provider backed by BoundedCache regions.
+ * Regions are shared by name across session factories - we rebuild the factory whenever an application is added
+ * and sessions from the older factory must still invalidate the entries that the new one reads.
+ * The update timestamps region is never bounded as evicting from it would let the query cache return stale results.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class BoundedCacheProvider
+    implements CacheProvider
+{
+    public static final String MAX_ENTRIES = "hibernate.cache.max_entries";
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final Map<String, BoundedCache> regions = new HashMap<String, BoundedCache>();
+
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    public Cache buildCache( String regionName, Properties properties )
+        throws CacheException
+    {
+        synchronized ( regions )
+        {
+            BoundedCache cache = regions.get( regionName );
+            if ( cache == null )
+            {
+                int max = maxEntries;
+                if ( UpdateTimestampsCache.REGION_NAME.equals( regionName ) )
+                {
+                    max = 0;
+                }
+
+                cache = new BoundedCache( regionName, max );
+                regions.put( regionName, cache );
+            }
+
+            return cache;
+        }
+    }
+
+    public long nextTimestamp()
+    {
+        return Timestamper.next();
+    }
+
+    public void start( Properties properties )
+        throws CacheException
+    {
+        String max = properties.getProperty( MAX_ENTRIES );
+        if ( max != null )
+        {
+            try
+            {
+                maxEntries = Integer.parseInt( max.trim() );
+            }
+            catch ( NumberFormatException e )
+            {
+                throw new CacheException( "Invalid value for " + MAX_ENTRIES + ": " + max );
+            }
+        }
+    }
+
+    public void stop()
+    {
+        // regions are shared with other factories, they are cleared when the storage shuts down
+    }
+
+    public boolean isMinimalPutsEnabledByDefault()
+    {
+        return false;
+    }
+
+    /**
+     * @return the number of entries held across all cache regions
+     */
+    public static long getElementCount()
+    {
+        long count = 0;
+        synchronized ( regions )
+        {
+            for ( BoundedCache cache : regions.values() )
+            {
+                count += cache.getElementCountInMemory();
+            }
+        }
+
+        return count;
+    }
+
+    public static int getRegionCount()
+    {
+        synchronized ( regions )
+        {
+            return regions.size();
+        }
+    }
+
+    public static void clearAll()
+    {
+        synchronized ( regions )
+        {
+            for ( BoundedCache cache : regions.values() )
+            {
+                cache.clear();
+            }
+            regions.clear();
+        }
+    }
+}
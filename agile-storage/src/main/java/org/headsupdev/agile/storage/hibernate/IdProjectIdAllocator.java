@@ -0,0 +1,352 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.storage.HibernateUtil;
+
+import org.hibernate.HibernateException;
+import org.hibernate.LockMode;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.exception.ConstraintViolationException;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hands out IdProjectId ids for new entities. Rather than querying for max(id) on every save we reserve a block
+ * of ids per entity type and project from a StoredIdSequence row and hand them out from memory.
+ * Each block is committed in its own transaction before any id is used, so a crash can leave a gap but will never
+ * reuse an id. On a clean shutdown the unused part of each block is handed back.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class IdProjectIdAllocator
+{
+    public static final int DEFAULT_BLOCK_SIZE = 10;
+
+    private final int blockSize;
+
+    private final ConcurrentMap<String, IdBlock> blocks = new ConcurrentHashMap<String, IdBlock>();
+    private final ConcurrentMap<Class, Field> idFields = new ConcurrentHashMap<Class, Field>();
+    private final ConcurrentMap<Class, Boolean> unmanagedClasses = new ConcurrentHashMap<Class, Boolean>();
+
+    public IdProjectIdAllocator()
+    {
+        this( DEFAULT_BLOCK_SIZE );
+    }
+
+    public IdProjectIdAllocator( int blockSize )
+    {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * If the object passed has an IdProjectId that has not yet been assigned then allocate it the next id.
+     *
+     * @param saving The entity that is about to be saved
+     * @param session The session that the entity will be saved in, used to seed new sequences
+     * @return true if an id was allocated, false if this entity does not need one
+     */
+    public boolean assignId( Object saving, Session session )
+    {
+        Field field = getIdField( saving.getClass() );
+        if ( field == null )
+        {
+            return false;
+        }
+
+        Object value;
+        try
+        {
+            value = field.get( saving );
+        }
+        catch ( IllegalAccessException e )
+        {
+            throw new HibernateException( "Unable to read id of " + saving.getClass().getName(), e );
+        }
+
+        if ( !( value instanceof IdProjectId ) )
+        {
+            return false;
+        }
+
+        IdProjectId id = (IdProjectId) value;
+        if ( id.id != 0 )
+        {
+            return false;
+        }
+
+        id.id = nextId( saving.getClass(), id.project, session );
+        return true;
+    }
+
+    public long nextId( Class type, Project project, Session session )
+    {
+        String name = getSequenceName( type, project );
+
+        IdBlock block = blocks.get( name );
+        if ( block == null )
+        {
+            block = new IdBlock();
+            IdBlock existing = blocks.putIfAbsent( name, block );
+            if ( existing != null )
+            {
+                block = existing;
+            }
+        }
+
+        synchronized ( block )
+        {
+            if ( block.next >= block.limit )
+            {
+                block.next = reserveBlock( name, type, project, blockSize, session );
+                block.limit = block.next + blockSize;
+            }
+
+            return block.next++;
+        }
+    }
+
+    /**
+     * Hand back any ids that have been reserved but not used so the sequences continue without a gap.
+     * This should only be called once no more entities will be saved.
+     */
+    public void releaseUnused()
+    {
+        for ( Map.Entry<String, IdBlock> entry : blocks.entrySet() )
+        {
+            IdBlock block = entry.getValue();
+            synchronized ( block )
+            {
+                if ( block.next < block.limit )
+                {
+                    try
+                    {
+                        releaseBlock( entry.getKey(), block.next, block.limit );
+                        block.limit = block.next;
+                    }
+                    catch ( RuntimeException e )
+                    {
+                        // not fatal, we will just skip the unused ids
+                        Manager.getLogger( getClass().getName() ).error( "Unable to release ids for " + entry.getKey(), e );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget the ids reserved by this allocator without releasing them, for when the sequences have been replaced.
+     * The next id allocated for each sequence will reserve a new block.
+     */
+    public void reset()
+    {
+        for ( IdBlock block : blocks.values() )
+        {
+            synchronized ( block )
+            {
+                block.next = 0;
+                block.limit = 0;
+            }
+        }
+    }
+
+    /**
+     * Reserve the next block of ids for the named sequence, creating it if it does not yet exist.
+     * The change to the sequence is committed in a separate session so it is durable before any id is used.
+     *
+     * @return the first id in the newly reserved block
+     */
+    protected long reserveBlock( String name, Class type, Project project, int size, Session current )
+    {
+        for ( int attempt = 0; ; attempt++ )
+        {
+            Long start = advanceSequence( name, size );
+            if ( start != null )
+            {
+                return start;
+            }
+
+            // A missing row cannot be locked, so two first time callers can both get here.
+            // Only one insert can succeed, the other fails on the primary key and takes a block from the new row
+            long first = getMaxId( type, project, current ) + 1;
+            try
+            {
+                createSequence( name, first + size );
+                return first;
+            }
+            catch ( ConstraintViolationException e )
+            {
+                if ( attempt > 0 )
+                {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the named sequence on by size ids, returning the first id of the block or null if there is no sequence.
+     */
+    private Long advanceSequence( String name, int size )
+    {
+        Session session = openSession();
+        Transaction tx = session.beginTransaction();
+        try
+        {
+            StoredIdSequence sequence = (StoredIdSequence) session.get( StoredIdSequence.class, name, LockMode.UPGRADE );
+            if ( sequence == null )
+            {
+                tx.commit();
+                return null;
+            }
+
+            long start = sequence.getNextId();
+            sequence.setNextId( start + size );
+            tx.commit();
+
+            return start;
+        }
+        catch ( RuntimeException e )
+        {
+            tx.rollback();
+            throw e;
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    private void createSequence( String name, long nextId )
+    {
+        Session session = openSession();
+        Transaction tx = session.beginTransaction();
+        try
+        {
+            session.save( new StoredIdSequence( name, nextId ) );
+            tx.commit();
+        }
+        catch ( RuntimeException e )
+        {
+            tx.rollback();
+            throw e;
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    /**
+     * Return the unused ids [next, limit) to the named sequence, but only if no later block has been taken since.
+     */
+    protected void releaseBlock( String name, long next, long limit )
+    {
+        Session session = openSession();
+        Transaction tx = session.beginTransaction();
+        try
+        {
+            StoredIdSequence sequence = (StoredIdSequence) session.get( StoredIdSequence.class, name, LockMode.UPGRADE );
+            if ( sequence != null && sequence.getNextId() == limit )
+            {
+                sequence.setNextId( next );
+            }
+            tx.commit();
+        }
+        catch ( RuntimeException e )
+        {
+            tx.rollback();
+            throw e;
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    /**
+     * Find the largest id already in use - only needed when a sequence is first created for existing data.
+     * We use the caller's session so that rows it has saved but not yet committed are visible.
+     */
+    protected long getMaxId( Class type, Project project, Session session )
+    {
+        Long max = (Long) session.createQuery( "select max(id.id) from " + type.getName() +
+                " where id.project.id = :pid" ).setString( "pid", project.getId() ).uniqueResult();
+
+        if ( max == null )
+        {
+            return 0;
+        }
+        return max;
+    }
+
+    /**
+     * Open the session that sequences are read and updated in, separate from any session saving entities.
+     */
+    protected Session openSession()
+    {
+        return HibernateUtil.openSession();
+    }
+
+    protected String getSequenceName( Class type, Project project )
+    {
+        return type.getName() + ":" + project.getId();
+    }
+
+    private Field getIdField( Class type )
+    {
+        Field field = idFields.get( type );
+        if ( field != null || unmanagedClasses.containsKey( type ) )
+        {
+            return field;
+        }
+
+        try
+        {
+            field = type.getDeclaredField( "id" );
+            if ( !IdProjectId.class.isAssignableFrom( field.getType() ) )
+            {
+                unmanagedClasses.put( type, Boolean.TRUE );
+                return null;
+            }
+
+            field.setAccessible( true );
+            idFields.put( type, field );
+        }
+        catch ( NoSuchFieldException e )
+        {
+            unmanagedClasses.put( type, Boolean.TRUE );
+        }
+
+        return field;
+    }
+
+    private static class IdBlock
+    {
+        long next, limit;
+    }
+}
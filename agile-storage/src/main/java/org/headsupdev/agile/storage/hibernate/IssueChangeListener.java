@@ -0,0 +1,212 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.storage.issues.DurationWorked;
+import org.headsupdev.agile.storage.issues.Issue;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.event.*;
+import org.hibernate.proxy.HibernateProxy;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks changes to issues and the time logged against them so that calculations cached from them can tell when
+ * they are out of date.
+ * Each change moves a global sequence on and records the new value against the issue, once the transaction has
+ * committed. Only the most recently changed issues are tracked, older entries are dropped and treated as having
+ * changed at the newest version dropped.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class IssueChangeListener
+    implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener
+{
+    private static final int MAX_TRACKED_ISSUES = 10000;
+
+    private static final AtomicLong version = new AtomicLong();
+    private static final ConcurrentMap<String, Long> issueVersions = new ConcurrentHashMap<String, Long>();
+    private static volatile long pruned = 0;
+
+    /**
+     * A version that moves on whenever any issue or time worked changes.
+     */
+    public static long getVersion()
+    {
+        return version.get();
+    }
+
+    public static long getIssueVersion( String issueKey )
+    {
+        Long ret = issueVersions.get( issueKey );
+        if ( ret == null )
+        {
+            return pruned;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Find the issues that have changed since the version passed in.
+     *
+     * @param since The value of getVersion() when the caller last looked
+     * @return the keys of all issues changed since that version, or null if changes that old are no longer tracked
+     */
+    public static Set<String> getIssuesChangedSince( long since )
+    {
+        if ( since < pruned )
+        {
+            return null;
+        }
+
+        Set<String> ret = new HashSet<String>();
+        for ( Map.Entry<String, Long> entry : issueVersions.entrySet() )
+        {
+            if ( entry.getValue() > since )
+            {
+                ret.add( entry.getKey() );
+            }
+        }
+
+        return ret;
+    }
+
+    public static String getIssueKey( IdProjectId id )
+    {
+        return getIssueKey( id.getProject().getId(), id.getId() );
+    }
+
+    public static String getIssueKey( String projectId, long issueId )
+    {
+        return projectId + ":" + issueId;
+    }
+
+    /**
+     * Add a listener to the configuration for the entity events that we need.
+     */
+    public static void register( Configuration config )
+    {
+        HibernateUtil.addEventListener( config, new IssueChangeListener() );
+    }
+
+    public void onPostInsert( PostInsertEvent event )
+    {
+        changed( event.getEntity(), event.getSession() );
+    }
+
+    public void onPostUpdate( PostUpdateEvent event )
+    {
+        changed( event.getEntity(), event.getSession() );
+    }
+
+    public void onPostDelete( PostDeleteEvent event )
+    {
+        changed( event.getEntity(), event.getSession() );
+    }
+
+    private void changed( Object entity, EventSource session )
+    {
+        Object issue;
+        if ( entity instanceof DurationWorked )
+        {
+            issue = ( (DurationWorked) entity ).getIssue();
+        }
+        else if ( entity instanceof Issue )
+        {
+            issue = entity;
+        }
+        else
+        {
+            return;
+        }
+
+        IdProjectId id;
+        if ( issue instanceof HibernateProxy )
+        {
+            // don't load the issue just to find its id
+            id = (IdProjectId) ( (HibernateProxy) issue ).getHibernateLazyInitializer().getIdentifier();
+        }
+        else if ( issue != null )
+        {
+            id = ( (Issue) issue ).getInternalId();
+        }
+        else
+        {
+            return;
+        }
+
+        final String key = getIssueKey( id );
+        HibernateUtil.afterCommit( session, new Runnable()
+        {
+            public void run()
+            {
+                increment( key );
+            }
+        } );
+    }
+
+    private static void increment( String key )
+    {
+        long next = version.incrementAndGet();
+        issueVersions.put( key, next );
+
+        if ( issueVersions.size() > MAX_TRACKED_ISSUES )
+        {
+            prune( next - MAX_TRACKED_ISSUES / 2 );
+        }
+    }
+
+    /**
+     * Treat every issue as changed, for when the data has been replaced without going through hibernate.
+     */
+    public static void invalidateAll()
+    {
+        prune( version.incrementAndGet() );
+    }
+
+    /**
+     * Forget the issues that have not changed since the version passed.
+     */
+    private static synchronized void prune( long upTo )
+    {
+        if ( upTo <= pruned )
+        {
+            return;
+        }
+
+        // raise the floor first so an issue is never missing without being reported as changed
+        pruned = upTo;
+        for ( Map.Entry<String, Long> entry : issueVersions.entrySet() )
+        {
+            if ( entry.getValue() <= upTo )
+            {
+                issueVersions.remove( entry.getKey(), entry.getValue() );
+            }
+        }
+    }
+}
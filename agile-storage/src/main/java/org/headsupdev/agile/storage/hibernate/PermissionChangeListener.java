@@ -0,0 +1,169 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.storage.StoredProject;
+import org.headsupdev.agile.storage.StoredRole;
+import org.headsupdev.agile.storage.StoredUser;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.event.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks changes that affect permission decisions so that compiled permissions can tell when they are out of date.
+ * Role changes and project additions or removals move the global version on, changes to a user (including their
+ * role and project collections) move just that user's version on.
+ * Versions only change once the transaction has committed so other threads never compile from data they cannot
+ * see yet.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class PermissionChangeListener
+    implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener,
+        PostCollectionRecreateEventListener, PostCollectionUpdateEventListener, PostCollectionRemoveEventListener
+{
+    private static final AtomicLong globalVersion = new AtomicLong();
+    private static final AtomicLong usersVersion = new AtomicLong();
+    private static final ConcurrentMap<String, AtomicLong> userVersions = new ConcurrentHashMap<String, AtomicLong>();
+    // the version of users that have not changed since startup, raised when everything is invalidated
+    private static final AtomicLong unchangedUserVersion = new AtomicLong();
+
+    public static long getGlobalVersion()
+    {
+        return globalVersion.get();
+    }
+
+    /**
+     * A version that moves on whenever any user changes, for caches built from all users.
+     */
+    public static long getUsersVersion()
+    {
+        return usersVersion.get();
+    }
+
+    public static long getUserVersion( String username )
+    {
+        AtomicLong version = userVersions.get( username );
+        if ( version == null )
+        {
+            return unchangedUserVersion.get();
+        }
+
+        return version.get();
+    }
+
+    /**
+     * Move every version on, for when the data has been replaced without going through hibernate.
+     */
+    public static void invalidateAll()
+    {
+        globalVersion.incrementAndGet();
+        usersVersion.incrementAndGet();
+        unchangedUserVersion.incrementAndGet();
+        for ( AtomicLong version : userVersions.values() )
+        {
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Add a listener to the configuration for each of the entity and collection events that we need.
+     */
+    public static void register( Configuration config )
+    {
+        HibernateUtil.addEventListener( config, new PermissionChangeListener() );
+    }
+
+    public void onPostInsert( PostInsertEvent event )
+    {
+        changed( event.getEntity(), true, event.getSession() );
+    }
+
+    public void onPostUpdate( PostUpdateEvent event )
+    {
+        changed( event.getEntity(), false, event.getSession() );
+    }
+
+    public void onPostDelete( PostDeleteEvent event )
+    {
+        changed( event.getEntity(), true, event.getSession() );
+    }
+
+    public void onPostRecreateCollection( PostCollectionRecreateEvent event )
+    {
+        changed( event.getAffectedOwnerOrNull(), false, event.getSession() );
+    }
+
+    public void onPostUpdateCollection( PostCollectionUpdateEvent event )
+    {
+        changed( event.getAffectedOwnerOrNull(), false, event.getSession() );
+    }
+
+    public void onPostRemoveCollection( PostCollectionRemoveEvent event )
+    {
+        changed( event.getAffectedOwnerOrNull(), false, event.getSession() );
+    }
+
+    private void changed( Object entity, boolean projectsChanging, EventSource session )
+    {
+        if ( entity instanceof StoredRole || ( projectsChanging && entity instanceof StoredProject ) )
+        {
+            afterCommit( session, null );
+        }
+        else if ( entity instanceof StoredUser )
+        {
+            afterCommit( session, ( (StoredUser) entity ).getUsername() );
+        }
+    }
+
+    private void afterCommit( EventSource session, final String username )
+    {
+        HibernateUtil.afterCommit( session, new Runnable()
+        {
+            public void run()
+            {
+                increment( username );
+            }
+        } );
+    }
+
+    private static void increment( String username )
+    {
+        if ( username == null )
+        {
+            globalVersion.incrementAndGet();
+            return;
+        }
+
+        usersVersion.incrementAndGet();
+        AtomicLong version = userVersions.get( username );
+        if ( version == null )
+        {
+            userVersions.putIfAbsent( username, new AtomicLong( unchangedUserVersion.get() ) );
+            version = userVersions.get( username );
+        }
+        version.incrementAndGet();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.headsupdev.agile.api.Project;
+import org.hibernate.search.bridge.FieldBridge;
+import org.hibernate.search.bridge.LuceneOptions;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A class bridge that indexes the id of the project an object belongs to, so that searches can be restricted to
+ * a project inside the index. Projects index their own id, other objects are asked via their getProject() method.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ProjectFieldBridge
+    implements FieldBridge
+{
+    public static final String FIELD_NAME = "projectId";
+
+    private static final Map<Class, Method> getters = new ConcurrentHashMap<Class, Method>();
+
+    public void set( String name, Object value, Document document, LuceneOptions options )
+    {
+        Project project = getProject( value );
+        if ( project == null || project.getId() == null )
+        {
+            return;
+        }
+
+        document.add( new Field( name, project.getId(), options.getStore(), options.getIndex() ) );
+    }
+
+    static Project getProject( Object value )
+    {
+        if ( value == null )
+        {
+            return null;
+        }
+        if ( value instanceof Project )
+        {
+            return (Project) value;
+        }
+
+        try
+        {
+            Method getter = getters.get( value.getClass() );
+            if ( getter == null )
+            {
+                getter = value.getClass().getMethod( "getProject" );
+                getters.put( value.getClass(), getter );
+            }
+
+            return (Project) getter.invoke( value );
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+    }
+}
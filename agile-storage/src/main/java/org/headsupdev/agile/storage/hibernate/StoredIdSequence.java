@@ -0,0 +1,66 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.hibernate;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * A persistent counter holding the next free IdProjectId id for a single entity type and project.
+ * The value stored is always past the end of any block that has been handed out so ids are never reused.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+@Entity
+@Table( name = "IdSequences" )
+public class StoredIdSequence
+{
+    @Id
+    private String name;
+
+    private long nextId;
+
+    protected StoredIdSequence()
+    {
+    }
+
+    public StoredIdSequence( String name, long nextId )
+    {
+        this.name = name;
+        this.nextId = nextId;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getNextId()
+    {
+        return nextId;
+    }
+
+    public void setNextId( long nextId )
+    {
+        this.nextId = nextId;
+    }
+}
@@ -24,13 +24,17 @@ import org.headsupdev.agile.storage.Comment;
 import org.headsupdev.agile.storage.DurationWorkedUtil;
 import org.headsupdev.agile.storage.hibernate.NameProjectBridge;
 import org.headsupdev.agile.storage.hibernate.NameProjectId;
+import org.headsupdev.agile.storage.hibernate.ProjectFieldBridge;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Type;
+import org.hibernate.search.annotations.ClassBridge;
 import org.hibernate.search.annotations.DocumentId;
 import org.hibernate.search.annotations.Field;
 import org.hibernate.search.annotations.FieldBridge;
 import org.hibernate.search.annotations.Index;
 import org.hibernate.search.annotations.Indexed;
 import org.hibernate.search.annotations.IndexedEmbedded;
+import org.hibernate.search.annotations.Store;
 
 import javax.persistence.EmbeddedId;
 import javax.persistence.Entity;
@@ -53,6 +57,8 @@ import java.util.Set;
 @Entity
 @Table(name = "Milestones")
 @Indexed(index = "Milestones")
+@ClassBridge(name = ProjectFieldBridge.FIELD_NAME, index = Index.UN_TOKENIZED, store = Store.NO, impl = ProjectFieldBridge.class)
+@org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Milestone
         implements Serializable, SearchResult
 {
@@ -0,0 +1,180 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import org.headsupdev.agile.storage.ci.TestResult;
+import org.headsupdev.agile.storage.ci.TestResultSet;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A benchmark of storing a large commit (10,000 changed files) and a large test run (50,000 results) through
+ * HibernateStorage - saving each entity in its own transaction compared to saveAll and insertAll, as used by the
+ * test report parser. The commit is saved the way the SCM importer now does it, with the change set saved before its
+ * changes so each change is inserted with its foreign key.
+ * It is not run as part of the test suite, run the main method with an optional JDBC url, username and password
+ * (defaults to an in memory H2 database). For MySQL pass a url with rewriteBatchedStatements=true.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class BulkInsertBenchmark
+{
+    private static final int FILES = 10000;
+    private static final int TESTS = 50000;
+    private static final int TESTS_PER_SUITE = 50;
+
+    private static int commits = 0;
+
+    public static void main( String[] args )
+        throws Exception
+    {
+        String url = "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1";
+        String username = "sa", password = "";
+        if ( args.length > 0 )
+        {
+            url = args[0];
+        }
+        if ( args.length > 2 )
+        {
+            username = args[1];
+            password = args[2];
+        }
+
+        if ( url.startsWith( "jdbc:mysql" ) )
+        {
+            HibernateUtil.properties.setProperty( "headsup.db.driver", "com.mysql.jdbc.Driver" );
+            HibernateUtil.properties.setProperty( "headsup.db.dialect", "org.hibernate.dialect.MySQLDialect" );
+        }
+        else
+        {
+            HibernateUtil.properties.setProperty( "headsup.db.driver", "org.h2.Driver" );
+            HibernateUtil.properties.setProperty( "headsup.db.dialect", "org.hibernate.dialect.H2Dialect" );
+        }
+        HibernateUtil.properties.setProperty( "headsup.db.url", url );
+        HibernateUtil.properties.setProperty( "headsup.db.username", username );
+        HibernateUtil.properties.setProperty( "headsup.db.password", password );
+
+        HibernateStorage storage = new HibernateStorage();
+        try
+        {
+            StoredProject project = new StoredProject( "benchmark", "Benchmark" );
+            storage.save( project );
+            storage.closeSession();
+
+            System.out.println( "Benchmarking " + url + " with a JDBC batch size of " + HibernateUtil.getBatchSize() );
+            System.out.println( "Commit with " + FILES + " files:" );
+            System.out.println( "  save per row: " + saveChanges( storage, project, false ) + "ms" );
+            System.out.println( "  saveAll:      " + saveChanges( storage, project, true ) + "ms" );
+
+            System.out.println( "Build with " + TESTS + " tests:" );
+            System.out.println( "  save per row:        " + saveResults( storage, false ) + "ms" );
+            System.out.println( "  insertAll, saveAll:  " + saveResults( storage, true ) + "ms" );
+        }
+        finally
+        {
+            HibernateUtil.shutdown();
+        }
+    }
+
+    private static long saveChanges( HibernateStorage storage, StoredProject project, boolean batched )
+    {
+        ScmChangeSet set = new ScmChangeSet( "benchmark", "A large commit", new Date( ++commits ), project );
+        storage.save( set );
+
+        List<ScmChange> changes = new ArrayList<ScmChange>( FILES );
+        for ( int i = 0; i < FILES; i++ )
+        {
+            changes.add( new ScmChange( "src/main/java/org/example/module" + ( i % 100 ) + "/File" + i + ".java",
+                "1234", ScmChange.TYPE_CHANGED, "@@ -1,3 +1,4 @@\n+// changed\n", set ) );
+        }
+
+        long start = System.currentTimeMillis();
+        if ( batched )
+        {
+            storage.saveAll( changes );
+        }
+        else
+        {
+            for ( ScmChange change : changes )
+            {
+                storage.save( change );
+            }
+        }
+        long time = System.currentTimeMillis() - start;
+
+        storage.closeSession();
+        return time;
+    }
+
+    private static long saveResults( HibernateStorage storage, boolean batched )
+    {
+        List<TestResult> results = new ArrayList<TestResult>( TESTS );
+        List<TestResultSet> sets = new ArrayList<TestResultSet>();
+        for ( int i = 0; i < TESTS; i++ )
+        {
+            if ( i % TESTS_PER_SUITE == 0 )
+            {
+                TestResultSet set = new TestResultSet( "org.example.Suite" + sets.size() + "Test", null );
+                set.setTests( TESTS_PER_SUITE );
+                sets.add( set );
+            }
+            results.add( new TestResult( "testCase" + i, TestResult.STATUS_PASSED, i % 1000, null, null ) );
+        }
+
+        long start = System.currentTimeMillis();
+        // the old parser saved each result then each set in their own transactions
+        if ( batched )
+        {
+            storage.insertAll( results );
+        }
+        else
+        {
+            for ( TestResult result : results )
+            {
+                storage.save( result );
+            }
+        }
+
+        // results are equal by id so they go into their sets once they are saved
+        for ( int i = 0; i < sets.size(); i++ )
+        {
+            sets.get( i ).getResults().addAll( results.subList( i * TESTS_PER_SUITE, ( i + 1 ) * TESTS_PER_SUITE ) );
+        }
+
+        if ( batched )
+        {
+            storage.saveAll( sets );
+        }
+        else
+        {
+            for ( TestResultSet set : sets )
+            {
+                storage.save( set );
+            }
+        }
+        long time = System.currentTimeMillis() - start;
+
+        storage.closeSession();
+        return time;
+    }
+}
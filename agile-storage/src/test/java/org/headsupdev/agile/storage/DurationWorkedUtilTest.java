@@ -25,11 +25,14 @@ import org.headsupdev.agile.api.User;
 import org.headsupdev.agile.storage.issues.Duration;
 import org.headsupdev.agile.storage.issues.DurationWorked;
 import org.headsupdev.agile.storage.issues.Issue;
+import org.headsupdev.support.java.DateUtil;
 import junit.framework.TestCase;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -315,6 +318,54 @@ public class DurationWorkedUtilTest
     }
 
 
+    public void testMilestoneSeriesMatchesDailyCalculation()
+            throws Exception
+    {
+        Issue issue = new Issue( getProject( "true" ) );
+        Calendar calendar = Calendar.getInstance();
+        calendar.set( Calendar.YEAR, 2012 );
+        calendar.set( Calendar.MONTH, 2 );
+        calendar.set( Calendar.DAY_OF_MONTH, 28 );
+        issue.setCreated( calendar.getTime() );
+        issue.setTimeEstimate( new Duration( 8 ) );
+        issue.setIncludeInInitialEstimates( false );
+
+        int[] offsets = { 3, -2, 1, 2, 5 };
+        double[] required = { 1, 7, 6, 4, 0 };
+        for ( int i = 0; i < offsets.length; i++ )
+        {
+            DurationWorked durationWorked = new DurationWorked();
+            durationWorked.setWorked( new Duration( 1 + i ) );
+            durationWorked.setUpdatedRequired( new Duration( required[i] ) );
+            calendar.setTime( issue.getCreated() );
+            calendar.add( Calendar.DATE, offsets[i] );
+            durationWorked.setDay( calendar.getTime() );
+            durationWorked.setIssue( issue );
+            issue.getTimeWorked().add( durationWorked );
+        }
+
+        List<Date> dates = new ArrayList<Date>();
+        calendar.setTime( issue.getCreated() );
+        calendar.add( Calendar.DATE, -4 );
+        for ( int i = 0; i < 12; i++ )
+        {
+            dates.add( calendar.getTime() );
+            calendar.add( Calendar.DATE, 1 );
+        }
+
+        MilestoneSeries.IssueSeries series = MilestoneSeries.calculate( issue, dates );
+        for ( int i = 0; i < dates.size(); i++ )
+        {
+            Date date = dates.get( i );
+            assertEquals( DurationWorkedUtil.lastEstimateForDay( issue, date ).getHours(), series.estimates[i], 0.001 );
+
+            Double worked = series.worked.get( DateUtil.getStartOfDate( Calendar.getInstance(), date ).getTime() );
+            assertEquals( DurationWorkedUtil.totalWorkedForDay( issue, date ).getHours(),
+                    worked == null ? 0 : worked, 0.001 );
+        }
+    }
+
+
     private Project getProject( final String ignoreWeekend )
     {
         return new Project()
@@ -0,0 +1,243 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for rendering event bodies once and the compressed storage of the results.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class EventBodyCacheTest
+    extends TestCase
+{
+    public void testCompressedBodyIsRestored()
+    {
+        StringBuilder body = new StringBuilder();
+        for ( int i = 0; i < 500; i++ )
+        {
+            body.append( "<tr><td class=\"file\">src/main/java/File" ).append( i ).append( ".java</td></tr>\n" );
+        }
+        body.append( "<p>\u25c0 previous \u25ba next</p>" );
+
+        byte[] compressed = EventBodyCache.compress( body.toString() );
+        assertTrue( compressed.length < body.length() / 4 );
+        assertEquals( body.toString(), EventBodyCache.decompress( compressed ) );
+    }
+
+    public void testEmptyBody()
+    {
+        assertEquals( "", EventBodyCache.decompress( EventBodyCache.compress( "" ) ) );
+    }
+
+    public void testRenderedOnceAndStored()
+    {
+        Map<Long, RenderedEventBody> stored = new HashMap<Long, RenderedEventBody>();
+        TestCache cache = new TestCache( stored );
+        TestEvent event = new TestEvent( 1, "<p>body</p>" );
+
+        assertEquals( "<p>body</p>", cache.get( event ) );
+        assertEquals( "<p>body</p>", cache.get( event ) );
+        assertEquals( 1, event.renders.get() );
+        assertEquals( 1, cache.saves );
+        assertEquals( EventBodyCache.BODY_VERSION, stored.get( 1L ).getVersion() );
+
+        // after a restart the stored copy is used
+        cache = new TestCache( stored );
+        assertEquals( "<p>body</p>", cache.get( event ) );
+        assertEquals( 1, event.renders.get() );
+        assertEquals( 0, cache.saves );
+    }
+
+    public void testConcurrentCallersShareOneRender()
+        throws Exception
+    {
+        final TestCache cache = new TestCache( new HashMap<Long, RenderedEventBody>() );
+        final CountDownLatch started = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final TestEvent event = new TestEvent( 2, "<p>slow</p>" )
+        {
+            public String getBody()
+            {
+                started.countDown();
+                try
+                {
+                    release.await( 10, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    // just return early
+                }
+                return super.getBody();
+            }
+        };
+
+        final List<String> bodies = Collections.synchronizedList( new ArrayList<String>() );
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int i = 0; i < 10; i++ )
+        {
+            Thread thread = new Thread()
+            {
+                public void run()
+                {
+                    bodies.add( cache.get( event ) );
+                }
+            };
+            threads.add( thread );
+            thread.start();
+        }
+
+        assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+        // give the other callers time to queue up behind the render
+        Thread.sleep( 100 );
+        release.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join( 10000 );
+        }
+
+        assertEquals( 10, bodies.size() );
+        for ( String body : bodies )
+        {
+            assertEquals( "<p>slow</p>", body );
+        }
+        assertEquals( 1, event.renders.get() );
+        assertEquals( 1, cache.saves );
+    }
+
+    public void testFailedRenderIsNotStored()
+    {
+        TestCache cache = new TestCache( new HashMap<Long, RenderedEventBody>() );
+        TestEvent event = new TestEvent( 3, "<p>Unable to render</p>" )
+        {
+            public String getBody()
+            {
+                EventBodyCache.renderFailed();
+                return super.getBody();
+            }
+        };
+
+        assertEquals( "<p>Unable to render</p>", cache.get( event ) );
+        assertEquals( "<p>Unable to render</p>", cache.get( event ) );
+        assertEquals( 2, event.renders.get() );
+        assertEquals( 0, cache.saves );
+
+        // the failure does not leak into the next render on this thread
+        TestEvent next = new TestEvent( 4, "<p>fine</p>" );
+        cache.get( next );
+        assertEquals( 1, cache.saves );
+    }
+
+    public void testOldVersionIsRenderedAgain()
+    {
+        Map<Long, RenderedEventBody> stored = new HashMap<Long, RenderedEventBody>();
+        stored.put( 5L, new RenderedEventBody( 5, EventBodyCache.BODY_VERSION - 1,
+            EventBodyCache.compress( "<p>old</p>" ) ) );
+        TestCache cache = new TestCache( stored );
+        TestEvent event = new TestEvent( 5, "<p>new</p>" );
+
+        assertEquals( "<p>new</p>", cache.get( event ) );
+        assertEquals( 1, event.renders.get() );
+        assertEquals( EventBodyCache.BODY_VERSION, stored.get( 5L ).getVersion() );
+        assertEquals( "<p>new</p>", EventBodyCache.decompress( stored.get( 5L ).getBody() ) );
+    }
+
+    public void testUnsavedEventIsNotStored()
+    {
+        TestCache cache = new TestCache( new HashMap<Long, RenderedEventBody>() );
+        TestEvent event = new TestEvent( 0, "<p>new event</p>" );
+
+        cache.get( event );
+        cache.get( event );
+        assertEquals( 2, event.renders.get() );
+        assertEquals( 0, cache.saves );
+    }
+
+    static class TestCache
+        extends EventBodyCache
+    {
+        private final Map<Long, RenderedEventBody> stored;
+        int saves = 0;
+
+        TestCache( Map<Long, RenderedEventBody> stored )
+        {
+            this.stored = stored;
+        }
+
+        @Override
+        protected RenderedEventBody loadStored( long id )
+        {
+            synchronized ( stored )
+            {
+                return stored.get( id );
+            }
+        }
+
+        @Override
+        protected void saveStored( RenderedEventBody body )
+        {
+            synchronized ( stored )
+            {
+                stored.put( body.getEventId(), body );
+                saves++;
+            }
+        }
+    }
+
+    static class TestEvent
+        extends StoredEvent
+    {
+        private final long id;
+        private final String body;
+        final AtomicInteger renders = new AtomicInteger();
+
+        TestEvent( long id, String body )
+        {
+            super( "Test event", new Date() );
+            this.id = id;
+            this.body = body;
+        }
+
+        @Override
+        public long getId()
+        {
+            return id;
+        }
+
+        @Override
+        public String getBody()
+        {
+            renders.incrementAndGet();
+            return body;
+        }
+    }
+}
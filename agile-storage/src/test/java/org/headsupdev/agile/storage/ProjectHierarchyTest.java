@@ -0,0 +1,86 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import junit.framework.TestCase;
+import org.headsupdev.agile.api.Project;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for building the project hierarchy snapshot from the project rows.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class ProjectHierarchyTest
+    extends TestCase
+{
+    private ProjectHierarchy hierarchy;
+
+    public void setUp()
+    {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add( new Object[]{ "web", "Web", "web", "/trunk/web/", false, "agile" } );
+        rows.add( new Object[]{ "agile", "Agile", null, "/trunk/", false, null } );
+        rows.add( new Object[]{ "api", "API", "api", "/trunk/api/", false, "agile" } );
+        rows.add( new Object[]{ "old", "Old", "Old", "/old/", true, null } );
+        rows.add( new Object[]{ "forms", "Forms", "forms", "/trunk/web/forms/", false, "web" } );
+
+        hierarchy = new ProjectHierarchy( 1, rows );
+    }
+
+    public void testTreeOrder()
+    {
+        List<ProjectHierarchy.Node> tree = hierarchy.getTree( Project.ALL_PROJECT_ID, true );
+        assertEquals( 5, tree.size() );
+        assertEquals( "agile", tree.get( 0 ).getId() );
+        assertEquals( "api", tree.get( 1 ).getId() );
+        assertEquals( "web", tree.get( 2 ).getId() );
+        assertEquals( "forms", tree.get( 3 ).getId() );
+        assertEquals( "old", tree.get( 4 ).getId() );
+
+        assertEquals( 0, tree.get( 0 ).getDepth() );
+        assertEquals( 2, tree.get( 3 ).getDepth() );
+        assertEquals( "Agile", tree.get( 0 ).getAlias() );
+    }
+
+    public void testDisabledRoots()
+    {
+        assertEquals( 4, hierarchy.getTree( Project.ALL_PROJECT_ID, false ).size() );
+        assertEquals( 1, hierarchy.getRoots( false ).size() );
+    }
+
+    public void testProjectIds()
+    {
+        List<String> ids = hierarchy.getProjectIds( "web" );
+        assertEquals( 2, ids.size() );
+        assertTrue( ids.contains( "web" ) );
+        assertTrue( ids.contains( "forms" ) );
+    }
+
+    public void testContains()
+    {
+        ProjectHierarchy.Node agile = hierarchy.getNode( "agile" );
+        assertTrue( agile.contains( hierarchy.getNode( "forms" ) ) );
+        assertFalse( hierarchy.getNode( "api" ).contains( hierarchy.getNode( "forms" ) ) );
+    }
+}
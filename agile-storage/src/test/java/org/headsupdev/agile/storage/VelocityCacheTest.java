@@ -0,0 +1,101 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage;
+
+import junit.framework.TestCase;
+import org.headsupdev.agile.storage.issues.Duration;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests for the per issue calculation of daily velocity buckets.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class VelocityCacheTest
+    extends TestCase
+{
+    public void testEstimateCompletedPerUser()
+    {
+        List<VelocityCache.Row> rows = new ArrayList<VelocityCache.Row>();
+        rows.add( new VelocityCache.Row( "alice", getDay( 1 ), new Duration( 2 ), new Duration( 8 ) ) );
+        rows.add( new VelocityCache.Row( "bob", getDay( 2 ), new Duration( 1 ), new Duration( 6 ) ) );
+        rows.add( new VelocityCache.Row( "alice", getDay( 3 ), new Duration( 3 ), new Duration( 2 ) ) );
+
+        Collection<VelocityCache.Bucket> buckets = VelocityCache.calculate( new Duration( 10 ), rows );
+        assertEquals( 3, buckets.size() );
+
+        for ( VelocityCache.Bucket bucket : buckets )
+        {
+            assertEquals( 1, bucket.velocityEntries );
+            assertEquals( 1, bucket.loggedEntries );
+            if ( bucket.username.equals( "bob" ) )
+            {
+                assertEquals( 2.0, bucket.estimated, 0.001 );
+                assertEquals( 1.0, bucket.logged, 0.001 );
+            }
+            else if ( bucket.day.equals( getDayStart( 1 ) ) )
+            {
+                assertEquals( 2.0, bucket.estimated, 0.001 );
+            }
+            else
+            {
+                // bob's estimate of 6 was the last one before this work
+                assertEquals( 4.0, bucket.estimated, 0.001 );
+                assertEquals( 3.0, bucket.logged, 0.001 );
+            }
+        }
+    }
+
+    public void testNoEstimateOnlyLogsTime()
+    {
+        List<VelocityCache.Row> rows = new ArrayList<VelocityCache.Row>();
+        rows.add( new VelocityCache.Row( "alice", getDay( 1 ), new Duration( 2 ), new Duration( 8 ) ) );
+        rows.add( new VelocityCache.Row( "alice", getDay( 1 ), new Duration( 0 ), null ) );
+
+        Collection<VelocityCache.Bucket> buckets = VelocityCache.calculate( null, rows );
+        assertEquals( 1, buckets.size() );
+
+        VelocityCache.Bucket bucket = buckets.iterator().next();
+        assertEquals( 0, bucket.velocityEntries );
+        assertEquals( 1, bucket.loggedEntries );
+        assertEquals( 2.0, bucket.logged, 0.001 );
+    }
+
+    private Date getDay( int day )
+    {
+        Calendar cal = Calendar.getInstance();
+        cal.set( 2012, Calendar.MARCH, day, 12, 0, 0 );
+        return cal.getTime();
+    }
+
+    private Long getDayStart( int day )
+    {
+        Calendar cal = Calendar.getInstance();
+        cal.set( 2012, Calendar.MARCH, day, 0, 0, 0 );
+        cal.set( Calendar.MILLISECOND, 0 );
+        return cal.getTimeInMillis();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.backup;
+
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.connection.DriverManagerConnectionProvider;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * A benchmark of exporting and importing a large event history (5,000,000 events by default) with a single worker
+ * compared to the parallel workers used by DatabaseBackup. The events table has the same shape as StoredEvent.
+ * It is not run as part of the test suite, run the main method with an optional row count, source and target JDBC
+ * urls, username and password (defaults to H2 databases in the temporary directory).
+ * For MySQL pass urls with rewriteBatchedStatements=true.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class BackupBenchmark
+{
+    private static final int BATCH_SIZE = 1000;
+
+    public static void main( String[] args )
+        throws Exception
+    {
+        String tmp = System.getProperty( "java.io.tmpdir" );
+        int rows = 5000000;
+        String sourceUrl = "jdbc:h2:file:" + tmp + "/backupbench-source";
+        String targetUrl = "jdbc:h2:file:" + tmp + "/backupbench-target";
+        if ( args.length > 0 )
+        {
+            rows = Integer.parseInt( args[0] );
+        }
+        if ( args.length > 2 )
+        {
+            sourceUrl = args[1];
+            targetUrl = args[2];
+        }
+        String username = "sa", password = "";
+        if ( args.length > 4 )
+        {
+            username = args[3];
+            password = args[4];
+        }
+
+        ConnectionProvider source = createProvider( sourceUrl, username, password );
+        ConnectionProvider target = createProvider( targetUrl, username, password );
+        boolean sequence = !targetUrl.startsWith( "jdbc:mysql" );
+        try
+        {
+            createTable( source );
+            createTable( target );
+            if ( sequence )
+            {
+                // as created by hibernate for generating ids on H2
+                execute( target, "create sequence " + DatabaseImporter.SEQUENCE_NAME );
+            }
+
+            System.out.println( "Filling " + sourceUrl + " with " + rows + " events" );
+            fill( source, rows );
+
+            int threads = ChunkProcessor.getThreadCount();
+            System.out.println( "Exporting and importing " + rows + " events:" );
+            run( source, target, 1, new File( tmp, "backupbench-1" ) );
+            run( source, target, threads, new File( tmp, "backupbench-" + threads ) );
+        }
+        finally
+        {
+            dropTable( source );
+            dropTable( target );
+            if ( sequence )
+            {
+                execute( target, "drop sequence " + DatabaseImporter.SEQUENCE_NAME );
+            }
+            source.close();
+            target.close();
+        }
+    }
+
+    private static void run( ConnectionProvider source, ConnectionProvider target, int threads, File directory )
+        throws Exception
+    {
+        long start = System.currentTimeMillis();
+        BackupManifest manifest = new DatabaseExporter( source, threads ).export( Arrays.asList( "Events" ),
+            directory, "benchmark", new BackupTask( "Export", "benchmark" ) );
+        long exported = System.currentTimeMillis() - start;
+
+        long size = 0;
+        for ( File file : directory.listFiles() )
+        {
+            size += file.length();
+        }
+
+        start = System.currentTimeMillis();
+        new DatabaseImporter( target, threads ).load( manifest, new BackupTask( "Import", "benchmark" ) );
+        long imported = System.currentTimeMillis() - start;
+
+        System.out.println( "  " + threads + " worker(s): export " + exported + "ms, import " + imported + "ms, " +
+            manifest.getChunks().size() + " chunks, " + size / 1024 + "kB" );
+
+        for ( File file : directory.listFiles() )
+        {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private static ConnectionProvider createProvider( String url, String username, String password )
+    {
+        Properties props = new Properties();
+        props.setProperty( "hibernate.connection.driver_class", url.startsWith( "jdbc:mysql" ) ?
+            "com.mysql.jdbc.Driver" : "org.h2.Driver" );
+        props.setProperty( "hibernate.connection.url", url );
+        props.setProperty( "hibernate.connection.username", username );
+        props.setProperty( "hibernate.connection.password", password );
+        props.setProperty( "hibernate.connection.autocommit", "true" );
+
+        ConnectionProvider ret = new DriverManagerConnectionProvider();
+        ret.configure( props );
+        return ret;
+    }
+
+    private static void createTable( ConnectionProvider provider )
+        throws Exception
+    {
+        execute( provider, "create table Events (type varchar(31) not null, id bigint not null, " +
+            "time timestamp, title varchar(255), username varchar(255), applicationId varchar(255), " +
+            "objectId varchar(255), subObjectId varchar(255), summary longvarchar, project_id varchar(255), " +
+            "primary key (id))" );
+    }
+
+    private static void dropTable( ConnectionProvider provider )
+        throws Exception
+    {
+        execute( provider, "drop table Events" );
+    }
+
+    private static void fill( ConnectionProvider provider, int rows )
+        throws Exception
+    {
+        Connection conn = provider.getConnection();
+        try
+        {
+            conn.setAutoCommit( false );
+            PreparedStatement insert = conn.prepareStatement( "insert into Events values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)" );
+            long time = System.currentTimeMillis() - rows * 60000L;
+            for ( int i = 0; i < rows; i++ )
+            {
+                insert.setString( 1, i % 3 == 0 ? "updateissue" : "filechangeset" );
+                insert.setLong( 2, i + 1 );
+                insert.setTimestamp( 3, new Timestamp( time + i * 60000L ) );
+                insert.setString( 4, "Issue " + i + " updated: a summary of the change that was made" );
+                insert.setString( 5, "user" + ( i % 50 ) );
+                insert.setString( 6, i % 3 == 0 ? "issues" : "files" );
+                insert.setString( 7, String.valueOf( i / 10 ) );
+                insert.setString( 8, null );
+                insert.setString( 9, "A longer summary of event " + i + " that is stored as text" );
+                insert.setString( 10, "project" + ( i % 20 ) );
+                insert.addBatch();
+
+                if ( ( i + 1 ) % BATCH_SIZE == 0 )
+                {
+                    insert.executeBatch();
+                    conn.commit();
+                }
+            }
+            insert.executeBatch();
+            conn.commit();
+            insert.close();
+            conn.setAutoCommit( true );
+        }
+        finally
+        {
+            provider.closeConnection( conn );
+        }
+    }
+
+    private static void execute( ConnectionProvider provider, String sql )
+        throws Exception
+    {
+        Connection conn = provider.getConnection();
+        try
+        {
+            Statement statement = conn.createStatement();
+            statement.execute( sql );
+            statement.close();
+        }
+        finally
+        {
+            provider.closeConnection( conn );
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.backup;
+
+import junit.framework.TestCase;
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.connection.DriverManagerConnectionProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Tests for exporting tables to a backup and loading them into another database.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class DatabaseBackupTest
+    extends TestCase
+{
+    private static final int EVENTS = 250;
+
+    private ConnectionProvider source, target;
+    // in memory databases are dropped when their last connection closes
+    private Connection sourceConn, targetConn;
+    private File parent, directory;
+
+    public void setUp()
+        throws Exception
+    {
+        source = createProvider( "jdbc:h2:mem:backupsource" );
+        target = createProvider( "jdbc:h2:mem:backuptarget" );
+        sourceConn = source.getConnection();
+        targetConn = target.getConnection();
+
+        execute( sourceConn, "create table Events (id bigint primary key, title varchar(255), time timestamp, " +
+            "body clob, shown boolean, data binary)" );
+        execute( sourceConn, "create table EventWatchers (event_id bigint, username varchar(255))" );
+
+        // the target has gained a column and already has some data that should be replaced
+        execute( targetConn, "create table Events (id bigint primary key, title varchar(255), time timestamp, " +
+            "body clob, shown boolean, data binary, extra varchar(255))" );
+        execute( targetConn, "create table EventWatchers (event_id bigint, username varchar(255))" );
+        execute( targetConn, "create sequence hibernate_sequence" );
+        execute( targetConn, "insert into Events (id, title) values (10000, 'old')" );
+
+        PreparedStatement insert = sourceConn.prepareStatement( "insert into Events values (?, ?, ?, ?, ?, ?)" );
+        for ( int i = 1; i <= EVENTS; i++ )
+        {
+            insert.setLong( 1, i * 3 );
+            insert.setString( 2, i % 10 == 0 ? null : "Event \u00e9 " + i );
+            insert.setTimestamp( 3, new Timestamp( 1000000L * i ) );
+            insert.setString( 4, "<p>body " + i + "</p>" );
+            insert.setBoolean( 5, i % 2 == 0 );
+            insert.setBytes( 6, new byte[]{ 1, 2, (byte) i } );
+            insert.executeUpdate();
+        }
+        insert.close();
+        execute( sourceConn, "insert into EventWatchers values (3, 'alice')" );
+        execute( sourceConn, "insert into EventWatchers values (6, 'bob')" );
+
+        parent = new File( System.getProperty( "java.io.tmpdir" ), "backuptest-" + System.currentTimeMillis() );
+        directory = new File( parent, "backup" );
+    }
+
+    public void tearDown()
+        throws Exception
+    {
+        execute( sourceConn, "drop all objects" );
+        execute( targetConn, "drop all objects" );
+        source.closeConnection( sourceConn );
+        target.closeConnection( targetConn );
+        source.close();
+        target.close();
+
+        File[] files = directory.listFiles();
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                file.delete();
+            }
+        }
+        directory.delete();
+        parent.delete();
+    }
+
+    public void testRoundTrip()
+        throws Exception
+    {
+        DatabaseExporter exporter = new DatabaseExporter( source, 4 );
+        exporter.setChunkRows( 100 );
+        BackupTask exportTask = new BackupTask( "Export", "test" );
+        BackupManifest written = exporter.export( Arrays.asList( "Events", "EventWatchers" ), directory, "test",
+            exportTask );
+
+        assertEquals( EVENTS + 2, written.getRowCount() );
+        assertEquals( EVENTS + 2, exportTask.getRowsCopied() );
+        // 250 keyed rows in chunks of 100 and the unkeyed table in one
+        assertEquals( 4, written.getChunks().size() );
+
+        BackupManifest manifest = BackupManifest.read( directory );
+        assertEquals( Arrays.asList( "Events", "EventWatchers" ), manifest.getTables() );
+        assertEquals( EVENTS + 2, manifest.getRowCount() );
+        assertEquals( EVENTS * 3, manifest.getMaxKey() );
+
+        BackupTask importTask = new BackupTask( "Import", "test" );
+        new DatabaseImporter( target, 4 ).load( manifest, importTask );
+        assertEquals( EVENTS + 2, importTask.getRowsCopied() );
+
+        assertEquals( EVENTS, count( targetConn, "Events" ) );
+        assertEquals( 2, count( targetConn, "EventWatchers" ) );
+
+        Statement statement = targetConn.createStatement();
+        ResultSet results = statement.executeQuery( "select title, time, body, shown, data, extra from Events " +
+            "where id = 30" );
+        assertTrue( results.next() );
+        assertNull( results.getString( 1 ) );
+        assertEquals( 10000000L, results.getTimestamp( 2 ).getTime() );
+        assertEquals( "<p>body 10</p>", results.getString( 3 ) );
+        assertTrue( results.getBoolean( 4 ) );
+        assertTrue( Arrays.equals( new byte[]{ 1, 2, 10 }, results.getBytes( 5 ) ) );
+        assertNull( results.getString( 6 ) );
+        results.close();
+
+        results = statement.executeQuery( "select title from Events where id = 3" );
+        assertTrue( results.next() );
+        assertEquals( "Event \u00e9 1", results.getString( 1 ) );
+        results.close();
+
+        results = statement.executeQuery( "select next value for hibernate_sequence" );
+        assertTrue( results.next() );
+        assertEquals( EVENTS * 3 + 1, results.getLong( 1 ) );
+        results.close();
+        statement.close();
+    }
+
+    public void testRowsAddedDuringExport()
+        throws Exception
+    {
+        final long added = EVENTS * 3 + 100;
+        DatabaseExporter exporter = new DatabaseExporter( source, 1 )
+        {
+            private boolean inserted;
+
+            @Override
+            protected long process( BackupChunk chunk )
+                throws IOException, SQLException
+            {
+                if ( !inserted )
+                {
+                    inserted = true;
+                    Statement statement = sourceConn.createStatement();
+                    statement.executeUpdate( "insert into Events (id, title) values (" + added + ", 'late')" );
+                    statement.close();
+                }
+                return super.process( chunk );
+            }
+        };
+        exporter.setChunkRows( 100 );
+        BackupManifest manifest = exporter.export( Arrays.asList( "Events", "EventWatchers" ), directory, "test",
+            new BackupTask( "Export", "test" ) );
+        // the new row is after the planned key range but still in the open ended last chunk
+        assertEquals( EVENTS * 3, manifest.getMaxKey() );
+
+        new DatabaseImporter( target, 2 ).load( manifest, new BackupTask( "Import", "test" ) );
+        assertEquals( EVENTS + 1, count( targetConn, "Events" ) );
+
+        Statement statement = targetConn.createStatement();
+        ResultSet results = statement.executeQuery( "select next value for hibernate_sequence" );
+        assertTrue( results.next() );
+        assertEquals( added + 1, results.getLong( 1 ) );
+        results.close();
+        statement.close();
+    }
+
+    public void testDamagedChunkNotImported()
+        throws Exception
+    {
+        DatabaseExporter exporter = new DatabaseExporter( source, 2 );
+        exporter.setChunkRows( 100 );
+        BackupManifest manifest = exporter.export( Arrays.asList( "Events", "EventWatchers" ), directory, "test",
+            new BackupTask( "Export", "test" ) );
+
+        // cut the last chunk short so the earlier ones would load before it failed
+        BackupChunk last = manifest.getChunks().get( manifest.getChunks().size() - 1 );
+        File file = new File( directory, last.fileName );
+        RandomAccessFile out = new RandomAccessFile( file, "rw" );
+        out.setLength( file.length() / 2 );
+        out.close();
+
+        try
+        {
+            new DatabaseImporter( target, 2 ).load( manifest, new BackupTask( "Import", "test" ) );
+            fail( "Import of a truncated backup should fail" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+
+        assertEquals( 1, count( targetConn, "Events" ) );
+    }
+
+    public void testIncompleteBackupNotListed()
+        throws Exception
+    {
+        new DatabaseExporter( source, 2 ).export( Arrays.asList( "EventWatchers" ), directory, "test",
+            new BackupTask( "Export", "test" ) );
+        assertEquals( 1, BackupManifest.list( parent ).size() );
+
+        new File( directory, BackupFormat.MANIFEST_FILE ).delete();
+        assertEquals( 0, BackupManifest.list( parent ).size() );
+    }
+
+    private static ConnectionProvider createProvider( String url )
+    {
+        Properties props = new Properties();
+        props.setProperty( "hibernate.connection.driver_class", "org.h2.Driver" );
+        props.setProperty( "hibernate.connection.url", url );
+        props.setProperty( "hibernate.connection.username", "sa" );
+        props.setProperty( "hibernate.connection.password", "" );
+        props.setProperty( "hibernate.connection.autocommit", "true" );
+
+        ConnectionProvider ret = new DriverManagerConnectionProvider();
+        ret.configure( props );
+        return ret;
+    }
+
+    private static void execute( Connection conn, String sql )
+        throws Exception
+    {
+        Statement statement = conn.createStatement();
+        statement.execute( sql );
+        statement.close();
+    }
+
+    private static long count( Connection conn, String table )
+        throws Exception
+    {
+        Statement statement = conn.createStatement();
+        ResultSet results = statement.executeQuery( "select count(*) from " + table );
+        results.next();
+        long ret = results.getLong( 1 );
+        statement.close();
+        return ret;
+    }
+}
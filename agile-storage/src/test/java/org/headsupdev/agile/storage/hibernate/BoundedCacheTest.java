@@ -0,0 +1,74 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.hibernate;
+
+import junit.framework.TestCase;
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.UpdateTimestampsCache;
+
+import java.util.Properties;
+
+/**
+ * Tests for the bounded second level cache regions.
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+public class BoundedCacheTest
+        extends TestCase
+{
+    public void testLeastRecentlyUsedIsEvicted()
+    {
+        BoundedCache cache = new BoundedCache( "test", 2 );
+        cache.put( "a", "1" );
+        cache.put( "b", "2" );
+        cache.get( "a" );
+        cache.put( "c", "3" );
+
+        assertEquals( 2, cache.getElementCountInMemory() );
+        assertEquals( "1", cache.get( "a" ) );
+        assertNull( cache.get( "b" ) );
+        assertEquals( "3", cache.get( "c" ) );
+    }
+
+    public void testRegionsSharedAndTimestampsUnbounded()
+    {
+        Properties props = new Properties();
+        props.setProperty( BoundedCacheProvider.MAX_ENTRIES, "1" );
+
+        BoundedCacheProvider first = new BoundedCacheProvider();
+        first.start( props );
+        BoundedCacheProvider second = new BoundedCacheProvider();
+        second.start( props );
+        try
+        {
+            Cache region = first.buildCache( "shared", props );
+            assertSame( region, second.buildCache( "shared", props ) );
+
+            Cache timestamps = first.buildCache( UpdateTimestampsCache.REGION_NAME, props );
+            timestamps.put( "one", 1L );
+            timestamps.put( "two", 2L );
+            assertEquals( 2, timestamps.getElementCountInMemory() );
+        }
+        finally
+        {
+            BoundedCacheProvider.clearAll();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.storage.hibernate;
+
+import junit.framework.TestCase;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.storage.StoredProject;
+import org.headsupdev.agile.storage.StoredRole;
+import org.headsupdev.agile.storage.StoredUser;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.AnnotationConfiguration;
+
+/**
+ * Tests for the IdProjectId allocator reading and writing its sequences in an in memory H2 database.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class IdProjectIdAllocatorDatabaseTest
+    extends TestCase
+{
+    private SessionFactory factory;
+    private Session session;
+    private Project project;
+
+    public void setUp()
+    {
+        AnnotationConfiguration config = new AnnotationConfiguration();
+        config.setProperty( "hibernate.dialect", "org.hibernate.dialect.H2Dialect" );
+        config.setProperty( "hibernate.connection.driver_class", "org.h2.Driver" );
+        config.setProperty( "hibernate.connection.url", "jdbc:h2:mem:idsequences;DB_CLOSE_DELAY=-1" );
+        config.setProperty( "hibernate.connection.username", "sa" );
+        config.setProperty( "hibernate.connection.password", "" );
+        config.setProperty( "hibernate.hbm2ddl.auto", "create-drop" );
+        config.setProperty( "hibernate.cache.use_second_level_cache", "false" );
+        config.setProperty( "hibernate.search.autoregister_listeners", "false" );
+
+        config.addAnnotatedClass( StoredProject.class );
+        config.addAnnotatedClass( StoredUser.class );
+        config.addAnnotatedClass( StoredRole.class );
+        config.addAnnotatedClass( IdProjectId.class );
+        config.addAnnotatedClass( StoredIdSequence.class );
+        config.addAnnotatedClass( NumberedItem.class );
+        factory = config.buildSessionFactory();
+
+        project = new StoredProject( "one", "One" );
+        session = factory.openSession();
+        Transaction tx = session.beginTransaction();
+        session.save( project );
+        session.save( new NumberedItem( project, 1 ) );
+        session.save( new NumberedItem( project, 2 ) );
+        session.save( new NumberedItem( project, 5 ) );
+        tx.commit();
+    }
+
+    public void tearDown()
+    {
+        session.close();
+        factory.close();
+    }
+
+    public void testSequenceSeededFromExistingIds()
+    {
+        IdProjectIdAllocator allocator = new DatabaseAllocator();
+        assertEquals( 6, allocator.nextId( NumberedItem.class, project, session ) );
+        assertEquals( 7, allocator.nextId( NumberedItem.class, project, session ) );
+        assertEquals( 6 + IdProjectIdAllocator.DEFAULT_BLOCK_SIZE, getStoredNextId() );
+
+        // a restart without releasing continues after the reserved block
+        allocator = new DatabaseAllocator();
+        assertEquals( 6 + IdProjectIdAllocator.DEFAULT_BLOCK_SIZE,
+            allocator.nextId( NumberedItem.class, project, session ) );
+    }
+
+    public void testReleaseUnused()
+    {
+        IdProjectIdAllocator allocator = new DatabaseAllocator();
+        assertEquals( 6, allocator.nextId( NumberedItem.class, project, session ) );
+        allocator.releaseUnused();
+        assertEquals( 7, getStoredNextId() );
+
+        allocator = new DatabaseAllocator();
+        assertEquals( 7, allocator.nextId( NumberedItem.class, project, session ) );
+    }
+
+    public void testSequenceCreatedByAnotherCaller()
+    {
+        // the other caller creates the sequence after we found it missing but before we insert ours
+        IdProjectIdAllocator allocator = new DatabaseAllocator()
+        {
+            protected long getMaxId( Class type, Project project, Session current )
+            {
+                long max = super.getMaxId( type, project, current );
+
+                IdProjectIdAllocator other = new DatabaseAllocator();
+                assertEquals( max + 1, other.nextId( type, project, current ) );
+                return max;
+            }
+        };
+
+        assertEquals( 6 + IdProjectIdAllocator.DEFAULT_BLOCK_SIZE,
+            allocator.nextId( NumberedItem.class, project, session ) );
+        assertEquals( 6 + IdProjectIdAllocator.DEFAULT_BLOCK_SIZE * 2, getStoredNextId() );
+    }
+
+    private long getStoredNextId()
+    {
+        Session check = factory.openSession();
+        try
+        {
+            StoredIdSequence sequence = (StoredIdSequence) check.get( StoredIdSequence.class,
+                NumberedItem.class.getName() + ":" + project.getId() );
+            return sequence.getNextId();
+        }
+        finally
+        {
+            check.close();
+        }
+    }
+
+    class DatabaseAllocator
+        extends IdProjectIdAllocator
+    {
+        protected Session openSession()
+        {
+            return factory.openSession();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.storage.StoredProject;
+import org.headsupdev.agile.storage.issues.Issue;
+import junit.framework.TestCase;
+import org.hibernate.Session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests for the block based IdProjectId allocator, backed by an in memory sequence table.
+ *
+ * @author Andrew Williams
+ * @since 2.0
+ */
+public class IdProjectIdAllocatorTest
+        extends TestCase
+{
+    private static final int THREADS = 20;
+    private static final int ISSUES_PER_THREAD = 250;
+
+    public void testConcurrentIssueCreation()
+            throws Exception
+    {
+        final Project[] projects = new Project[] { new StoredProject( "one", "One" ),
+                new StoredProject( "two", "Two" ), new StoredProject( "three", "Three" ) };
+        final IdProjectIdAllocator allocator = new MemoryAllocator( new HashMap<String, Long>() );
+
+        final List<Issue> created = Collections.synchronizedList( new ArrayList<Issue>() );
+        final List<Throwable> errors = Collections.synchronizedList( new ArrayList<Throwable>() );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch done = new CountDownLatch( THREADS );
+
+        for ( int i = 0; i < THREADS; i++ )
+        {
+            final int thread = i;
+            new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for ( int j = 0; j < ISSUES_PER_THREAD; j++ )
+                        {
+                            Issue issue = new Issue( projects[( thread + j ) % projects.length] );
+                            assertTrue( allocator.assignId( issue, null ) );
+                            created.add( issue );
+                        }
+                    }
+                    catch ( Throwable t )
+                    {
+                        errors.add( t );
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        start.countDown();
+        done.await();
+
+        assertTrue( "Errors allocating ids: " + errors, errors.isEmpty() );
+        assertEquals( THREADS * ISSUES_PER_THREAD, created.size() );
+
+        Map<String, boolean[]> seen = new HashMap<String, boolean[]>();
+        for ( Project project : projects )
+        {
+            seen.put( project.getId(), new boolean[THREADS * ISSUES_PER_THREAD + 1] );
+        }
+        for ( Issue issue : created )
+        {
+            boolean[] ids = seen.get( issue.getProject().getId() );
+            assertFalse( "Duplicate id " + issue.getId(), ids[(int) issue.getId()] );
+            ids[(int) issue.getId()] = true;
+        }
+
+        // with no restarts each project should have a contiguous run of ids starting at 1
+        for ( Project project : projects )
+        {
+            boolean[] ids = seen.get( project.getId() );
+            int count = 0;
+            for ( int i = 1; i < ids.length && ids[i]; i++ )
+            {
+                count++;
+            }
+            int expected = 0;
+            for ( Issue issue : created )
+            {
+                if ( issue.getProject().equals( project ) )
+                {
+                    expected++;
+                }
+            }
+            assertEquals( expected, count );
+        }
+    }
+
+    public void testAssignedIdsAreKept()
+    {
+        IdProjectIdAllocator allocator = new MemoryAllocator( new HashMap<String, Long>() );
+        Issue issue = new Issue( new StoredProject( "one", "One" ) );
+        issue.getInternalId().id = 42;
+
+        assertFalse( allocator.assignId( issue, null ) );
+        assertEquals( 42, issue.getId() );
+    }
+
+    public void testNoReuseAfterCrash()
+    {
+        Map<String, Long> table = new HashMap<String, Long>();
+        Project project = new StoredProject( "one", "One" );
+
+        IdProjectIdAllocator allocator = new MemoryAllocator( table );
+        assertEquals( 1, allocator.nextId( Issue.class, project, null ) );
+        assertEquals( 2, allocator.nextId( Issue.class, project, null ) );
+
+        // restart without releasing - the rest of the block is lost but nothing is handed out twice
+        allocator = new MemoryAllocator( table );
+        assertEquals( IdProjectIdAllocator.DEFAULT_BLOCK_SIZE + 1, allocator.nextId( Issue.class, project, null ) );
+    }
+
+    public void testReleaseAfterCleanShutdown()
+    {
+        Map<String, Long> table = new HashMap<String, Long>();
+        Project project = new StoredProject( "one", "One" );
+
+        IdProjectIdAllocator allocator = new MemoryAllocator( table );
+        assertEquals( 1, allocator.nextId( Issue.class, project, null ) );
+        assertEquals( 2, allocator.nextId( Issue.class, project, null ) );
+        allocator.releaseUnused();
+
+        allocator = new MemoryAllocator( table );
+        assertEquals( 3, allocator.nextId( Issue.class, project, null ) );
+    }
+
+    public void testReleaseDoesNotRewindPastNewerBlocks()
+    {
+        Map<String, Long> table = new HashMap<String, Long>();
+        Project project = new StoredProject( "one", "One" );
+
+        IdProjectIdAllocator first = new MemoryAllocator( table );
+        IdProjectIdAllocator second = new MemoryAllocator( table );
+        assertEquals( 1, first.nextId( Issue.class, project, null ) );
+        assertEquals( IdProjectIdAllocator.DEFAULT_BLOCK_SIZE + 1, second.nextId( Issue.class, project, null ) );
+
+        first.releaseUnused();
+        second = new MemoryAllocator( table );
+        assertEquals( IdProjectIdAllocator.DEFAULT_BLOCK_SIZE * 2 + 1, second.nextId( Issue.class, project, null ) );
+    }
+
+    public void testResetAfterSequencesReplaced()
+    {
+        Map<String, Long> table = new HashMap<String, Long>();
+        Project project = new StoredProject( "one", "One" );
+
+        IdProjectIdAllocator allocator = new MemoryAllocator( table );
+        assertEquals( 1, allocator.nextId( Issue.class, project, null ) );
+
+        // an import replaces the sequences, the rest of our block may now be in use
+        for ( String name : table.keySet() )
+        {
+            table.put( name, 500L );
+        }
+        allocator.reset();
+        assertEquals( 500, allocator.nextId( Issue.class, project, null ) );
+        assertEquals( 501, allocator.nextId( Issue.class, project, null ) );
+    }
+
+    static class MemoryAllocator
+            extends IdProjectIdAllocator
+    {
+        private final Map<String, Long> table;
+
+        MemoryAllocator( Map<String, Long> table )
+        {
+            this.table = table;
+        }
+
+        protected long reserveBlock( String name, Class type, Project project, int size, Session current )
+        {
+            synchronized ( table )
+            {
+                Long next = table.get( name );
+                if ( next == null )
+                {
+                    next = 1L;
+                }
+
+                table.put( name, next + size );
+                return next;
+            }
+        }
+
+        protected void releaseBlock( String name, long next, long limit )
+        {
+            synchronized ( table )
+            {
+                if ( table.get( name ) == limit )
+                {
+                    table.put( name, next );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.headsupdev.agile.storage.hibernate;
+
+import org.headsupdev.agile.api.Project;
+
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+/**
+ * A minimal entity numbered within its project, used to test id allocation against a real database.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+@Entity
+@Table( name = "NumberedItems" )
+public class NumberedItem
+{
+    @EmbeddedId
+    IdProjectId id;
+
+    NumberedItem()
+    {
+    }
+
+    NumberedItem( Project project, long id )
+    {
+        this.id = new IdProjectId( project );
+        this.id.id = id;
+    }
+
+    public long getId()
+    {
+        return id.getId();
+    }
+}
@@ -51,6 +51,7 @@ import org.headsupdev.agile.api.SecurityManager;
 import org.headsupdev.agile.api.Application;
 import org.headsupdev.agile.api.Page;
 import org.headsupdev.agile.security.permission.ProjectListPermission;
+import org.headsupdev.agile.storage.ProjectHierarchy;
 import org.headsupdev.agile.storage.StoredProject;
 import org.headsupdev.agile.web.components.ProjectListPanel;
 import org.headsupdev.agile.core.PrivateConfiguration;
@@ -242,13 +243,12 @@ public abstract class HeadsUpPage
         WebMarkupContainer projectmenu = new WebMarkupContainer( "projectmenu" );
         projectmenu.setOutputMarkupId( true );
         projectmenu.setMarkupId( "projectmenu" );
-        projectmenu.add( new ProjectListPanel( "project-tree", getStorage().getRootProjects(), getPageClass( pageHint ),
-                getProject() )
+        projectmenu.add( new ProjectListPanel( "project-tree", getPageClass( pageHint ), getProject() )
                 .setVisible( userHasPermission( user, new ProjectListPermission(), null ) ) );
         add( projectmenu );
 
         WebMarkupContainer noProjects = new WebMarkupContainer( "noprojects" );
-        noProjects.setVisible( getStorage().getProjects().size() == 0 );
+        noProjects.setVisible( ProjectHierarchy.get().isEmpty() );
         projectmenu.add( noProjects );
 
         PageParameters params = new PageParameters();
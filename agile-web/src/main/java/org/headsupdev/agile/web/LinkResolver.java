@@ -0,0 +1,400 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.web;
+
+import org.headsupdev.agile.api.LinkProvider;
+import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.api.ProjectListener;
+import org.headsupdev.agile.storage.backup.BackupManifest;
+import org.headsupdev.agile.storage.backup.DatabaseBackup;
+import org.headsupdev.agile.storage.backup.ImportListener;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves wiki style links such as doc:MyPage, issue:myproject:25 and change:25 in text.
+ * The project ids are held in memory (refreshed when projects are added or removed) so a link naming a project only
+ * loads the project when it exists. Text that has been marked up recently is remembered for each project, so the
+ * same summaries and comments are not scanned again when a page or feed is displayed.
+ * The links are found with a single pass over the characters of the text, see tokenize().
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class LinkResolver
+    implements ProjectListener, ImportListener
+{
+    public static final String DELIMITERS = " \t\n\r\f<>(){}&.,!?;";
+
+    private static final int MARKUP_ENTRIES = 1000;
+    private static final int MARKUP_MAX_LENGTH = 4096;
+
+    private static final boolean[] delimiter = new boolean[128];
+    static
+    {
+        for ( char c : DELIMITERS.toCharArray() )
+        {
+            delimiter[c] = true;
+        }
+    }
+
+    private static LinkResolver instance;
+
+    private volatile Set<String> projectIds;
+    private Set<String> providerIds = Collections.emptySet();
+    private final Map<MarkUpKey, String> markedUp = new LinkedHashMap<MarkUpKey, String>( 16, 0.75f, true )
+    {
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<MarkUpKey, String> eldest )
+        {
+            return size() > MARKUP_ENTRIES;
+        }
+    };
+
+    public static synchronized LinkResolver getInstance()
+    {
+        if ( instance == null )
+        {
+            instance = new LinkResolver();
+            Manager.getInstance().addProjectListener( instance );
+            DatabaseBackup.getInstance().addImportListener( instance );
+        }
+
+        return instance;
+    }
+
+    protected LinkResolver()
+    {
+    }
+
+    /**
+     * Receives each token found by tokenize - either a run of characters between delimiters or a single delimiter.
+     */
+    public interface TokenHandler
+    {
+        /**
+         * @param chars the characters of the whole text
+         * @param start the index of the first character in the token
+         * @param end the index after the last character in the token
+         * @param link true if the token contains a ':' and so may be a link
+         */
+        void token( char[] chars, int start, int end, boolean link );
+    }
+
+    /**
+     * Split text into tokens at any of the DELIMITERS, passing the delimiters through as tokens too.
+     * This matches a StringTokenizer with returnDelims set but does not create a string for every token.
+     */
+    public static void tokenize( String in, TokenHandler handler )
+    {
+        char[] chars = in.toCharArray();
+        int start = 0;
+        boolean link = false;
+        for ( int i = 0; i < chars.length; i++ )
+        {
+            char c = chars[i];
+            if ( c < 128 && delimiter[c] )
+            {
+                if ( i > start )
+                {
+                    handler.token( chars, start, i, link );
+                }
+                handler.token( chars, i, i + 1, false );
+
+                start = i + 1;
+                link = false;
+            }
+            else if ( c == ':' )
+            {
+                link = true;
+            }
+        }
+
+        if ( start < chars.length )
+        {
+            handler.token( chars, start, chars.length, link );
+        }
+    }
+
+    /**
+     * Mark up the links in some text and encode the rest for display as html.
+     *
+     * @param in the text to mark up
+     * @param project the project to link to if a link does not name one
+     * @return the html with links added
+     */
+    public String markUp( String in, Project project )
+    {
+        if ( in == null )
+        {
+            return null;
+        }
+
+        return markUp( in, project, Manager.getInstance().getLinkProviders() );
+    }
+
+    public String markUp( String in, Project project, Map<String, LinkProvider> providers )
+    {
+        if ( in.length() > MARKUP_MAX_LENGTH )
+        {
+            return render( in, project, providers );
+        }
+
+        MarkUpKey key = new MarkUpKey( in, project );
+        synchronized ( markedUp )
+        {
+            if ( !providerIds.equals( providers.keySet() ) )
+            {
+                // applications have changed, so have the links
+                markedUp.clear();
+                providerIds = new HashSet<String>( providers.keySet() );
+            }
+
+            String ret = markedUp.get( key );
+            if ( ret != null )
+            {
+                return ret;
+            }
+        }
+
+        String ret = render( in, project, providers );
+        synchronized ( markedUp )
+        {
+            markedUp.put( key, ret );
+        }
+
+        return ret;
+    }
+
+    String render( String in, final Project project, final Map<String, LinkProvider> providers )
+    {
+        final StringBuilder ret = new StringBuilder( in.length() + in.length() / 4 );
+        tokenize( in, new TokenHandler()
+        {
+            public void token( char[] chars, int start, int end, boolean link )
+            {
+                String url = null;
+                if ( link )
+                {
+                    url = getLink( new String( chars, start, end - start ), project, providers );
+                }
+
+                if ( url == null )
+                {
+                    encode( chars, start, end, ret );
+                }
+                else
+                {
+                    ret.append( "<a href=\"" );
+                    ret.append( url );
+                    ret.append( "\">" );
+                    encode( chars, start, end, ret );
+                    ret.append( "</a>" );
+                }
+            }
+        } );
+
+        return ret.toString();
+    }
+
+    public String getLink( String text, Project fallback, Map<String, LinkProvider> providers )
+    {
+        if ( text == null )
+        {
+            return null;
+        }
+
+        int pos = text.indexOf( ':' );
+        if ( pos == -1 )
+        {
+            return null;
+        }
+
+        String module = text.substring( 0, pos ).toLowerCase();
+        String name = text.substring( pos + 1 );
+
+        if ( module.equals( "wiki" ) )
+        {
+            module = "doc";
+        }
+
+        LinkProvider provider = providers.get( module );
+        if ( provider == null )
+        {
+            return null;
+        }
+
+        pos = name.indexOf( ':' );
+        if ( pos != -1 )
+        {
+            Project project = getProject( name.substring( 0, pos ) );
+            if ( project != null )
+            {
+                fallback = project;
+            }
+
+            name = name.substring( pos + 1 );
+        }
+        return provider.getLink( name, fallback );
+    }
+
+    /**
+     * Look up a project named in a link. Ids that are not projects are answered from memory.
+     *
+     * @return the project with the given id or null if there is no such project
+     */
+    public Project getProject( String id )
+    {
+        if ( id == null || !getProjectIds().contains( id ) )
+        {
+            return null;
+        }
+
+        return loadProject( id );
+    }
+
+    protected Set<String> getProjectIds()
+    {
+        Set<String> ids = projectIds;
+        if ( ids == null )
+        {
+            ids = loadProjectIds();
+            projectIds = ids;
+        }
+
+        return ids;
+    }
+
+    protected Set<String> loadProjectIds()
+    {
+        Set<String> ids = new HashSet<String>();
+        ids.add( Project.ALL_PROJECT_ID );
+        for ( Project project : Manager.getStorageInstance().getProjects() )
+        {
+            ids.add( project.getId() );
+        }
+
+        return ids;
+    }
+
+    protected Project loadProject( String id )
+    {
+        return Manager.getStorageInstance().getProject( id );
+    }
+
+    private void projectsChanged()
+    {
+        projectIds = null;
+        synchronized ( markedUp )
+        {
+            markedUp.clear();
+        }
+    }
+
+    public void projectAdded( Project project )
+    {
+        projectsChanged();
+    }
+
+    public void projectModified( Project project )
+    {
+        // ignore, unless we support changing id...
+    }
+
+    public void projectFileModified( Project project, String path, File file )
+    {
+        // ignore
+    }
+
+    public void projectRemoved( Project project )
+    {
+        projectsChanged();
+    }
+
+    public void backupImported( BackupManifest manifest )
+    {
+        projectsChanged();
+    }
+
+    static void encode( char[] chars, int start, int end, StringBuilder out )
+    {
+        for ( int i = start; i < end; i++ )
+        {
+            char c = chars[i];
+            switch ( c )
+            {
+                case '&':
+                    out.append( "&amp;" );
+                    break;
+                case '<':
+                    out.append( "&lt;" );
+                    break;
+                case '>':
+                    out.append( "&gt;" );
+                    break;
+                case '"':
+                    out.append( "&quot;" );
+                    break;
+                case '\n':
+                    out.append( "<br />" );
+                    break;
+                default:
+                    out.append( c );
+            }
+        }
+    }
+
+    static class MarkUpKey
+    {
+        private String text, projectId;
+        private int hash;
+
+        MarkUpKey( String text, Project project )
+        {
+            this.text = text;
+            this.projectId = project == null ? null : project.getId();
+
+            hash = text.hashCode() * 31 + ( projectId == null ? 0 : projectId.hashCode() );
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals( Object o )
+        {
+            if ( !( o instanceof MarkUpKey ) )
+            {
+                return false;
+            }
+
+            MarkUpKey key = (MarkUpKey) o;
+            return hash == key.hash && text.equals( key.text ) &&
+                    ( projectId == null ? key.projectId == null : projectId.equals( key.projectId ) );
+        }
+    }
+}
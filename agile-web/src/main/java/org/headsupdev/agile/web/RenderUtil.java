@@ -18,7 +18,8 @@
 
 package org.headsupdev.agile.web;
 
-import org.headsupdev.agile.storage.StorageThread;
+import org.headsupdev.agile.storage.EventBodyCache;
+import org.headsupdev.agile.storage.HibernateStorage;
 import org.apache.wicket.util.tester.BaseWicketTester;
 import org.apache.wicket.util.tester.ITestPageSource;
 import org.apache.wicket.markup.html.panel.Panel;
@@ -31,12 +32,21 @@ import org.apache.wicket.protocol.http.WebRequest;
 import org.apache.wicket.protocol.http.HttpSessionStore;
 
 import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.web.wicket.HeadsUpPageRequestTargetUrlCodingStrategy;
 
 /**
- * TODO document me
+ * Render a panel to html outside of a web request, used for event bodies and emails.
+ * Rendering is done by a small pool of worker threads, each keeping its own offline application.
  *
  * @author Andrew Williams
  * @since 1.0
@@ -45,7 +55,21 @@ public abstract class RenderUtil
     implements Serializable
 {
     public static final String PANEL_ID = "testpanel";
+
+    private static final int RENDER_THREADS = 2;
+    private static final int RENDERS_PER_APPLICATION = 200;
+
     private static IClassResolver resolver;
+    private static ExecutorService renderers;
+
+    private static final ThreadLocal<RenderEngine> engine = new ThreadLocal<RenderEngine>()
+    {
+        @Override
+        protected RenderEngine initialValue()
+        {
+            return new RenderEngine();
+        }
+    };
 
     public static void setClassResolver( IClassResolver resolver )
     {
@@ -59,58 +83,99 @@ public abstract class RenderUtil
 
     public String getRenderedContent()
     {
-        final StringBuilder out = new StringBuilder();
-        final Object wait = new Serializable(){};
-
-        new StorageThread() {
-            public void runWithSession() {
-                try
+        String content;
+        try
+        {
+            content = waitFor( getRenderers().submit( new Callable<String>()
+            {
+                public String call()
+                    throws Exception
                 {
-                    BaseWicketTester tester = new BaseWicketTester( new TestApplication() );
-                    tester.getApplication().getMarkupSettings().setStripWicketTags( true );
-
-                    tester.startPage( new ITestPageSource()
+                    try
                     {
-                        public Page getTestPage()
-                        {
-                            return new TestPage( getPanel() );
-                        }
-                    });
+                        return render();
+                    }
+                    finally
+                    {
+                        ( (HibernateStorage) Manager.getStorageInstance() ).closeSession();
+                    }
+                }
+            } ) );
+        }
+        catch ( Exception e )
+        {
+            Manager.getLogger( getClass().getName() ).error( "Error rendering content", e );
+            EventBodyCache.renderFailed();
 
-                    out.append( tester.getServletResponse().getDocument() );
+            return "<p>Error rendering content - " + e.getMessage() + "</p>";
+        }
+
+        return content.replaceAll( "\"resources/", "\"/resources/" );
+    }
+
+    private String render()
+    {
+        return engine.get().render( new ITestPageSource()
+        {
+            public Page getTestPage()
+            {
+                return new TestPage( getPanel() );
+            }
+        } );
+    }
+
+    private static String waitFor( Future<String> result )
+        throws Exception
+    {
+        boolean interrupted = false;
+        try
+        {
+            while ( true )
+            {
+                try
+                {
+                    return result.get();
                 }
-                catch ( Exception e )
+                catch ( InterruptedException e )
                 {
-                    out.append( "<p>Error rendering content - " );
-                    out.append( e.getMessage() );
-                    out.append( "</p>" );
+                    // the render will complete - just try again
+                    interrupted = true;
                 }
-                finally
+                catch ( ExecutionException e )
                 {
-                    synchronized( wait )
+                    if ( e.getCause() instanceof Exception )
                     {
-                        wait.notifyAll();
+                        throw (Exception) e.getCause();
                     }
+                    throw e;
                 }
             }
-        }.start();
+        }
+        finally
+        {
+            if ( interrupted )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
-        while ( out.length() == 0 )
+    private static synchronized ExecutorService getRenderers()
+    {
+        if ( renderers == null )
         {
-            try
+            renderers = Executors.newFixedThreadPool( RENDER_THREADS, new ThreadFactory()
             {
-                synchronized( wait )
+                private int count = 0;
+
+                public synchronized Thread newThread( Runnable runnable )
                 {
-                    wait.wait();
+                    return new RenderThread( runnable, "render-" + ( ++count ) );
                 }
-            }
-            catch ( InterruptedException e )
-            {
-                // got the content - if not just try again
-            }
+            } );
         }
 
-        return out.toString().replaceAll( "\"resources/", "\"/resources/" );
+        return renderers;
     }
 
     public abstract Panel getPanel();
@@ -123,6 +188,57 @@ public abstract class RenderUtil
         }
     }
 
+    static class RenderThread
+        extends Thread
+    {
+        RenderThread( Runnable runnable, String name )
+        {
+            super( runnable, name );
+            setDaemon( true );
+        }
+    }
+
+    /**
+     * The offline application used for rendering on one thread. It is replaced when applications are added or removed
+     * and after a number of renders so the pages kept in its session do not grow without limit.
+     */
+    static class RenderEngine
+    {
+        private BaseWicketTester tester;
+        private Set<String> mountPaths;
+        private int renders;
+
+        String render( ITestPageSource source )
+        {
+            Set<String> currentPaths = new HashSet<String>( ApplicationPageMapper.get().getMountPaths() );
+            if ( tester == null || renders >= RENDERS_PER_APPLICATION || !currentPaths.equals( mountPaths ) )
+            {
+                if ( tester != null )
+                {
+                    tester.destroy();
+                }
+
+                tester = new BaseWicketTester( new TestApplication() );
+                tester.getApplication().getMarkupSettings().setStripWicketTags( true );
+                mountPaths = currentPaths;
+                renders = 0;
+            }
+
+            renders++;
+            try
+            {
+                tester.startPage( source );
+            }
+            catch ( RuntimeException e )
+            {
+                // start again with a clean application next time
+                renders = RENDERS_PER_APPLICATION;
+                throw e;
+            }
+            return tester.getServletResponse().getDocument();
+        }
+    }
+
     static class TestApplication
         extends WebApplication
         implements Serializable        
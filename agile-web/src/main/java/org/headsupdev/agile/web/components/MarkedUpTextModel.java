@@ -20,11 +20,10 @@ package org.headsupdev.agile.web.components;
 
 import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.api.LinkProvider;
-import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.web.LinkResolver;
 import org.apache.wicket.model.Model;
 
 import java.util.Map;
-import java.util.StringTokenizer;
 
 /**
  * A text based model that marksup wiki style links in the text, such as doc:MyPage and change:25.
@@ -55,89 +54,11 @@ public class MarkedUpTextModel extends Model<String> {
 
     public static String markUp( String in, Project project )
     {
-        if ( in == null )
-        {
-            return null;
-        }
-
-        StringBuilder ret = new StringBuilder( in.length() );
-        StringTokenizer tokenizer = new StringTokenizer( in, " \t\n\r\f<>(){}&.,!?;", true );
-
-        Map<String, LinkProvider> providers = Manager.getInstance().getLinkProviders();
-        while ( tokenizer.hasMoreTokens() )
-        {
-            String next = tokenizer.nextToken();
-
-            if ( next.indexOf( ':' ) != -1 )
-            {
-                String link = getLink( next, project, providers );
-                if ( link == null )
-                {
-                    ret.append( encode( next ) );
-                }
-                else
-                {
-                    ret.append( "<a href=\"" );
-                    ret.append( link );
-                    ret.append( "\">" );
-                    ret.append( encode( next ) );
-                    ret.append( "</a>" );
-                }
-            }
-            else
-            {
-                ret.append( encode( next ) );
-            }
-        }
-
-        return ret.toString();
+        return LinkResolver.getInstance().markUp( in, project );
     }
 
     public static String getLink( String text, Project fallback, Map<String, LinkProvider> providers )
     {
-        if ( text == null )
-        {
-            return null;
-        }
-
-        int pos = text.indexOf( ':' );
-        if ( pos == -1 )
-        {
-            return null;
-        }
-
-        String module = text.substring( 0, pos ).toLowerCase();
-        String name = text.substring( pos + 1 );
-
-        if ( module.equals( "wiki" ) )
-        {
-            module = "doc";
-        }
-
-        if ( providers.containsKey( module ) )
-        {
-            pos = name.indexOf( ":" );
-            if ( pos != -1 )
-            {
-                String projectId = name.substring( 0, pos );
-                Project project = Manager.getStorageInstance().getProject( projectId );
-                if ( project != null )
-                {
-                    fallback = project;
-                }
-
-                name = name.substring( pos + 1 );
-            }
-            return providers.get( module ).getLink( name, fallback );
-        }
-
-        return null;
-    }
-
-    // TODO find the wicket encoding and use that instead - else centralise this...
-    private static String encode( String in )
-    {
-        String out = in.replaceAll( "&",  "&amp;" ).replaceAll( "<", "&lt;" ).replaceAll( ">", "&gt;" );
-        return out.replaceAll( "\"", "&quot;" ).replaceAll( "\n", "<br />" );
+        return LinkResolver.getInstance().getLink( text, fallback, providers );
     }
 }
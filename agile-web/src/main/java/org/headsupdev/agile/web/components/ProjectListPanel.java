@@ -18,7 +18,7 @@
 
 package org.headsupdev.agile.web.components;
 
-import org.headsupdev.agile.storage.HibernateUtil;
+import org.headsupdev.agile.storage.ProjectHierarchy;
 import org.apache.wicket.markup.html.panel.Panel;
 import org.apache.wicket.markup.html.list.ListItem;
 import org.apache.wicket.markup.html.list.ListView;
@@ -27,12 +27,13 @@ import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.apache.wicket.PageParameters;
 import org.apache.wicket.AttributeModifier;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.model.Model;
 import org.headsupdev.agile.api.Project;
 
-import java.util.List;
-import java.util.LinkedList;
 import java.util.Collections;
+import java.util.List;
 
 /**
  * Panel to display a tree of the projects loaded
@@ -44,16 +45,42 @@ import java.util.Collections;
 public class ProjectListPanel
     extends Panel
 {
-    public ProjectListPanel( String id, final List<Project> projects, final Class pageClass, final Project current )
+    public ProjectListPanel( String id, final Class pageClass, final Project current )
+    {
+        this( id, Project.ALL_PROJECT_ID, pageClass, current );
+    }
+
+    /**
+     * List the children of a project, read from the ProjectHierarchy so no projects are loaded.
+     */
+    protected ProjectListPanel( String id, final String parentId, final Class pageClass, final Project current )
     {
         super( id );
-        Collections.sort( projects );
 
-        add( new ListView<Project>( "projectlinks", projects ) {
-            protected void populateItem( ListItem<Project> listItem )
+        IModel<List<ProjectHierarchy.Node>> children = new LoadableDetachableModel<List<ProjectHierarchy.Node>>()
+        {
+            protected List<ProjectHierarchy.Node> load()
+            {
+                ProjectHierarchy hierarchy = ProjectHierarchy.get();
+                if ( Project.ALL_PROJECT_ID.equals( parentId ) )
+                {
+                    return hierarchy.getRoots( false );
+                }
+
+                ProjectHierarchy.Node parent = hierarchy.getNode( parentId );
+                if ( parent == null )
+                {
+                    return Collections.emptyList();
+                }
+                return parent.getChildren();
+            }
+        };
+
+        add( new ListView<ProjectHierarchy.Node>( "projectlinks", children ) {
+            protected void populateItem( ListItem<ProjectHierarchy.Node> listItem )
             {
-                final Project project = (Project) HibernateUtil.getCurrentSession().load(
-                        listItem.getModelObject().getClass(), listItem.getModelObject().getId() );
+                final ProjectHierarchy.Node project = listItem.getModelObject();
+                final boolean selected = current != null && project.getId().equals( current.getId() );
 
                 PageParameters params = new PageParameters();
                 params.add( "project", project.getId() );
@@ -63,7 +90,7 @@ public class ProjectListPanel
                 projectlink.add( new AttributeModifier( "class", new Model<String>() {
                     public String getObject()
                     {
-                        if ( project.equals( current ) )
+                        if ( selected )
                         {
                             return "selected";
                         }
@@ -73,34 +100,19 @@ public class ProjectListPanel
                 } ) );
                 listItem.add( projectlink );
 
-                if ( project.getChildProjects().isEmpty() )
+                boolean show = false;
+                if ( !project.getChildren().isEmpty() && current != null )
                 {
-                    listItem.add( new WebMarkupContainer( "subprojects" ).setVisible( false ) );
+                    show = project.contains( ProjectHierarchy.get().getNode( current.getId() ) );
+                }
+
+                if ( show )
+                {
+                    listItem.add( new ProjectListPanel( "subprojects", project.getId(), pageClass, current ) );
                 }
                 else
                 {
-                    boolean show = false;
-                    Project traverse = current;
-                    while ( traverse != null )
-                    {
-                        if ( traverse.equals( project ) )
-                        {
-                            show = true;
-                            break;
-                        }
-
-                        traverse = traverse.getParent();
-                    }
-
-                    if ( show )
-                    {
-                        List<Project> children = new LinkedList<Project>( project.getChildProjects() );
-                        listItem.add( new ProjectListPanel( "subprojects", children, pageClass, current ) );
-                    }
-                    else
-                    {
-                        listItem.add( new WebMarkupContainer( "subprojects" ).setVisible( false ) );
-                    }
+                    listItem.add( new WebMarkupContainer( "subprojects" ).setVisible( false ) );
                 }
             }
         } );
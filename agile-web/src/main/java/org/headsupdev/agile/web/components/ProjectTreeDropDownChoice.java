@@ -21,13 +21,14 @@ package org.headsupdev.agile.web.components;
 import org.apache.wicket.markup.html.form.ChoiceRenderer;
 import org.apache.wicket.markup.html.form.DropDownChoice;
 import org.apache.wicket.model.IModel;
-import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.storage.ProjectHierarchy;
 import org.headsupdev.agile.storage.StoredProject;
 import org.apache.wicket.util.string.Strings;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Simple dropdown that lists projects but uses projectIds as the value.
@@ -55,10 +56,14 @@ public class ProjectTreeDropDownChoice
         setEscapeModelStrings( false );
 
         List<Project> tree = new LinkedList<Project>();
-        for ( Project project : Manager.getStorageInstance().getRootProjects( withDisabled ) )
+        Map<String, Project> projects = ProjectHierarchy.loadProjects();
+        for ( ProjectHierarchy.Node node : ProjectHierarchy.get().getTree( Project.ALL_PROJECT_ID, withDisabled ) )
         {
-            tree.add( project );
-            addChildIds( tree, project );
+            Project project = projects.get( node.getId() );
+            if ( project != null )
+            {
+                tree.add( project );
+            }
         }
         if ( showDefault )
         {
@@ -71,11 +76,10 @@ public class ProjectTreeDropDownChoice
             public Object getDisplayValue( Project project )
             {
                 StringBuilder name = new StringBuilder();
-                Project parent = project.getParent();
-                while ( parent != null )
+                ProjectHierarchy.Node node = ProjectHierarchy.get().getNode( project.getId() );
+                for ( int depth = node == null ? 0 : node.getDepth(); depth > 0; depth-- )
                 {
                     name.append( "&#160;&#160;&#160;" );
-                    parent = parent.getParent();
                 }
                 name.append(Strings.escapeMarkup( project.getAlias() ) );
 
@@ -84,14 +88,4 @@ public class ProjectTreeDropDownChoice
         } );
         setModel( model );
     }
-
-    private void addChildIds( List<Project> tree, Project parent )
-    {
-        for ( Project project : parent.getChildProjects() )
-        {
-            tree.add( project );
-
-            addChildIds( tree, project );
-        }
-    }
 }
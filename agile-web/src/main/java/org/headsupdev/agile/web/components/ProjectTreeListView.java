@@ -23,15 +23,16 @@ import org.apache.wicket.markup.html.basic.Label;
 
 import java.util.List;
 import java.util.LinkedList;
-import java.util.Collections;
+import java.util.Map;
 import java.io.Serializable;
 
 import org.headsupdev.agile.api.Project;
-import org.headsupdev.agile.api.Manager;
+import org.headsupdev.agile.storage.ProjectHierarchy;
 import org.headsupdev.agile.storage.StoredProject;
 
 /**
- * TODO document me
+ * A list of projects in tree order, each indented below its parent. The tree is read from the ProjectHierarchy and
+ * the projects loaded in a single query.
  *
  * @author Andrew Williams
  * @since 1.0
@@ -75,37 +76,26 @@ public abstract class ProjectTreeListView extends StripedListView<ProjectTreeNod
     private static List<ProjectTreeNode> getTreeModel( Project project )
     {
         List<ProjectTreeNode> list = new LinkedList<ProjectTreeNode>();
-
-        List<Project> childProjects;
-        if ( project.equals( StoredProject.getDefault() ) )
-        {
-            childProjects = Manager.getStorageInstance().getRootProjects();
-        }
-        else
+        List<ProjectHierarchy.Node> nodes = ProjectHierarchy.get().getTree( project.getId(), false );
+        if ( nodes.isEmpty() )
         {
-            childProjects = new LinkedList<Project>( project.getChildProjects() );
+            return list;
         }
-        Collections.sort( childProjects );
 
-        for ( Project child : childProjects )
+        // the first node is a direct child so it is not indented
+        int baseDepth = nodes.get( 0 ).getDepth();
+        Map<String, Project> projects = ProjectHierarchy.loadProjects();
+        for ( ProjectHierarchy.Node node : nodes )
         {
-            addProject( child, list, 0 );
+            Project child = projects.get( node.getId() );
+            if ( child != null )
+            {
+                list.add( new ProjectTreeNode( child, node.getDepth() - baseDepth ) );
+            }
         }
 
         return list;
     }
-
-    private static void addProject( Project project, List<ProjectTreeNode> list, int indent )
-    {
-        list.add( new ProjectTreeNode( project, indent ) );
-
-        List<Project> childProjects = new LinkedList<Project>( project.getChildProjects() );
-        Collections.sort( childProjects );
-        for ( Project child : childProjects )
-        {
-            addProject( child, list, indent + 1 );
-        }
-    }
 }
 
 class ProjectTreeNode implements Serializable
@@ -18,7 +18,6 @@
 
 package org.headsupdev.agile.web.components.issues;
 
-import org.headsupdev.agile.storage.StoredProject;
 import org.headsupdev.agile.storage.issues.Duration;
 import org.headsupdev.agile.storage.issues.Issue;
 import org.apache.wicket.model.Model;
@@ -34,17 +33,23 @@ public class IssueHoursRemainingModel
     extends Model<String>
 {
     private Issue issue;
+    private TimeTrackingSettings settings;
 
     public IssueHoursRemainingModel( Issue issue )
+    {
+        this( issue, new TimeTrackingSettings() );
+    }
+
+    public IssueHoursRemainingModel( Issue issue, TimeTrackingSettings settings )
     {
         this.issue = issue;
+        this.settings = settings;
     }
 
     @Override
     public String getObject()
     {
-        final boolean timeBurndown = Boolean.parseBoolean( issue.getProject().getConfigurationValue(
-                StoredProject.CONFIGURATION_TIMETRACKING_BURNDOWN ) );
+        final boolean timeBurndown = settings.isBurndown( issue.getProject() );
 
         double hoursRemaining = 0;
         if ( timeBurndown )
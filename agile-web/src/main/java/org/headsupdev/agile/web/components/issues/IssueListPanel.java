@@ -18,8 +18,8 @@
 
 package org.headsupdev.agile.web.components.issues;
 
-import org.headsupdev.agile.storage.StoredProject;
 import org.headsupdev.agile.web.components.StripedDataView;
+import org.headsupdev.agile.web.wicket.SortableEntityProvider;
 import org.headsupdev.agile.web.wicket.StyledPagingNavigator;
 import org.apache.wicket.AttributeModifier;
 import org.apache.wicket.extensions.markup.html.repeater.util.SortableDataProvider;
@@ -48,6 +48,7 @@ public class IssueListPanel extends Panel
 {
     private static final int ITEMS_PER_PAGE = 25;
     private StyledPagingNavigator pagingHeader, pagingFooter;
+    private TimeTrackingSettings settings = new TimeTrackingSettings();
 
     public IssueListPanel( String id, final SortableDataProvider<Issue> issues, final HeadsUpPage page, final boolean hideProject,
                            final boolean hideMilestone )
@@ -55,8 +56,7 @@ public class IssueListPanel extends Panel
         super( id );
         add( CSSPackageResource.getHeaderContribution( getClass(), "issue.css" ) );
 
-        final boolean timeEnabled = Boolean.parseBoolean( page.getProject().getConfigurationValue(
-                StoredProject.CONFIGURATION_TIMETRACKING_ENABLED ) );
+        final boolean timeEnabled = settings.isEnabled( page.getProject() );
 
         add( new WebMarkupContainer( "hours-header" ).setVisible( timeEnabled ) );
         final DataView dataView = new StripedDataView<Issue>( "issues", issues, ITEMS_PER_PAGE )
@@ -66,7 +66,7 @@ public class IssueListPanel extends Panel
                 super.populateItem( item );
                 Issue issue = item.getModelObject();
 
-                item.add( new IssuePanelRow( "issue", issue, page, hideProject, hideMilestone, false ) );
+                item.add( new IssuePanelRow( "issue", issue, page, hideProject, hideMilestone, false, settings ) );
             }
         };
         add( dataView );
@@ -143,7 +143,25 @@ public class IssueListPanel extends Panel
         }.setVisible( issues.size() > ITEMS_PER_PAGE ) );
 
         totalRow.add( new WebMarkupContainer( "requiredlabel" ).setVisible( timeEnabled ) );
-        totalRow.add( new Label( "hours", new IssueTotalHoursModel( (Iterator<Issue>) issues.iterator( 0, issues.size() ),
-                page.getProject() ) ).setVisible( timeEnabled ) );
+        IssueTotalHoursModel totalModel;
+        if ( issues instanceof SortableEntityProvider )
+        {
+            totalModel = new IssueTotalHoursModel( (SortableEntityProvider<Issue>) issues, page.getProject(), settings );
+        }
+        else
+        {
+            totalModel = new IssueTotalHoursModel( (Iterator<Issue>) issues.iterator( 0, issues.size() ),
+                    page.getProject() );
+        }
+        totalRow.add( new Label( "hours", totalModel ).setVisible( timeEnabled ) );
+    }
+
+    @Override
+    protected void onBeforeRender()
+    {
+        // look up project configuration again for each render
+        settings.clear();
+
+        super.onBeforeRender();
     }
 }
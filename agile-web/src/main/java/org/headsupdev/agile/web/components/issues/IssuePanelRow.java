@@ -22,7 +22,6 @@ package org.headsupdev.agile.web.components.issues;
 import org.headsupdev.agile.api.Manager;
 import org.headsupdev.agile.api.Page;
 import org.headsupdev.agile.storage.HibernateStorage;
-import org.headsupdev.agile.storage.StoredProject;
 import org.headsupdev.agile.storage.issues.DurationWorked;
 import org.headsupdev.agile.storage.issues.Issue;
 import org.headsupdev.agile.storage.issues.Milestone;
@@ -52,16 +51,20 @@ public class IssuePanelRow
 {
     public IssuePanelRow( String id, Issue issue, final HeadsUpPage page, final boolean hideProject,
                           final boolean hideMilestone, boolean hideAssignee )
+    {
+        this( id, issue, page, hideProject, hideMilestone, hideAssignee, new TimeTrackingSettings() );
+    }
+
+    public IssuePanelRow( String id, Issue issue, final HeadsUpPage page, final boolean hideProject,
+                          final boolean hideMilestone, boolean hideAssignee, TimeTrackingSettings settings )
     {
         super( id );
         issue = (Issue) ((HibernateStorage) Manager.getStorageInstance() ).getHibernateSession().load( Issue.class,
             issue.getInternalId() );
         add( CSSPackageResource.getHeaderContribution( getClass(), "issue.css" ) );
 
-        final boolean timeEnabled = Boolean.parseBoolean( page.getProject().getConfigurationValue(
-                StoredProject.CONFIGURATION_TIMETRACKING_ENABLED ) );
-        final boolean burndown = Boolean.parseBoolean( page.getProject().getConfigurationValue(
-                StoredProject.CONFIGURATION_TIMETRACKING_BURNDOWN ) );
+        final boolean timeEnabled = settings.isEnabled( page.getProject() );
+        final boolean burndown = settings.isBurndown( page.getProject() );
 
         PageParameters params = new PageParameters();
         params.add( "project", issue.getProject().getId() );
@@ -255,7 +258,7 @@ public class IssuePanelRow
         add(cell.setVisible(!hideMilestone));
 
         cell = new WebMarkupContainer( "hours-cell" );
-        cell.add( new Label( "hours", new IssueHoursRemainingModel( issue ) ) );
+        cell.add( new Label( "hours", new IssueHoursRemainingModel( issue, settings ) ) );
         add( cell.setVisible( timeEnabled ) );
     }
 }
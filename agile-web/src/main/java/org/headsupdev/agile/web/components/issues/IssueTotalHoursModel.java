@@ -22,7 +22,12 @@ import org.headsupdev.agile.api.Project;
 import org.headsupdev.agile.storage.StoredProject;
 import org.headsupdev.agile.storage.issues.Duration;
 import org.headsupdev.agile.storage.issues.Issue;
+import org.headsupdev.agile.web.wicket.SortableEntityProvider;
 import org.apache.wicket.model.Model;
+import org.hibernate.Hibernate;
+import org.hibernate.criterion.Projection;
+import org.hibernate.criterion.Projections;
+import org.hibernate.type.Type;
 
 import java.util.Iterator;
 import java.util.List;
@@ -39,6 +44,8 @@ public class IssueTotalHoursModel
 {
     private Project root;
     private double totalHours;
+    private SortableEntityProvider<Issue> provider;
+    private TimeTrackingSettings settings;
 
     public IssueTotalHoursModel( List<Issue> issues, Project root )
     {
@@ -54,12 +61,64 @@ public class IssueTotalHoursModel
         calculateHours( issues );
     }
     
+    /**
+     * Create a model that totals all of the issues matched by the provider in the database each time it is rendered.
+     */
+    public IssueTotalHoursModel( SortableEntityProvider<Issue> provider, Project root, TimeTrackingSettings settings )
+    {
+        this.provider = provider;
+        this.root = root;
+        this.settings = settings;
+    }
+
     @Override
     public String getObject()
     {
+        if ( provider != null )
+        {
+            Number total = (Number) provider.getAggregate( getTotalProjection( settings.isBurndown( root ) ) );
+            totalHours = total == null ? 0 : total.doubleValue();
+        }
+
         return new Duration( totalHours ).toString();
     }
 
+    /**
+     * A projection that adds up the hours remaining for issues, matching the calculation in IssueHoursRemainingModel.
+     */
+    static Projection getTotalProjection( boolean timeBurndown )
+    {
+        String estimate = getHoursSql( "hoursEstimate" );
+        String required = getHoursSql( "hoursRequired" );
+        String hasRequired = "({alias}.hoursRequired is not null or {alias}.hoursRequiredUnit is not null)";
+
+        String sum;
+        if ( timeBurndown )
+        {
+            sum = "sum(case when " + hasRequired + " then " + required + " else " + estimate + " end)";
+        }
+        else
+        {
+            sum = "sum(case when " + hasRequired + " and " + estimate + " > " + required + " then " + estimate +
+                    " - " + required + " else 0 end)";
+        }
+
+        return Projections.sqlProjection( sum + " as totalHours", new String[]{ "totalHours" },
+                new Type[]{ Hibernate.DOUBLE } );
+    }
+
+    private static String getHoursSql( String column )
+    {
+        String time = "coalesce({alias}." + column + ", 0)";
+
+        return "(case lower({alias}." + column + "Unit)" +
+                " when '" + Duration.UNIT_MINUTES + "' then " + time + " / " + Duration.MINUTE_UNITS_IN_HOUR + ".0" +
+                " when '" + Duration.UNIT_DAYS + "' then " + time + " * " + Duration.HOUR_UNITS_IN_DAY +
+                " when '" + Duration.UNIT_WEEKS + "' then " + time + " * " +
+                ( Duration.HOUR_UNITS_IN_DAY * Duration.DAY_UNITS_IN_WEEK ) +
+                " else " + time + " end)";
+    }
+
     private void calculateHours( Iterator<Issue> issues )
     {
         final boolean timeBurndown = Boolean.parseBoolean( root.getConfigurationValue(
@@ -88,7 +147,7 @@ public class IssueTotalHoursModel
                 double hoursEstimate = 0;
                 if ( issue.getTimeEstimate() != null )
                 {
-                    issue.getTimeEstimate().getHours();
+                    hoursEstimate = issue.getTimeEstimate().getHours();
                 }
                 if ( issue.getTimeRequired() != null )
                 {
@@ -0,0 +1,73 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.web.components.issues;
+
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.storage.StoredProject;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The time tracking configuration of projects, looked up once and shared by all the rows of an issue list.
+ * Call clear() at the start of each render so configuration changes are picked up.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class TimeTrackingSettings
+    implements Serializable
+{
+    private Map<String, Boolean> enabled = new HashMap<String, Boolean>();
+    private Map<String, Boolean> burndown = new HashMap<String, Boolean>();
+
+    public boolean isEnabled( Project project )
+    {
+        Boolean ret = enabled.get( project.getId() );
+        if ( ret == null )
+        {
+            ret = Boolean.parseBoolean( project.getConfigurationValue(
+                StoredProject.CONFIGURATION_TIMETRACKING_ENABLED ) );
+            enabled.put( project.getId(), ret );
+        }
+
+        return ret;
+    }
+
+    public boolean isBurndown( Project project )
+    {
+        Boolean ret = burndown.get( project.getId() );
+        if ( ret == null )
+        {
+            ret = Boolean.parseBoolean( project.getConfigurationValue(
+                StoredProject.CONFIGURATION_TIMETRACKING_BURNDOWN ) );
+            burndown.put( project.getId(), ret );
+        }
+
+        return ret;
+    }
+
+    public void clear()
+    {
+        enabled.clear();
+        burndown.clear();
+    }
+}
@@ -23,6 +23,7 @@ import org.apache.wicket.model.CompoundPropertyModel;
 import org.apache.wicket.model.IModel;
 import org.hibernate.Criteria;
 import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projection;
 import org.hibernate.criterion.Projections;
 
 import java.util.Iterator;
@@ -74,6 +75,19 @@ public abstract class SortableEntityProvider<T> extends SortableDataProvider<T>
         return ((Number) criteria.uniqueResult() ).intValue();
     }
 
+    /**
+     * Calculate an aggregate over all of the entities matched, in the database rather than by loading them.
+     *
+     * @param projection The aggregate projection to apply to the criteria for this provider
+     * @return the single result of the projection
+     */
+    public Object getAggregate( Projection projection )
+    {
+        Criteria criteria = createCriteria();
+        criteria.setProjection( projection );
+        return criteria.uniqueResult();
+    }
+
     public String getCountProperty()
     {
         return "id.id";
@@ -0,0 +1,136 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.web;
+
+import junit.framework.TestCase;
+import org.headsupdev.agile.api.LinkProvider;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.storage.StoredProject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * Tests for the link tokenizer and markup of the link resolver.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class LinkResolverTest
+    extends TestCase
+{
+    private static final String COMMENT = "Fixes issue:12 & issue:other:4, see doc:Home (and wiki:Setup).\n" +
+        "Reverted change:25 <b>\"quoted\"</b>; url http://example.com:8080/path?x=1";
+
+    public void testTokenizeMatchesStringTokenizer()
+    {
+        final List<String> tokens = new ArrayList<String>();
+        LinkResolver.tokenize( COMMENT, new LinkResolver.TokenHandler()
+        {
+            public void token( char[] chars, int start, int end, boolean link )
+            {
+                String token = new String( chars, start, end - start );
+                assertEquals( token.indexOf( ':' ) != -1, link );
+                tokens.add( token );
+            }
+        } );
+
+        StringTokenizer expected = new StringTokenizer( COMMENT, LinkResolver.DELIMITERS, true );
+        for ( String token : tokens )
+        {
+            assertEquals( expected.nextToken(), token );
+        }
+        assertFalse( expected.hasMoreTokens() );
+    }
+
+    public void testMarkUp()
+    {
+        Project project = new StoredProject( "test", "Test" );
+        String out = new TestResolver().markUp( "issue:12 & issue:other:4 issue:none:5 foo:bar\n<b>",
+                project, getProviders() );
+
+        assertEquals( "<a href=\"/test/issues/view/id/12\">issue:12</a> &amp; " +
+                "<a href=\"/other/issues/view/id/4\">issue:other:4</a> " +
+                "<a href=\"/test/issues/view/id/5\">issue:none:5</a> foo:bar<br />&lt;b&gt;", out );
+    }
+
+    public void testUnknownProjectIsNotLoaded()
+    {
+        TestResolver resolver = new TestResolver();
+        assertNull( resolver.getProject( "none" ) );
+        assertEquals( 0, resolver.loads );
+
+        assertNotNull( resolver.getProject( "other" ) );
+        assertEquals( 1, resolver.loads );
+    }
+
+    static Map<String, LinkProvider> getProviders()
+    {
+        Map<String, LinkProvider> providers = new HashMap<String, LinkProvider>();
+        providers.put( "issue", new LinkProvider()
+        {
+            public String getId()
+            {
+                return "issue";
+            }
+
+            public String getPageName()
+            {
+                return "issues/view";
+            }
+
+            public String getParamName()
+            {
+                return "id";
+            }
+        } );
+
+        return providers;
+    }
+
+    static class TestResolver
+        extends LinkResolver
+    {
+        int loads = 0;
+
+        @Override
+        protected Set<String> loadProjectIds()
+        {
+            Set<String> ids = new HashSet<String>();
+            ids.add( "test" );
+            ids.add( "other" );
+            ids.add( "headsup" );
+            ids.add( "web" );
+            return ids;
+        }
+
+        @Override
+        protected Project loadProject( String id )
+        {
+            loads++;
+            return new StoredProject( id, id );
+        }
+    }
+}
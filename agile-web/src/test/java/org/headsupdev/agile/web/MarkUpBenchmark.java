@@ -0,0 +1,180 @@
+/*
+ * HeadsUp Agile
+ * Copyright 2009-2012 Heads Up Development Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.headsupdev.agile.web;
+
+import org.headsupdev.agile.api.LinkProvider;
+import org.headsupdev.agile.api.Project;
+import org.headsupdev.agile.storage.StoredProject;
+
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * A benchmark of marking up realistic commit messages - the previous StringTokenizer and regular expression encoding
+ * compared to the LinkResolver tokenizer, with and without the remembered markup.
+ * The old code also queried the database for every project named in a link, that cost is not included here but the
+ * number of lookups is reported for each approach.
+ * It is not run as part of the test suite, run the main method with an optional iteration count.
+ *
+ * @author Andrew Williams
+ * @version $Id$
+ * @since 2.0
+ */
+public class MarkUpBenchmark
+{
+    private static final String[] MESSAGES = {
+        "Fixes issue:142 - NPE when a milestone has no due date.\nAlso tidied up the burndown graph (see doc:Burndown).",
+        "Merge branch 'release-2.0' into master",
+        "issue:headsup:87 issue:headsup:88 updated the build to use the new api:agile-api:PluginManager, " +
+            "reverted change:1412 as it broke the ci:headsup:320 build!",
+        "Added <b>bold</b> & \"quoted\" support to the wiki renderer; closes issue:web:12 and issue:web:13.\n" +
+            "Tested against http://localhost:8080/agile/ and https://demo.example.com:8443/",
+        "Refactor the scm updater, no functional changes",
+        "Release 2.0.1 - milestone:headsup:2.0.1 complete. Thanks to everyone who reported issue:headsup:201, " +
+            "issue:headsup:203, issue:headsup:204 and issue:missing:9 (which was moved)."
+    };
+
+    private static int oldLookups = 0;
+
+    public static void main( String[] args )
+    {
+        int iterations = 200000;
+        if ( args.length > 0 )
+        {
+            iterations = Integer.parseInt( args[0] );
+        }
+
+        Project project = new StoredProject( "headsup", "HeadsUp" );
+        Map<String, LinkProvider> providers = LinkResolverTest.getProviders();
+        LinkResolverTest.TestResolver resolver = new LinkResolverTest.TestResolver();
+
+        // warm up
+        for ( int i = 0; i < iterations / 10; i++ )
+        {
+            for ( String message : MESSAGES )
+            {
+                oldMarkUp( message, project, providers );
+                resolver.render( message, project, providers );
+                resolver.markUp( message, project, providers );
+            }
+        }
+        oldLookups = 0;
+        resolver.loads = 0;
+
+        long start = System.currentTimeMillis();
+        for ( int i = 0; i < iterations; i++ )
+        {
+            for ( String message : MESSAGES )
+            {
+                oldMarkUp( message, project, providers );
+            }
+        }
+        System.out.println( "StringTokenizer: " + ( System.currentTimeMillis() - start ) + "ms, " + oldLookups +
+                " project lookups" );
+
+        start = System.currentTimeMillis();
+        for ( int i = 0; i < iterations; i++ )
+        {
+            for ( String message : MESSAGES )
+            {
+                resolver.render( message, project, providers );
+            }
+        }
+        System.out.println( "LinkResolver tokenizer: " + ( System.currentTimeMillis() - start ) + "ms, " +
+                resolver.loads + " project lookups" );
+
+        resolver.loads = 0;
+        start = System.currentTimeMillis();
+        for ( int i = 0; i < iterations; i++ )
+        {
+            for ( String message : MESSAGES )
+            {
+                resolver.markUp( message, project, providers );
+            }
+        }
+        System.out.println( "LinkResolver remembered: " + ( System.currentTimeMillis() - start ) + "ms, " +
+                resolver.loads + " project lookups" );
+    }
+
+    // the markup code as it was before LinkResolver, with the project query counted
+    private static String oldMarkUp( String in, Project project, Map<String, LinkProvider> providers )
+    {
+        StringBuilder ret = new StringBuilder( in.length() );
+        StringTokenizer tokenizer = new StringTokenizer( in, " \t\n\r\f<>(){}&.,!?;", true );
+
+        while ( tokenizer.hasMoreTokens() )
+        {
+            String next = tokenizer.nextToken();
+
+            if ( next.indexOf( ':' ) != -1 )
+            {
+                String link = oldGetLink( next, project, providers );
+                if ( link == null )
+                {
+                    ret.append( oldEncode( next ) );
+                }
+                else
+                {
+                    ret.append( "<a href=\"" );
+                    ret.append( link );
+                    ret.append( "\">" );
+                    ret.append( oldEncode( next ) );
+                    ret.append( "</a>" );
+                }
+            }
+            else
+            {
+                ret.append( oldEncode( next ) );
+            }
+        }
+
+        return ret.toString();
+    }
+
+    private static String oldGetLink( String text, Project fallback, Map<String, LinkProvider> providers )
+    {
+        int pos = text.indexOf( ':' );
+        String module = text.substring( 0, pos ).toLowerCase();
+        String name = text.substring( pos + 1 );
+
+        if ( module.equals( "wiki" ) )
+        {
+            module = "doc";
+        }
+
+        if ( providers.containsKey( module ) )
+        {
+            pos = name.indexOf( ":" );
+            if ( pos != -1 )
+            {
+                oldLookups++;
+                name = name.substring( pos + 1 );
+            }
+            return providers.get( module ).getLink( name, fallback );
+        }
+
+        return null;
+    }
+
+    private static String oldEncode( String in )
+    {
+        String out = in.replaceAll( "&",  "&amp;" ).replaceAll( "<", "&lt;" ).replaceAll( ">", "&gt;" );
+        return out.replaceAll( "\"", "&quot;" ).replaceAll( "\n", "<br />" );
+    }
+}